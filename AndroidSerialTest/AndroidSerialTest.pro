@@ -46,9 +46,36 @@ android {
         android/gradle.properties \
         android/gradle/wrapper/gradle-wrapper.properties \
         android/res/xml/device_filter.xml \
+        android/src/org/qtproject/example/CommandEngine.java \
         android/src/org/qtproject/example/SerialHelper.java \
+        android/src/org/qtproject/example/StreamReceiver.java \
+        android/src/org/qtproject/example/TimerWheel.java \
+        android/src/org/qtproject/jniusbserial/CaptureReplayPort.java \
+        android/src/org/qtproject/jniusbserial/CobsFramer.java \
+        android/src/org/qtproject/jniusbserial/ControlLineMonitor.java \
+        android/src/org/qtproject/jniusbserial/DelimiterFramer.java \
+        android/src/org/qtproject/jniusbserial/DeviceCatalog.java \
+        android/src/org/qtproject/jniusbserial/DirectBufferPool.java \
+        android/src/org/qtproject/jniusbserial/FixedLengthFramer.java \
+        android/src/org/qtproject/jniusbserial/Framer.java \
         android/src/org/qtproject/jniusbserial/JniUsbSerial.java \
-        android/src/org/qtproject/jniusbserial/SerialInputOutputManager.java
+        android/src/org/qtproject/jniusbserial/LengthPrefixFramer.java \
+        android/src/org/qtproject/jniusbserial/PortRegistry.java \
+        android/src/org/qtproject/jniusbserial/PortState.java \
+        android/src/org/qtproject/jniusbserial/PortStats.java \
+        android/src/org/qtproject/jniusbserial/QueuedReadEngine.java \
+        android/src/org/qtproject/jniusbserial/ReceiveRing.java \
+        android/src/org/qtproject/jniusbserial/SerialCapture.java \
+        android/src/org/qtproject/jniusbserial/SerialInputOutputManager.java \
+        android/src/org/qtproject/jniusbserial/SerialTrace.java \
+        android/src/org/qtproject/jniusbserial/SerialWriter.java \
+        android/src/org/qtproject/jniusbserial/SharedConnection.java \
+        android/src/org/qtproject/jniusbserial/SharedIoScheduler.java \
+        android/src/org/qtproject/jniusbserial/SimulatedSerialPort.java \
+        android/src/org/qtproject/jniusbserial/SlipFramer.java \
+        android/src/org/qtproject/jniusbserial/TransmitCoalescer.java \
+        android/src/org/qtproject/jniusbserial/WriteQueue.java \
+        android/src/org/qtproject/jniusbserial/WriteRequest.java
 
     # Ensure we're using the right Java version
     ANDROID_ABIS = arm64-v8a
@@ -0,0 +1,286 @@
+package org.qtproject.example;
+
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Pipelined request/response on top of a continuously read port. Commands are written as soon as a
+ * slot is free, without waiting for the previous response, and responses are assembled from the
+ * received stream up to a terminator.
+ *
+ * A response is matched to the oldest command still waiting, unless a {@link CorrelationExtractor} is
+ * set, which pairs them by id instead. Every command has its own deadline, kept in a {@link TimerWheel};
+ * with plain terminator matching a response arriving after its command timed out is taken for the
+ * next command's, so devices that may answer late should be used with an extractor.
+ */
+class CommandEngine implements SerialInputOutputManager.Listener, Runnable {
+
+    private static final String TAG = CommandEngine.class.getSimpleName();
+
+    /** id passed to {@link Callback#onResponse} for responses no command waited for */
+    static final long UNSOLICITED = 0;
+    /** returned by a {@link CorrelationExtractor} that finds no id */
+    static final long NO_ID = -1;
+
+    private static final int TICK_MILLIS = 10;
+    private static final int WHEEL_SLOTS = 512;
+
+    interface Callback {
+        void onResponse(long id, byte[] response);
+        void onTimeout(long id);
+        void onError(Exception e);
+    }
+
+    interface CorrelationExtractor {
+        long fromCommand(byte[] command);
+        long fromResponse(byte[] response);
+    }
+
+    private static class Command extends TimerWheel.Timer {
+        final long mId;
+        final long mKey;
+        boolean mTimedOut; // never got a slot
+
+        Command(long id, long key) {
+            mId = id;
+            mKey = key;
+        }
+    }
+
+    private final UsbSerialPort mPort;
+    private final byte[] mTerminator;
+    private final int mMaxInFlight;
+    private final Callback mCallback;
+    private final Object mWriteLock = new Object();
+    private final TimerWheel mWheel = new TimerWheel(TICK_MILLIS, WHEEL_SLOTS); // Synchronized by 'this'
+    private final ArrayDeque<Command> mPending = new ArrayDeque<>(); // Synchronized by 'this'
+    private final HashMap<Long, Command> mByKey = new HashMap<>(); // Synchronized by 'this'
+    private final TimerWheel.Timer[] mExpired; // timer thread only
+    private final byte[] mAssembly; // I/O thread only
+    private int mAssemblyLength; // I/O thread only
+    private boolean mDiscarding; // I/O thread only
+    private volatile CorrelationExtractor mExtractor;
+    private PortReader mReader; // Synchronized by 'this'
+    private long mNextId = UNSOLICITED + 1; // Synchronized by 'this'
+    private boolean mRunning; // Synchronized by 'this'
+
+    /**
+     * @param terminator       bytes ending every response, included in the delivered response
+     * @param maxInFlight      commands written but not yet answered or timed out
+     * @param maxResponseSize  longer responses are dropped up to their terminator
+     */
+    CommandEngine(UsbSerialPort port, byte[] terminator, int maxInFlight, int maxResponseSize, Callback callback) {
+        if (terminator == null || terminator.length == 0)
+            throw new IllegalArgumentException("terminator must not be empty");
+        if (maxInFlight <= 0 || maxResponseSize < terminator.length)
+            throw new IllegalArgumentException("maxInFlight and maxResponseSize too small");
+        mPort = port;
+        mTerminator = terminator.clone();
+        mMaxInFlight = maxInFlight;
+        mCallback = callback;
+        mExpired = new TimerWheel.Timer[maxInFlight];
+        mAssembly = new byte[maxResponseSize];
+    }
+
+    /**
+     * Match responses by id instead of by order, or by order again with null.
+     * Only change while no command is in flight.
+     */
+    void setCorrelationExtractor(CorrelationExtractor extractor) {
+        mExtractor = extractor;
+    }
+
+    void start() {
+        PortReader reader;
+        synchronized (this) {
+            if (mRunning)
+                throw new IllegalStateException("already started");
+            mRunning = true;
+            reader = PortReader.of(mPort);
+            mReader = reader;
+            new Thread(this, TAG).start();
+        }
+        reader.attach(this);
+    }
+
+    /**
+     * Stop receiving and forget the commands in flight without reporting them. Returns once the read
+     * being handled was matched; data read afterwards goes to the receiver attached next to the port's
+     * reader. Call before closing the port or starting another receiver on it.
+     */
+    void stop() {
+        PortReader reader;
+        synchronized (this) {
+            reader = mReader;
+            mReader = null;
+        }
+        if (reader != null)
+            reader.detach(this);
+        synchronized (this) {
+            mRunning = false;
+            while (!mPending.isEmpty()) {
+                mWheel.cancel(mPending.poll());
+            }
+            mByKey.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Write {@code command} and return its id, waiting for a free slot if {@code maxInFlight} commands
+     * are outstanding. The response or the timeout is reported to the {@link Callback}; waiting for a
+     * slot counts towards {@code timeoutMillis}.
+     */
+    long submit(byte[] command, int timeoutMillis) throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        CorrelationExtractor extractor = mExtractor;
+        long key = extractor != null ? extractor.fromCommand(command) : NO_ID;
+        Command entry;
+        // the write lock keeps the order of mPending equal to the order on the wire
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                while (mRunning && mPending.size() >= mMaxInFlight) {
+                    long left = (deadline - System.nanoTime()) / 1000000L;
+                    if (left <= 0)
+                        break;
+                    wait(left);
+                }
+                if (!mRunning)
+                    throw new IOException("Command engine is not running");
+                entry = new Command(mNextId++, key);
+                if (mPending.size() < mMaxInFlight) {
+                    mPending.add(entry);
+                    if (key != NO_ID)
+                        mByKey.put(key, entry);
+                    if (mWheel.isEmpty())
+                        notifyAll();
+                    mWheel.schedule(entry, (int) Math.max(1, (deadline - System.nanoTime()) / 1000000L));
+                } else {
+                    entry.mTimedOut = true;
+                }
+            }
+            if (!entry.mTimedOut) {
+                try {
+                    mPort.write(command, timeoutMillis);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        remove(entry);
+                    }
+                    throw e;
+                }
+            }
+        }
+        if (entry.mTimedOut)
+            mCallback.onTimeout(entry.mId);
+        return entry.mId;
+    }
+
+    private void remove(Command entry) {
+        mWheel.cancel(entry);
+        mPending.remove(entry);
+        if (entry.mKey != NO_ID && mByKey.get(entry.mKey) == entry)
+            mByKey.remove(entry.mKey);
+        notifyAll();
+    }
+
+    @Override
+    public void onNewData(byte[] data) {
+        final int last = mTerminator.length - 1;
+        for (byte b : data) {
+            if (mAssemblyLength == mAssembly.length) {
+                // keep only enough of the oversized response to spot its terminator
+                System.arraycopy(mAssembly, mAssemblyLength - last, mAssembly, 0, last);
+                mAssemblyLength = last;
+                mDiscarding = true;
+            }
+            mAssembly[mAssemblyLength++] = b;
+            if (b != mTerminator[last] || mAssemblyLength < mTerminator.length)
+                continue;
+            int start = mAssemblyLength - mTerminator.length;
+            boolean match = true;
+            for (int i = 0; i < last && match; i++) {
+                match = mAssembly[start + i] == mTerminator[i];
+            }
+            if (!match)
+                continue;
+            if (mDiscarding) {
+                Log.w(TAG, "Dropped response longer than " + mAssembly.length + " bytes");
+                mDiscarding = false;
+            } else {
+                dispatch(Arrays.copyOf(mAssembly, mAssemblyLength));
+            }
+            mAssemblyLength = 0;
+        }
+    }
+
+    private void dispatch(byte[] response) {
+        CorrelationExtractor extractor = mExtractor;
+        long id = UNSOLICITED;
+        synchronized (this) {
+            Command entry;
+            if (extractor != null) {
+                long key = extractor.fromResponse(response);
+                entry = key != NO_ID ? mByKey.get(key) : null;
+            } else {
+                entry = mPending.peek();
+            }
+            if (entry != null) {
+                remove(entry);
+                id = entry.mId;
+            }
+        }
+        mCallback.onResponse(id, response);
+    }
+
+    @Override
+    public void onRunError(Exception e) {
+        synchronized (this) {
+            if (!mRunning)
+                return;
+        }
+        mCallback.onError(e);
+    }
+
+    /**
+     * Timer thread: expires deadlines, sleeping while nothing is in flight.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            int count;
+            synchronized (this) {
+                while (mRunning && mWheel.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!mRunning)
+                    return;
+            }
+            try {
+                Thread.sleep(TICK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                count = mWheel.advance(mExpired);
+                for (int i = 0; i < count; i++) {
+                    remove((Command) mExpired[i]);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                mCallback.onTimeout(((Command) mExpired[i]).mId);
+                mExpired[i] = null;
+            }
+        }
+    }
+}
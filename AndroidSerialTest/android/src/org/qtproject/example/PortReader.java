@@ -0,0 +1,118 @@
+package org.qtproject.example;
+
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+
+import java.util.IdentityHashMap;
+
+/**
+ * The one reader of a port, shared by the receive modes of {@link SerialHelper}. It reads with the
+ * library's {@link SerialInputOutputManager} without timeout for as long as the port is open and passes
+ * every read to the receiver attached at that moment, so switching modes switches the receiver instead
+ * of the reader. Stopping a reader blocked in read() would need a read timeout, which goes through
+ * {@code bulkTransfer} and loses data between transfers at high baud rates, and a second reader would
+ * race the first one for the data.
+ *
+ * Reads arriving while no receiver is attached are held, up to {@code HELD_BYTES}, and passed to the
+ * next receiver first.
+ */
+final class PortReader implements SerialInputOutputManager.Listener {
+
+    private static final String TAG = PortReader.class.getSimpleName();
+    private static final int HELD_BYTES = 64 * 1024;
+
+    private static final IdentityHashMap<UsbSerialPort, PortReader> sReaders = new IdentityHashMap<>(); // Synchronized by itself
+
+    private final UsbSerialPort mPort;
+    private final SerialInputOutputManager mIoManager;
+    private SerialInputOutputManager.Listener mReceiver; // Synchronized by 'this'
+    private byte[] mHeld = new byte[0]; // Synchronized by 'this', read while no receiver was attached
+
+    private PortReader(UsbSerialPort port) {
+        mPort = port;
+        mIoManager = new SerialInputOutputManager(port, this);
+    }
+
+    /**
+     * @return the running reader of {@code port}, started on first use
+     */
+    static PortReader of(UsbSerialPort port) {
+        synchronized (sReaders) {
+            PortReader reader = sReaders.get(port);
+            if (reader == null) {
+                reader = new PortReader(port);
+                sReaders.put(port, reader);
+                reader.mIoManager.start();
+            }
+            return reader;
+        }
+    }
+
+    /**
+     * Stop reading {@code port}, before closing it. The reader returns from its blocked read once the
+     * port is closed.
+     */
+    static void release(UsbSerialPort port) {
+        PortReader reader;
+        synchronized (sReaders) {
+            reader = sReaders.remove(port);
+        }
+        if (reader != null)
+            reader.mIoManager.stop();
+    }
+
+    /**
+     * Pass the following reads to {@code receiver} instead of the receiver attached so far, once the
+     * read being delivered to that one was handled.
+     */
+    synchronized void attach(SerialInputOutputManager.Listener receiver) {
+        mReceiver = receiver;
+        byte[] held = mHeld;
+        mHeld = new byte[0];
+        // still holding the lock, so the next read follows the held bytes
+        if (held.length > 0)
+            receiver.onNewData(held);
+    }
+
+    /**
+     * Stop passing reads to {@code receiver}, if it is still attached. Returns once the read being
+     * delivered to it was handled.
+     */
+    synchronized void detach(SerialInputOutputManager.Listener receiver) {
+        if (mReceiver == receiver)
+            mReceiver = null;
+    }
+
+    @Override
+    public synchronized void onNewData(byte[] data) {
+        if (mReceiver != null) {
+            mReceiver.onNewData(data);
+            return;
+        }
+        int count = Math.min(data.length, HELD_BYTES - mHeld.length);
+        if (count < data.length)
+            Log.w(TAG, "Dropped " + (data.length - count) + " bytes received without a receiver");
+        if (count == 0)
+            return;
+        byte[] held = new byte[mHeld.length + count];
+        System.arraycopy(mHeld, 0, held, 0, mHeld.length);
+        System.arraycopy(data, 0, held, mHeld.length, count);
+        mHeld = held;
+    }
+
+    @Override
+    public void onRunError(Exception e) {
+        synchronized (sReaders) {
+            if (sReaders.get(mPort) == this)
+                sReaders.remove(mPort);
+        }
+        SerialInputOutputManager.Listener receiver;
+        synchronized (this) {
+            receiver = mReceiver;
+        }
+        if (receiver != null)
+            receiver.onRunError(e);
+    }
+}
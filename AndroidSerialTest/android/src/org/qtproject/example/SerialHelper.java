@@ -21,7 +21,6 @@ import com.hoho.android.usbserial.driver.ProbeTable;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
 import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -38,9 +37,22 @@ public class SerialHelper {
     private static final String ACTION_USB_PERMISSION = "org.qtproject.example.USB_PERMISSION";
     private static UsbManager usbManager;
     private static UsbSerialPort serialPort;
+    private static CommandEngine commandEngine;
+    private static StreamReceiver streamReceiver;
 
     private static final int WRITE_WAIT_MILLIS = 2000;
     private static final int READ_WAIT_MILLIS = 2000;
+    private static final int MAX_COMMANDS_IN_FLIGHT = 8;
+    private static final int MAX_RESPONSE_SIZE = 8192;
+
+    // Bytes ending each response, can be changed via setResponseTerminator
+    private static byte[] responseTerminator = { '\n' };
+
+    // Streaming receive, can be changed via setStreamingMode
+    private static boolean streamingMode = false;
+    private static int streamBatchBytes = 4096;
+    private static int streamBatchMillis = 20;
+    private static final int STREAM_BUFFER_BATCHES = 16;
     
     // Default baudrate, can be changed via setBaudRate
     private static int currentBaudRate = 9600;
@@ -92,6 +104,8 @@ public class SerialHelper {
                 }
 
                 try {
+                    stopReceiving();
+                    PortReader.release(serialPort);
                     serialPort.close();
                     serialPort = null;
                     javaConnectedStateChanged(false);
@@ -129,6 +143,45 @@ public class SerialHelper {
         });
     }
 
+    // Set the bytes that end a response, used from the next connection on
+    public static void setResponseTerminator(String terminator) {
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (terminator == null || terminator.isEmpty()) {
+                    javaErrorOccurred("Response terminator must not be empty");
+                    return;
+                }
+                responseTerminator = terminator.getBytes();
+            }
+        });
+    }
+
+    // Deliver all received data through javaResponseReady in batches instead of matching responses
+    // to commands. A batch is delivered once batchBytes are received or batchMillis after its first
+    // byte arrived. Applies immediately when connected.
+    public static void setStreamingMode(boolean enabled, int batchBytes, int batchMillis) {
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (batchBytes <= 0 || batchMillis < 0) {
+                    javaErrorOccurred("Invalid streaming batch size or time");
+                    return;
+                }
+
+                streamingMode = enabled;
+                streamBatchBytes = batchBytes;
+                streamBatchMillis = batchMillis;
+                if (serialPort != null) {
+                    // returns once the old reader stopped, so the new one gets all following data
+                    stopReceiving();
+                    startReceiving(serialPort);
+                }
+                Log.d(TAG, "Streaming mode " + (enabled ? "enabled" : "disabled"));
+            }
+        });
+    }
+
     // Connect to a USB serial device with the given vendor and product IDs
     public static void connectToDevice(Context context, int vid, int pid, int baudRate) {
         currentBaudRate = baudRate;
@@ -201,6 +254,7 @@ public class SerialHelper {
             }
             
             serialPort = port;
+            startReceiving(port);
             javaConnectedStateChanged(true);
             Log.d(TAG, "Serial port connected successfully");
             
@@ -210,7 +264,33 @@ public class SerialHelper {
         }
     }
 
-    // Send a command to the serial port and read the response
+    // Attach the receiver for the current mode to the port's reader
+    private static void startReceiving(UsbSerialPort port) {
+        if (streamingMode) {
+            streamReceiver = new StreamReceiver(port, streamBatchBytes, streamBatchMillis,
+                    streamBatchBytes * STREAM_BUFFER_BATCHES, streamConsumer);
+            streamReceiver.start();
+        } else {
+            commandEngine = new CommandEngine(port, responseTerminator, MAX_COMMANDS_IN_FLIGHT,
+                    MAX_RESPONSE_SIZE, commandCallback);
+            commandEngine.start();
+        }
+    }
+
+    // Detach the receiver, delivering what the stream receiver still buffers; the port's reader keeps
+    // reading for the next one
+    private static void stopReceiving() {
+        if (commandEngine != null) {
+            commandEngine.stop();
+            commandEngine = null;
+        }
+        if (streamReceiver != null) {
+            streamReceiver.stop();
+            streamReceiver = null;
+        }
+    }
+
+    // Send a command to the serial port, the response is reported through javaResponseReady
     public static void sendCommand(String command) {
         executorService.submit(new Runnable() {
             @Override
@@ -223,30 +303,15 @@ public class SerialHelper {
 
                 try {
                     Log.d(TAG, "Sending command: " + command);
-                    byte[] data = command.getBytes();
-                    serialPort.write(data, WRITE_WAIT_MILLIS);
-                    
-                    // Read response
-                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                    byte[] buffer = new byte[8192];
-                    
-                    try {
-                        // Read data with timeout
-                        int len = serialPort.read(buffer, READ_WAIT_MILLIS);
-                        if (len > 0) {
-                            outputStream.write(buffer, 0, len);
-                            byte[] response = outputStream.toByteArray();
-                            Log.d(TAG, "Received response: " + new String(response));
-                            javaResponseReady(response);
-                        } else {
-                            Log.d(TAG, "No response received within timeout");
-                            javaResponseReady(new byte[0]);
-                        }
-                    } catch (IOException e) {
-                        javaErrorOccurred("Failed to read from serial port: " + e.getMessage());
-                        Log.e(TAG, "Error reading from serial port", e);
-                        javaConnectedStateChanged(false);
+                    if (commandEngine != null) {
+                        // returns once written, the response is matched from the read stream
+                        commandEngine.submit(command.getBytes(), READ_WAIT_MILLIS);
+                    } else {
+                        // streaming, whatever comes back is delivered with the stream
+                        serialPort.write(command.getBytes(), WRITE_WAIT_MILLIS);
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } catch (Exception e) {
                     javaErrorOccurred("Failed to write to serial port: " + e.getMessage());
                     Log.e(TAG, "Error writing to serial port", e);
@@ -256,6 +321,47 @@ public class SerialHelper {
         });
     }
 
+    // Receives responses and timeouts of the commands in flight
+    private static final CommandEngine.Callback commandCallback = new CommandEngine.Callback() {
+        @Override
+        public void onResponse(long id, byte[] response) {
+            if (id == CommandEngine.UNSOLICITED) {
+                Log.d(TAG, "Received unsolicited data: " + new String(response));
+            } else {
+                Log.d(TAG, "Received response: " + new String(response));
+            }
+            javaResponseReady(response);
+        }
+
+        @Override
+        public void onTimeout(long id) {
+            Log.d(TAG, "No response received within timeout");
+            javaResponseReady(new byte[0]);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            javaErrorOccurred("Failed to read from serial port: " + e.getMessage());
+            Log.e(TAG, "Error reading from serial port", e);
+            javaConnectedStateChanged(false);
+        }
+    };
+
+    // Receives the batches of the streaming mode
+    private static final StreamReceiver.Consumer streamConsumer = new StreamReceiver.Consumer() {
+        @Override
+        public void onData(byte[] data) {
+            javaResponseReady(data);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            javaErrorOccurred("Failed to read from serial port: " + e.getMessage());
+            Log.e(TAG, "Error reading from serial port", e);
+            javaConnectedStateChanged(false);
+        }
+    };
+
     // BroadcastReceiver for USB permission events
     private static final BroadcastReceiver usbReceiver = new BroadcastReceiver() {
         @Override
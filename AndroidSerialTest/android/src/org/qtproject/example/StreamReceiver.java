@@ -0,0 +1,167 @@
+package org.qtproject.example;
+
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+
+/**
+ * Continuous receive for devices that send without being asked. The port is read by its
+ * {@link PortReader}; received bytes are collected and handed to the {@link Consumer}
+ * from a delivery thread in batches, once {@code batchBytes} are buffered or the oldest buffered byte
+ * waited {@code batchMillis}, whichever comes first.
+ *
+ * When the consumer falls behind the buffer fills up and the reader blocks, leaving the device to
+ * flow control instead of dropping data.
+ */
+class StreamReceiver implements SerialInputOutputManager.Listener, Runnable {
+
+    private static final String TAG = StreamReceiver.class.getSimpleName();
+
+    interface Consumer {
+        void onData(byte[] data);
+        void onError(Exception e);
+    }
+
+    private final UsbSerialPort mPort;
+    private final int mBatchBytes;
+    private final long mBatchNanos;
+    private final Consumer mConsumer;
+    private final byte[] mBuffer; // Synchronized by 'this'
+    private int mCount; // Synchronized by 'this'
+    private long mFirstNanos; // Synchronized by 'this'
+    private boolean mRunning; // Synchronized by 'this'
+    private PortReader mReader; // Synchronized by 'this'
+    private Thread mThread;
+
+    /**
+     * @param batchBytes   deliver as soon as this many bytes are buffered
+     * @param batchMillis  deliver at the latest this long after the first byte of a batch arrived
+     * @param capacity     bytes buffered before the reader blocks, at least {@code batchBytes}
+     */
+    StreamReceiver(UsbSerialPort port, int batchBytes, int batchMillis, int capacity, Consumer consumer) {
+        if (batchBytes <= 0 || batchMillis < 0 || capacity < batchBytes)
+            throw new IllegalArgumentException("invalid batch size, batch time or capacity");
+        mPort = port;
+        mBatchBytes = batchBytes;
+        mBatchNanos = batchMillis * 1000000L;
+        mConsumer = consumer;
+        mBuffer = new byte[capacity];
+    }
+
+    void start() {
+        PortReader reader;
+        synchronized (this) {
+            if (mRunning)
+                throw new IllegalStateException("already started");
+            mRunning = true;
+            reader = PortReader.of(mPort);
+            mReader = reader;
+            mThread = new Thread(this, TAG);
+            mThread.start();
+        }
+        // outside the lock, as held data may have to wait for the delivery thread to make room
+        reader.attach(this);
+    }
+
+    /**
+     * Stop receiving and wait until the bytes already buffered are delivered. Data read afterwards
+     * goes to the receiver attached next to the port's reader. Call before closing the port or
+     * starting another receiver on it.
+     */
+    void stop() {
+        PortReader reader;
+        synchronized (this) {
+            reader = mReader;
+            mReader = null;
+        }
+        // first, so a read being handed over is still taken
+        if (reader != null)
+            reader.detach(this);
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+            notifyAll();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onNewData(byte[] data) {
+        int offset = 0;
+        while (offset < data.length) {
+            if (!mRunning)
+                return;
+            int count = Math.min(data.length - offset, mBuffer.length - mCount);
+            if (count == 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            if (mCount == 0)
+                mFirstNanos = System.nanoTime();
+            System.arraycopy(data, offset, mBuffer, mCount, count);
+            mCount += count;
+            offset += count;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void onRunError(Exception e) {
+        synchronized (this) {
+            if (!mRunning)
+                return;
+        }
+        mConsumer.onError(e);
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Running ...");
+        while (true) {
+            byte[] batch;
+            synchronized (this) {
+                while (mRunning) {
+                    if (mCount >= mBatchBytes)
+                        break;
+                    long waitNanos = mCount == 0 ? 0 : mFirstNanos + mBatchNanos - System.nanoTime();
+                    if (mCount > 0 && waitNanos <= 0)
+                        break;
+                    try {
+                        if (mCount == 0) {
+                            wait();
+                        } else {
+                            wait(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                        }
+                    } catch (InterruptedException e) {
+                        mRunning = false;
+                    }
+                }
+                if (mCount == 0 && !mRunning)
+                    break;
+                int count = Math.min(mCount, mBatchBytes);
+                batch = new byte[count];
+                System.arraycopy(mBuffer, 0, batch, 0, count);
+                System.arraycopy(mBuffer, count, mBuffer, 0, mCount - count);
+                mCount -= count;
+                mFirstNanos = System.nanoTime();
+                notifyAll();
+            }
+            mConsumer.onData(batch);
+        }
+        Log.i(TAG, "Stopped");
+    }
+}
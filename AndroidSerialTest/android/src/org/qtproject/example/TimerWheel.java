@@ -0,0 +1,112 @@
+package org.qtproject.example;
+
+/**
+ * Hashed timer wheel for command deadlines. Scheduling and cancelling are O(1) and allocation-free:
+ * timers are linked into their slot through fields of {@link Timer} itself.
+ *
+ * Not thread-safe; {@link CommandEngine} guards it with its own lock.
+ */
+class TimerWheel {
+
+    static class Timer {
+        private long mDeadlineTick;
+        private Timer mPrev;
+        private Timer mNext;
+        private boolean mScheduled;
+    }
+
+    private final long mTickNanos;
+    private final Timer[] mSlots;
+    private final int mMask;
+    private final long mStartNanos;
+    private long mCurrentTick;
+    private int mCount;
+
+    /**
+     * @param tickMillis  resolution of the deadlines
+     * @param slotCount   number of slots, rounded up to a power of two; deadlines further away than
+     *                    one revolution stay in their slot for several rounds
+     */
+    TimerWheel(int tickMillis, int slotCount) {
+        if (tickMillis <= 0 || slotCount <= 0)
+            throw new IllegalArgumentException("tickMillis and slotCount must be positive");
+        int size = Integer.highestOneBit(slotCount);
+        if (size < slotCount)
+            size <<= 1;
+        mTickNanos = tickMillis * 1000000L;
+        mSlots = new Timer[size];
+        mMask = size - 1;
+        mStartNanos = System.nanoTime();
+    }
+
+    long getTickMillis() {
+        return mTickNanos / 1000000L;
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * Schedule {@code timer} to expire after at least {@code timeoutMillis}.
+     */
+    void schedule(Timer timer, int timeoutMillis) {
+        if (timer.mScheduled)
+            cancel(timer);
+        long ticks = Math.max(1, (timeoutMillis * 1000000L + mTickNanos - 1) / mTickNanos);
+        timer.mDeadlineTick = tickAt(System.nanoTime()) + ticks;
+        int slot = (int) (timer.mDeadlineTick & mMask);
+        timer.mPrev = null;
+        timer.mNext = mSlots[slot];
+        if (timer.mNext != null)
+            timer.mNext.mPrev = timer;
+        mSlots[slot] = timer;
+        timer.mScheduled = true;
+        mCount++;
+    }
+
+    void cancel(Timer timer) {
+        if (!timer.mScheduled)
+            return;
+        if (timer.mPrev != null)
+            timer.mPrev.mNext = timer.mNext;
+        else
+            mSlots[(int) (timer.mDeadlineTick & mMask)] = timer.mNext;
+        if (timer.mNext != null)
+            timer.mNext.mPrev = timer.mPrev;
+        timer.mPrev = null;
+        timer.mNext = null;
+        timer.mScheduled = false;
+        mCount--;
+    }
+
+    /**
+     * Advance to the current time and unlink every timer that is due.
+     *
+     * @param expired  receives the due timers, must have room for all scheduled timers
+     * @return number of timers stored in {@code expired}
+     */
+    int advance(Timer[] expired) {
+        long now = tickAt(System.nanoTime());
+        int count = 0;
+        // a full revolution visits every slot, no need to walk further after a long pause
+        long first = Math.max(mCurrentTick + 1, now - mMask);
+        for (long tick = first; tick <= now && mCount > 0; tick++) {
+            Timer timer = mSlots[(int) (tick & mMask)];
+            while (timer != null) {
+                Timer next = timer.mNext;
+                if (timer.mDeadlineTick <= now) {
+                    cancel(timer);
+                    expired[count++] = timer;
+                }
+                timer = next;
+            }
+        }
+        mCurrentTick = now;
+        return count;
+    }
+
+    private long tickAt(long nanos) {
+        return (nanos - mStartNanos) / mTickNanos;
+    }
+}
@@ -0,0 +1,197 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDeviceConnection;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link UsbSerialPort} stand-in that receives the data of a {@link SerialCapture} again, opened through
+ * {@link JniUsbSerial#open(String, long)} with a port name like {@code replay:///sdcard/cap/run1?speed=4}
+ * or constructed directly, e.g. in a plain JVM on a desktop machine.
+ *
+ * Received records are replayed at their original spacing divided by {@code speed}; a speed of 0
+ * replays as fast as the reader takes the data. The reader is never overrun, replay waits for it
+ * instead. Written data is accepted and discarded, recorded sent data is skipped.
+ */
+public class CaptureReplayPort extends SimulatedSerialPort implements Runnable {
+
+    public static final String SCHEME = "replay://";
+
+    private final File mBase;
+    private final double mSpeed;
+    private Thread mThread; // Synchronized by 'this'
+    private volatile boolean mFinished;
+    private volatile long mRecordsReplayed;
+
+    /**
+     * @param base   capture path as passed to the capture, without the {@code -NNNNN.cap} suffix
+     * @param speed  replay speed factor, 0 for no delays
+     */
+    public CaptureReplayPort(File base, double speed) {
+        super(SCHEME + base.getPath(), false, 0);
+        if (speed < 0)
+            throw new IllegalArgumentException("Invalid replay speed: " + speed);
+        mBase = base;
+        mSpeed = speed;
+        setResponder(new Responder() {
+            @Override
+            public byte[] respond(byte[] data, int length) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Create a port from a {@value #SCHEME} port name with an optional {@code speed} option.
+     */
+    public static CaptureReplayPort fromPortName(String portName) throws IOException {
+        if (!portName.startsWith(SCHEME))
+            throw new IOException("Not a replay port: " + portName);
+        String path = portName.substring(SCHEME.length());
+        double speed = 1;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            for (String option : path.substring(query + 1).split("&")) {
+                if (!option.startsWith("speed="))
+                    throw new IOException("Unknown replay port option: " + option);
+                try {
+                    speed = Double.parseDouble(option.substring("speed=".length()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid replay port option: " + option);
+                }
+            }
+            path = path.substring(0, query);
+        }
+        if (speed < 0)
+            throw new IOException("Invalid replay speed: " + speed);
+        if (segments(new File(path)).isEmpty())
+            throw new IOException("No capture segments at " + path);
+        return new CaptureReplayPort(new File(path), speed);
+    }
+
+    /**
+     * @return true once all recorded data was handed to the reader
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public long getRecordsReplayed() {
+        return mRecordsReplayed;
+    }
+
+    @Override
+    public synchronized void open(UsbDeviceConnection connection) throws IOException {
+        super.open(connection);
+        mFinished = false;
+        mThread = new Thread(this, getClass().getSimpleName());
+        mThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        super.close();
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The recorded timing already reflects the line, the baud rate is not applied.
+     */
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        if (baudRate <= 0)
+            throw new IOException("Invalid baud rate: " + baudRate);
+    }
+
+    @Override
+    public void run() {
+        final long startNanos = System.nanoTime();
+        long firstRecord = -1;
+        byte[] data = new byte[0];
+        try {
+            for (File segment : segments(mBase)) {
+                MappedByteBuffer buffer;
+                try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+                    buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                }
+                if (buffer.remaining() < SerialCapture.HEADER_SIZE || buffer.getInt(0) != SerialCapture.MAGIC
+                        || buffer.getInt(4) != SerialCapture.VERSION)
+                    continue;
+                buffer.position(buffer.getInt(8));
+                while (buffer.remaining() >= SerialCapture.RECORD_HEADER_SIZE) {
+                    long nanos = buffer.getLong();
+                    int lengthAndFlags = buffer.getInt();
+                    int length = lengthAndFlags & ~SerialCapture.FLAG_TX;
+                    if (length == 0 || length > buffer.remaining())
+                        break;
+                    if ((lengthAndFlags & SerialCapture.FLAG_TX) != 0) {
+                        buffer.position(buffer.position() + length);
+                        continue;
+                    }
+                    if (data.length < length)
+                        data = new byte[length];
+                    buffer.get(data, 0, length);
+
+                    if (firstRecord < 0)
+                        firstRecord = nanos;
+                    if (mSpeed > 0) {
+                        long due = startNanos + (long) ((nanos - firstRecord) / mSpeed);
+                        long wait = due - System.nanoTime();
+                        if (wait > 0)
+                            Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                    }
+                    if (!receiveFully(data, 0, length))
+                        return;
+                    mRecordsReplayed++;
+                }
+            }
+            mFinished = true;
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            // unreadable segment, replay ends without being finished
+        }
+    }
+
+    /**
+     * @return the segment files of the capture at {@code base}, oldest first
+     */
+    static List<File> segments(File base) {
+        List<File> segments = new ArrayList<>();
+        File dir = base.getAbsoluteFile().getParentFile();
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null)
+            return segments;
+        String prefix = base.getName() + "-";
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(SerialCapture.SUFFIX)
+                    && name.length() == prefix.length() + 5 + SerialCapture.SUFFIX.length())
+                segments.add(file);
+        }
+        // zero-padded indices sort by name
+        Collections.sort(segments);
+        return segments;
+    }
+}
@@ -0,0 +1,50 @@
+package org.qtproject.jniusbserial;
+
+/**
+ * Consistent Overhead Byte Stuffing: frames end with a zero byte and are decoded while they arrive.
+ */
+class CobsFramer extends Framer {
+
+    private int mRemaining; // data bytes left in the current block
+    private boolean mZeroPending; // the current block ends with an encoded zero
+    private boolean mInFrame;
+
+    CobsFramer(int maxFrameSize) {
+        super(maxFrameSize);
+    }
+
+    @Override
+    void feed(byte[] data, int length, Sink sink) {
+        for (int i = 0; i < length; i++) {
+            int value = data[i] & 0xFF;
+            if (value == 0) {
+                if (mInFrame) {
+                    if (mRemaining != 0)
+                        fail(sink); // frame ended inside a block
+                    complete(sink);
+                }
+                mRemaining = 0;
+                mZeroPending = false;
+                mInFrame = false;
+            } else if (mRemaining == 0) {
+                // code byte: the previous block, unless it was a full 254 byte one, stands for a zero
+                if (mZeroPending)
+                    append((byte) 0, sink);
+                mRemaining = value - 1;
+                mZeroPending = value != 0xFF;
+                mInFrame = true;
+            } else {
+                append((byte) value, sink);
+                mRemaining--;
+            }
+        }
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        mRemaining = 0;
+        mZeroPending = false;
+        mInFrame = false;
+    }
+}
@@ -0,0 +1,97 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbRequest;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The one thread waiting for {@link UsbRequest} completions on a connection shared by the ports of a
+ * multi-port adapter, see {@link SharedConnection}. {@link UsbDeviceConnection#requestWait()} returns a
+ * completion of any endpoint of the connection, so the ports' {@link QueuedReadEngine}s cannot each wait
+ * for their own; the reaper hands every completion to the engine that queued it instead. Every port thus
+ * keeps transfers pending, where reads with a timeout would go through {@code bulkTransfer} and let the
+ * adapter's FIFO overflow between transfers.
+ *
+ * The thread runs while engines are registered. Requires API 26.
+ */
+final class ConnectionReaper implements Runnable {
+
+    private static final String TAG = ConnectionReaper.class.getSimpleName();
+    // how soon the thread notices that the last engine left
+    private static final int IDLE_WAIT_MSEC = 100;
+
+    private final UsbDeviceConnection mConnection;
+    private final ArrayList<QueuedReadEngine> mEngines = new ArrayList<>(); // Synchronized by 'this'
+    private Thread mThread; // Synchronized by 'this', null while not running
+
+    ConnectionReaper(UsbDeviceConnection connection) {
+        mConnection = connection;
+    }
+
+    UsbDeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Route completions of requests queued by {@code engine}, starting the thread if needed.
+     */
+    synchronized void add(QueuedReadEngine engine) {
+        mEngines.add(engine);
+        if (mThread == null) {
+            mThread = new Thread(this, TAG);
+            mThread.start();
+        }
+    }
+
+    synchronized void remove(QueuedReadEngine engine) {
+        mEngines.remove(engine);
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        while (true) {
+            synchronized (this) {
+                if (mEngines.isEmpty()) {
+                    mThread = null;
+                    return;
+                }
+            }
+            UsbRequest request;
+            try {
+                request = mConnection.requestWait(IDLE_WAIT_MSEC);
+            } catch (TimeoutException e) {
+                continue;
+            }
+            if (request == null) {
+                fail();
+                return;
+            }
+            Object engine = request.getClientData();
+            if (engine instanceof QueuedReadEngine)
+                ((QueuedReadEngine) engine).onCompleted(request);
+            else
+                Log.w(TAG, "Ignoring USB request not queued by a read engine");
+        }
+    }
+
+    /**
+     * The connection failed, e.g. the device was detached: wake the engines waiting for transfers.
+     */
+    private void fail() {
+        QueuedReadEngine[] engines;
+        synchronized (this) {
+            engines = mEngines.toArray(new QueuedReadEngine[0]);
+            // an engine added later starts over, and fails itself if the connection is gone
+            mThread = null;
+        }
+        Log.w(TAG, "Waiting for USB requests failed, failing " + engines.length + " read engines");
+        for (QueuedReadEngine engine : engines) {
+            engine.onConnectionFailed();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.qtproject.jniusbserial;
+
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports changes of a port's modem control lines to the listener, so native code gets events
+ * instead of polling.
+ *
+ * Most drivers read the lines with a USB control transfer, so they are sampled every
+ * {@code intervalMSec} by one thread shared by all ports; changes shorter than the interval can
+ * be missed. The state is a bit mask with bit {@code 1 << ControlLine.ordinal()} set for each line
+ * that is on, see {@link #mask(EnumSet)}. The first sample is always reported.
+ */
+final class ControlLineMonitor implements Runnable {
+
+    private static final String TAG = ControlLineMonitor.class.getSimpleName();
+
+    private static final ScheduledThreadPoolExecutor sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        sTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final PortState mPort;
+    private final SerialInputOutputManager.Listener mListener;
+    private final int mIntervalMSec;
+    private ScheduledFuture<?> mFuture; // Synchronized by 'this'
+    private int mLines = -1; // timer thread only, -1 before the first sample
+
+    ControlLineMonitor(PortState port, SerialInputOutputManager.Listener listener, int intervalMSec) {
+        if (intervalMSec <= 0)
+            throw new IllegalArgumentException("intervalMSec must be positive");
+        mPort = port;
+        mListener = listener;
+        mIntervalMSec = intervalMSec;
+    }
+
+    static int mask(EnumSet<UsbSerialPort.ControlLine> lines) {
+        int mask = 0;
+        for (UsbSerialPort.ControlLine line : lines) {
+            mask |= 1 << line.ordinal();
+        }
+        return mask;
+    }
+
+    synchronized void start() {
+        if (mFuture == null)
+            mFuture = sTimer.scheduleWithFixedDelay(this, 0, mIntervalMSec, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (mFuture != null) {
+            mFuture.cancel(false);
+            mFuture = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        int lines;
+        try {
+            lines = mask(mPort.mSerialPort.getControlLines());
+        } catch (IOException | RuntimeException e) {
+            // detached or closing; a reconnected port is sampled again on the next run
+            if (SerialInputOutputManager.DEBUG)
+                Log.d(TAG, "Reading control lines failed: " + e.getMessage());
+            return;
+        }
+        if (lines == mLines)
+            return;
+        mLines = lines;
+        mListener.onControlLinesChanged(lines, mPort.mClassPoint);
+    }
+}
@@ -0,0 +1,40 @@
+package org.qtproject.jniusbserial;
+
+/**
+ * Frames terminated by a delimiter byte such as {@code '\n'}. The delimiter is not part of the frame;
+ * empty frames are skipped.
+ */
+class DelimiterFramer extends Framer {
+
+    private final byte mDelimiter;
+
+    DelimiterFramer(byte delimiter, int maxFrameSize) {
+        super(maxFrameSize);
+        mDelimiter = delimiter;
+    }
+
+    @Override
+    void feed(byte[] data, int length, Sink sink) {
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && data[end] != mDelimiter) {
+                end++;
+            }
+            int count = end - start;
+            if (!mDiscarding) {
+                if (count > mFrame.length - mLength) {
+                    fail(sink);
+                } else {
+                    System.arraycopy(data, start, mFrame, mLength, count);
+                    mLength += count;
+                }
+            }
+            if (end == length)
+                return;
+            if (mLength > 0 || mDiscarding)
+                complete(sink);
+            start = end + 1;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Cache of attached USB devices with their probed driver and description, kept up to date from the
+ * attach, detach and permission broadcasts instead of re-enumerating and re-probing on every query.
+ *
+ * Changes rebuild an immutable snapshot of the description strings, so {@link #snapshot()} only
+ * copies an array, and of the packed descriptors viewed by {@link #packed()}.
+ *
+ * Packed layout, all fields 32-bit ints in native byte order so native code reads them in place:
+ * <pre>
+ * header  version, record count, record size in bytes, string table offset
+ * record  vendorId, productId, driver kind, port count, interface count, flags,
+ *         then offset and length of device name, manufacturer and product name
+ * strings UTF-8, each distinct string stored once; offsets are from the buffer start,
+ *         length -1 for a missing string
+ * </pre>
+ */
+final class DeviceCatalog {
+
+    private static final String TAG = DeviceCatalog.class.getSimpleName();
+
+    static final int PACKED_VERSION = 1;
+    static final int PACKED_HEADER_INTS = 4;
+    static final int PACKED_RECORD_INTS = 12;
+
+    static final int DRIVER_UNKNOWN = 0;
+    static final int DRIVER_CDC_ACM = 1;
+    static final int DRIVER_CH34X = 2;
+    static final int DRIVER_CP21XX = 3;
+    static final int DRIVER_FTDI = 4;
+    static final int DRIVER_PROLIFIC = 5;
+    private static final String[] DRIVER_NAMES = {"Unknown", "Cdc Acm", "Ch34x", "Cp21xx", "Ftdi", "Prolific"};
+
+    static final int FLAG_HAS_PERMISSION = 1;
+
+    static final class Entry {
+        final UsbDevice mDevice;
+        final UsbSerialDriver mDriver; // null if no driver matches
+        final int mDriverKind;
+        final int mPortCount;
+        final String mDescription; // everything but the permission field
+        boolean mHasPermission; // Synchronized by the catalog
+
+        Entry(UsbDevice device, UsbSerialDriver driver, int driverKind, String description, boolean hasPermission) {
+            mDevice = device;
+            mDriver = driver;
+            mDriverKind = driverKind;
+            mPortCount = driver != null ? driver.getPorts().size() : 0;
+            mDescription = description;
+            mHasPermission = hasPermission;
+        }
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<>(); // Synchronized by 'this'
+    private volatile String[] mSnapshot; // null until the first scan
+    private volatile ByteBuffer mPacked; // never modified once published
+
+    boolean isScanned() {
+        return mSnapshot != null;
+    }
+
+    /**
+     * Replace the catalog with the devices currently attached.
+     */
+    synchronized void scan(UsbManager usbManager) {
+        mEntries.clear();
+        for (UsbDevice device : usbManager.getDeviceList().values()) {
+            mEntries.put(device.getDeviceName(), probe(device, usbManager.hasPermission(device)));
+        }
+        Log.d(TAG, "scan: " + mEntries.size() + " USB devices");
+        publish();
+    }
+
+    synchronized void add(UsbDevice device, boolean hasPermission) {
+        if (mSnapshot == null)
+            return; // picked up by the first scan
+        mEntries.put(device.getDeviceName(), probe(device, hasPermission));
+        publish();
+    }
+
+    synchronized void remove(UsbDevice device) {
+        if (mEntries.remove(device.getDeviceName()) != null)
+            publish();
+    }
+
+    synchronized void setPermission(UsbDevice device, boolean granted) {
+        Entry entry = mEntries.get(device.getDeviceName());
+        if (entry != null && entry.mHasPermission != granted) {
+            entry.mHasPermission = granted;
+            publish();
+        }
+    }
+
+    synchronized Entry get(String deviceName) {
+        return mEntries.get(deviceName);
+    }
+
+    /**
+     * @return one description per device, see {@link JniUsbSerial#availableDevicesInfo()}, or null before the first scan
+     */
+    String[] snapshot() {
+        String[] snapshot = mSnapshot;
+        return snapshot != null ? snapshot.clone() : null;
+    }
+
+    /**
+     * @return read-only view of the packed descriptors in native byte order, see the class comment, or
+     * null before the first scan. Each caller gets its own position and limit; the contents are shared.
+     */
+    ByteBuffer packed() {
+        ByteBuffer packed = mPacked;
+        return packed != null ? packed.asReadOnlyBuffer().order(ByteOrder.nativeOrder()) : null;
+    }
+
+    private void publish() {
+        String[] snapshot = new String[mEntries.size()];
+        int count = 0;
+        for (Entry entry : mEntries.values()) {
+            snapshot[count++] = entry.mDescription + (entry.mHasPermission ? "true" : "false");
+        }
+        mPacked = pack();
+        mSnapshot = snapshot;
+    }
+
+    private ByteBuffer pack() {
+        // intern the strings first to know where the table starts and how large it is
+        HashMap<String, Integer> offsets = new HashMap<>();
+        byte[][] strings = new byte[mEntries.size() * 3][];
+        int stringCount = 0;
+        int tableSize = 0;
+        for (Entry entry : mEntries.values()) {
+            for (String string : new String[] {entry.mDevice.getDeviceName(), entry.mDevice.getManufacturerName(), entry.mDevice.getProductName()}) {
+                if (string == null || offsets.containsKey(string))
+                    continue;
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                offsets.put(string, tableSize);
+                strings[stringCount++] = bytes;
+                tableSize += bytes.length;
+            }
+        }
+
+        int recordSize = PACKED_RECORD_INTS * 4;
+        int tableOffset = PACKED_HEADER_INTS * 4 + mEntries.size() * recordSize;
+        ByteBuffer packed = ByteBuffer.allocateDirect(tableOffset + tableSize).order(ByteOrder.nativeOrder());
+        packed.putInt(PACKED_VERSION).putInt(mEntries.size()).putInt(recordSize).putInt(tableOffset);
+        for (Entry entry : mEntries.values()) {
+            UsbDevice device = entry.mDevice;
+            packed.putInt(device.getVendorId())
+                  .putInt(device.getProductId())
+                  .putInt(entry.mDriverKind)
+                  .putInt(entry.mPortCount)
+                  .putInt(device.getInterfaceCount())
+                  .putInt(entry.mHasPermission ? FLAG_HAS_PERMISSION : 0);
+            putString(packed, offsets, tableOffset, device.getDeviceName());
+            putString(packed, offsets, tableOffset, device.getManufacturerName());
+            putString(packed, offsets, tableOffset, device.getProductName());
+        }
+        for (int i = 0; i < stringCount; i++) {
+            packed.put(strings[i]);
+        }
+        packed.clear();
+        return packed;
+    }
+
+    private static void putString(ByteBuffer packed, HashMap<String, Integer> offsets, int tableOffset, String string) {
+        if (string == null) {
+            packed.putInt(0).putInt(-1);
+            return;
+        }
+        packed.putInt(tableOffset + offsets.get(string)).putInt(string.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static Entry probe(UsbDevice device, boolean hasPermission) {
+        Log.d(TAG, "Device: " + device.getDeviceName() +
+              " VID: 0x" + String.format("%04X", device.getVendorId()) +
+              " PID: 0x" + String.format("%04X", device.getProductId()) +
+              " Product: " + device.getProductName() +
+              " Manufacturer: " + device.getManufacturerName());
+
+        UsbSerialDriver driver = UsbSerialProber.getDefaultProber().probeDevice(device);
+        int driverKind = driverKind(driver);
+
+        // Format: devicePath:driverType:manufacturer:productId:vendorId:deviceNodePath:hasPermission
+        StringBuilder description = new StringBuilder(device.getDeviceName()).append(':');
+        if (driver == null || driverKind != DRIVER_UNKNOWN)
+            description.append(DRIVER_NAMES[driverKind]).append(':');
+
+        String manufacturerName = device.getManufacturerName();
+        description.append(manufacturerName != null ? manufacturerName : "Unknown").append(':')
+                   .append(String.format("0x%04X", device.getProductId())).append(':')
+                   .append(String.format("0x%04X", device.getVendorId())).append(':')
+                   .append(device.getDeviceName()).append(':');
+
+        return new Entry(device, driver, driverKind, description.toString(), hasPermission);
+    }
+
+    private static int driverKind(UsbSerialDriver driver) {
+        if (driver instanceof CdcAcmSerialDriver)
+            return DRIVER_CDC_ACM;
+        if (driver instanceof Ch34xSerialDriver)
+            return DRIVER_CH34X;
+        if (driver instanceof Cp21xxSerialDriver)
+            return DRIVER_CP21XX;
+        if (driver instanceof FtdiSerialDriver)
+            return DRIVER_FTDI;
+        if (driver instanceof ProlificSerialDriver)
+            return DRIVER_PROLIFIC;
+        return DRIVER_UNKNOWN;
+    }
+}
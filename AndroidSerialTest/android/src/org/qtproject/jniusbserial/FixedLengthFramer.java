@@ -0,0 +1,24 @@
+package org.qtproject.jniusbserial;
+
+/**
+ * Frames of a fixed number of bytes, without any separator.
+ */
+class FixedLengthFramer extends Framer {
+
+    FixedLengthFramer(int frameLength) {
+        super(frameLength);
+    }
+
+    @Override
+    void feed(byte[] data, int length, Sink sink) {
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, mFrame.length - mLength);
+            System.arraycopy(data, offset, mFrame, mLength, count);
+            mLength += count;
+            offset += count;
+            if (mLength == mFrame.length)
+                complete(sink);
+        }
+    }
+}
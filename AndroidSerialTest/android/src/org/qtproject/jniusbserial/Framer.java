@@ -0,0 +1,99 @@
+package org.qtproject.jniusbserial;
+
+/**
+ * Splits the received byte stream into frames on the I/O thread, so only complete frames are
+ * delivered. Framers keep the partial frame in a fixed buffer and never allocate while feeding.
+ *
+ * A frame longer than the maximum frame size, or one that violates the encoding, is dropped and
+ * reported through {@link Sink#onFrameError()}; the framer then resynchronizes on the next frame.
+ */
+abstract class Framer {
+
+    static final int TYPE_NONE = 0;
+    static final int TYPE_DELIMITER = 1;
+    static final int TYPE_FIXED_LENGTH = 2;
+    static final int TYPE_LENGTH_PREFIX = 3;
+    static final int TYPE_COBS = 4;
+    static final int TYPE_SLIP = 5;
+
+    interface Sink {
+        /**
+         * Called for every complete frame; {@code frame} is only valid until this method returns.
+         */
+        void onFrame(byte[] frame, int length);
+
+        void onFrameError();
+    }
+
+    protected final byte[] mFrame;
+    protected int mLength;
+    protected boolean mDiscarding; // dropping the rest of a bad frame
+
+    protected Framer(int maxFrameSize) {
+        if (maxFrameSize <= 0)
+            throw new IllegalArgumentException("maxFrameSize must be positive");
+        mFrame = new byte[maxFrameSize];
+    }
+
+    /**
+     * @param type          one of the {@code TYPE_*} constants
+     * @param argument      delimiter byte, frame length or prefix size in bytes, depending on the type
+     * @param maxFrameSize  largest decoded frame accepted
+     * @return null for {@link #TYPE_NONE}
+     */
+    static Framer create(int type, int argument, int maxFrameSize) {
+        switch (type) {
+            case TYPE_NONE: return null;
+            case TYPE_DELIMITER: return new DelimiterFramer((byte) argument, maxFrameSize);
+            case TYPE_FIXED_LENGTH: return new FixedLengthFramer(argument);
+            case TYPE_LENGTH_PREFIX: return new LengthPrefixFramer(argument, maxFrameSize);
+            case TYPE_COBS: return new CobsFramer(maxFrameSize);
+            case TYPE_SLIP: return new SlipFramer(maxFrameSize);
+            default: throw new IllegalArgumentException("unknown framer type " + type);
+        }
+    }
+
+    int getMaxFrameSize() {
+        return mFrame.length;
+    }
+
+    /**
+     * Consume {@code length} received bytes, calling {@code sink} for each frame they complete.
+     */
+    abstract void feed(byte[] data, int length, Sink sink);
+
+    void reset() {
+        mLength = 0;
+        mDiscarding = false;
+    }
+
+    protected final void append(byte value, Sink sink) {
+        if (mDiscarding)
+            return;
+        if (mLength == mFrame.length) {
+            fail(sink);
+            return;
+        }
+        mFrame[mLength++] = value;
+    }
+
+    /**
+     * drop the current frame up to its end
+     */
+    protected final void fail(Sink sink) {
+        if (!mDiscarding)
+            sink.onFrameError();
+        mDiscarding = true;
+        mLength = 0;
+    }
+
+    /**
+     * end of the current frame, delivered unless it was dropped
+     */
+    protected final void complete(Sink sink) {
+        if (!mDiscarding)
+            sink.onFrame(mFrame, mLength);
+        mLength = 0;
+        mDiscarding = false;
+    }
+}
@@ -4,7 +4,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import android.util.Log;
 import android.app.PendingIntent;
 
@@ -16,7 +19,7 @@ import android.content.IntentFilter;
 import android.hardware.usb.*;
 import android.widget.Toast;
 import android.os.Build;
-import java.nio.charset.StandardCharsets;
+import android.os.Process;
 
 import com.hoho.android.usbserial.driver.*;
 import org.qtproject.jniusbserial.SerialInputOutputManager;
@@ -27,10 +30,24 @@ import org.qtproject.qt.android.QtNative;
 public class JniUsbSerial {
     private static final String TAG = "JniUsbSerial";
     private static final String ACTION_USB_PERMISSION = "org.qtproject.jniusbserial.USB_PERMISSION";
+    private static final int RECEIVE_DELIVERY_SIZE = 4096;
+    private static final int LOW_LATENCY_TIMER_MSEC = 1;
+    private static final int DEFAULT_LATENCY_TIMER_MSEC = 16;
+    private static final int LOW_LATENCY_READ_TIMEOUT_MIN = 2;
+    private static final int LOW_LATENCY_READ_TIMEOUT_MAX = 200;
+    private static final int SHARED_CONNECTION_READ_TIMEOUT_MSEC = 100; // before API 26 only
+    private static final int SHARED_CONNECTION_READ_REQUESTS = 4;
+    private static final int SHARED_CONNECTION_TRANSFER_SIZE = 16 * 1024;
+    private static final int SHARED_IO_READ_TIMEOUT_MSEC = 5;
+    private static final int SHARED_IO_MAX_THREADS = 4;
+    private static final int DIRECT_WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int DIRECT_WRITE_TRANSFER_SIZE = 16 * 1024; // bulk transfer limit before API 28
     private static PendingIntent mPermissionIntent;
     private static UsbManager usbManager;
-    private static HashMap<String, UsbSerialPort> m_usbSerialPort;
-    private static HashMap<String, SerialInputOutputManager> m_usbIoManager;
+    private static final PortRegistry m_ports = new PortRegistry();
+    private static final DeviceCatalog m_devices = new DeviceCatalog();
+    private static final AtomicLong m_writeSequence = new AtomicLong();
+    private static final HashMap<Integer, SharedIoScheduler> m_ioSchedulers = new HashMap<Integer, SharedIoScheduler>(); // by thread priority, synchronized by itself
     private static Context m_context = null;
 
     /**
@@ -88,6 +105,11 @@ public class JniUsbSerial {
 
     private static native void nativeDeviceException(long classPoint, String messageA);
     private static native void nativeDeviceNewData(long classPoint, byte[] dataA);
+    private static native void nativeDeviceNewData(long classPoint, byte[] dataA, int lengthA);
+    private static native void nativeDeviceNewDirectData(long classPoint, ByteBuffer dataA, int lengthA);
+    private static native void nativeDeviceWriteComplete(long classPoint, long sequenceA, boolean successA);
+    private static native void nativeDeviceReconnected(long classPoint, long downtimeMSecA);
+    private static native void nativeDeviceControlLinesChanged(long classPoint, int linesA);
     
     // Broadcast receiver for USB permission and device events
     private static final BroadcastReceiver mUsbReceiver = new BroadcastReceiver() {
@@ -102,8 +124,10 @@ public class JniUsbSerial {
                     boolean granted = intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false);
                     
                     if (device != null) {
+                        m_devices.setPermission(device, granted);
                         if (granted) {
                             Log.d(TAG, "USB Permission granted for device: " + device.getDeviceName());
+                            reconnectPorts(device);
                         } else {
                             Log.e(TAG, "USB Permission denied for device: " + device.getDeviceName());
                         }
@@ -116,23 +140,28 @@ public class JniUsbSerial {
                           " VID: " + String.format("0x%04X", device.getVendorId()) + 
                           " PID: " + String.format("0x%04X", device.getProductId()));
                     
-                    // Request permission if needed
-                    if (!usbManager.hasPermission(device)) {
+                    boolean hasPermission = usbManager.hasPermission(device);
+                    m_devices.add(device, hasPermission);
+
+                    // Request permission if needed, a detached port is reopened once it is granted
+                    if (!hasPermission) {
                         usbManager.requestPermission(device, mPermissionIntent);
+                    } else {
+                        reconnectPorts(device);
                     }
                 }
             } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
                 UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE, UsbDevice.class);
                 if (device != null) {
                     Log.d(TAG, "USB Device detached: " + device.getDeviceName());
+                    m_devices.remove(device);
+                    releasePorts(device);
                 }
             }
         }
     };
 
     public JniUsbSerial() {
-        m_usbIoManager = new HashMap<String, SerialInputOutputManager>();
-        m_usbSerialPort = new HashMap<String, UsbSerialPort>();
     }
     
     private static boolean getCurrentDevices() {
@@ -173,109 +202,75 @@ public class JniUsbSerial {
         return true;
     }
 
+    /**
+     * Describe the attached USB devices, one "devicePath:driverType:manufacturer:productId:vendorId:deviceNodePath:hasPermission"
+     * string each. Served from the device catalog, which is filled by the first call and then kept
+     * current by the USB broadcasts.
+     *
+     * @return null if no devices are attached
+     */
     public static String[] availableDevicesInfo()
     {
-        //  GET THE LIST OF CURRENT DEVICES
-        Log.d(TAG, "availableDevicesInfo: Scanning for available USB devices");
-        if (!getCurrentDevices()) {
-            Log.e(TAG, "availableDevicesInfo: Failed to get current devices");
-            return null;
-        }
-
-        int deviceCount = usbManager.getDeviceList().size();
-        Log.d(TAG, "availableDevicesInfo: Found " + deviceCount + " USB devices");
-        
-        if (deviceCount < 1) {
-            Log.d(TAG, "availableDevicesInfo: No USB devices found");
-            return null;
-        }
-        
-        // Request permission for all devices that we don't have permission for
-        for (UsbDevice device : usbManager.getDeviceList().values()) {
-            if (!usbManager.hasPermission(device)) {
-                Log.d(TAG, "Requesting permission for device in availableDevicesInfo: " + device.getDeviceName());
-                usbManager.requestPermission(device, mPermissionIntent);
+        if (!m_devices.isScanned())
+        {
+            //  GET THE LIST OF CURRENT DEVICES
+            Log.d(TAG, "availableDevicesInfo: Scanning for available USB devices");
+            if (!getCurrentDevices()) {
+                Log.e(TAG, "availableDevicesInfo: Failed to get current devices");
+                return null;
             }
+            m_devices.scan(usbManager);
         }
 
-        String[] listL = new String[usbManager.getDeviceList().size()];
-        String tempL;
-
-        UsbSerialProber usbDefaultProber = UsbSerialProber.getDefaultProber();
-        int countL = 0;
-        for(UsbDevice deviceL : usbManager.getDeviceList().values()) {
-            // Log detailed device information
-            Log.d(TAG, "Device: " + deviceL.getDeviceName() + 
-                  " VID: 0x" + String.format("%04X", deviceL.getVendorId()) + 
-                  " PID: 0x" + String.format("%04X", deviceL.getProductId()) + 
-                  " Product: " + deviceL.getProductName() + 
-                  " Manufacturer: " + deviceL.getManufacturerName());
-
-            UsbSerialDriver driverL = usbDefaultProber.probeDevice(deviceL);
-            
-            // Format: devicePath:driverType:manufacturer:productId:vendorId:deviceNodePath:hasPermission
-            tempL = deviceL.getDeviceName() + ":";
-
-            if (driverL == null) {
-                tempL = tempL + "Unknown:";
-            }
-            else if (driverL instanceof CdcAcmSerialDriver)
-            {
-                tempL = tempL + "Cdc Acm:";
-            }
-            else if (driverL instanceof Ch34xSerialDriver)
-            {
-                tempL = tempL + "Ch34x:";
-            }
-            else if (driverL instanceof CommonUsbSerialPort)
-            {
-                tempL = tempL + "CommonUsb:";
-            }
-            else if (driverL instanceof Cp21xxSerialDriver)
-            {
-                tempL = tempL + "Cp21xx:";
-            }
-            else if (driverL instanceof FtdiSerialDriver)
-            {
-                tempL = tempL + "Ftdi:";
-            }
-            else if (driverL instanceof ProlificSerialDriver)
-            {
-                tempL = tempL + "Prolific:";
-            }
-
-            // Add manufacturer name (may be null)
-            String manufacturerName = deviceL.getManufacturerName();
-            tempL = tempL + (manufacturerName != null ? manufacturerName : "Unknown") + ":";
+        String[] listL = m_devices.snapshot();
+        if (listL == null || listL.length < 1)
+            return null;
 
-            // Add product and vendor IDs in hex format for better readability
-            tempL = tempL + String.format("0x%04X", deviceL.getProductId()) + ":";
-            tempL = tempL + String.format("0x%04X", deviceL.getVendorId()) + ":";
-            
-            // Add the device node path (e.g., /dev/bus/usb/001/002)
-            tempL = tempL + deviceL.getDeviceName() + ":";
-            
-            // Add permission status
-            tempL = tempL + (usbManager.hasPermission(deviceL) ? "true" : "false");
+        return listL;
+    }
 
-            listL[countL] = tempL;
-            countL++;
+    /**
+     * Same devices as {@link #availableDevicesInfo()} as fixed-size binary records plus a UTF-8 string
+     * table, so native code reads vendor/product ids, driver kind, port and interface count and the
+     * permission state in place instead of splitting strings. See {@link DeviceCatalog} for the layout.
+     *
+     * @return read-only direct buffer in native byte order, null if the USB service is not available
+     */
+    public static ByteBuffer availableDevicesPacked()
+    {
+        if (!m_devices.isScanned())
+        {
+            if (!getCurrentDevices())
+                return null;
+            m_devices.scan(usbManager);
         }
 
-        return listL;
+        return m_devices.packed();
     }
 
-    public static boolean setParameters(String portNameA, int baudRateA, int dataBitsA, int stopBitsA, int parityA)
+    /**
+     * Enumerate and probe all attached devices again, for when a USB broadcast may have been missed.
+     */
+    public static void rescanDevices()
     {
-        if (m_usbSerialPort.size() <= 0)
-            return false;
+        if (getCurrentDevices())
+            m_devices.scan(usbManager);
+    }
 
-        if (m_usbSerialPort.get(portNameA) == null)
+    public static boolean setParameters(int handleA, int baudRateA, int dataBitsA, int stopBitsA, int parityA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
             return false;
 
+        // kept for reopening the port after a reconnect
+        portL.mDataBits = dataBitsA;
+        portL.mStopBits = stopBitsA;
+        portL.mParity = parityA;
+        portL.mBaudRate = baudRateA;
         try
         {
-            m_usbSerialPort.get(portNameA).setParameters(baudRateA, dataBitsA, stopBitsA, parityA);
+            portL.mSerialPort.setParameters(baudRateA, dataBitsA, stopBitsA, parityA);
             return true;
         }
         catch(IOException eA)
@@ -284,138 +279,1234 @@ public class JniUsbSerial {
         }
     }
 
-    public static void stopIoManager(String portNameA)
+    /**
+     * Select flow control, flowControlA being a UsbSerialPort.FlowControl ordinal: 0 none, 1 RTS/CTS,
+     * 2 DTR/DSR, 3 XON/XOFF handled by the adapter, 4 XON/XOFF handled by the driver in the data.
+     * Kept across reconnects like the parameters.
+     *
+     * @return false if the port is not open or its driver does not support the mode, see
+     *         {@link #getSupportedFlowControl(int)}
+     */
+    public static boolean setFlowControl(int handleA, int flowControlA)
     {
-        if (m_usbIoManager.get(portNameA) == null)
-            return;
+        PortState portL = m_ports.get(handleA);
+        UsbSerialPort.FlowControl[] valuesL = UsbSerialPort.FlowControl.values();
+        if (portL == null || flowControlA < 0 || flowControlA >= valuesL.length)
+            return false;
+
+        UsbSerialPort.FlowControl flowControlL = valuesL[flowControlA];
+        if (!portL.mSerialPort.getSupportedFlowControl().contains(flowControlL))
+            return false;
 
-        m_usbIoManager.get(portNameA).stop();
-        m_usbIoManager.remove(portNameA);
+        try
+        {
+            portL.mSerialPort.setFlowControl(flowControlL);
+        }
+        catch (IOException | UnsupportedOperationException eA)
+        {
+            Log.w(TAG, "setFlowControl: " + eA.getMessage());
+            return false;
+        }
+        portL.mFlowControl = flowControlA;
+        return true;
     }
 
-    public static void startIoManager(String portNameA, long classPoint)
+    /**
+     * Raise or lower the DTR output line. Kept across reconnects like the parameters.
+     *
+     * @return false if the port is not open or the line could not be set
+     */
+    public static boolean setDataTerminalReady(int handleA, boolean valueA)
     {
-        if (m_usbSerialPort.get(portNameA) == null)
-            return;
-
-        SerialInputOutputManager usbIoManager = new SerialInputOutputManager(m_usbSerialPort.get(portNameA), m_Listener, classPoint);
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
 
-        m_usbIoManager.put(portNameA, usbIoManager);
-        m_usbIoManager.get(portNameA).start();
+        try
+        {
+            portL.mSerialPort.setDTR(valueA);
+        }
+        catch (IOException | UnsupportedOperationException eA)
+        {
+            Log.w(TAG, "setDataTerminalReady: " + eA.getMessage());
+            return false;
+        }
+        portL.mDtr = valueA;
+        return true;
     }
 
-    public static boolean close(String portNameA)
+    /**
+     * Raise or lower the RTS output line. Kept across reconnects like the parameters.
+     *
+     * @return false if the port is not open or the line could not be set
+     */
+    public static boolean setRequestToSend(int handleA, boolean valueA)
     {
-        if (m_usbSerialPort.get(portNameA) == null)
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
             return false;
 
         try
         {
-            stopIoManager(portNameA);
-            m_usbSerialPort.get(portNameA).close();
-            m_usbSerialPort.remove(portNameA);
-
-            return true;
+            portL.mSerialPort.setRTS(valueA);
         }
-        catch (IOException eA)
+        catch (IOException | UnsupportedOperationException eA)
         {
+            Log.w(TAG, "setRequestToSend: " + eA.getMessage());
             return false;
         }
+        portL.mRts = valueA;
+        return true;
     }
 
-    public static int open(String portNameA, long classPoint)
+    /**
+     * @return bit mask with bit (1 << ordinal) set for each flow control mode the port's driver
+     *         supports, 0 if the port is not open
+     */
+    public static int getSupportedFlowControl(int handleA)
     {
-        //  GET THE LIST OF CURRENT DEVICES
-        if (!getCurrentDevices())
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
             return 0;
 
-        if (usbManager.getDeviceList().size() < 1)
-            return 0;
+        int maskL = 0;
+        for (UsbSerialPort.FlowControl flowControlL : portL.mSerialPort.getSupportedFlowControl())
+            maskL |= 1 << flowControlL.ordinal();
+        return maskL;
+    }
 
-        if (m_usbSerialPort.get(portNameA) != null)
-            return 0;
+    /**
+     * Report the modem control lines through nativeDeviceControlLinesChanged() whenever they change,
+     * sampled every intervalMSecA, 0 stops monitoring. The lines are a bit mask with bit
+     * (1 << ordinal) of UsbSerialPort.ControlLine: RTS 0x01, CTS 0x02, DTR 0x04, DSR 0x08, CD 0x10,
+     * RI 0x20; the first sample is always reported.
+     *
+     * @return false if the port is not open or intervalMSecA is negative
+     */
+    public static boolean setControlLineMonitor(int handleA, int intervalMSecA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || intervalMSecA < 0)
+            return false;
 
-        UsbSerialProber usbDefaultProber = UsbSerialProber.getDefaultProber();
-        for(UsbDevice deviceL : usbManager.getDeviceList().values()) {
+        ControlLineMonitor monitorL = intervalMSecA > 0 ? new ControlLineMonitor(portL, m_Listener, intervalMSecA) : null;
+        ControlLineMonitor previousL;
+        synchronized (portL)
+        {
+            previousL = portL.mLineMonitor;
+            portL.mLineMonitor = monitorL;
+            if (monitorL != null)
+                monitorL.start();
+        }
+        if (previousL != null)
+            previousL.stop();
+        return true;
+    }
 
-            if (portNameA.equals(deviceL.getDeviceName()))
-            {
-            }
+    private static void stopControlLineMonitor(PortState portA)
+    {
+        ControlLineMonitor monitorL;
+        synchronized (portA)
+        {
+            monitorL = portA.mLineMonitor;
+            portA.mLineMonitor = null;
+        }
+        if (monitorL != null)
+            monitorL.stop();
+    }
+
+    public static void stopIoManager(int handleA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL != null)
+            stopIoManager(portL);
+    }
+
+    private static void stopIoManager(PortState portA)
+    {
+        SerialInputOutputManager usbIoManager;
+        ReceiveRing receiveRingL;
+        synchronized (portA)
+        {
+            usbIoManager = portA.mIoManager;
+            portA.mIoManager = null;
+            receiveRingL = portA.mReceiveRing;
+            portA.mReceiveRing = null;
+        }
+
+        if (usbIoManager != null)
+            usbIoManager.stop();
+        if (receiveRingL != null)
+            receiveRingL.stop();
+    }
+
+    public static void startIoManager(int handleA, long classPoint)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return;
+
+        synchronized (portL)
+        {
+            portL.mClassPoint = classPoint;
+            if (portL.mIoManager != null || portL.mDetached)
+                return;
+
+            SerialInputOutputManager usbIoManager = new SerialInputOutputManager(portL.mSerialPort, m_Listener, classPoint);
+            usbIoManager.setStats(portL.mStats);
+            usbIoManager.setCapture(portL.mCapture);
+            usbIoManager.setFramer(Framer.create(portL.mFramerType, portL.mFramerArgument, portL.mFramerMaxSize),
+                                   portL.mFrameBatching);
+            // waiting for requests returns any on the connection, so a multi-port adapter's ports leave it to
+            // the reaper, or before API 26 read with a timeout, which waits for no request
+            if (isMultiPort(portL) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                usbIoManager.setQueuedReads(portL.mSharedConnection.getReaper(),
+                        portL.mReadRequestCount > 0 ? portL.mReadRequestCount : SHARED_CONNECTION_READ_REQUESTS,
+                        portL.mReadRequestCount > 0 ? portL.mReadTransferSize : SHARED_CONNECTION_TRANSFER_SIZE);
+            else if (portL.mReadRequestCount > 0)
+                usbIoManager.setQueuedReads(portL.mConnection, portL.mReadRequestCount, portL.mReadTransferSize);
+            else if (isMultiPort(portL))
+                usbIoManager.setReadTimeout(SHARED_CONNECTION_READ_TIMEOUT_MSEC);
+            applyPortOptions(portL, usbIoManager);
+            applyReceiveRing(portL, usbIoManager);
+            if (portL.mSharedIo)
+                usbIoManager.setScheduler(sharedIoScheduler(portL.mThreadPriority));
             else
+                usbIoManager.setThreadPriority(portL.mThreadPriority);
+
+            portL.mIoManager = usbIoManager;
+            usbIoManager.start();
+        }
+    }
+
+    /**
+     * Service the port from a small pool of I/O threads shared with the other ports using sharedA and
+     * the same threadPriorityA, instead of a thread of its own; suits many slow ports, while high-rate
+     * ports keep sharedA false. Reads on shared threads block at most 5 ms. A write queue, see
+     * {@link #setWriteQueue(int, int, int)}, then gets no writer thread either: the shared threads send
+     * queued writes after each read, so they wait up to one scheduling round. threadPriorityA, see
+     * android.os.Process.setThreadPriority(), applies to the port's own or the shared threads and
+     * defaults to THREAD_PRIORITY_URGENT_AUDIO. Takes effect when the I/O manager is started next,
+     * see {@link #startIoManager(int, long)}.
+     *
+     * @return false if the port is not open or the priority is out of range
+     */
+    public static boolean setIoScheduling(int handleA, boolean sharedA, int threadPriorityA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || threadPriorityA < Process.THREAD_PRIORITY_URGENT_AUDIO || threadPriorityA > Process.THREAD_PRIORITY_LOWEST)
+            return false;
+
+        synchronized (portL)
+        {
+            portL.mSharedIo = sharedA;
+            portL.mThreadPriority = threadPriorityA;
+        }
+        return true;
+    }
+
+    private static SharedIoScheduler sharedIoScheduler(int threadPriorityA)
+    {
+        synchronized (m_ioSchedulers)
+        {
+            SharedIoScheduler schedulerL = m_ioSchedulers.get(threadPriorityA);
+            if (schedulerL == null)
             {
-                continue;
+                int threadsL = Math.max(1, Math.min(SHARED_IO_MAX_THREADS, Runtime.getRuntime().availableProcessors() / 2));
+                schedulerL = new SharedIoScheduler(threadsL, threadPriorityA, SHARED_IO_READ_TIMEOUT_MSEC);
+                m_ioSchedulers.put(threadPriorityA, schedulerL);
             }
+            return schedulerL;
+        }
+    }
+
+    /**
+     * @return true if portA belongs to a multi-port adapter, whose ports may share the connection
+     */
+    private static boolean isMultiPort(PortState portA)
+    {
+        SharedConnection sharedL = portA.mSharedConnection;
+        return sharedL != null && sharedL.getPortCount() > 1;
+    }
+
+    /**
+     * Apply the port's delivery options to its I/O manager. Caller holds the port's lock, so options
+     * set concurrently cannot be applied half.
+     */
+    private static void applyPortOptions(PortState portA, SerialInputOutputManager usbIoManager)
+    {
+        // a receive ring copies every read anyway, so it is always fed from the reused read buffer
+        final boolean receiveRingL = usesReceiveRing(portA);
+        usbIoManager.setReadCoalescing(portA.mCoalesceMaxBytes, portA.mCoalesceMaxHoldMSec);
+        usbIoManager.setReuseBuffers(portA.mReuseBuffers || receiveRingL);
+        if (portA.mLowLatency)
+            usbIoManager.setAdaptiveReadTimeout(LOW_LATENCY_READ_TIMEOUT_MIN, LOW_LATENCY_READ_TIMEOUT_MAX);
+        else
+            usbIoManager.setAdaptiveReadTimeout(0, 0);
+        usbIoManager.setDirectDelivery(portA.mDirectDelivery && !receiveRingL);
+    }
+
+    /**
+     * The ring re-chunks the byte stream, so it is not used while a framer keeps frame boundaries.
+     */
+    private static boolean usesReceiveRing(PortState portA)
+    {
+        return portA.mReceiveRingCapacity > 0 && portA.mFramerType == Framer.TYPE_NONE;
+    }
+
+    /**
+     * Put a new receive ring in front of the native callbacks, or remove it. Caller holds the port's lock.
+     */
+    private static void applyReceiveRing(PortState portA, SerialInputOutputManager usbIoManager)
+    {
+        ReceiveRing previousL = portA.mReceiveRing;
+        ReceiveRing receiveRingL = null;
+        if (usesReceiveRing(portA))
+        {
+            receiveRingL = new ReceiveRing(m_Listener, portA.mReceivePolicy, portA.mReceiveRingCapacity,
+                                           RECEIVE_DELIVERY_SIZE, portA.mStats);
+            receiveRingL.start();
+        }
+        portA.mReceiveRing = receiveRingL;
+        SerialInputOutputManager.Listener listenerL = receiveRingL != null ? receiveRingL : m_Listener;
+        // data still in the old ring goes out before anything delivered through the replacement
+        if (previousL != null)
+            previousL.handOver(listenerL);
+        usbIoManager.setListener(listenerL);
+    }
+
+    /**
+     * Buffer received data in a ring of capacityA bytes and call nativeDeviceNewData from a separate
+     * thread, so a slow consumer cannot make memory grow. policyA selects what happens when the ring is
+     * full: 0 drops the oldest bytes, 1 drops the new bytes, 2 blocks the reader. Drops are counted in
+     * the port stats. capacityA of 0 calls native code straight from the I/O thread again. On a running
+     * port the bytes still buffered are delivered before anything received through the new setting.
+     * Not used while a framer is set, see {@link #setFramer(int, int, int, int, boolean)}.
+     */
+    public static boolean setReceiveBuffer(int handleA, int capacityA, int policyA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || capacityA < 0 || policyA < 0 || policyA >= ReceiveRing.Policy.values().length)
+            return false;
 
-            UsbSerialDriver driverL = usbDefaultProber.probeDevice(deviceL);
-            if (driverL == null)
+        synchronized (portL)
+        {
+            portL.mReceiveRingCapacity = capacityA;
+            portL.mReceivePolicy = ReceiveRing.Policy.values()[policyA];
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            if (usbIoManager != null)
             {
-                return 0;
+                applyPortOptions(portL, usbIoManager);
+                applyReceiveRing(portL, usbIoManager);
             }
+        }
+        return true;
+    }
 
-            UsbDeviceConnection connectionL = usbManager.openDevice(driverL.getDevice());
-            if (connectionL == null) {
-                return 0;
-            }
+    /**
+     * Deliver received data to native code through one reused direct buffer instead of a new byte[] per read.
+     * The setting is kept with the port and applied again whenever the I/O manager is (re)started.
+     */
+    public static boolean setDirectDelivery(int handleA, boolean enabledA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        synchronized (portL)
+        {
+            portL.mDirectDelivery = enabledA;
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            if (usbIoManager != null)
+                applyPortOptions(portL, usbIoManager);
+        }
+        return true;
+    }
+
+    /**
+     * Run the read/write loop without per-iteration allocations: the read buffer is passed to
+     * nativeDeviceNewData together with the valid length.
+     */
+    public static boolean setReuseBuffers(int handleA, boolean enabledA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        synchronized (portL)
+        {
+            portL.mReuseBuffers = enabledA;
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            if (usbIoManager != null)
+                applyPortOptions(portL, usbIoManager);
+        }
+        return true;
+    }
+
+    /**
+     * Size the writer thread's lock-free queue to queueCapacityA writes (default 256, 0 disables
+     * writeAsync). writeAsync waits up to offerTimeoutMSecA for queue space before rejecting a write.
+     * Ports that never use writeAsync get no writer: it is created with the first writeAsync.
+     */
+    public static boolean setWriteQueue(int handleA, int queueCapacityA, int offerTimeoutMSecA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        synchronized (portL)
+        {
+            portL.mWriteQueueCapacity = queueCapacityA;
+            portL.mWriteOfferTimeoutMSec = offerTimeoutMSecA;
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            // a port without writer yet gets it with the new size on its first writeAsync
+            if (usbIoManager != null && (queueCapacityA == 0 || usbIoManager.hasWriteQueue()))
+                usbIoManager.setWriteQueue(queueCapacityA, offerTimeoutMSecA);
+        }
+        return true;
+    }
 
-            UsbSerialPort usbSerialPort = driverL.getPorts().get(0);
+    /**
+     * Queue sourceA on the port's writer thread and return without waiting for the transfer.
+     * Completion or failure is reported through nativeDeviceWriteComplete with the returned id.
+     *
+     * @return sequence id of the write, 0 if the port is not open or the write queue is full
+     */
+    public static long writeAsync(int handleA, byte[] sourceA)
+    {
+        return writeAsync(handleA, new byte[][] {sourceA});
+    }
 
-            try{
-                usbSerialPort.open(connectionL);
-                m_usbSerialPort.put(portNameA ,usbSerialPort);
+    /**
+     * Vectored variant of {@link #writeAsync(int, byte[])}: the buffers are sent back to back
+     * and reported as one completion.
+     */
+    public static long writeAsync(int handleA, byte[][] sourcesA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return 0;
 
-                startIoManager(portNameA, classPoint);
+        SerialInputOutputManager usbIoManager = portL.mIoManager;
+        if (usbIoManager == null)
+            return 0;
 
-                return 1;
+        if (!usbIoManager.hasWriteQueue())
+        {
+            synchronized (portL)
+            {
+                // the writer and its thread only exist once a port uses writeAsync
+                if (portL.mIoManager == usbIoManager && !usbIoManager.hasWriteQueue() && portL.mWriteQueueCapacity > 0)
+                    usbIoManager.setWriteQueue(portL.mWriteQueueCapacity, portL.mWriteOfferTimeoutMSec);
             }
-            catch (Exception e) {
-                m_usbSerialPort.remove(portNameA);
-                stopIoManager(portNameA);
+            // write queue disabled for this port
+            if (!usbIoManager.hasWriteQueue())
+            {
+                portL.mStats.onWriteFailure();
                 return 0;
             }
         }
+
+        long sequenceL = m_writeSequence.incrementAndGet();
+        if (usbIoManager.writeAsync(sourcesA, sequenceL))
+            return sequenceL;
+        portL.mStats.onWriteFailure();
         return 0;
     }
 
-    public static int write(String portNameA, byte[] sourceA, int timeoutMSecA)
+    /**
+     * Keep requestCountA bulk IN transfers of transferSizeA bytes queued on the read endpoint instead of
+     * reading synchronously, requestCountA of 0 selects synchronous reads again. Ports of multi-port
+     * adapters always read queued, through their connection's {@link ConnectionReaper}, with 4
+     * transfers of 16 KiB unless set here. Takes effect when the I/O manager is started next, see
+     * {@link #startIoManager(int, long)}.
+     *
+     * @return false if the port is not open or queued reads are not supported before API 26
+     */
+    public static boolean setQueuedReads(int handleA, int requestCountA, int transferSizeA)
     {
-        if (m_usbSerialPort.get(portNameA) == null)
-            return 0;
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || requestCountA < 0)
+            return false;
+
+        synchronized (portL)
+        {
+            // simulated ports have no connection to queue requests on
+            if (requestCountA > 0 && (transferSizeA <= 0 || portL.mConnection == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O))
+                return false;
+            portL.mReadRequestCount = requestCountA;
+            portL.mReadTransferSize = transferSizeA;
+        }
+        return true;
+    }
+
+    /**
+     * Deliver only complete frames to native code, one nativeDeviceNewData call per frame, or with
+     * batchingA one call per read holding all frames it completed, each preceded by a 4 byte big-endian
+     * length. typeA selects the framing: 0 none, 1 delimiter byte argumentA, 2 fixed length argumentA,
+     * 3 big-endian length prefix of argumentA bytes, 4 COBS, 5 SLIP. Longer or malformed frames are
+     * dropped and counted in the port stats.
+     */
+    public static boolean setFramer(int handleA, int typeA, int argumentA, int maxFrameSizeA, boolean batchingA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
 
+        Framer framerL;
         try
         {
-            System.out.println("Serial write:" + new String(sourceA, StandardCharsets.UTF_8));
-            m_usbSerialPort.get(portNameA).write(sourceA, timeoutMSecA);
+            framerL = Framer.create(typeA, argumentA, maxFrameSizeA);
         }
-        catch (IOException eA)
+        catch (IllegalArgumentException eA)
         {
-            return 0;
+            Log.e(TAG, "setFramer: " + eA.getMessage());
+            return false;
         }
 
-        return 1;
+        synchronized (portL)
+        {
+            portL.mFramerType = typeA;
+            portL.mFramerArgument = argumentA;
+            portL.mFramerMaxSize = maxFrameSizeA;
+            portL.mFrameBatching = batchingA;
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            if (usbIoManager != null)
+            {
+                usbIoManager.setFramer(framerL, batchingA);
+                applyPortOptions(portL, usbIoManager);
+                applyReceiveRing(portL, usbIoManager);
+            }
+        }
+        return true;
     }
 
-    // SerialInputOutputManager.Listener
+    /**
+     * Merge consecutive reads into one nativeDeviceNewData call until maxBytesA are pending or
+     * maxHoldMSecA elapsed since the first pending byte. maxBytesA of 0 disables coalescing.
+     */
+    public static boolean setReadCoalescing(int handleA, int maxBytesA, int maxHoldMSecA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || maxBytesA < 0 || maxHoldMSecA < 0)
+            return false;
 
-    private static final SerialInputOutputManager.Listener m_Listener =
-            new SerialInputOutputManager.Listener() {
+        synchronized (portL)
+        {
+            portL.mCoalesceMaxBytes = maxBytesA;
+            portL.mCoalesceMaxHoldMSec = maxHoldMSecA;
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            if (usbIoManager != null)
+                applyPortOptions(portL, usbIoManager);
+        }
+        return true;
+    }
 
-                @Override
-                public void onRunError(Exception e, long classPoint) {
-                    Log.e(TAG, "SerialInputOutputManager.onRunError: " + e.getMessage());
-                    nativeDeviceException(classPoint, e.getMessage());
-                }
+    /**
+     * @return {deliveries, merged reads} of the running I/O manager, or null if the port is not running
+     */
+    public static long[] getReadCoalescingStats(int handleA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return null;
 
-                @Override
-                public void onNewData(final byte[] data, long classPoint) {
-                    StringBuilder hexData = new StringBuilder();
-                    int bytesToShow = Math.min(data.length, 20); // Show up to 20 bytes
-                    for (int i = 0; i < bytesToShow; i++) {
-                        hexData.append(String.format("%02X ", data[i] & 0xFF));
-                    }
-                    
-                    Log.d(TAG, "SerialInputOutputManager.onNewData: Received " + data.length + " bytes: " + hexData.toString());
-                    nativeDeviceNewData(classPoint, data);
-                    Log.d(TAG, "SerialInputOutputManager.onNewData: Data passed to JNI");
+        SerialInputOutputManager usbIoManager = portL.mIoManager;
+        if (usbIoManager == null)
+            return null;
+
+        return new long[] {usbIoManager.getDeliveryCount(), usbIoManager.getMergedReadCount()};
+    }
+
+    /**
+     * Tune the port for request/response round trips: FTDI adapters get their latency timer lowered
+     * from 16 ms to 1 ms, so partial packets are sent right away, and with queued reads, see
+     * {@link #setQueuedReads(int, int, int)}, the read loop adapts its read timeout to the traffic.
+     * Synchronous reads keep blocking without timeout, the library would read with bulkTransfer
+     * otherwise and drop data at high baud rates. The average round-trip time so far is logged on
+     * every switch, compare it with STAT_RTT_* of getStats() afterwards.
+     *
+     * @return false if the port is not open or the latency timer could not be set
+     */
+    public static boolean setLowLatency(int handleA, boolean enabledA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        Log.i(TAG, "setLowLatency " + enabledA + ", average round trip so far " + portL.mStats.getAverageRttMicros() + " us");
+        boolean resultL = true;
+        if (portL.mSerialPort instanceof FtdiSerialDriver.FtdiSerialPort)
+        {
+            try
+            {
+                ((FtdiSerialDriver.FtdiSerialPort) portL.mSerialPort).setLatencyTimer(enabledA ? LOW_LATENCY_TIMER_MSEC : DEFAULT_LATENCY_TIMER_MSEC);
+            }
+            catch (IOException e)
+            {
+                Log.w(TAG, "setLowLatency: latency timer not set: " + e.getMessage());
+                resultL = false;
+            }
+        }
+
+        synchronized (portL)
+        {
+            portL.mLowLatency = enabledA;
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            if (usbIoManager != null)
+                applyPortOptions(portL, usbIoManager);
+        }
+        return resultL;
+    }
+
+    /**
+     * Copy the port's performance counters into outA without allocating, see {@link PortStats} for the
+     * layout. The counters are kept from open() to close() across I/O manager restarts.
+     *
+     * @return number of values written, 0 if the port is not open or outA is too small
+     */
+    public static int getStats(int handleA, long[] outA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || outA == null || outA.length < PortStats.STAT_COUNT)
+            return 0;
+
+        portL.mStats.copyTo(outA);
+        return PortStats.STAT_COUNT;
+    }
+
+    public static boolean resetStats(int handleA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        portL.mStats.reset();
+        return true;
+    }
+
+    /**
+     * Select the hot-path trace level, see {@link SerialTrace#LEVEL_OFF} and {@link SerialTrace#LEVEL_EVENTS}.
+     */
+    public static void setTraceLevel(int levelA)
+    {
+        SerialTrace.setLevel(levelA);
+    }
+
+    /**
+     * @return the recorded trace events as text, oldest first
+     */
+    public static String dumpTrace()
+    {
+        return SerialTrace.dump();
+    }
+
+    public static void clearTrace()
+    {
+        SerialTrace.clear();
+    }
+
+    public static boolean close(int handleA)
+    {
+        // once removed, no other thread can reach the port through its handle
+        PortState portL = m_ports.remove(handleA);
+        if (portL == null)
+            return false;
+
+        stopTransmitCoalescing(portL);
+        stopCapture(portL);
+        stopControlLineMonitor(portL);
+
+        try
+        {
+            stopIoManager(portL);
+            boolean detachedL;
+            synchronized (portL)
+            {
+                // a detached port was already released, a concurrent reconnect sees it is no longer registered
+                detachedL = portL.mDetached;
+                portL.mDetached = false;
+            }
+            SharedConnection sharedL = portL.mSharedConnection;
+            if (!detachedL)
+            {
+                if (sharedL != null)
+                    sharedL.release(portL.mPortIndex);
+                else
+                    portL.mSerialPort.close();
+            }
+
+            return true;
+        }
+        catch (IOException eA)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Open the device with the given device path and start its I/O manager. Further ports of multi-port
+     * adapters are addressed as "devicePath#index" and share the device's connection. Port names starting
+     * with {@value SimulatedSerialPort#SCHEME} open a {@link SimulatedSerialPort} instead of a USB device,
+     * names starting with {@value CaptureReplayPort#SCHEME} a {@link CaptureReplayPort}.
+     *
+     * @return handle used by all other port methods, 0 on failure
+     */
+    public static int open(final String portNameA, final long classPoint)
+    {
+        if (portNameA.startsWith(SimulatedSerialPort.SCHEME) || portNameA.startsWith(CaptureReplayPort.SCHEME))
+            return openSimulated(portNameA, classPoint);
+
+        //  GET THE LIST OF CURRENT DEVICES
+        if (!m_devices.isScanned())
+        {
+            if (!getCurrentDevices())
+                return 0;
+            m_devices.scan(usbManager);
+        }
+        if (usbManager == null)
+            return 0;
+
+        final int indexL = SharedConnection.portIndex(portNameA);
+        if (indexL < 0)
+            return 0;
+
+        // the catalog already probed the device
+        final String devicePathL = SharedConnection.devicePath(portNameA);
+        DeviceCatalog.Entry entryL = m_devices.get(devicePathL);
+        if (entryL == null || entryL.mDriver == null)
+            return 0;
+
+        final UsbSerialDriver driverL = entryL.mDriver;
+        final String canonicalNameL = SharedConnection.portName(devicePathL, indexL);
+
+        PortState portL = m_ports.register(canonicalNameL, new PortRegistry.Factory() {
+            @Override
+            public PortState create(int handle) {
+                SharedConnection sharedL;
+                try
+                {
+                    sharedL = SharedConnection.acquire(usbManager, driverL, indexL);
+                }
+                catch (Exception e)
+                {
+                    Log.e(TAG, "open: " + canonicalNameL + ": " + e.getMessage());
+                    return null;
+                }
+                return new PortState(handle, canonicalNameL, indexL, driverL.getDevice(), sharedL.getPort(indexL), sharedL, classPoint);
+            }
+        });
+        if (portL == null)
+            return 0;
+
+        startIoManager(portL.mHandle, classPoint);
+        return portL.mHandle;
+    }
+
+    private static int openSimulated(final String portNameA, final long classPoint)
+    {
+        PortState portL = m_ports.register(portNameA, new PortRegistry.Factory() {
+            @Override
+            public PortState create(int handle) {
+                try
+                {
+                    SimulatedSerialPort simulatedPort = portNameA.startsWith(CaptureReplayPort.SCHEME)
+                            ? CaptureReplayPort.fromPortName(portNameA)
+                            : SimulatedSerialPort.fromPortName(portNameA);
+                    simulatedPort.open(null);
+                    return new PortState(handle, portNameA, 0, null, simulatedPort, null, classPoint);
+                }
+                catch (IOException e)
+                {
+                    Log.e(TAG, "openSimulated: " + e.getMessage());
+                    return null;
+                }
+            }
+        });
+        if (portL == null)
+            return 0;
+
+        startIoManager(portL.mHandle, classPoint);
+        return portL.mHandle;
+    }
+
+    /**
+     * Keep the handle when the device is unplugged: the dead port is closed right away and, when the
+     * same adapter (vendor id, product id and serial number) is attached again and permitted, it is
+     * reopened with the last setParameters() values, flow control, DTR/RTS and options, and its I/O
+     * manager restarted under the same classPoint. nativeDeviceReconnected reports the downtime, also
+     * counted in the stats.
+     */
+    public static boolean setAutoReconnect(int handleA, boolean enabledA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        synchronized (portL)
+        {
+            // simulated ports cannot be unplugged
+            if (portL.mConnection == null)
+                return false;
+            portL.mAutoReconnect = enabledA;
+        }
+        return true;
+    }
+
+    private static void releasePorts(UsbDevice deviceA)
+    {
+        // the connection is dead, a device attached later under the same path gets a new one
+        SharedConnection.forget(deviceA.getDeviceName());
+
+        for (PortState portL : m_ports.ports())
+        {
+            if (!portL.mAutoReconnect || !deviceA.getDeviceName().equals(SharedConnection.devicePath(portL.mPortName)))
+                continue;
+
+            stopIoManager(portL);
+            synchronized (portL)
+            {
+                if (portL.mDetached)
+                    continue;
+                portL.mDetached = true;
+                portL.mDetachedNanos = System.nanoTime();
+            }
+            portL.mSharedConnection.release(portL.mPortIndex);
+            Log.i(TAG, "releasePorts: " + portL.mPortName + " detached, waiting for it to return");
+        }
+    }
+
+    private static void reconnectPorts(UsbDevice deviceA)
+    {
+        for (PortState portL : m_ports.ports())
+        {
+            synchronized (portL)
+            {
+                if (!portL.mDetached)
+                    continue;
+            }
+            if (portL.matches(deviceA))
+                reconnect(portL, deviceA);
+        }
+    }
+
+    private static void reconnect(PortState portA, UsbDevice deviceA)
+    {
+        DeviceCatalog.Entry entryL = m_devices.get(deviceA.getDeviceName());
+        UsbSerialDriver driverL = entryL != null ? entryL.mDriver : UsbSerialProber.getDefaultProber().probeDevice(deviceA);
+        if (driverL == null || usbManager == null)
+            return;
+
+        final int indexL = portA.mPortIndex;
+        SharedConnection sharedL;
+        try
+        {
+            sharedL = SharedConnection.acquire(usbManager, driverL, indexL);
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "reconnect: " + deviceA.getDeviceName() + ": " + e.getMessage());
+            return;
+        }
+
+        UsbSerialPort serialPortL = sharedL.getPort(indexL);
+        try
+        {
+            if (portA.mBaudRate > 0)
+                serialPortL.setParameters(portA.mBaudRate, portA.mDataBits, portA.mStopBits, portA.mParity);
+            if (portA.mFlowControl != 0)
+                serialPortL.setFlowControl(UsbSerialPort.FlowControl.values()[portA.mFlowControl]);
+            // the lines come back lowered from open()
+            if (portA.mDtr)
+                serialPortL.setDTR(true);
+            if (portA.mRts)
+                serialPortL.setRTS(true);
+            if (portA.mLowLatency && serialPortL instanceof FtdiSerialDriver.FtdiSerialPort)
+                ((FtdiSerialDriver.FtdiSerialPort) serialPortL).setLatencyTimer(LOW_LATENCY_TIMER_MSEC);
+        }
+        catch (Exception e)
+        {
+            Log.e(TAG, "reconnect: " + deviceA.getDeviceName() + ": " + e.getMessage());
+            sharedL.release(indexL);
+            return;
+        }
+
+        long downtimeNanosL;
+        synchronized (portA)
+        {
+            if (!portA.mDetached || !m_ports.rename(portA, SharedConnection.portName(deviceA.getDeviceName(), indexL)))
+            {
+                // closed or already reconnected meanwhile
+                sharedL.release(indexL);
+                return;
+            }
+            portA.mSerialPort = serialPortL;
+            portA.mSharedConnection = sharedL;
+            portA.mConnection = sharedL.getConnection();
+            portA.mDetached = false;
+            downtimeNanosL = System.nanoTime() - portA.mDetachedNanos;
+        }
+
+        portA.mStats.onReconnect(downtimeNanosL);
+        startIoManager(portA.mHandle, portA.mClassPoint);
+        Log.i(TAG, "reconnect: " + portA.mPortName + " back after " + downtimeNanosL / 1000000L + " ms");
+        m_Listener.onReconnected(downtimeNanosL / 1000000L, portA.mClassPoint);
+    }
+
+    /**
+     * Record everything the port receives and sends into memory-mapped segment files
+     * "pathA-NNNNN.cap" of segmentSizeA bytes, keeping the newest maxSegmentsA (0 keeps all).
+     * Replay a capture by opening "replay://pathA". See {@link SerialCapture} for the format.
+     *
+     * @return false if the port is not open, already capturing or the first segment cannot be created
+     */
+    public static boolean startCapture(int handleA, String pathA, int segmentSizeA, int maxSegmentsA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || pathA == null)
+            return false;
+
+        SerialCapture captureL;
+        try
+        {
+            captureL = new SerialCapture(new File(pathA), segmentSizeA, maxSegmentsA, portL.mStats);
+        }
+        catch (IllegalArgumentException e)
+        {
+            Log.e(TAG, "startCapture: " + e.getMessage());
+            return false;
+        }
+
+        synchronized (portL)
+        {
+            if (portL.mCapture != null)
+                return false;
+            try
+            {
+                captureL.start();
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "startCapture: " + e.getMessage());
+                return false;
+            }
+            portL.mCapture = captureL;
+            SerialInputOutputManager usbIoManager = portL.mIoManager;
+            if (usbIoManager != null)
+                usbIoManager.setCapture(captureL);
+        }
+        return true;
+    }
+
+    /**
+     * Stop capturing and close the capture files once the buffered records are written.
+     */
+    public static boolean stopCapture(int handleA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        return stopCapture(portL);
+    }
+
+    private static boolean stopCapture(PortState portA)
+    {
+        SerialCapture captureL;
+        synchronized (portA)
+        {
+            captureL = portA.mCapture;
+            portA.mCapture = null;
+            SerialInputOutputManager usbIoManager = portA.mIoManager;
+            if (usbIoManager != null)
+                usbIoManager.setCapture(null);
+        }
+        if (captureL == null)
+            return false;
+
+        captureL.stop();
+        return true;
+    }
+
+    /**
+     * Merge write() calls made within windowMSecA of the first one into a single USB transfer of at most
+     * maxBytesA bytes, 0 for the write endpoint's packet size; windowMSecA of 0 sends each write on its
+     * own again. A full buffer is sent by the writing call, else a flush thread of the port sends it when
+     * the window ends; use flush() for latency-critical commands. write() and writeDirect() then succeed
+     * once the data is buffered: a failed timed send is reported as a device exception right away and
+     * fails the next write(), writeDirect() or flush() of the port. STAT_TX_COALESCED_WRITES and
+     * STAT_TX_TRANSFERS_SAVED of getStats() show the effect.
+     *
+     * @return false if the port is not open or an argument is negative
+     */
+    public static boolean setTransmitCoalescing(int handleA, int windowMSecA, int maxBytesA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || windowMSecA < 0 || maxBytesA < 0)
+            return false;
+
+        TransmitCoalescer coalescerL = null;
+        if (windowMSecA > 0)
+        {
+            int maxBytesL = maxBytesA > 0 ? maxBytesA : SerialInputOutputManager.packetSize(portL.mSerialPort.getWriteEndpoint());
+            coalescerL = new TransmitCoalescer(portL, m_Listener, windowMSecA, maxBytesL);
+            coalescerL.start();
+        }
+        TransmitCoalescer previousL;
+        synchronized (portL)
+        {
+            previousL = portL.mCoalescer;
+            portL.mCoalescer = coalescerL;
+        }
+        close(previousL);
+        return true;
+    }
+
+    /**
+     * Send what the transmit coalescer holds right away.
+     *
+     * @return false if the port is not open or sending failed
+     */
+    public static boolean flush(int handleA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return false;
+
+        return flush(portL.mCoalescer);
+    }
+
+    private static boolean flush(TransmitCoalescer coalescerA)
+    {
+        if (coalescerA == null)
+            return true;
+
+        try
+        {
+            coalescerA.flush();
+        }
+        catch (IOException eA)
+        {
+            Log.w(TAG, "flush: " + eA.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    private static void stopTransmitCoalescing(PortState portA)
+    {
+        TransmitCoalescer coalescerL;
+        synchronized (portA)
+        {
+            coalescerL = portA.mCoalescer;
+            portA.mCoalescer = null;
+        }
+        close(coalescerL);
+    }
+
+    private static void close(TransmitCoalescer coalescerA)
+    {
+        if (coalescerA == null)
+            return;
+
+        try
+        {
+            coalescerA.close();
+        }
+        catch (IOException eA)
+        {
+            Log.w(TAG, "close transmit coalescer: " + eA.getMessage());
+        }
+    }
+
+    /**
+     * The port's direct buffer for {@link #writeDirect(int, ByteBuffer, int, int, int)}, allocated once
+     * with at least capacityA bytes, 64 KiB by default. Native code keeps a reference and fills it in
+     * place; a larger capacityA replaces it, the previous buffer must not be used afterwards.
+     *
+     * @return the buffer, null if the port is not open or capacityA is negative
+     */
+    public static ByteBuffer getWriteBuffer(int handleA, int capacityA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || capacityA < 0)
+            return null;
+
+        synchronized (portL.mDirectWriteLock)
+        {
+            if (portL.mDirectWriteBuffer == null || portL.mDirectWriteBuffer.capacity() < capacityA)
+                portL.mDirectWriteBuffer = ByteBuffer.allocateDirect(Math.max(capacityA, DIRECT_WRITE_BUFFER_SIZE));
+            return portL.mDirectWriteBuffer;
+        }
+    }
+
+    /**
+     * Write lengthA bytes at offsetA of a direct buffer from {@link #getWriteBuffer(int, int)}, in
+     * transfers of up to 16 KiB copied through one reused array, so no Java arrays are allocated
+     * per call. With transmit coalescing, payloads smaller than its buffer are merged like write() data,
+     * before larger ones what it holds is sent first.
+     *
+     * @return 1 on success, 0 if the port is not open, the range is outside the buffer or a transfer failed
+     */
+    public static int writeDirect(int handleA, ByteBuffer bufferA, int offsetA, int lengthA, int timeoutMSecA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null || bufferA == null || !bufferA.isDirect()
+                || offsetA < 0 || lengthA < 0 || offsetA > bufferA.capacity() - lengthA)
+            return 0;
+
+        portL.mStats.onWriteSubmitted();
+        TransmitCoalescer coalescerL = portL.mCoalescer;
+        if (coalescerL != null && lengthA < coalescerL.getMaxBytes())
+        {
+            synchronized (portL.mDirectWriteLock)
+            {
+                try
+                {
+                    coalescerL.write(bufferA, offsetA, lengthA, timeoutMSecA);
+                }
+                catch (IOException eA)
+                {
+                    return 0;
+                }
+            }
+            return 1;
+        }
+        if (!flush(coalescerL))
+            return 0;
+
+        synchronized (portL.mDirectWriteLock)
+        {
+            byte[] transferL = portL.mDirectWriteTransfer;
+            if (transferL == null)
+            {
+                int packetSizeL = SerialInputOutputManager.packetSize(portL.mSerialPort.getWriteEndpoint());
+                transferL = new byte[Math.max(packetSizeL, DIRECT_WRITE_TRANSFER_SIZE / packetSizeL * packetSizeL)];
+                portL.mDirectWriteTransfer = transferL;
+            }
+
+            try
+            {
+                bufferA.limit(offsetA + lengthA);
+                bufferA.position(offsetA);
+                while (bufferA.hasRemaining())
+                {
+                    int countL = Math.min(bufferA.remaining(), transferL.length);
+                    bufferA.get(transferL, 0, countL);
+                    portL.mSerialPort.write(transferL, countL, timeoutMSecA);
+                    portL.mStats.onWrite(countL);
+                    SerialCapture captureL = portL.mCapture;
+                    if (captureL != null)
+                        captureL.record(true, transferL, 0, countL);
+                }
+            }
+            catch (IOException eA)
+            {
+                portL.mStats.onWriteFailure();
+                return 0;
+            }
+            finally
+            {
+                bufferA.clear();
+            }
+        }
+        return 1;
+    }
+
+    public static int write(int handleA, byte[] sourceA, int timeoutMSecA)
+    {
+        PortState portL = m_ports.get(handleA);
+        if (portL == null)
+            return 0;
+
+        portL.mStats.onWriteSubmitted();
+        TransmitCoalescer coalescerL = portL.mCoalescer;
+        if (coalescerL != null)
+        {
+            try
+            {
+                coalescerL.write(sourceA, timeoutMSecA);
+            }
+            catch (IOException eA)
+            {
+                return 0;
+            }
+            return 1;
+        }
+
+        try
+        {
+            portL.mSerialPort.write(sourceA, timeoutMSecA);
+        }
+        catch (IOException eA)
+        {
+            portL.mStats.onWriteFailure();
+            return 0;
+        }
+
+        portL.mStats.onWrite(sourceA.length);
+        SerialCapture captureL = portL.mCapture;
+        if (captureL != null)
+            captureL.record(true, sourceA, 0, sourceA.length);
+        return 1;
+    }
+
+    // SerialInputOutputManager.Listener
+
+    private static final SerialInputOutputManager.Listener m_nativeListener =
+            new SerialInputOutputManager.Listener() {
+
+                @Override
+                public void onRunError(Exception e, long classPoint) {
+                    Log.e(TAG, "SerialInputOutputManager.onRunError: " + e.getMessage());
+                    nativeDeviceException(classPoint, e.getMessage());
+                }
+
+                @Override
+                public void onWriteComplete(long sequence, boolean success, long classPoint) {
+                    nativeDeviceWriteComplete(classPoint, sequence, success);
+                }
+
+                @Override
+                public void onControlLinesChanged(int lines, long classPoint) {
+                    nativeDeviceControlLinesChanged(classPoint, lines);
+                }
+
+                @Override
+                public void onReconnected(long downtimeMSec, long classPoint) {
+                    nativeDeviceReconnected(classPoint, downtimeMSec);
+                }
+
+                @Override
+                public void onNewData(final byte[] data, long classPoint) {
+                    if (SerialTrace.isEnabled())
+                        SerialTrace.record(SerialTrace.EVENT_CALLBACK, classPoint, data.length, data, 0);
+                    nativeDeviceNewData(classPoint, data);
+                }
+
+                @Override
+                public void onNewData(final byte[] data, int length, long classPoint) {
+                    if (SerialTrace.isEnabled())
+                        SerialTrace.record(SerialTrace.EVENT_CALLBACK, classPoint, length, data, 0);
+                    nativeDeviceNewData(classPoint, data, length);
+                }
+
+                @Override
+                public void onNewData(final ByteBuffer data, int length, long classPoint) {
+                    if (SerialTrace.isEnabled())
+                        SerialTrace.record(SerialTrace.EVENT_CALLBACK, classPoint, length, null, 0);
+                    nativeDeviceNewDirectData(classPoint, data, length);
                 }
             };
+
+    private static volatile SerialInputOutputManager.Listener m_Listener = m_nativeListener;
+
+    /**
+     * Send the callbacks of ports opened afterwards to listenerA instead of native code, so the Java
+     * side runs on a plain JVM without the native library; null restores the native callbacks.
+     */
+    static void setListener(SerialInputOutputManager.Listener listenerA)
+    {
+        m_Listener = listenerA != null ? listenerA : m_nativeListener;
+    }
 }
@@ -0,0 +1,69 @@
+package org.qtproject.jniusbserial;
+
+/**
+ * Frames preceded by a big-endian length of 1, 2 or 4 bytes that counts the payload only.
+ * The delivered frame is the payload without the prefix.
+ */
+class LengthPrefixFramer extends Framer {
+
+    private final int mPrefixSize;
+    private int mPrefixRead; // prefix bytes of the current frame seen so far
+    private long mPayloadLength;
+    private long mSkip; // payload bytes of an oversized frame still to drop
+
+    LengthPrefixFramer(int prefixSize, int maxFrameSize) {
+        super(maxFrameSize);
+        if (prefixSize != 1 && prefixSize != 2 && prefixSize != 4)
+            throw new IllegalArgumentException("prefix size must be 1, 2 or 4");
+        mPrefixSize = prefixSize;
+    }
+
+    @Override
+    void feed(byte[] data, int length, Sink sink) {
+        int offset = 0;
+        while (offset < length) {
+            if (mSkip > 0) {
+                int count = (int) Math.min(mSkip, length - offset);
+                mSkip -= count;
+                offset += count;
+                continue;
+            }
+            if (mPrefixRead < mPrefixSize) {
+                mPayloadLength = (mPayloadLength << 8) | (data[offset++] & 0xFF);
+                if (++mPrefixRead < mPrefixSize)
+                    continue;
+                if (mPayloadLength > mFrame.length) {
+                    sink.onFrameError();
+                    mSkip = mPayloadLength;
+                    startFrame();
+                    continue;
+                }
+                if (mPayloadLength == 0) {
+                    complete(sink);
+                    startFrame();
+                }
+                continue;
+            }
+            int count = (int) Math.min(mPayloadLength - mLength, length - offset);
+            System.arraycopy(data, offset, mFrame, mLength, count);
+            mLength += count;
+            offset += count;
+            if (mLength == mPayloadLength) {
+                complete(sink);
+                startFrame();
+            }
+        }
+    }
+
+    private void startFrame() {
+        mPrefixRead = 0;
+        mPayloadLength = 0;
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        startFrame();
+        mSkip = 0;
+    }
+}
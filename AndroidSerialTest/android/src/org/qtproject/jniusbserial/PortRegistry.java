@@ -0,0 +1,101 @@
+package org.qtproject.jniusbserial;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Handle to {@link PortState} table used by {@link JniUsbSerial}.
+ *
+ * Lookups by handle are lock-free and safe from any thread. Registering and removing ports is
+ * serialized on the registry. A handle combines a slot index with a generation counter, so a
+ * handle kept after close never resolves to a port opened later in the same slot.
+ */
+final class PortRegistry {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_COUNT = 1 << SLOT_BITS; // slot 0 is never used, handle 0 means "no port"
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+
+    private final AtomicReferenceArray<PortState> mSlots = new AtomicReferenceArray<PortState>(SLOT_COUNT);
+    private final HashMap<String, PortState> mByName = new HashMap<String, PortState>(); // Synchronized by 'this'
+    private int mGeneration; // Synchronized by 'this'
+
+    interface Factory {
+        /**
+         * @return the state for a newly opened port, or null if it could not be opened
+         */
+        PortState create(int handle);
+    }
+
+    /**
+     * @return the port for {@code handle}, or null if it was closed or never existed
+     */
+    PortState get(int handle) {
+        PortState state = mSlots.get(handle & SLOT_MASK);
+        return (state != null && state.mHandle == handle) ? state : null;
+    }
+
+    synchronized PortState getByName(String portName) {
+        return mByName.get(portName);
+    }
+
+    synchronized List<PortState> ports() {
+        return new ArrayList<PortState>(mByName.values());
+    }
+
+    /**
+     * Register {@code state} under the device path it got after a reconnect.
+     *
+     * @return false if the port was closed meanwhile or another port is registered under {@code portName}
+     */
+    synchronized boolean rename(PortState state, String portName) {
+        if (get(state.mHandle) != state)
+            return false;
+        PortState existing = mByName.get(portName);
+        if (existing != null && existing != state)
+            return false;
+        mByName.remove(state.mPortName);
+        state.mPortName = portName;
+        mByName.put(portName, state);
+        return true;
+    }
+
+    /**
+     * Allocate a handle for {@code portName} and register what {@code factory} opens with it.
+     * Holding the registry lock while opening keeps two threads from opening the same port.
+     *
+     * @return the registered port, or null if the name is already open, no slot is free or opening failed
+     */
+    synchronized PortState register(String portName, Factory factory) {
+        if (mByName.containsKey(portName))
+            return null;
+        for (int slot = 1; slot < SLOT_COUNT; slot++) {
+            if (mSlots.get(slot) != null)
+                continue;
+            mGeneration = (mGeneration + 1) & (Integer.MAX_VALUE >> SLOT_BITS);
+            if (mGeneration == 0)
+                mGeneration = 1;
+            PortState state = factory.create((mGeneration << SLOT_BITS) | slot);
+            if (state == null)
+                return null;
+            mByName.put(portName, state);
+            mSlots.set(slot, state);
+            return state;
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed port, or null if {@code handle} was not registered
+     */
+    synchronized PortState remove(int handle) {
+        PortState state = get(handle);
+        if (state == null)
+            return null;
+        mSlots.set(handle & SLOT_MASK, null);
+        mByName.remove(state.mPortName);
+        return state;
+    }
+}
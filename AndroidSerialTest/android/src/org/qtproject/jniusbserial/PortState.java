@@ -0,0 +1,106 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.os.Process;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Everything {@link JniUsbSerial} keeps for one open port, reached through the integer handle
+ * returned by {@link JniUsbSerial#open(String, long)}.
+ *
+ * Options are kept here so they survive restarting the I/O manager, and with auto-reconnect also a
+ * detach: the serial port and connection are replaced while handle, options and stats stay.
+ */
+final class PortState {
+
+    static final int DEFAULT_WRITE_QUEUE_CAPACITY = 256;
+
+    final int mHandle;
+    final int mPortIndex; // port of a multi-port adapter, see SharedConnection
+    final int mVendorId; // -1 for simulated ports
+    final int mProductId;
+    final String mSerialNumber; // null if the device has none or for simulated ports
+
+    volatile String mPortName; // device path and port index, the path may change on reconnect
+    volatile UsbSerialPort mSerialPort;
+    volatile SharedConnection mSharedConnection; // null for simulated ports
+    volatile UsbDeviceConnection mConnection; // null for simulated ports
+
+    final PortStats mStats = new PortStats(); // kept across I/O manager restarts
+
+    volatile SerialInputOutputManager mIoManager;
+    volatile long mClassPoint;
+
+    volatile boolean mDirectDelivery;
+    volatile boolean mReuseBuffers;
+    volatile int mCoalesceMaxBytes;
+    volatile int mCoalesceMaxHoldMSec;
+    volatile int mWriteQueueCapacity = DEFAULT_WRITE_QUEUE_CAPACITY;
+    volatile int mWriteOfferTimeoutMSec;
+    volatile int mReadRequestCount; // 0 reads synchronously
+    volatile int mReadTransferSize;
+    volatile int mReceiveRingCapacity; // 0 delivers straight from the I/O thread
+    volatile ReceiveRing.Policy mReceivePolicy = ReceiveRing.Policy.BLOCK;
+    ReceiveRing mReceiveRing; // Synchronized by 'this'
+    volatile int mFramerType = Framer.TYPE_NONE;
+    volatile int mFramerArgument;
+    volatile int mFramerMaxSize;
+    volatile boolean mFrameBatching;
+    volatile boolean mLowLatency;
+    volatile boolean mSharedIo; // serviced by a SharedIoScheduler instead of a thread of its own
+    volatile int mThreadPriority = Process.THREAD_PRIORITY_URGENT_AUDIO;
+    volatile SerialCapture mCapture; // null while not capturing
+    volatile TransmitCoalescer mCoalescer; // null sends every write() as its own transfer
+    final Object mDirectWriteLock = new Object(); // keeps the chunks of one writeDirect() together
+    ByteBuffer mDirectWriteBuffer; // Synchronized by mDirectWriteLock, filled by native code
+    byte[] mDirectWriteTransfer; // Synchronized by mDirectWriteLock
+    volatile int mBaudRate; // last setParameters(), 0 if never set
+    volatile int mDataBits;
+    volatile int mStopBits;
+    volatile int mParity;
+    volatile int mFlowControl; // UsbSerialPort.FlowControl ordinal, kept for reconnects
+    volatile boolean mDtr; // last setDataTerminalReady(), kept for reconnects
+    volatile boolean mRts; // last setRequestToSend(), kept for reconnects
+    volatile ControlLineMonitor mLineMonitor; // null while control lines are not monitored
+    volatile boolean mAutoReconnect;
+    boolean mDetached; // Synchronized by 'this'
+    long mDetachedNanos; // Synchronized by 'this'
+
+    /**
+     * @param device  the opened USB device, null for simulated ports
+     */
+    PortState(int handle, String portName, int portIndex, UsbDevice device, UsbSerialPort serialPort, SharedConnection connection, long classPoint) {
+        mHandle = handle;
+        mPortIndex = portIndex;
+        mVendorId = device != null ? device.getVendorId() : -1;
+        mProductId = device != null ? device.getProductId() : -1;
+        mSerialNumber = device != null ? serialNumberOf(device) : null;
+        mPortName = portName;
+        mSerialPort = serialPort;
+        mSharedConnection = connection;
+        mConnection = connection != null ? connection.getConnection() : null;
+        mClassPoint = classPoint;
+    }
+
+    /**
+     * @return true if {@code device} is the same adapter this port was opened on, by vendor id,
+     *         product id and serial number
+     */
+    boolean matches(UsbDevice device) {
+        if (mVendorId != device.getVendorId() || mProductId != device.getProductId())
+            return false;
+        return mSerialNumber == null || mSerialNumber.equals(serialNumberOf(device));
+    }
+
+    private static String serialNumberOf(UsbDevice device) {
+        try {
+            return device.getSerialNumber();
+        } catch (SecurityException e) {
+            return null; // needs permission for the device
+        }
+    }
+}
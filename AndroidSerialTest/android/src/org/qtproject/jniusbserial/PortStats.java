@@ -0,0 +1,183 @@
+package org.qtproject.jniusbserial;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free performance counters of one port, read all at once with {@link #copyTo(long[])}.
+ *
+ * Counters only the I/O thread writes are updated with plain lazy stores; counters several threads
+ * update use atomic adds. The layout of the copied array is given by the {@code STAT_*} indices;
+ * bucket {@code i} of the callback histogram counts callbacks that took 2^i to 2^(i+1) nanoseconds.
+ * The round-trip time runs from handing a write to the port to the first data read after it.
+ */
+public final class PortStats {
+
+    public static final int STAT_BYTES_IN = 0;
+    public static final int STAT_BYTES_OUT = 1;
+    public static final int STAT_READ_CALLS = 2;
+    public static final int STAT_EMPTY_READS = 3;
+    public static final int STAT_CALLBACKS = 4;
+    public static final int STAT_WRITE_QUEUE_PEAK = 5;
+    public static final int STAT_WRITE_FAILURES = 6;
+    public static final int STAT_RUN_ERRORS = 7;
+    public static final int STAT_CALLBACK_HISTOGRAM = 8;
+    public static final int HISTOGRAM_BUCKETS = 32;
+    public static final int STAT_RX_OVERRUNS = STAT_CALLBACK_HISTOGRAM + HISTOGRAM_BUCKETS;
+    public static final int STAT_RX_DROPPED_BYTES = STAT_RX_OVERRUNS + 1;
+    public static final int STAT_RX_BUFFER_PEAK = STAT_RX_OVERRUNS + 2;
+    public static final int STAT_FRAMES = STAT_RX_OVERRUNS + 3;
+    public static final int STAT_FRAME_ERRORS = STAT_RX_OVERRUNS + 4;
+    public static final int STAT_RTT_SAMPLES = STAT_RX_OVERRUNS + 5;
+    public static final int STAT_RTT_TOTAL_NANOS = STAT_RX_OVERRUNS + 6;
+    public static final int STAT_RTT_MAX_NANOS = STAT_RX_OVERRUNS + 7;
+    public static final int STAT_RECONNECTS = STAT_RX_OVERRUNS + 8;
+    public static final int STAT_DOWNTIME_NANOS = STAT_RX_OVERRUNS + 9;
+    public static final int STAT_CAPTURE_DROPS = STAT_RX_OVERRUNS + 10;
+    public static final int STAT_TX_COALESCED_WRITES = STAT_RX_OVERRUNS + 11;
+    public static final int STAT_TX_TRANSFERS_SAVED = STAT_RX_OVERRUNS + 12;
+    public static final int STAT_COUNT = STAT_RX_OVERRUNS + 13;
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(STAT_COUNT);
+    private final AtomicLong mRttStart = new AtomicLong(); // oldest unanswered write, 0 if none
+
+    /**
+     * Count one read on the I/O thread.
+     */
+    void onRead(int length) {
+        if (length > 0) {
+            mCounters.lazySet(STAT_BYTES_IN, mCounters.get(STAT_BYTES_IN) + length);
+            if (mRttStart.get() != 0)
+                onResponse(mRttStart.getAndSet(0));
+        } else {
+            mCounters.lazySet(STAT_EMPTY_READS, mCounters.get(STAT_EMPTY_READS) + 1);
+        }
+        mCounters.lazySet(STAT_READ_CALLS, mCounters.get(STAT_READ_CALLS) + 1);
+    }
+
+    /**
+     * Count one listener callback on the I/O thread that took {@code nanos}.
+     */
+    void onCallback(long nanos) {
+        int bucket = nanos <= 1 ? 0 : Math.min(63 - Long.numberOfLeadingZeros(nanos), HISTOGRAM_BUCKETS - 1);
+        mCounters.lazySet(STAT_CALLBACKS, mCounters.get(STAT_CALLBACKS) + 1);
+        mCounters.lazySet(STAT_CALLBACK_HISTOGRAM + bucket, mCounters.get(STAT_CALLBACK_HISTOGRAM + bucket) + 1);
+    }
+
+    /**
+     * Receive ring fill level after buffering data, on the I/O thread.
+     */
+    void onReceiveBuffered(int count) {
+        if (count > mCounters.get(STAT_RX_BUFFER_PEAK))
+            mCounters.lazySet(STAT_RX_BUFFER_PEAK, count);
+    }
+
+    /**
+     * Receive ring overflow that dropped {@code length} bytes, on the I/O thread.
+     */
+    void onReceiveOverrun(int length) {
+        mCounters.lazySet(STAT_RX_OVERRUNS, mCounters.get(STAT_RX_OVERRUNS) + 1);
+        mCounters.lazySet(STAT_RX_DROPPED_BYTES, mCounters.get(STAT_RX_DROPPED_BYTES) + length);
+    }
+
+    private void onResponse(long writeNanos) {
+        if (writeNanos == 0)
+            return;
+        long rtt = System.nanoTime() - writeNanos;
+        mCounters.lazySet(STAT_RTT_SAMPLES, mCounters.get(STAT_RTT_SAMPLES) + 1);
+        mCounters.lazySet(STAT_RTT_TOTAL_NANOS, mCounters.get(STAT_RTT_TOTAL_NANOS) + rtt);
+        if (rtt > mCounters.get(STAT_RTT_MAX_NANOS))
+            mCounters.lazySet(STAT_RTT_MAX_NANOS, rtt);
+    }
+
+    void onFrame() {
+        mCounters.lazySet(STAT_FRAMES, mCounters.get(STAT_FRAMES) + 1);
+    }
+
+    /**
+     * A frame was dropped for being too long or badly encoded, on the I/O thread.
+     */
+    void onFrameError() {
+        mCounters.lazySet(STAT_FRAME_ERRORS, mCounters.get(STAT_FRAME_ERRORS) + 1);
+    }
+
+    void onWrite(int length) {
+        mCounters.getAndAdd(STAT_BYTES_OUT, length);
+    }
+
+    /**
+     * A write was accepted, starts a round-trip measurement unless one is running.
+     */
+    void onWriteSubmitted() {
+        if (mRttStart.get() == 0)
+            mRttStart.compareAndSet(0, System.nanoTime());
+    }
+
+    void onWriteFailure() {
+        mCounters.getAndIncrement(STAT_WRITE_FAILURES);
+    }
+
+    void onCoalescedWrite() {
+        mCounters.getAndIncrement(STAT_TX_COALESCED_WRITES);
+    }
+
+    /**
+     * @param saved  writes that went out in the transfer of another one
+     */
+    void onTransfersSaved(int saved) {
+        mCounters.getAndAdd(STAT_TX_TRANSFERS_SAVED, saved);
+    }
+
+    void onCaptureDrop() {
+        mCounters.getAndIncrement(STAT_CAPTURE_DROPS);
+    }
+
+    void onRunError() {
+        mCounters.getAndIncrement(STAT_RUN_ERRORS);
+    }
+
+    void onWriteQueueDepth(int depth) {
+        long peak;
+        do {
+            peak = mCounters.get(STAT_WRITE_QUEUE_PEAK);
+            if (depth <= peak)
+                return;
+        } while (!mCounters.compareAndSet(STAT_WRITE_QUEUE_PEAK, peak, depth));
+    }
+
+    /**
+     * The port was reopened after being detached for {@code downtimeNanos}.
+     */
+    void onReconnect(long downtimeNanos) {
+        mCounters.getAndIncrement(STAT_RECONNECTS);
+        mCounters.getAndAdd(STAT_DOWNTIME_NANOS, downtimeNanos);
+    }
+
+    /**
+     * Average round-trip time in microseconds, 0 before the first sample.
+     */
+    public long getAverageRttMicros() {
+        long samples = mCounters.get(STAT_RTT_SAMPLES);
+        return samples == 0 ? 0 : mCounters.get(STAT_RTT_TOTAL_NANOS) / samples / 1000L;
+    }
+
+    /**
+     * Copy all counters into {@code out}, which needs at least {@link #STAT_COUNT} elements.
+     * Each counter is read atomically, the set as a whole is not a snapshot.
+     */
+    public void copyTo(long[] out) {
+        for (int i = 0; i < STAT_COUNT; i++) {
+            out[i] = mCounters.get(i);
+        }
+    }
+
+    /**
+     * Clear all counters. Increments racing with the reset may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < STAT_COUNT; i++) {
+            mCounters.set(i, 0);
+        }
+        mRttStart.set(0);
+    }
+}
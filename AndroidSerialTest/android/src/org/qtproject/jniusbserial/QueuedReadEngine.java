@@ -0,0 +1,285 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.FtdiSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Read path of a {@link SerialInputOutputManager} that keeps several bulk IN transfers queued on the
+ * read endpoint, instead of {@link UsbSerialPort#read(byte[], int)} which has at most one outstanding.
+ *
+ * Completions are reaped in the order the requests were queued. A transfer is re-queued as soon as
+ * its data was copied out, so the device always has a pending transfer to fill at high baud rates.
+ *
+ * The engine waits on the port's {@link UsbDeviceConnection}, so nothing else may queue
+ * {@link UsbRequest}s on that connection while it is open; ports sharing a connection give their engines
+ * the connection's {@link ConnectionReaper} instead, which waits for all of them. Requires API 26.
+ */
+class QueuedReadEngine {
+
+    private static final String TAG = QueuedReadEngine.class.getSimpleName();
+    private static final int FTDI_STATUS_BYTES = 2;
+
+    private final UsbDeviceConnection mConnection;
+    private final ConnectionReaper mReaper; // null if the engine waits on the connection itself
+    private final UsbEndpoint mEndpoint;
+    private final int mPacketSize;
+    private final int mHeaderBytes; // status prefix of every packet that is not serial data, e.g. FTDI
+    private final UsbRequest[] mRequests;
+    private final ByteBuffer[] mBuffers;
+    private final boolean[] mCompleted; // Synchronized by 'this'
+    private final byte[] mPayload; // data of the last reaped transfer, headers stripped
+
+    // all fields below are only touched by the I/O thread
+    private int mHead; // next request to complete in queue order
+    private int mPayloadOffset;
+    private int mPayloadLength;
+    private boolean mOpen;
+    private boolean mFailed; // Synchronized by 'this', the reaper lost the connection
+
+    /**
+     * @param requestCount  number of transfers kept queued
+     * @param transferSize  bytes per transfer, rounded up to whole packets of the read endpoint
+     */
+    QueuedReadEngine(UsbSerialPort serialPort, UsbDeviceConnection connection, int requestCount, int transferSize) {
+        this(serialPort, connection, null, requestCount, transferSize);
+    }
+
+    /**
+     * Engine of a port sharing its connection, whose completions {@code reaper} waits for.
+     */
+    QueuedReadEngine(UsbSerialPort serialPort, ConnectionReaper reaper, int requestCount, int transferSize) {
+        this(serialPort, reaper.getConnection(), reaper, requestCount, transferSize);
+    }
+
+    private QueuedReadEngine(UsbSerialPort serialPort, UsbDeviceConnection connection, ConnectionReaper reaper,
+                             int requestCount, int transferSize) {
+        if (requestCount <= 0 || transferSize <= 0)
+            throw new IllegalArgumentException("requestCount and transferSize must be positive");
+        mConnection = connection;
+        mReaper = reaper;
+        mEndpoint = serialPort.getReadEndpoint();
+        mPacketSize = mEndpoint.getMaxPacketSize();
+        mHeaderBytes = serialPort instanceof FtdiSerialDriver.FtdiSerialPort ? FTDI_STATUS_BYTES : 0;
+        int size = (transferSize + mPacketSize - 1) / mPacketSize * mPacketSize;
+        mRequests = new UsbRequest[requestCount];
+        mBuffers = new ByteBuffer[requestCount];
+        mCompleted = new boolean[requestCount];
+        for (int i = 0; i < requestCount; i++) {
+            mBuffers[i] = ByteBuffer.allocateDirect(size);
+        }
+        mPayload = new byte[size];
+    }
+
+    void open() throws IOException {
+        synchronized (this) {
+            mFailed = false;
+        }
+        if (mReaper != null)
+            mReaper.add(this);
+        try {
+            for (int i = 0; i < mRequests.length; i++) {
+                UsbRequest request = new UsbRequest();
+                synchronized (this) {
+                    mRequests[i] = request;
+                }
+                if (!request.initialize(mConnection, mEndpoint))
+                    throw new IOException("Error initializing USB request");
+                request.setClientData(this);
+                queue(i);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        mHead = 0;
+        mPayloadOffset = 0;
+        mPayloadLength = 0;
+        mOpen = true;
+    }
+
+    /**
+     * Cancel all queued transfers, which also wakes the I/O thread if it is waiting for one.
+     * Safe to call from any thread.
+     */
+    void cancel() {
+        for (UsbRequest request : mRequests) {
+            if (request != null)
+                request.cancel();
+        }
+    }
+
+    void close() {
+        mOpen = false;
+        for (int i = 0; i < mRequests.length; i++) {
+            UsbRequest request;
+            synchronized (this) {
+                request = mRequests[i];
+                mRequests[i] = null;
+                mCompleted[i] = false;
+            }
+            if (request != null) {
+                request.cancel();
+                request.close();
+            }
+        }
+        if (mReaper != null)
+            mReaper.remove(this);
+    }
+
+    /**
+     * Called by the reaper with a completed request of this engine.
+     */
+    synchronized void onCompleted(UsbRequest request) {
+        if (markCompleted(request))
+            notifyAll();
+    }
+
+    /**
+     * Called by the reaper when waiting on the connection failed.
+     */
+    synchronized void onConnectionFailed() {
+        mFailed = true;
+        notifyAll();
+    }
+
+    /**
+     * Same contract as {@link UsbSerialPort#read(byte[], int)}: waits up to {@code timeout}
+     * milliseconds (0 = forever) for the next transfer and copies as much of it as fits into {@code dest}.
+     * Data that does not fit is returned by the following calls before the next transfer.
+     *
+     * @return number of bytes copied, 0 on timeout or an empty transfer
+     */
+    int read(byte[] dest, int timeout) throws IOException {
+        if (!mOpen)
+            throw new IOException("Read engine not open");
+        if (mPayloadOffset == mPayloadLength) {
+            if (!awaitHead(timeout))
+                return 0;
+            reapHead();
+        }
+        int count = Math.min(dest.length, mPayloadLength - mPayloadOffset);
+        System.arraycopy(mPayload, mPayloadOffset, dest, 0, count);
+        mPayloadOffset += count;
+        return count;
+    }
+
+    /**
+     * @return false on timeout
+     */
+    private boolean awaitHead(int timeout) throws IOException {
+        if (mReaper != null)
+            return awaitReaped(timeout);
+        final long deadline = System.nanoTime() + timeout * 1000000L;
+        while (!isCompleted(mHead)) {
+            UsbRequest request;
+            if (timeout == 0) {
+                request = mConnection.requestWait();
+            } else {
+                long left = (deadline - System.nanoTime()) / 1000000L;
+                if (left <= 0)
+                    return false;
+                try {
+                    request = mConnection.requestWait(left);
+                } catch (TimeoutException e) {
+                    return false;
+                }
+            }
+            if (request == null)
+                throw new IOException("Waiting for USB request failed");
+            if (request.getClientData() != this) {
+                Log.w(TAG, "Ignoring USB request not queued by this engine");
+                continue;
+            }
+            synchronized (this) {
+                markCompleted(request);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@link #awaitHead(int)} for an engine whose completions the reaper hands over.
+     */
+    private synchronized boolean awaitReaped(int timeout) throws IOException {
+        final long deadline = System.nanoTime() + timeout * 1000000L;
+        while (!mCompleted[mHead]) {
+            if (mFailed)
+                throw new IOException("Waiting for USB request failed");
+            try {
+                if (timeout == 0) {
+                    wait();
+                } else {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0)
+                        return false;
+                    wait(left / 1000000L, (int) (left % 1000000L));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for USB request");
+            }
+        }
+        return true;
+    }
+
+    private synchronized boolean isCompleted(int index) {
+        return mCompleted[index];
+    }
+
+    /**
+     * Caller holds the engine's lock.
+     *
+     * @return false if {@code request} is not one of the engine's, e.g. it was closed meanwhile
+     */
+    private boolean markCompleted(UsbRequest request) {
+        // a later request may complete first, it is held until all earlier ones are reaped
+        for (int i = 0; i < mRequests.length; i++) {
+            if (mRequests[i] == request) {
+                mCompleted[i] = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the head transfer's serial data into mPayload and queue the transfer again.
+     */
+    private void reapHead() throws IOException {
+        ByteBuffer buffer = mBuffers[mHead];
+        int received = buffer.position();
+        int length = 0;
+        for (int packet = 0; packet < received; packet += mPacketSize) {
+            int count = Math.min(mPacketSize, received - packet) - mHeaderBytes;
+            if (count > 0) {
+                buffer.position(packet + mHeaderBytes);
+                buffer.get(mPayload, length, count);
+                length += count;
+            }
+        }
+        mPayloadOffset = 0;
+        mPayloadLength = length;
+
+        synchronized (this) {
+            mCompleted[mHead] = false;
+        }
+        queue(mHead);
+        mHead = (mHead + 1) % mRequests.length;
+    }
+
+    private void queue(int index) throws IOException {
+        ByteBuffer buffer = mBuffers[index];
+        buffer.clear();
+        if (!mRequests[index].queue(buffer))
+            throw new IOException("Queueing USB request failed");
+    }
+}
@@ -0,0 +1,277 @@
+package org.qtproject.jniusbserial;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded receive buffer between a {@link SerialInputOutputManager} and its consumer. Wraps the
+ * consumer's {@link SerialInputOutputManager.Listener}: received data is copied into a fixed ring on
+ * the I/O thread and handed to the consumer from a separate delivery thread, so memory stays flat when
+ * the consumer falls behind and what happens on overflow is decided by the {@link Policy}.
+ *
+ * Errors and write completions are passed through directly.
+ */
+class ReceiveRing implements SerialInputOutputManager.Listener, Runnable {
+
+    private static final String TAG = ReceiveRing.class.getSimpleName();
+    private static final long HAND_OVER_TIMEOUT_MSEC = 1000;
+
+    enum Policy {
+        /** overwrite the oldest buffered bytes */
+        DROP_OLDEST,
+        /** discard received bytes that do not fit */
+        DROP_NEWEST,
+        /** block the I/O thread until the consumer made room, pushing back on the device */
+        BLOCK
+    }
+
+    private final SerialInputOutputManager.Listener mConsumer;
+    private final Policy mPolicy;
+    private final PortStats mStats;
+    private final byte[] mRing;
+    private final byte[] mDelivery; // delivery thread only
+    private int mHead; // Synchronized by 'this'
+    private int mCount; // Synchronized by 'this'
+    private long mClassPoint; // Synchronized by 'this'
+    private boolean mRunning; // Synchronized by 'this'
+    private Thread mThread; // Synchronized by 'this'
+    private volatile SerialInputOutputManager.Listener mSuccessor; // written under 'this', set once handed over
+    private boolean mHandingOver; // Synchronized by 'this', until the buffered bytes reached the successor
+
+    /**
+     * @param capacity      ring size in bytes
+     * @param deliverySize  maximum bytes per consumer callback
+     * @param stats         receives overrun counters, may be null
+     */
+    ReceiveRing(SerialInputOutputManager.Listener consumer, Policy policy, int capacity, int deliverySize, PortStats stats) {
+        if (capacity <= 0 || deliverySize <= 0)
+            throw new IllegalArgumentException("capacity and deliverySize must be positive");
+        mConsumer = consumer;
+        mPolicy = policy;
+        mStats = stats;
+        mRing = new byte[capacity];
+        mDelivery = new byte[Math.min(deliverySize, capacity)];
+    }
+
+    synchronized void start() {
+        if (mRunning)
+            throw new IllegalStateException("already started");
+        mRunning = true;
+        mThread = new Thread(this, getClass().getSimpleName());
+        mThread.start();
+    }
+
+    /**
+     * Stop after delivering the bytes already buffered. Wakes an I/O thread blocked on a full ring;
+     * what it was putting, and whatever is put afterwards, is dropped and counted.
+     */
+    synchronized void stop() {
+        mRunning = false;
+        notifyAll();
+    }
+
+    /**
+     * Stop and pass everything not yet delivered to {@code successor}, typically the ring replacing
+     * this one: first the buffered bytes, then whatever an I/O thread still puts because it picked this
+     * ring as its listener before the swap. Waits for the callback in progress, so the consumer never
+     * gets data from both rings at once and sees the bytes in the order they were received. Install
+     * {@code successor} as the I/O manager's listener only after this returned.
+     *
+     * The successor is never called with this ring's lock held; a put() arriving meanwhile waits until
+     * the buffered bytes were passed on.
+     */
+    void handOver(SerialInputOutputManager.Listener successor) {
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            mSuccessor = successor;
+            mHandingOver = true;
+            thread = mThread;
+            notifyAll();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(HAND_OVER_TIMEOUT_MSEC);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive())
+                Log.w(TAG, "handOver: consumer still busy after " + HAND_OVER_TIMEOUT_MSEC + " ms");
+        }
+        byte[] buffered = null;
+        long classPoint;
+        synchronized (this) {
+            if (mCount > 0) {
+                buffered = new byte[mCount];
+                int first = Math.min(mCount, mRing.length - mHead);
+                System.arraycopy(mRing, mHead, buffered, 0, first);
+                System.arraycopy(mRing, 0, buffered, first, mCount - first);
+                mHead = 0;
+                mCount = 0;
+            }
+            classPoint = mClassPoint;
+        }
+        try {
+            if (buffered != null)
+                successor.onNewData(buffered, buffered.length, classPoint);
+        } finally {
+            synchronized (this) {
+                mHandingOver = false;
+                notifyAll();
+            }
+        }
+    }
+
+    synchronized int getBufferedCount() {
+        return mCount;
+    }
+
+    @Override
+    public void onNewData(byte[] data, long classPoint) {
+        put(data, null, 0, data.length, classPoint);
+    }
+
+    @Override
+    public void onNewData(byte[] data, int length, long classPoint) {
+        put(data, null, 0, length, classPoint);
+    }
+
+    @Override
+    public void onNewData(ByteBuffer data, int length, long classPoint) {
+        // only reached with direct delivery, which JniUsbSerial avoids in front of a ring
+        put(null, data, 0, length, classPoint);
+    }
+
+    @Override
+    public void onRunError(Exception e, long classPoint) {
+        mConsumer.onRunError(e, classPoint);
+    }
+
+    @Override
+    public void onWriteComplete(long sequence, boolean success, long classPoint) {
+        mConsumer.onWriteComplete(sequence, success, classPoint);
+    }
+
+    /**
+     * Copy {@code length} bytes into the ring, from {@code data} at {@code offset} or else from the
+     * position of {@code buffer}, which is advanced. Once handed over, what did not go into the ring is
+     * forwarded to the successor outside the lock.
+     */
+    private void put(byte[] data, ByteBuffer buffer, int offset, int length, long classPoint) {
+        final int left = fill(data, buffer, offset, length, classPoint);
+        if (left == 0)
+            return;
+        final SerialInputOutputManager.Listener successor = mSuccessor;
+        // only the rest of a put that blocked on a full ring until the hand-over needs a copy
+        if (buffer != null)
+            successor.onNewData(buffer, left, classPoint);
+        else if (left == length && offset == 0)
+            successor.onNewData(data, length, classPoint);
+        else
+            successor.onNewData(Arrays.copyOfRange(data, offset + length - left, offset + length), left, classPoint);
+    }
+
+    /**
+     * @return number of trailing bytes for the successor, 0 if all were buffered or dropped
+     */
+    private synchronized int fill(byte[] data, ByteBuffer buffer, int offset, int length, long classPoint) {
+        mClassPoint = classPoint;
+        final int capacity = mRing.length;
+        while (length > 0) {
+            if (mSuccessor != null) {
+                // the buffered bytes go first
+                while (mHandingOver) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped(length);
+                        return 0;
+                    }
+                }
+                return length;
+            }
+            if (!mRunning) {
+                dropped(length);
+                return 0;
+            }
+            int free = capacity - mCount;
+            if (free == 0) {
+                if (mPolicy == Policy.DROP_NEWEST) {
+                    dropped(length);
+                    return 0;
+                }
+                if (mPolicy == Policy.DROP_OLDEST) {
+                    int drop = Math.min(length, mCount);
+                    mHead = (mHead + drop) % capacity;
+                    mCount -= drop;
+                    dropped(drop);
+                    continue;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped(length);
+                    return 0;
+                }
+                continue;
+            }
+            int count = Math.min(length, free);
+            int tail = (mHead + mCount) % capacity;
+            int first = Math.min(count, capacity - tail);
+            if (buffer != null) {
+                buffer.get(mRing, tail, first);
+                buffer.get(mRing, 0, count - first);
+            } else {
+                System.arraycopy(data, offset, mRing, tail, first);
+                System.arraycopy(data, offset + first, mRing, 0, count - first);
+            }
+            mCount += count;
+            offset += count;
+            length -= count;
+            if (mStats != null)
+                mStats.onReceiveBuffered(mCount);
+            notifyAll();
+        }
+        return 0;
+    }
+
+    private void dropped(int length) {
+        if (mStats != null)
+            mStats.onReceiveOverrun(length);
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Running ...");
+        while (true) {
+            int count;
+            long classPoint;
+            synchronized (this) {
+                while (mCount == 0 && mRunning) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        mRunning = false;
+                    }
+                }
+                if (mCount == 0 || mSuccessor != null)
+                    break;
+                count = Math.min(mCount, mDelivery.length);
+                int first = Math.min(count, mRing.length - mHead);
+                System.arraycopy(mRing, mHead, mDelivery, 0, first);
+                System.arraycopy(mRing, 0, mDelivery, first, count - first);
+                mHead = (mHead + count) % mRing.length;
+                mCount -= count;
+                classPoint = mClassPoint;
+                notifyAll();
+            }
+            mConsumer.onNewData(mDelivery, count, classPoint);
+        }
+        Log.i(TAG, "Stopped");
+    }
+}
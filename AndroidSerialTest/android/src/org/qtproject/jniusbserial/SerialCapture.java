@@ -0,0 +1,240 @@
+package org.qtproject.jniusbserial;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-rate binary record of everything a port receives and sends, for reproducing field issues
+ * with {@link CaptureReplayPort}.
+ *
+ * Records go into memory-mapped segment files {@code <base>-00000.cap}, {@code <base>-00001.cap}, ...
+ * of a fixed size; with {@code maxSegments} set the oldest segment is deleted when a new one starts.
+ * Recording threads only copy into a pool of in-memory chunks under a short lock, a separate thread
+ * moves full chunks into the mapped file, so the I/O thread never waits for storage. When that thread
+ * falls behind and no chunk is free, records are dropped and counted in
+ * {@link PortStats#STAT_CAPTURE_DROPS}.
+ *
+ * Segment layout, big-endian: a {@value #HEADER_SIZE} byte header (magic "SCAP", version, header size,
+ * segment index, capture start as wall clock milliseconds, reserved), then records of a 12 byte header
+ * (nanoseconds since capture start, length with {@link #FLAG_TX} set for sent data) and the data. A
+ * record length of 0 ends the segment.
+ */
+final class SerialCapture implements Runnable {
+
+    private static final String TAG = SerialCapture.class.getSimpleName();
+
+    static final int MAGIC = 0x53434150; // "SCAP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_HEADER_SIZE = 12;
+    static final int FLAG_TX = 0x80000000;
+    static final String SUFFIX = ".cap";
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNK_COUNT = 16;
+    private static final int MAX_PAYLOAD = CHUNK_SIZE - RECORD_HEADER_SIZE;
+    private static final long FLUSH_INTERVAL_MSEC = 100;
+
+    private final File mBase;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+    private final PortStats mStats;
+    private final long mStartNanos = System.nanoTime();
+    private final long mStartMillis = System.currentTimeMillis();
+    private final ArrayBlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final ArrayBlockingQueue<ByteBuffer> mFull = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private ByteBuffer mCurrent; // Synchronized by 'this'
+    private boolean mRunning; // Synchronized by 'this'
+    private Thread mThread;
+
+    // writer thread only
+    private int mSegmentIndex = -1;
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mSegment;
+
+    /**
+     * @param base         path of the segment files without the {@code -NNNNN.cap} suffix
+     * @param segmentSize  bytes per segment file
+     * @param maxSegments  segment files kept, 0 keeps all
+     * @param stats        receives dropped records, may be null
+     */
+    SerialCapture(File base, int segmentSize, int maxSegments, PortStats stats) {
+        if (segmentSize < HEADER_SIZE + CHUNK_SIZE || maxSegments < 0)
+            throw new IllegalArgumentException("segmentSize below " + (HEADER_SIZE + CHUNK_SIZE) + " or negative maxSegments");
+        mBase = base;
+        mSegmentSize = segmentSize;
+        mMaxSegments = maxSegments;
+        mStats = stats;
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            mFree.add(ByteBuffer.allocate(CHUNK_SIZE));
+        }
+    }
+
+    static File segmentFile(File base, int index) {
+        return new File(base.getPath() + String.format("-%05d", index) + SUFFIX);
+    }
+
+    /**
+     * Open the first segment and start the writer thread.
+     */
+    synchronized void start() throws IOException {
+        if (mRunning || mThread != null)
+            throw new IllegalStateException("already started");
+        nextSegment();
+        mRunning = true;
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop recording, write out what is buffered and close the last segment.
+     */
+    void stop() {
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+        }
+        if (thread == null)
+            return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Record {@code length} bytes received or sent ({@code tx}), from any thread.
+     */
+    void record(boolean tx, byte[] data, int offset, int length) {
+        final long nanos = System.nanoTime() - mStartNanos;
+        while (length > 0) {
+            int count = Math.min(length, MAX_PAYLOAD);
+            if (!append(tx, nanos, data, offset, count)) {
+                if (mStats != null)
+                    mStats.onCaptureDrop();
+                return;
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private synchronized boolean append(boolean tx, long nanos, byte[] data, int offset, int count) {
+        if (!mRunning)
+            return false;
+        ByteBuffer chunk = mCurrent;
+        if (chunk == null || chunk.remaining() < RECORD_HEADER_SIZE + count) {
+            if (chunk != null)
+                mFull.offer(chunk); // there are never more chunks than queue slots
+            chunk = mFree.poll();
+            mCurrent = chunk;
+            if (chunk == null)
+                return false;
+        }
+        chunk.putLong(nanos);
+        chunk.putInt(tx ? FLAG_TX | count : count);
+        chunk.put(data, offset, count);
+        return true;
+    }
+
+    private synchronized ByteBuffer takePartial() {
+        ByteBuffer chunk = mCurrent;
+        if (chunk == null || chunk.position() == 0)
+            return null;
+        mCurrent = null;
+        return chunk;
+    }
+
+    private synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Capturing to " + mBase);
+        try {
+            while (true) {
+                ByteBuffer chunk = mFull.poll(FLUSH_INTERVAL_MSEC, TimeUnit.MILLISECONDS);
+                if (chunk == null)
+                    chunk = takePartial();
+                if (chunk == null) {
+                    if (!isRunning() && mFull.isEmpty())
+                        break;
+                    continue;
+                }
+                store(chunk);
+                chunk.clear();
+                mFree.offer(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "Capture stopped: " + e.getMessage());
+            synchronized (this) {
+                mRunning = false;
+            }
+        } finally {
+            closeSegment();
+            Log.i(TAG, "Capture closed");
+        }
+    }
+
+    private void store(ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        final byte[] array = chunk.array();
+        while (chunk.hasRemaining()) {
+            int position = chunk.position();
+            int size = RECORD_HEADER_SIZE + (chunk.getInt(position + 8) & ~FLAG_TX);
+            // a record never spans segments, the rest of a segment stays zero and ends it
+            if (mSegment.remaining() < size)
+                nextSegment();
+            mSegment.put(array, position, size);
+            chunk.position(position + size);
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        closeSegment();
+        mSegmentIndex++;
+        File file = segmentFile(mBase, mSegmentIndex);
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mSegment = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        mSegment.putInt(MAGIC);
+        mSegment.putInt(VERSION);
+        mSegment.putInt(HEADER_SIZE);
+        mSegment.putInt(mSegmentIndex);
+        mSegment.putLong(mStartMillis);
+        mSegment.putLong(0);
+        if (mMaxSegments > 0 && mSegmentIndex >= mMaxSegments) {
+            File oldest = segmentFile(mBase, mSegmentIndex - mMaxSegments);
+            if (oldest.exists() && !oldest.delete())
+                Log.w(TAG, "Cannot delete " + oldest);
+        }
+    }
+
+    private void closeSegment() {
+        if (mFile == null)
+            return;
+        try {
+            mSegment.force();
+            // only the last segment is usually partly filled, cut its zero tail
+            mFile.getChannel().truncate(mSegment.position());
+            mFile.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing capture segment failed: " + e.getMessage());
+        }
+        mFile = null;
+        mSegment = null;
+    }
+}
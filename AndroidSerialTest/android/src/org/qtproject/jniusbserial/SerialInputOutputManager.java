@@ -1,5 +1,7 @@
 package org.qtproject.jniusbserial;
 
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
 import android.os.Process;
 import android.util.Log;
 
@@ -7,6 +9,9 @@ import com.hoho.android.usbserial.driver.UsbSerialPort;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class which services a {@link UsbSerialPort} in its {@link #run()} method.
@@ -25,23 +30,78 @@ public class SerialInputOutputManager implements Runnable {
 
     private static final String TAG = SerialInputOutputManager.class.getSimpleName();
     private static final int BUFSIZ = 4096;
+    private static final int DEFAULT_PACKET_SIZE = 64; // for ports without USB endpoints, e.g. SimulatedSerialPort
+    private static final long FLUSH_THREAD_STOP_TIMEOUT_MSEC = 1000;
 
     /**
      * default read timeout is infinite, to avoid data loss with bulkTransfer API
      */
     private int mReadTimeout = 0;
     private int mWriteTimeout = 0;
+    private volatile int mAdaptiveMinMSec; // 0 uses mReadTimeout
+    private volatile int mAdaptiveMaxMSec;
+    private int mAdaptiveTimeout; // I/O thread only
 
     private final Object mReadBufferLock = new Object();
     private final Object mWriteBufferLock = new Object();
 
     private ByteBuffer mReadBuffer; // default size = getReadEndpoint().getMaxPacketSize()
     private ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFSIZ);
+    private ByteBuffer mWriteSpareBuffer = ByteBuffer.allocate(BUFSIZ); // swapped with mWriteBuffer when reusing buffers
 
     private int mThreadPriority = Process.THREAD_PRIORITY_URGENT_AUDIO;
     private State mState = State.STOPPED; // Synchronized by 'this'
+    private boolean mStarted; // Synchronized by 'this', true from start() until run() ends
     private Listener mListener; // Synchronized by 'this'
     private final UsbSerialPort mSerialPort;
+    private volatile boolean mDirectDelivery;
+    private ByteBuffer mDirectBuffer; // Synchronized by mDeliveryLock, grown to the largest delivery
+    private volatile boolean mReuseBuffers;
+    private volatile SerialWriter mWriter; // write queue with its own thread or polled by a scheduler, null to write from the read loop
+    // polled writers replaced while running, their requests are failed on the I/O thread
+    private final ConcurrentLinkedQueue<SerialWriter> mRetiredWriters = new ConcurrentLinkedQueue<>();
+    private UsbDeviceConnection mReadConnection; // for queued reads, see setQueuedReads()
+    private ConnectionReaper mReadReaper; // null if the read engine waits on mReadConnection itself
+    private int mReadRequestCount;
+    private int mReadTransferSize;
+    private volatile QueuedReadEngine mReadEngine; // exists while run() is active with queued reads
+    private volatile PortStats mStats;
+    private volatile SerialCapture mCapture;
+    private SharedIoScheduler mScheduler; // Synchronized by 'this', null for a dedicated thread
+
+    // framing, batch buffer and sink are only touched by the I/O thread
+    private volatile Framer mFramer;
+    private volatile boolean mFrameBatching;
+    private byte[] mFrameBatch;
+    private int mFrameBatchLength;
+    private final Framer.Sink mFrameSink = new Framer.Sink() {
+        @Override
+        public void onFrame(byte[] frame, int length) {
+            frameComplete(frame, length);
+        }
+
+        @Override
+        public void onFrameError() {
+            final PortStats stats = mStats;
+            if (stats != null)
+                stats.onFrameError();
+        }
+    };
+
+    // held while handling a read on the I/O thread and while the flush thread delivers coalesced data
+    private final Object mDeliveryLock = new Object();
+
+    // read coalescing, buffer and pending state are synchronized by mDeliveryLock
+    private volatile int mCoalesceMaxBytes = 0;
+    private volatile int mCoalesceMaxHoldMillis = 0;
+    private byte[] mCoalesceBuffer;
+    private int mCoalesceLength;
+    private int mCoalesceReads;
+    private long mCoalesceDeadline;
+    private boolean mCoalesceFlushRunning;
+    private Thread mCoalesceFlushThread; // I/O thread only, delivers held data while a synchronous read blocks
+    private volatile long mDeliveryCount; // written under mDeliveryLock
+    private volatile long mMergedReadCount; // written under mDeliveryLock
 
     private long mClassPoint;
 
@@ -51,22 +111,69 @@ public class SerialInputOutputManager implements Runnable {
          */
         void onNewData(byte[] data, long classPoint);
 
+        /**
+         * Called instead of {@link #onNewData(byte[], long)} when buffers are reused, see
+         * {@link SerialInputOutputManager#setReuseBuffers(boolean)}. The first {@code length} bytes
+         * of {@code data} are only valid until this method returns. The default copies them into a new
+         * array for listeners that only implement {@link #onNewData(byte[], long)}; override it to keep
+         * the loop free of allocations.
+         */
+        default void onNewData(byte[] data, int length, long classPoint) {
+            onNewData(Arrays.copyOf(data, length), classPoint);
+        }
+
+        /**
+         * Called instead of {@link #onNewData(byte[], long)} with direct delivery, see
+         * {@link SerialInputOutputManager#setDirectDelivery(boolean)}. The first {@code length} bytes of
+         * the direct buffer are only valid until this method returns.
+         * Like the one above, the default copies them into a new array.
+         */
+        default void onNewData(ByteBuffer data, int length, long classPoint) {
+            final byte[] copy = new byte[length];
+            data.get(copy, 0, length);
+            onNewData(copy, classPoint);
+        }
+
         /**
          * Called when {@link SerialInputOutputManager#run()} aborts due to an error.
          */
         void onRunError(Exception e, long classPoint);
+
+        /**
+         * Called from the thread draining the write queue when a write queued with a sequence id was
+         * transferred, or will never be, see {@link SerialInputOutputManager#writeAsync(byte[][], long)}.
+         */
+        default void onWriteComplete(long sequence, boolean success, long classPoint) {
+        }
+
+        /**
+         * Called from the monitor thread when the modem control lines changed, see {@link ControlLineMonitor}.
+         */
+        default void onControlLinesChanged(int lines, long classPoint) {
+        }
+
+        /**
+         * Called from the thread handling the attach broadcast when an unplugged port is back, see
+         * {@link JniUsbSerial#setAutoReconnect(int, boolean)}.
+         */
+        default void onReconnected(long downtimeMSec, long classPoint) {
+        }
     }
 
     public SerialInputOutputManager(UsbSerialPort serialPort) {
         mSerialPort = serialPort;
-        mReadBuffer = ByteBuffer.allocate(serialPort.getReadEndpoint().getMaxPacketSize());
+        mReadBuffer = ByteBuffer.allocate(packetSize(serialPort.getReadEndpoint()));
     }
 
     public SerialInputOutputManager(UsbSerialPort serialPort, Listener listener, long classPoint) {
         mSerialPort = serialPort;
         mListener = listener;
         mClassPoint = classPoint;
-        mReadBuffer = ByteBuffer.allocate(serialPort.getReadEndpoint().getMaxPacketSize());
+        mReadBuffer = ByteBuffer.allocate(packetSize(serialPort.getReadEndpoint()));
+    }
+
+    static int packetSize(UsbEndpoint endpoint) {
+        return endpoint != null ? endpoint.getMaxPacketSize() : DEFAULT_PACKET_SIZE;
     }
 
     public synchronized void setListener(Listener listener) {
@@ -102,6 +209,23 @@ public class SerialInputOutputManager implements Runnable {
         return mReadTimeout;
     }
 
+    /**
+     * Adapt the read timeout to the traffic instead of using the fixed one: {@code minMSec} after a read
+     * returned data, doubling with each empty read up to {@code maxMSec}. While data arrives the loop
+     * wakes up often enough to serve writes and coalescing promptly, while idle it rarely wakes up.
+     * Only applies with {@link #setQueuedReads}: a synchronous read with a timeout goes through
+     * {@code bulkTransfer}, which has no transfer pending between calls and loses data at high baud
+     * rates, so those keep the fixed timeout. Can be changed while running, effective with the next
+     * read; a read already waiting without timeout returns with the next data first. 0 for minMSec
+     * restores the fixed timeout.
+     */
+    public void setAdaptiveReadTimeout(int minMSec, int maxMSec) {
+        if (minMSec < 0 || (minMSec > 0 && maxMSec < minMSec))
+            throw new IllegalArgumentException("invalid adaptive read timeout " + minMSec + ".." + maxMSec);
+        mAdaptiveMaxMSec = maxMSec;
+        mAdaptiveMinMSec = minMSec;
+    }
+
     public void setWriteTimeout(int timeout) {
         mWriteTimeout = timeout;
     }
@@ -133,6 +257,7 @@ public class SerialInputOutputManager implements Runnable {
             if(mWriteBuffer.position() > 0)
                 newWriteBuffer.put(mWriteBuffer.array(), 0, mWriteBuffer.position());
             mWriteBuffer = newWriteBuffer;
+            mWriteSpareBuffer = ByteBuffer.allocate(bufferSize);
         }
     }
 
@@ -141,35 +266,322 @@ public class SerialInputOutputManager implements Runnable {
     }
 
     /**
-     * when using writeAsync, it is recommended to use readTimeout != 0,
+     * Deliver received data through {@link Listener#onNewData(ByteBuffer, int, long)} from one direct
+     * buffer that is reused for every delivery, so native code can read it in place. The buffer is
+     * allocated on the I/O thread with the first delivery and only replaced when a delivery outgrows it.
+     */
+    public void setDirectDelivery(boolean directDelivery) {
+        mDirectDelivery = directDelivery;
+    }
+
+    public boolean getDirectDelivery() {
+        return mDirectDelivery;
+    }
+
+    /**
+     * count reads, writes, callbacks and errors into {@code stats}, null to keep no counters
+     */
+    public void setStats(PortStats stats) {
+        mStats = stats;
+    }
+
+    public PortStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * record all received and sent data into {@code capture}, null to stop recording
+     */
+    void setCapture(SerialCapture capture) {
+        mCapture = capture;
+    }
+
+    SerialCapture getCapture() {
+        return mCapture;
+    }
+
+    /**
+     * Keep the read/write loop free of allocations after warm-up: received data is passed to
+     * {@link Listener#onNewData(byte[], int, long)} straight from the read buffer and pending writes
+     * are sent by swapping the write buffer instead of copying it.
+     */
+    public void setReuseBuffers(boolean reuseBuffers) {
+        mReuseBuffers = reuseBuffers;
+    }
+
+    public boolean getReuseBuffers() {
+        return mReuseBuffers;
+    }
+
+    /**
+     * Gather consecutive reads into one {@link Listener#onNewData} call until {@code maxBytes} are
+     * pending or the oldest pending byte was held for {@code maxHoldMillis}. {@code maxBytes} of 0
+     * disables coalescing. Can be changed while running.
+     *
+     * With {@link #setQueuedReads} the read waits at most until the hold time ends. A synchronous read
+     * keeps its timeout, as a shorter one would go through the lossy {@code bulkTransfer}: held data is
+     * delivered when the next read returns or by a flush thread of the manager once the hold time ended,
+     * so {@link Listener#onNewData} can then also be called from that thread, never concurrently.
+     */
+    public void setReadCoalescing(int maxBytes, int maxHoldMillis) {
+        if (maxBytes < 0 || maxHoldMillis < 0)
+            throw new IllegalArgumentException("coalescing limits must not be negative");
+        mCoalesceMaxHoldMillis = maxHoldMillis;
+        mCoalesceMaxBytes = maxHoldMillis > 0 ? maxBytes : 0;
+    }
+
+    public int getReadCoalescingMaxBytes() {
+        return mCoalesceMaxBytes;
+    }
+
+    public int getReadCoalescingMaxHoldMillis() {
+        return mCoalesceMaxHoldMillis;
+    }
+
+    /**
+     * Split received data into frames before delivery, so {@link Listener#onNewData} sees one complete
+     * frame per call, or with {@code batching} all frames completed by one read in a single call, each
+     * preceded by its length as a 4 byte big-endian int. Read coalescing is bypassed while a framer is set.
+     *
+     * @param framer  null to deliver reads as they arrive
+     */
+    void setFramer(Framer framer, boolean batching) {
+        mFrameBatching = batching;
+        mFramer = framer;
+    }
+
+    /**
+     * largest single {@link Listener#onNewData} delivery with the current settings
+     */
+    public int getMaxDeliverySize() {
+        int size = Math.max(getReadBufferSize(), mCoalesceMaxBytes);
+        final Framer framer = mFramer;
+        if (framer != null)
+            size = Math.max(size, mFrameBatching ? frameBatchSize(framer) : framer.getMaxFrameSize());
+        return size;
+    }
+
+    /**
+     * number of {@link Listener#onNewData} calls made since start
+     */
+    public long getDeliveryCount() {
+        return mDeliveryCount;
+    }
+
+    /**
+     * number of reads that were merged into another read's {@link Listener#onNewData} call
+     */
+    public long getMergedReadCount() {
+        return mMergedReadCount;
+    }
+
+    /**
+     * Write through a dedicated writer thread and a lock-free queue instead of the read loop.
+     * Queued payloads are packed into transfers of whole USB packets of the write endpoint.
+     * Can be changed while running; writes still queued on the previous writer are reported as failed.
+     * On a {@link #setScheduler(SharedIoScheduler) shared scheduler} the queue gets no thread of its
+     * own, the scheduler's threads drain it after each read instead.
+     *
+     * @param queueCapacity       maximum number of queued payloads, 0 writes from the read loop again
+     * @param offerTimeoutMillis  how long writeAsync waits for queue space before rejecting, 0 rejects at once
+     */
+    public void setWriteQueue(int queueCapacity, int offerTimeoutMillis) {
+        SerialWriter writer = null;
+        if (queueCapacity > 0) {
+            int packetSize = packetSize(mSerialPort.getWriteEndpoint());
+            int transferSize = Math.max(packetSize, getWriteBufferSize() / packetSize * packetSize);
+            writer = new SerialWriter(this, mSerialPort, queueCapacity, offerTimeoutMillis, transferSize);
+        }
+        SerialWriter previous;
+        synchronized (this) {
+            previous = mWriter;
+            mWriter = writer;
+            if (writer != null && mStarted)
+                startWriter(writer);
+        }
+        if (previous != null) {
+            previous.stop();
+            if (previous.isPolled())
+                mRetiredWriters.add(previous);
+        }
+    }
+
+    // Synchronized by 'this'
+    private void startWriter(SerialWriter writer) {
+        if (mScheduler != null)
+            writer.startPolled();
+        else
+            writer.start(mThreadPriority);
+    }
+
+    /**
+     * Read with {@code requestCount} bulk transfers of {@code transferSize} bytes kept queued on the
+     * read endpoint instead of one synchronous read at a time. Needs the connection the port was opened
+     * with, which must not be used for other {@code UsbRequest}s meanwhile. Requires API 26.
+     *
+     * @param requestCount  number of queued transfers, 0 to use {@link UsbSerialPort#read(byte[], int)}
+     */
+    public void setQueuedReads(UsbDeviceConnection connection, int requestCount, int transferSize) {
+        if (mState != State.STOPPED)
+            throw new IllegalStateException("queued reads only configurable before SerialInputOutputManager is started");
+        if (requestCount > 0 && (connection == null || transferSize <= 0))
+            throw new IllegalArgumentException("queued reads need a connection and a positive transfer size");
+        mReadConnection = connection;
+        mReadReaper = null;
+        mReadRequestCount = requestCount;
+        mReadTransferSize = transferSize;
+    }
+
+    /**
+     * Queued reads for a port sharing its connection with other ports of the adapter: {@code reaper}
+     * waits for the completions of all of them and hands this port's over. Requires API 26.
+     *
+     * @param requestCount  number of queued transfers, must be positive
+     */
+    void setQueuedReads(ConnectionReaper reaper, int requestCount, int transferSize) {
+        if (mState != State.STOPPED)
+            throw new IllegalStateException("queued reads only configurable before SerialInputOutputManager is started");
+        if (reaper == null || requestCount <= 0 || transferSize <= 0)
+            throw new IllegalArgumentException("queued reads need a reaper, requests and a positive transfer size");
+        mReadConnection = reaper.getConnection();
+        mReadReaper = reaper;
+        mReadRequestCount = requestCount;
+        mReadTransferSize = transferSize;
+    }
+
+    public int getQueuedReadCount() {
+        return mReadRequestCount;
+    }
+
+    /**
+     * @return true if writes go through a write queue, see {@link #setWriteQueue(int, int)}
+     */
+    public boolean hasWriteQueue() {
+        return mWriter != null;
+    }
+
+    /**
+     * number of payloads waiting for the writer thread, 0 when writing from the read loop
+     */
+    public int getWriteQueueDepth() {
+        SerialWriter writer = mWriter;
+        return writer != null ? writer.getQueuedCount() : 0;
+    }
+
+    /**
+     * when using writeAsync without a write queue, it is recommended to use readTimeout != 0,
      * else the write will be delayed until read data is available
+     *
+     * @return false if the write queue is full or its writer is not running, see {@link #setWriteQueue(int, int)}
      */
-    public void writeAsync(byte[] data) {
-        synchronized (mWriteBufferLock) {
-            mWriteBuffer.put(data);
+    public boolean writeAsync(byte[] data) {
+        SerialWriter writer = mWriter;
+        boolean accepted = true;
+        if (writer != null) {
+            accepted = writer.offer(new WriteRequest(WriteRequest.NO_SEQUENCE, new byte[][] {data}));
+        } else {
+            synchronized (mWriteBufferLock) {
+                mWriteBuffer.put(data);
+            }
+        }
+        onWriteSubmitted(accepted);
+        return accepted;
+    }
+
+    /**
+     * Queue buffers to be written back to back and report {@link Listener#onWriteComplete} with
+     * {@code sequence} once the last byte was transferred. Requires a write queue, see
+     * {@link #setWriteQueue(int, int)} and {@link #hasWriteQueue()}.
+     *
+     * @return false if there is no write queue, it is full or its writer is not running; once
+     *         accepted, completion is always reported
+     */
+    public boolean writeAsync(byte[][] buffers, long sequence) {
+        SerialWriter writer = mWriter;
+        if (writer == null)
+            return false;
+        return onWriteSubmitted(writer.offer(new WriteRequest(sequence, buffers)));
+    }
+
+    private boolean onWriteSubmitted(boolean accepted) {
+        final PortStats stats = mStats;
+        if (stats != null && accepted)
+            stats.onWriteSubmitted();
+        return accepted;
+    }
+
+    long getClassPoint() {
+        return mClassPoint;
+    }
+
+    void onWriteComplete(long sequence, boolean success) {
+        final Listener listener = getListener();
+        if (listener != null) {
+            listener.onWriteComplete(sequence, success, mClassPoint);
+        }
+    }
+
+    void onWriterError(Exception e) {
+        final PortStats stats = mStats;
+        if (stats != null)
+            stats.onRunError();
+        final Listener listener = getListener();
+        if (listener != null) {
+            listener.onRunError(e, mClassPoint);
+        }
+        stop();
+    }
+
+    /**
+     * Service the port from {@code scheduler}'s shared threads instead of a thread of its own; the
+     * scheduler's thread priority applies instead of {@link #setThreadPriority(int)}, and a write queue
+     * is drained by the scheduler's threads rather than a writer thread. Null selects a dedicated
+     * thread again. Only configurable while stopped.
+     */
+    void setScheduler(SharedIoScheduler scheduler) {
+        synchronized (this) {
+            if (mState != State.STOPPED || mStarted)
+                throw new IllegalStateException("scheduler only configurable before SerialInputOutputManager is started");
+            mScheduler = scheduler;
         }
     }
 
     /**
-     * start SerialInputOutputManager in separate thread
+     * start SerialInputOutputManager in separate thread, or on its scheduler
      */
     public void start() {
-        if(mState != State.STOPPED)
-            throw new IllegalStateException("already started");
-        new Thread(this, this.getClass().getSimpleName()).start();
+        final SharedIoScheduler scheduler;
+        synchronized (this) {
+            if(mState != State.STOPPED || mStarted)
+                throw new IllegalStateException("already started");
+            mStarted = true;
+            scheduler = mScheduler;
+            if (mWriter != null)
+                startWriter(mWriter);
+        }
+        if (scheduler != null)
+            scheduler.add(this);
+        else
+            new Thread(this, this.getClass().getSimpleName()).start();
     }
 
     /**
      * stop SerialInputOutputManager thread
      *
-     * when using readTimeout == 0 (default), additionally use usbSerialPort.close() to
-     * interrupt blocking read
+     * when using readTimeout == 0 (default) without queued reads, additionally use
+     * usbSerialPort.close() to interrupt blocking read
      */
     public synchronized void stop() {
         if (getState() == State.RUNNING) {
             Log.i(TAG, "Stop requested");
             mState = State.STOPPING;
         }
+        SerialWriter writer = mWriter;
+        if (writer != null)
+            writer.stop();
+        QueuedReadEngine engine = mReadEngine;
+        if (engine != null)
+            engine.cancel();
     }
 
     public synchronized State getState() {
@@ -182,6 +594,21 @@ public class SerialInputOutputManager implements Runnable {
      */
     @Override
     public void run() {
+        if(mThreadPriority != Process.THREAD_PRIORITY_DEFAULT)
+            Process.setThreadPriority(mThreadPriority);
+        if (!begin())
+            return;
+        while (stepOnce(0)) {
+            // until stopped or failed
+        }
+    }
+
+    /**
+     * Enter RUNNING and set up the read path, the first part of {@link #run()}.
+     *
+     * @return false if setting up failed, the error was reported and the manager is stopped again
+     */
+    boolean begin() {
         synchronized (this) {
             if (getState() != State.STOPPED) {
                 throw new IllegalStateException("Already running");
@@ -190,87 +617,375 @@ public class SerialInputOutputManager implements Runnable {
         }
         Log.i(TAG, "Running ...");
         try {
-            if(mThreadPriority != Process.THREAD_PRIORITY_DEFAULT)
-                Process.setThreadPriority(mThreadPriority);
-            while (true) {
-                if (getState() != State.RUNNING) {
-                    Log.i(TAG, "Stopping mState=" + getState());
-                    break;
+            if (mReadRequestCount > 0) {
+                QueuedReadEngine engine = mReadReaper != null
+                        ? new QueuedReadEngine(mSerialPort, mReadReaper, mReadRequestCount, mReadTransferSize)
+                        : new QueuedReadEngine(mSerialPort, mReadConnection, mReadRequestCount, mReadTransferSize);
+                engine.open();
+                mReadEngine = engine;
+            }
+        } catch (Exception e) {
+            end(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * One read/write step of {@link #run()} after {@link #begin()}, reads blocking at most
+     * {@code maxReadTimeout} milliseconds unless it is 0.
+     *
+     * @return false once stopped or failed, the manager is then STOPPED
+     */
+    boolean stepOnce(int maxReadTimeout) {
+        try {
+            if (getState() != State.RUNNING) {
+                Log.i(TAG, "Stopping mState=" + getState());
+                stopCoalesceFlushThread();
+                synchronized (mDeliveryLock) {
+                    flushCoalesced();
                 }
-                step();
+                end(null);
+                return false;
             }
+            step(maxReadTimeout);
+            return true;
         } catch (Exception e) {
-            Log.w(TAG, "Run ending due to exception: " + e.getMessage(), e);
-            final Listener listener = getListener();
-            if (listener != null) {
-              listener.onRunError(e, mClassPoint);
+            end(e);
+            return false;
+        }
+    }
+
+    private void end(Exception error) {
+        try {
+            if (error != null) {
+                Log.w(TAG, "Run ending due to exception: " + error.getMessage(), error);
+                final PortStats stats = mStats;
+                if (stats != null)
+                    stats.onRunError();
+                final Listener listener = getListener();
+                if (listener != null) {
+                  listener.onRunError(error, mClassPoint);
+                }
             }
         } finally {
+            stopCoalesceFlushThread();
+            QueuedReadEngine engine = mReadEngine;
+            mReadEngine = null;
+            if (engine != null)
+                engine.close();
+            SerialWriter writer = mWriter;
+            if (writer != null) {
+                writer.stop();
+                if (writer.isPolled())
+                    writer.failPending();
+            }
+            failRetiredWriters();
             synchronized (this) {
                 mState = State.STOPPED;
+                mStarted = false;
                 Log.i(TAG, "Stopped");
             }
         }
     }
 
-    private void step() throws IOException {
+    private void failRetiredWriters() {
+        SerialWriter retired;
+        while ((retired = mRetiredWriters.poll()) != null) {
+            retired.failPending();
+        }
+    }
+
+    private void step(int maxReadTimeout) throws IOException {
         // Handle incoming data.
         byte[] buffer;
         synchronized (mReadBufferLock) {
             buffer = mReadBuffer.array();
         }
-        
-        Log.d(TAG, "step: Attempting to read from serial port with timeout=" + mReadTimeout + "ms");
+
+        final QueuedReadEngine engine = mReadEngine;
+        // synchronous reads with a timeout use bulkTransfer, which loses data between transfers
+        final int adaptiveMin = engine != null ? mAdaptiveMinMSec : 0;
+        final int adaptiveMax = mAdaptiveMaxMSec;
+        int readTimeout = mReadTimeout;
+        if (adaptiveMin > 0) {
+            mAdaptiveTimeout = Math.max(adaptiveMin, Math.min(mAdaptiveTimeout, adaptiveMax));
+            readTimeout = mAdaptiveTimeout;
+        }
+        if (maxReadTimeout > 0 && (readTimeout == 0 || readTimeout > maxReadTimeout))
+            readTimeout = maxReadTimeout;
+
+        final boolean coalescing;
+        synchronized (mDeliveryLock) {
+            final int coalesceMaxBytes = mCoalesceMaxBytes;
+            if (mCoalesceBuffer != null && mCoalesceBuffer.length != coalesceMaxBytes) {
+                flushCoalesced();
+                mCoalesceBuffer = null;
+            }
+            if (coalesceMaxBytes > 0 && mCoalesceBuffer == null)
+                mCoalesceBuffer = new byte[coalesceMaxBytes];
+            coalescing = mCoalesceBuffer != null;
+
+            // a queued read never blocks longer than the hold time of already coalesced data
+            if (mCoalesceLength > 0) {
+                int holdLeft = (int) ((mCoalesceDeadline - System.nanoTime() + 999999L) / 1000000L);
+                if (holdLeft <= 0)
+                    flushCoalesced();
+                else if (engine != null && (readTimeout == 0 || holdLeft < readTimeout))
+                    readTimeout = holdLeft;
+            }
+        }
+        // a synchronous read keeps its timeout, the flush thread ends the hold instead; reads capped by
+        // a scheduler return soon enough to do that themselves
+        if (coalescing && engine == null && maxReadTimeout == 0)
+            startCoalesceFlushThread();
+
+        final boolean reuseBuffers = mReuseBuffers;
         try {
-            int len = mSerialPort.read(buffer, mReadTimeout);
-            Log.d(TAG, "step: Read returned " + len + " bytes");
-            
+            int len = engine != null ? engine.read(buffer, readTimeout) : mSerialPort.read(buffer, readTimeout);
+            final PortStats stats = mStats;
+            if (stats != null && len >= 0)
+                stats.onRead(len);
+            if (adaptiveMin > 0)
+                mAdaptiveTimeout = len > 0 ? adaptiveMin : Math.min(mAdaptiveTimeout * 2, adaptiveMax);
+
             if (len > 0) {
-                // Debug: Print the first few bytes as hex
-                StringBuilder hexData = new StringBuilder();
-                int bytesToShow = Math.min(len, 20); // Show up to 20 bytes
-                for (int i = 0; i < bytesToShow; i++) {
-                    hexData.append(String.format("%02X ", buffer[i] & 0xFF));
-                }
-                Log.d(TAG, "step: Read data len=" + len + " data: " + hexData.toString());
-                
-                final Listener listener = getListener();
-                if (listener != null) {
-                    final byte[] data = new byte[len];
-                    System.arraycopy(buffer, 0, data, 0, len);
-                    Log.d(TAG, "step: Calling listener.onNewData with " + len + " bytes");
-                    listener.onNewData(data, mClassPoint);
-                } else {
-                    Log.e(TAG, "step: Listener is null, cannot deliver data");
+                if (SerialTrace.isEnabled())
+                    SerialTrace.record(SerialTrace.EVENT_READ, mClassPoint, len, buffer, 0);
+                final SerialCapture capture = mCapture;
+                if (capture != null)
+                    capture.record(false, buffer, 0, len);
+
+                synchronized (mDeliveryLock) {
+                    final Framer framer = mFramer;
+                    if (framer != null) {
+                        frame(framer, buffer, len);
+                    } else if (mCoalesceBuffer != null) {
+                        coalesce(buffer, len);
+                    } else {
+                        deliver(buffer, len);
+                    }
                 }
             } else if (len == 0) {
-                Log.d(TAG, "step: No data available");
+                if (SerialTrace.isEnabled())
+                    SerialTrace.record(SerialTrace.EVENT_READ_EMPTY, mClassPoint, readTimeout, null, 0);
             } else {
                 Log.w(TAG, "step: Read returned negative value: " + len);
             }
         } catch (IOException e) {
+            if (SerialTrace.isEnabled())
+                SerialTrace.record(SerialTrace.EVENT_ERROR, mClassPoint, 0, null, 0);
             Log.e(TAG, "step: IOException during read: " + e.getMessage(), e);
             throw e;
         }
+        synchronized (mDeliveryLock) {
+            if (mCoalesceLength > 0 && System.nanoTime() - mCoalesceDeadline >= 0)
+                flushCoalesced();
+        }
 
-        // Handle outgoing data.
+        // Handle outgoing data, unless the writer thread does.
+        failRetiredWriters();
+        final SerialWriter writer = mWriter;
+        if (writer != null) {
+            if (writer.isPolled())
+                writer.service();
+            return;
+        }
         buffer = null;
         int len = 0; // Declare the len variable
         synchronized (mWriteBufferLock) {
             len = mWriteBuffer.position();
             if (len > 0) {
-                buffer = new byte[len];
-                mWriteBuffer.rewind();
-                mWriteBuffer.get(buffer, 0, len);
-                mWriteBuffer.clear();
+                if (reuseBuffers) {
+                    // hand the filled buffer to this thread and let writeAsync continue in the spare one
+                    ByteBuffer pending = mWriteBuffer;
+                    mWriteSpareBuffer.clear();
+                    mWriteBuffer = mWriteSpareBuffer;
+                    mWriteSpareBuffer = pending;
+                    buffer = pending.array();
+                } else {
+                    buffer = new byte[len];
+                    mWriteBuffer.rewind();
+                    mWriteBuffer.get(buffer, 0, len);
+                    mWriteBuffer.clear();
+                }
             }
         }
         if (buffer != null) {
             if (DEBUG) {
                 Log.d(TAG, "Writing data len=" + len);
             }
-            mSerialPort.write(buffer, mWriteTimeout);
+            if (SerialTrace.isEnabled())
+                SerialTrace.record(SerialTrace.EVENT_WRITE, mClassPoint, len, buffer, 0);
+            final PortStats stats = mStats;
+            try {
+                mSerialPort.write(buffer, len, mWriteTimeout);
+            } catch (IOException e) {
+                if (stats != null)
+                    stats.onWriteFailure();
+                throw e;
+            }
+            if (stats != null)
+                stats.onWrite(len);
+            final SerialCapture capture = mCapture;
+            if (capture != null)
+                capture.record(true, buffer, 0, len);
+        }
+    }
+
+    private static int frameBatchSize(Framer framer) {
+        return Math.max(BUFSIZ, 4 + framer.getMaxFrameSize());
+    }
+
+    private void frame(Framer framer, byte[] buffer, int len) {
+        if (mFrameBatching) {
+            final int batchSize = frameBatchSize(framer);
+            if (mFrameBatch == null || mFrameBatch.length != batchSize) {
+                mFrameBatch = new byte[batchSize];
+                mFrameBatchLength = 0;
+            }
+        }
+        framer.feed(buffer, len, mFrameSink);
+        flushFrameBatch();
+    }
+
+    private void frameComplete(byte[] frame, int length) {
+        final PortStats stats = mStats;
+        if (stats != null)
+            stats.onFrame();
+        if (!mFrameBatching || mFrameBatch == null) {
+            deliver(frame, length);
+            return;
+        }
+        if (4 + length > mFrameBatch.length - mFrameBatchLength)
+            flushFrameBatch();
+        int pos = mFrameBatchLength;
+        mFrameBatch[pos] = (byte) (length >>> 24);
+        mFrameBatch[pos + 1] = (byte) (length >>> 16);
+        mFrameBatch[pos + 2] = (byte) (length >>> 8);
+        mFrameBatch[pos + 3] = (byte) length;
+        System.arraycopy(frame, 0, mFrameBatch, pos + 4, length);
+        mFrameBatchLength = pos + 4 + length;
+    }
+
+    private void flushFrameBatch() {
+        if (mFrameBatchLength == 0)
+            return;
+        int len = mFrameBatchLength;
+        mFrameBatchLength = 0;
+        deliver(mFrameBatch, len);
+    }
+
+    private void coalesce(byte[] buffer, int len) {
+        if (mCoalesceLength + len > mCoalesceBuffer.length)
+            flushCoalesced();
+        if (len >= mCoalesceBuffer.length) {
+            deliver(buffer, len);
+            return;
+        }
+        if (mCoalesceLength == 0) {
+            mCoalesceDeadline = System.nanoTime() + mCoalesceMaxHoldMillis * 1000000L;
+            mDeliveryLock.notifyAll(); // the flush thread starts waiting for the hold time
+        }
+        System.arraycopy(buffer, 0, mCoalesceBuffer, mCoalesceLength, len);
+        mCoalesceLength += len;
+        mCoalesceReads++;
+        if (mCoalesceLength >= mCoalesceBuffer.length)
+            flushCoalesced();
+    }
+
+    private void startCoalesceFlushThread() {
+        if (mCoalesceFlushThread != null)
+            return;
+        synchronized (mDeliveryLock) {
+            mCoalesceFlushRunning = true;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runCoalesceFlush();
+            }
+        }, TAG + "-flush");
+        thread.setDaemon(true);
+        thread.start();
+        mCoalesceFlushThread = thread;
+    }
+
+    private void stopCoalesceFlushThread() {
+        Thread thread = mCoalesceFlushThread;
+        if (thread == null)
+            return;
+        mCoalesceFlushThread = null;
+        synchronized (mDeliveryLock) {
+            mCoalesceFlushRunning = false;
+            mDeliveryLock.notifyAll();
+        }
+        try {
+            thread.join(FLUSH_THREAD_STOP_TIMEOUT_MSEC);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runCoalesceFlush() {
+        synchronized (mDeliveryLock) {
+            try {
+                while (mCoalesceFlushRunning) {
+                    if (mCoalesceLength == 0) {
+                        mDeliveryLock.wait();
+                        continue;
+                    }
+                    long left = mCoalesceDeadline - System.nanoTime();
+                    if (left <= 0)
+                        flushCoalesced();
+                    else
+                        TimeUnit.NANOSECONDS.timedWait(mDeliveryLock, left);
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Coalescing flush thread interrupted");
+            }
+        }
+    }
+
+    // holding mDeliveryLock
+    private void flushCoalesced() {
+        if (mCoalesceLength == 0)
+            return;
+        mMergedReadCount += mCoalesceReads - 1;
+        int len = mCoalesceLength;
+        mCoalesceLength = 0;
+        mCoalesceReads = 0;
+        deliver(mCoalesceBuffer, len);
+    }
+
+    private void deliver(byte[] buffer, int len) {
+        final PortStats stats = mStats;
+        final long start = stats != null ? System.nanoTime() : 0;
+        final Listener listener = getListener();
+        if (listener != null && mDirectDelivery) {
+            ByteBuffer direct = mDirectBuffer;
+            if (direct == null || direct.capacity() < len) {
+                // a coalesced or framed delivery can be larger than a single read
+                direct = ByteBuffer.allocateDirect(Math.max(len, getMaxDeliverySize()));
+                mDirectBuffer = direct;
+            }
+            direct.clear();
+            direct.put(buffer, 0, len);
+            direct.flip();
+            listener.onNewData(direct, len, mClassPoint);
+        } else if (listener != null && mReuseBuffers) {
+            listener.onNewData(buffer, len, mClassPoint);
+        } else if (listener != null) {
+            final byte[] data = new byte[len];
+            System.arraycopy(buffer, 0, data, 0, len);
+            listener.onNewData(data, mClassPoint);
+        } else {
+            Log.e(TAG, "step: Listener is null, cannot deliver data");
+            return;
         }
+        mDeliveryCount++;
+        if (stats != null)
+            stats.onCallback(System.nanoTime() - start);
     }
 
 }
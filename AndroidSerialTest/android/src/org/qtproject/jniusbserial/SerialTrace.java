@@ -0,0 +1,121 @@
+package org.qtproject.jniusbserial;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary event trace for the serial hot path, used instead of per-read {@code Log.d} calls.
+ *
+ * Events are written into a fixed-size in-memory ring and only turned into text when
+ * {@link #dump()} is called. While tracing is off, callers pay a single level check:
+ * <pre>
+ * if (SerialTrace.isEnabled())
+ *     SerialTrace.record(SerialTrace.EVENT_READ, classPoint, len, buffer, 0);
+ * </pre>
+ * Recording formats nothing and allocates nothing; it only holds a short lock on the ring
+ * while copying five longs into a slot.
+ */
+public final class SerialTrace {
+
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_EVENTS = 1;
+
+    public static final int EVENT_READ = 1;
+    public static final int EVENT_READ_EMPTY = 2;
+    public static final int EVENT_CALLBACK = 3;
+    public static final int EVENT_WRITE = 4;
+    public static final int EVENT_ERROR = 5;
+
+    private static final String[] EVENT_NAMES = {"?", "READ", "READ_EMPTY", "CALLBACK", "WRITE", "ERROR"};
+
+    private static final int CAPACITY = 4096; // events, power of two
+    private static final int SLOT = 5; // longs per event: sequence, time, type/length, classPoint, first bytes
+    private static final int HEAD_BYTES = 8;
+
+    private static final long[] sRing = new long[CAPACITY * SLOT];
+    private static final AtomicLong sNext = new AtomicLong();
+    private static volatile int sLevel = LEVEL_OFF;
+
+    private SerialTrace() {
+    }
+
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    public static int getLevel() {
+        return sLevel;
+    }
+
+    public static boolean isEnabled() {
+        return sLevel != LEVEL_OFF;
+    }
+
+    /**
+     * Record one event. Up to the first 8 bytes of {@code data} starting at {@code offset} are kept;
+     * {@code data} may be null.
+     */
+    public static void record(int type, long classPoint, int length, byte[] data, int offset) {
+        long head = 0;
+        if (data != null) {
+            int count = Math.min(Math.min(length, HEAD_BYTES), data.length - offset);
+            for (int i = 0; i < count; i++) {
+                head |= (data[offset + i] & 0xFFL) << (8 * (HEAD_BYTES - 1 - i));
+            }
+        }
+        long seq = sNext.getAndIncrement();
+        int base = (int) (seq & (CAPACITY - 1)) * SLOT;
+        synchronized (sRing) {
+            sRing[base + 1] = System.nanoTime();
+            sRing[base + 2] = ((long) type << 32) | (length & 0xFFFFFFFFL);
+            sRing[base + 3] = classPoint;
+            sRing[base + 4] = head;
+            sRing[base] = seq;
+        }
+    }
+
+    public static void clear() {
+        synchronized (sRing) {
+            for (int i = 0; i < CAPACITY; i++) {
+                sRing[i * SLOT] = -1;
+            }
+        }
+    }
+
+    /**
+     * Render the events still held in the ring, oldest first. Allocates, so call it on demand only.
+     */
+    public static String dump() {
+        long[] copy;
+        synchronized (sRing) {
+            copy = sRing.clone();
+        }
+        long end = sNext.get();
+        long start = Math.max(0, end - CAPACITY);
+        long firstTime = 0;
+        StringBuilder out = new StringBuilder();
+        for (long seq = start; seq < end; seq++) {
+            int base = (int) (seq & (CAPACITY - 1)) * SLOT;
+            if (copy[base] != seq)
+                continue;
+            long time = copy[base + 1];
+            if (firstTime == 0)
+                firstTime = time;
+            int type = (int) (copy[base + 2] >>> 32);
+            int length = (int) copy[base + 2];
+            out.append(seq)
+               .append(" +").append((time - firstTime) / 1000).append("us ")
+               .append(type < EVENT_NAMES.length ? EVENT_NAMES[type] : EVENT_NAMES[0])
+               .append(" port=0x").append(Long.toHexString(copy[base + 3]))
+               .append(" len=").append(length);
+            int shown = Math.min(Math.max(length, 0), HEAD_BYTES);
+            if (shown > 0 && (type == EVENT_READ || type == EVENT_CALLBACK || type == EVENT_WRITE)) {
+                out.append(" data=");
+                for (int i = 0; i < shown; i++) {
+                    out.append(String.format("%02X ", (copy[base + 4] >>> (8 * (HEAD_BYTES - 1 - i))) & 0xFF));
+                }
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
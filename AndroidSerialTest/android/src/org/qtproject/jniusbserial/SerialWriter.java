@@ -0,0 +1,290 @@
+package org.qtproject.jniusbserial;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writer thread of a {@link SerialInputOutputManager}. Drains a {@link WriteQueue} independently of
+ * the blocking read and packs queued requests into transfers of a whole number of USB packets.
+ *
+ * A writer started with {@link #startPolled()} has no thread of its own; the I/O thread servicing the
+ * manager drains the queue with {@link #service()} between reads instead.
+ */
+class SerialWriter implements Runnable {
+
+    private static final String TAG = SerialWriter.class.getSimpleName();
+    private static final long IDLE_PARK_NANOS = 100000000L; // re-check the stop flag every 100 ms
+    private static final long FULL_PARK_NANOS = 50000L;
+    private static final int POLLED_TRANSFERS_PER_STEP = 8; // so a backlog does not hold off reads
+
+    private final SerialInputOutputManager mOwner;
+    private final UsbSerialPort mSerialPort;
+    private final WriteQueue<WriteRequest> mQueue;
+    private final byte[] mTransfer;
+    private final int mOfferTimeoutMillis;
+
+    // requests whose last byte is in the current transfer, writer thread only
+    private final WriteRequest[] mBatch;
+    private int mBatchCount;
+
+    // request partly copied into a transfer, writer thread only
+    private WriteRequest mCurrent;
+    private int mBufferIndex;
+    private int mBufferOffset;
+
+    private int mThreadPriority = Process.THREAD_PRIORITY_DEFAULT;
+    private volatile boolean mRunning;
+    // offers that may still add to the queue, failPending() waits for them once stopped
+    private final AtomicInteger mOffering = new AtomicInteger();
+    private volatile boolean mPolled;
+    private volatile boolean mParked;
+    private volatile Thread mThread;
+
+    /**
+     * @param queueCapacity       maximum number of queued requests
+     * @param offerTimeoutMillis  how long {@link #offer(WriteRequest)} waits for space, 0 rejects at once
+     * @param transferSize        bytes per USB transfer, a multiple of the endpoint packet size
+     */
+    SerialWriter(SerialInputOutputManager owner, UsbSerialPort serialPort, int queueCapacity, int offerTimeoutMillis, int transferSize) {
+        mOwner = owner;
+        mSerialPort = serialPort;
+        mQueue = new WriteQueue<WriteRequest>(queueCapacity);
+        mTransfer = new byte[transferSize];
+        mOfferTimeoutMillis = offerTimeoutMillis;
+        mBatch = new WriteRequest[mQueue.capacity() + 1];
+    }
+
+    void start(int threadPriority) {
+        mThreadPriority = threadPriority;
+        mPolled = false;
+        mRunning = true;
+        Thread thread = new Thread(this, getClass().getSimpleName());
+        mThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Start without a thread, the owner's I/O thread calls {@link #service()} instead.
+     */
+    void startPolled() {
+        mPolled = true;
+        mRunning = true;
+    }
+
+    boolean isPolled() {
+        return mPolled;
+    }
+
+    void stop() {
+        mRunning = false;
+        Thread thread = mThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    int getQueueCapacity() {
+        return mQueue.capacity();
+    }
+
+    /**
+     * Queue a request. Its buffers are written later as-is, so the caller must not modify them afterwards.
+     *
+     * @return false if the writer is not running or the queue stayed full for the configured offer
+     *         timeout; an accepted request is always completed, if only as failed
+     */
+    boolean offer(WriteRequest request) {
+        // registered before checking mRunning, so failPending() either sees this offer or it sees stopped
+        mOffering.incrementAndGet();
+        try {
+            if (!mRunning)
+                return false;
+            if (mQueue.offer(request)) {
+                onQueued();
+                return true;
+            }
+            if (mOfferTimeoutMillis <= 0)
+                return false;
+
+            // back-pressure: wait for the writer to make room
+            long deadline = System.nanoTime() + mOfferTimeoutMillis * 1000000L;
+            while (mRunning && System.nanoTime() - deadline < 0) {
+                wakeUp();
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                if (mQueue.offer(request)) {
+                    onQueued();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            mOffering.decrementAndGet();
+        }
+    }
+
+    private void onQueued() {
+        wakeUp();
+        PortStats stats = mOwner.getStats();
+        if (stats != null)
+            stats.onWriteQueueDepth(mQueue.size());
+    }
+
+    private void wakeUp() {
+        Thread thread = mThread;
+        if (mParked && thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Running ...");
+        try {
+            if (mThreadPriority != Process.THREAD_PRIORITY_DEFAULT)
+                Process.setThreadPriority(mThreadPriority);
+            while (mRunning) {
+                int len = fillTransfer();
+                if (len == 0 && mBatchCount > 0) {
+                    completeBatch(true); // only empty requests
+                    continue;
+                }
+                if (len == 0) {
+                    mParked = true;
+                    if (mQueue.isEmpty() && mRunning)
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    mParked = false;
+                    continue;
+                }
+                transmit(len);
+                completeBatch(true);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Writer ending due to exception: " + e.getMessage(), e);
+            mRunning = false;
+            completeBatch(false);
+            failPending();
+            mOwner.onWriterError(e);
+            return;
+        }
+        failPending();
+        Log.i(TAG, "Stopped");
+    }
+
+    /**
+     * Write what is queued from the calling I/O thread, for a writer started with {@link #startPolled()}.
+     * Only one thread at a time may call this. Once stopped, reports the requests left as failed.
+     */
+    void service() throws IOException {
+        if (!mRunning) {
+            failPending();
+            return;
+        }
+        try {
+            for (int i = 0; i < POLLED_TRANSFERS_PER_STEP; i++) {
+                int len = fillTransfer();
+                if (len == 0) {
+                    completeBatch(true); // only empty requests, if any
+                    return;
+                }
+                transmit(len);
+                completeBatch(true);
+            }
+        } catch (IOException e) {
+            mRunning = false;
+            completeBatch(false);
+            failPending();
+            throw e;
+        }
+    }
+
+    /**
+     * Copy queued requests into the transfer buffer until it is full or the queue is empty.
+     * A request larger than the remaining space continues in the next transfer.
+     *
+     * @return number of bytes in the transfer buffer
+     */
+    private int fillTransfer() {
+        int len = 0;
+        while (len < mTransfer.length && mBatchCount < mBatch.length) {
+            if (mCurrent == null) {
+                mCurrent = mQueue.poll();
+                if (mCurrent == null)
+                    break;
+                mBufferIndex = 0;
+                mBufferOffset = 0;
+            }
+            byte[][] buffers = mCurrent.mBuffers;
+            while (mBufferIndex < buffers.length && len < mTransfer.length) {
+                byte[] buffer = buffers[mBufferIndex];
+                int count = Math.min(buffer.length - mBufferOffset, mTransfer.length - len);
+                System.arraycopy(buffer, mBufferOffset, mTransfer, len, count);
+                len += count;
+                mBufferOffset += count;
+                if (mBufferOffset == buffer.length) {
+                    mBufferIndex++;
+                    mBufferOffset = 0;
+                }
+            }
+            if (mBufferIndex == buffers.length) {
+                mBatch[mBatchCount++] = mCurrent;
+                mCurrent = null;
+            }
+        }
+        return len;
+    }
+
+    private void completeBatch(boolean success) {
+        for (int i = 0; i < mBatchCount; i++) {
+            if (mBatch[i].mSequence != WriteRequest.NO_SEQUENCE)
+                mOwner.onWriteComplete(mBatch[i].mSequence, success);
+            mBatch[i] = null;
+        }
+        mBatchCount = 0;
+    }
+
+    /**
+     * report requests that will never be written, so callers waiting for completion are released,
+     * on the thread that services the writer once it was stopped
+     */
+    void failPending() {
+        // offers seen running may still be adding, none can start afterwards
+        while (mOffering.get() != 0) {
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        WriteRequest request = mCurrent;
+        mCurrent = null;
+        if (request == null)
+            request = mQueue.poll();
+        while (request != null) {
+            if (request.mSequence != WriteRequest.NO_SEQUENCE)
+                mOwner.onWriteComplete(request.mSequence, false);
+            request = mQueue.poll();
+        }
+    }
+
+    private void transmit(int len) throws IOException {
+        if (SerialTrace.isEnabled())
+            SerialTrace.record(SerialTrace.EVENT_WRITE, mOwner.getClassPoint(), len, mTransfer, 0);
+        PortStats stats = mOwner.getStats();
+        try {
+            mSerialPort.write(mTransfer, len, mOwner.getWriteTimeout());
+        } catch (IOException e) {
+            if (stats != null)
+                stats.onWriteFailure();
+            throw e;
+        }
+        if (stats != null)
+            stats.onWrite(len);
+        SerialCapture capture = mOwner.getCapture();
+        if (capture != null)
+            capture.record(true, mTransfer, 0, len);
+    }
+}
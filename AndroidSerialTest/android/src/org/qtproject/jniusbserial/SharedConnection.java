@@ -0,0 +1,187 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * One {@link UsbDeviceConnection} shared by all opened ports of a multi-port adapter, e.g. the four
+ * channels of an FT4232H or the two of a CP2105. A port is addressed as {@code devicePath#index},
+ * a plain device path selects port 0.
+ *
+ * Closing a library port also closes its connection, so a port released while others still run keeps
+ * its interface claimed and is closed together with the connection once the last port is released.
+ * Reopening such a port reuses it.
+ *
+ * The ports read through the connection's {@link ConnectionReaper}, as any of them waiting for
+ * {@code UsbRequest} completions would take the others' too.
+ */
+final class SharedConnection {
+
+    static final char PORT_SEPARATOR = '#';
+
+    private static final HashMap<String, SharedConnection> sConnections = new HashMap<>(); // Synchronized by the class
+
+    private final String mDevicePath;
+    private final UsbDeviceConnection mConnection;
+    private final UsbSerialDriver mDriver;
+    private final ConnectionReaper mReaper;
+    private final UsbSerialPort[] mOpened; // Synchronized by the class, stays open until the connection closes
+    private final boolean[] mInUse; // Synchronized by the class
+    private int mUsers; // Synchronized by the class
+
+    private SharedConnection(String devicePath, UsbDeviceConnection connection, UsbSerialDriver driver) {
+        mDevicePath = devicePath;
+        mConnection = connection;
+        mDriver = driver;
+        mReaper = new ConnectionReaper(connection);
+        mOpened = new UsbSerialPort[driver.getPorts().size()];
+        mInUse = new boolean[mOpened.length];
+    }
+
+    static String devicePath(String portName) {
+        int separator = portName.lastIndexOf(PORT_SEPARATOR);
+        return separator < 0 ? portName : portName.substring(0, separator);
+    }
+
+    /**
+     * @return the port index of {@code portName}, -1 if it is malformed
+     */
+    static int portIndex(String portName) {
+        int separator = portName.lastIndexOf(PORT_SEPARATOR);
+        if (separator < 0)
+            return 0;
+        try {
+            int index = Integer.parseInt(portName.substring(separator + 1));
+            return index >= 0 ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Canonical name of a port, the plain device path for port 0.
+     */
+    static String portName(String devicePath, int index) {
+        return index == 0 ? devicePath : devicePath + PORT_SEPARATOR + index;
+    }
+
+    /**
+     * Open port {@code index} of {@code driver}'s device, on the device's existing connection if another
+     * of its ports is open.
+     *
+     * @return the shared connection, {@link #getPort(int)} gives the opened port
+     * @throws IOException if the index is out of range, the port is in use or opening failed
+     */
+    static synchronized SharedConnection acquire(UsbManager manager, UsbSerialDriver driver, int index) throws IOException {
+        UsbDevice device = driver.getDevice();
+        String devicePath = device.getDeviceName();
+        SharedConnection shared = sConnections.get(devicePath);
+        boolean created = false;
+        if (shared == null) {
+            UsbDeviceConnection connection = manager.openDevice(device);
+            if (connection == null)
+                throw new IOException("Cannot open " + devicePath);
+            shared = new SharedConnection(devicePath, connection, driver);
+            created = true;
+        }
+        try {
+            shared.use(index);
+        } catch (IOException e) {
+            if (created)
+                shared.mConnection.close();
+            throw e;
+        }
+        if (created)
+            sConnections.put(devicePath, shared);
+        return shared;
+    }
+
+    /**
+     * The device at {@code devicePath} was detached; its connection stays with the ports still holding
+     * it, but is no longer handed out.
+     */
+    static synchronized void forget(String devicePath) {
+        sConnections.remove(devicePath);
+    }
+
+    private void use(int index) throws IOException {
+        if (index < 0 || index >= mOpened.length)
+            throw new IOException(mDevicePath + " has no port " + index);
+        if (mInUse[index])
+            throw new IOException(portName(mDevicePath, index) + " is already open");
+        if (mOpened[index] == null) {
+            UsbSerialPort port = mDriver.getPorts().get(index);
+            port.open(mConnection);
+            mOpened[index] = port;
+        }
+        mInUse[index] = true;
+        mUsers++;
+    }
+
+    UsbDeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    ConnectionReaper getReaper() {
+        return mReaper;
+    }
+
+    UsbSerialPort getPort(int index) {
+        synchronized (SharedConnection.class) {
+            return mOpened[index];
+        }
+    }
+
+    /**
+     * @return number of ports of the device, opened or not
+     */
+    int getPortCount() {
+        return mOpened.length;
+    }
+
+    /**
+     * @return number of ports currently acquired and not released
+     */
+    int getOpenCount() {
+        synchronized (SharedConnection.class) {
+            return mUsers;
+        }
+    }
+
+    /**
+     * Release port {@code index}; the last release closes all ports and the connection.
+     */
+    void release(int index) {
+        UsbSerialPort[] opened;
+        synchronized (SharedConnection.class) {
+            if (!mInUse[index])
+                return;
+            mInUse[index] = false;
+            if (--mUsers > 0)
+                return;
+            if (sConnections.get(mDevicePath) == this)
+                sConnections.remove(mDevicePath);
+            opened = mOpened.clone();
+            Arrays.fill(mOpened, null);
+        }
+        // closing blocks on USB control transfers, so it is done outside the class lock
+        for (UsbSerialPort port : opened) {
+            if (port == null)
+                continue;
+            try {
+                port.close();
+            } catch (IOException e) {
+                // the first close already closed the shared connection
+            }
+        }
+        mConnection.close();
+    }
+}
@@ -0,0 +1,76 @@
+package org.qtproject.jniusbserial;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Small fixed pool of I/O threads servicing many {@link SerialInputOutputManager}s in turn, for
+ * fleets of low-rate ports that would otherwise each get their own thread.
+ *
+ * Ports wait in a FIFO; a worker takes the next one, runs one read/write step with the read timeout
+ * capped to {@code readTimeoutMSec} and queues it again. The write step also drains the port's write
+ * queue, if it has one, so a shared port uses no thread of its own at all. A port therefore waits at most about
+ * (ports / threads) times the timeout between reads, which the device side buffers for slow ports.
+ * Ports with high data rates belong on a dedicated thread.
+ */
+final class SharedIoScheduler {
+
+    private static final String TAG = SharedIoScheduler.class.getSimpleName();
+
+    private final LinkedBlockingQueue<SerialInputOutputManager> mReady = new LinkedBlockingQueue<>();
+    private final int mReadTimeoutMSec;
+    private final int mThreadPriority;
+
+    /**
+     * @param threadCount      worker threads, started right away and kept for the process lifetime
+     * @param threadPriority   see {@link Process#setThreadPriority(int)}
+     * @param readTimeoutMSec  longest a single read may block a worker
+     */
+    SharedIoScheduler(int threadCount, int threadPriority, int readTimeoutMSec) {
+        if (threadCount <= 0 || readTimeoutMSec <= 0)
+            throw new IllegalArgumentException("threadCount and readTimeoutMSec must be positive");
+        mReadTimeoutMSec = readTimeoutMSec;
+        mThreadPriority = threadPriority;
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, TAG + "-" + threadPriority + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    int getThreadPriority() {
+        return mThreadPriority;
+    }
+
+    /**
+     * Start servicing {@code manager}, which leaves the scheduler again once it stopped.
+     */
+    void add(SerialInputOutputManager manager) {
+        if (manager.begin())
+            mReady.add(manager);
+    }
+
+    private void work() {
+        if (mThreadPriority != Process.THREAD_PRIORITY_DEFAULT)
+            Process.setThreadPriority(mThreadPriority);
+        while (true) {
+            SerialInputOutputManager manager;
+            try {
+                manager = mReady.take();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Worker interrupted");
+                return;
+            }
+            // a manager is in the queue at most once, so only one worker steps it at a time
+            if (manager.stepOnce(mReadTimeoutMSec))
+                mReady.add(manager);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+/**
+ * In-memory {@link UsbSerialPort} without a USB device behind it, opened through
+ * {@link JniUsbSerial#open(String, long)} with a port name starting with {@value #SCHEME}.
+ * Lets the open/startIoManager/write/close path be exercised and load-tested without an adapter.
+ *
+ * Received data is paced to the configured baud rate. In loopback mode written data is received
+ * again; in stream mode the port receives an endless 0x00..0xFF counter pattern, so the receiver can
+ * check for lost bytes. A {@link Responder} can script replies to writes instead. Without flow control
+ * looped back data the reader does not keep up with is dropped and counted, with any flow control
+ * the writer waits instead.
+ *
+ * Faults can be injected through the setters or the port name, e.g.
+ * {@code sim://a?mode=stream&baud=3000000&shortReads=0.1&stallRate=0.01&stallMs=50&failAfter=1000000}:
+ * <ul>
+ * <li>{@code baud} initial baud rate, 0 disables pacing</li>
+ * <li>{@code mode} {@code loopback} (default) or {@code stream}</li>
+ * <li>{@code shortReads} probability that a read returns fewer bytes than available</li>
+ * <li>{@code stallRate}, {@code stallMs} probability that a read first stalls for stallMs</li>
+ * <li>{@code failAfter} bytes read before reads fail with an IOException, -1 never</li>
+ * <li>{@code seed} seed of the fault generator, for reproducible runs</li>
+ * </ul>
+ */
+public class SimulatedSerialPort implements UsbSerialPort {
+
+    public static final String SCHEME = "sim://";
+
+    private static final int RX_CAPACITY = 65536;
+
+    /**
+     * Generates the data received in reply to a write, called on the writing thread.
+     */
+    public interface Responder {
+        /**
+         * @return bytes to receive, null or empty for none
+         */
+        byte[] respond(byte[] data, int length);
+    }
+
+    private final String mName;
+    private final boolean mStream;
+    private final Random mRandom;
+
+    // all fields below are synchronized by 'this'
+    private boolean mOpen;
+    private Responder mResponder;
+    private final byte[] mRx = new byte[RX_CAPACITY];
+    private int mRxHead;
+    private int mRxCount;
+    private long mRxSince; // when the receive buffer last became non-empty
+    private long mOverrunCount; // bytes dropped because the receive buffer was full
+    private byte mStreamNext;
+    private long mNanosPerByte;
+    private long mLineTime; // when the line finished carrying the bytes read so far
+    private long mBytesRead;
+    private double mShortReadRate;
+    private double mStallRate;
+    private int mStallMillis;
+    private long mFailAfterBytes = -1;
+    private boolean mDtr;
+    private boolean mRts;
+    private FlowControl mFlowControl = FlowControl.NONE;
+
+    public SimulatedSerialPort(String name, boolean stream, long seed) {
+        mName = name;
+        mStream = stream;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Create a port from a {@value #SCHEME} port name, see the class comment for the options.
+     */
+    public static SimulatedSerialPort fromPortName(String portName) throws IOException {
+        if (!portName.startsWith(SCHEME))
+            throw new IOException("Not a simulated port: " + portName);
+        int query = portName.indexOf('?');
+        String mode = "loopback";
+        int baudRate = 115200;
+        long seed = 0;
+        double shortReads = 0, stallRate = 0;
+        int stallMillis = 0;
+        long failAfter = -1;
+        if (query >= 0) {
+            for (String option : portName.substring(query + 1).split("&")) {
+                int eq = option.indexOf('=');
+                String key = eq >= 0 ? option.substring(0, eq) : option;
+                String value = eq >= 0 ? option.substring(eq + 1) : "";
+                try {
+                    switch (key) {
+                        case "mode": mode = value; break;
+                        case "baud": baudRate = Integer.parseInt(value); break;
+                        case "seed": seed = Long.parseLong(value); break;
+                        case "shortReads": shortReads = Double.parseDouble(value); break;
+                        case "stallRate": stallRate = Double.parseDouble(value); break;
+                        case "stallMs": stallMillis = Integer.parseInt(value); break;
+                        case "failAfter": failAfter = Long.parseLong(value); break;
+                        default: throw new IOException("Unknown simulated port option: " + key);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid simulated port option: " + option);
+                }
+            }
+        }
+        if (!mode.equals("loopback") && !mode.equals("stream"))
+            throw new IOException("Unknown simulated port mode: " + mode);
+        if (baudRate < 0)
+            throw new IOException("Invalid baud rate: " + baudRate);
+
+        SimulatedSerialPort port = new SimulatedSerialPort(portName, mode.equals("stream"), seed);
+        port.setBaudRate(baudRate);
+        port.setShortReads(shortReads);
+        port.setStalls(stallRate, stallMillis);
+        port.setReadFailure(failAfter);
+        return port;
+    }
+
+    public synchronized void setResponder(Responder responder) {
+        mResponder = responder;
+    }
+
+    /**
+     * @param probability  chance that a read returns only part of the available data
+     */
+    public synchronized void setShortReads(double probability) {
+        mShortReadRate = probability;
+    }
+
+    /**
+     * @param probability  chance that a read first blocks for {@code millis} with no data
+     */
+    public synchronized void setStalls(double probability, int millis) {
+        mStallRate = probability;
+        mStallMillis = millis;
+    }
+
+    /**
+     * @param afterBytes  fail every read once this many bytes were read, -1 never
+     */
+    public synchronized void setReadFailure(long afterBytes) {
+        mFailAfterBytes = afterBytes;
+    }
+
+    /**
+     * Queue bytes as if the device had sent them.
+     */
+    public synchronized void receive(byte[] data, int length) {
+        if (mRxCount == 0)
+            mRxSince = System.nanoTime();
+        int count = Math.min(length, RX_CAPACITY - mRxCount);
+        for (int i = 0; i < count; i++) {
+            mRx[(mRxHead + mRxCount + i) % RX_CAPACITY] = data[i];
+        }
+        mRxCount += count;
+        mOverrunCount += length - count;
+        notifyAll();
+    }
+
+    /**
+     * Like {@link #receive(byte[], int)}, but waits for the reader to make room instead of dropping bytes.
+     *
+     * @return false if the port was closed first
+     */
+    public synchronized boolean receiveFully(byte[] data, int offset, int length) throws InterruptedException {
+        while (length > 0) {
+            if (!mOpen)
+                return false;
+            int count = Math.min(length, RX_CAPACITY - mRxCount);
+            if (count == 0) {
+                wait();
+                continue;
+            }
+            if (mRxCount == 0)
+                mRxSince = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                mRx[(mRxHead + mRxCount + i) % RX_CAPACITY] = data[offset + i];
+            }
+            mRxCount += count;
+            offset += count;
+            length -= count;
+            notifyAll();
+        }
+        return true;
+    }
+
+    public synchronized long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    public synchronized long getBytesRead() {
+        return mBytesRead;
+    }
+
+    private synchronized void setBaudRate(int baudRate) {
+        if (baudRate < 0)
+            throw new IllegalArgumentException("Invalid baud rate: " + baudRate);
+        // start, 8 data and 1 stop bit per byte
+        mNanosPerByte = baudRate > 0 ? 10L * 1000000000L / baudRate : 0;
+    }
+
+    @Override
+    public UsbSerialDriver getDriver() {
+        return null;
+    }
+
+    @Override
+    public UsbDevice getDevice() {
+        return null;
+    }
+
+    @Override
+    public int getPortNumber() {
+        return 0;
+    }
+
+    /**
+     * @return null, there is no USB endpoint; callers assume a default packet size
+     */
+    @Override
+    public UsbEndpoint getWriteEndpoint() {
+        return null;
+    }
+
+    @Override
+    public UsbEndpoint getReadEndpoint() {
+        return null;
+    }
+
+    @Override
+    public String getSerial() {
+        return mName;
+    }
+
+    /**
+     * @param connection  ignored, may be null
+     */
+    @Override
+    public synchronized void open(UsbDeviceConnection connection) throws IOException {
+        if (mOpen)
+            throw new IOException("Already open");
+        mOpen = true;
+        mLineTime = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!mOpen)
+            throw new IOException("Already closed");
+        mOpen = false;
+        notifyAll();
+    }
+
+    @Override
+    public int read(byte[] dest, int timeout) throws IOException {
+        return read(dest, dest.length, timeout);
+    }
+
+    @Override
+    public int read(byte[] dest, int length, int timeout) throws IOException {
+        length = Math.min(length, dest.length);
+        if (length <= 0)
+            throw new IllegalArgumentException("Read buffer too small");
+
+        int stall = 0;
+        synchronized (this) {
+            if (mStallRate > 0 && mRandom.nextDouble() < mStallRate)
+                stall = mStallMillis;
+        }
+        if (stall > 0) {
+            try {
+                Thread.sleep(timeout > 0 ? Math.min(stall, timeout) : stall);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+            if (timeout > 0 && stall >= timeout)
+                return 0;
+        }
+
+        final long deadline = System.nanoTime() + timeout * 1000000L;
+        synchronized (this) {
+            while (true) {
+                if (!mOpen)
+                    throw new IOException("Connection closed");
+                if (mFailAfterBytes >= 0 && mBytesRead >= mFailAfterBytes)
+                    throw new IOException("Simulated read failure after " + mBytesRead + " bytes");
+
+                long now = System.nanoTime();
+                int available = mStream ? Integer.MAX_VALUE : mRxCount;
+                long waitNanos = -1;
+                if (available > 0) {
+                    int count = Math.min(length, available);
+                    if (mNanosPerByte > 0) {
+                        // the line cannot have carried more than one read buffer while nobody was reading
+                        long lineTime = Math.max(mLineTime, now - length * mNanosPerByte);
+                        if (!mStream)
+                            lineTime = Math.max(lineTime, mRxSince);
+                        count = (int) Math.min(count, (now - lineTime) / mNanosPerByte);
+                        if (count > 0)
+                            mLineTime = lineTime + count * mNanosPerByte;
+                        else
+                            waitNanos = lineTime + mNanosPerByte - now;
+                    }
+                    if (count > 0) {
+                        if (count > 1 && mShortReadRate > 0 && mRandom.nextDouble() < mShortReadRate)
+                            count = 1 + mRandom.nextInt(count - 1);
+                        take(dest, count);
+                        mBytesRead += count;
+                        return count;
+                    }
+                }
+
+                long left = timeout > 0 ? deadline - now : Long.MAX_VALUE;
+                if (left <= 0)
+                    return 0;
+                if (waitNanos < 0 || waitNanos > left)
+                    waitNanos = left;
+                try {
+                    long millis = waitNanos / 1000000L;
+                    if (waitNanos == Long.MAX_VALUE)
+                        wait();
+                    else
+                        wait(millis, (int) (waitNanos - millis * 1000000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+    }
+
+    private void take(byte[] dest, int count) {
+        if (mStream) {
+            for (int i = 0; i < count; i++) {
+                dest[i] = mStreamNext++;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            dest[i] = mRx[(mRxHead + i) % RX_CAPACITY];
+        }
+        mRxHead = (mRxHead + count) % RX_CAPACITY;
+        mRxCount -= count;
+        notifyAll(); // room for receiveFully()
+    }
+
+    @Override
+    public void write(byte[] src, int timeout) throws IOException {
+        write(src, src.length, timeout);
+    }
+
+    @Override
+    public void write(byte[] src, int length, int timeout) throws IOException {
+        Responder responder;
+        synchronized (this) {
+            if (!mOpen)
+                throw new IOException("Connection closed");
+            responder = mResponder;
+        }
+        if (responder != null) {
+            byte[] reply = responder.respond(src, length);
+            if (reply != null && reply.length > 0)
+                receive(reply, reply.length, false);
+        } else if (!mStream) {
+            receive(src, length, getFlowControl() != FlowControl.NONE);
+        }
+    }
+
+    /**
+     * With flow control the looped back data is held off like a real sender would be, so the write
+     * waits for the reader instead of overrunning the receive buffer.
+     */
+    private void receive(byte[] data, int length, boolean flowControl) throws IOException {
+        if (!flowControl) {
+            receive(data, length);
+            return;
+        }
+        try {
+            if (!receiveFully(data, 0, length))
+                throw new IOException("Connection closed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        if (baudRate <= 0)
+            throw new IOException("Invalid baud rate: " + baudRate);
+        setBaudRate(baudRate);
+    }
+
+    // control lines behave like a loopback plug: RTS drives CTS, DTR drives DSR and CD
+
+    @Override
+    public synchronized boolean getCD() throws IOException {
+        return mDtr;
+    }
+
+    @Override
+    public synchronized boolean getCTS() throws IOException {
+        return mRts;
+    }
+
+    @Override
+    public synchronized boolean getDSR() throws IOException {
+        return mDtr;
+    }
+
+    @Override
+    public synchronized boolean getDTR() throws IOException {
+        return mDtr;
+    }
+
+    @Override
+    public synchronized void setDTR(boolean value) throws IOException {
+        mDtr = value;
+    }
+
+    @Override
+    public boolean getRI() throws IOException {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean getRTS() throws IOException {
+        return mRts;
+    }
+
+    @Override
+    public synchronized void setRTS(boolean value) throws IOException {
+        mRts = value;
+    }
+
+    @Override
+    public synchronized EnumSet<ControlLine> getControlLines() throws IOException {
+        EnumSet<ControlLine> lines = EnumSet.noneOf(ControlLine.class);
+        if (mRts) {
+            lines.add(ControlLine.RTS);
+            lines.add(ControlLine.CTS);
+        }
+        if (mDtr) {
+            lines.add(ControlLine.DTR);
+            lines.add(ControlLine.DSR);
+            lines.add(ControlLine.CD);
+        }
+        return lines;
+    }
+
+    @Override
+    public EnumSet<ControlLine> getSupportedControlLines() throws IOException {
+        return EnumSet.allOf(ControlLine.class);
+    }
+
+    @Override
+    public synchronized void setFlowControl(FlowControl flowControl) throws IOException {
+        mFlowControl = flowControl;
+    }
+
+    @Override
+    public synchronized FlowControl getFlowControl() {
+        return mFlowControl;
+    }
+
+    @Override
+    public EnumSet<FlowControl> getSupportedFlowControl() {
+        return EnumSet.allOf(FlowControl.class);
+    }
+
+    @Override
+    public boolean getXON() throws IOException {
+        return true;
+    }
+
+    @Override
+    public synchronized void purgeHwBuffers(boolean purgeWriteBuffers, boolean purgeReadBuffers) throws IOException {
+        if (purgeReadBuffers) {
+            mRxHead = 0;
+            mRxCount = 0;
+        }
+    }
+
+    @Override
+    public void setBreak(boolean value) throws IOException {
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+}
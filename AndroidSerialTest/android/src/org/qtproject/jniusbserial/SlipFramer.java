@@ -0,0 +1,51 @@
+package org.qtproject.jniusbserial;
+
+/**
+ * SLIP (RFC 1055) frames: END terminates a frame, ESC escapes END and ESC inside it.
+ * Empty frames, such as a leading END, are skipped.
+ */
+class SlipFramer extends Framer {
+
+    private static final int END = 0xC0;
+    private static final int ESC = 0xDB;
+    private static final int ESC_END = 0xDC;
+    private static final int ESC_ESC = 0xDD;
+
+    private boolean mEscaped;
+
+    SlipFramer(int maxFrameSize) {
+        super(maxFrameSize);
+    }
+
+    @Override
+    void feed(byte[] data, int length, Sink sink) {
+        for (int i = 0; i < length; i++) {
+            int value = data[i] & 0xFF;
+            if (value == END) {
+                if (mEscaped)
+                    fail(sink);
+                if (mLength > 0 || mDiscarding)
+                    complete(sink);
+                mEscaped = false;
+            } else if (mEscaped) {
+                mEscaped = false;
+                if (value == ESC_END)
+                    append((byte) END, sink);
+                else if (value == ESC_ESC)
+                    append((byte) ESC, sink);
+                else
+                    fail(sink);
+            } else if (value == ESC) {
+                mEscaped = true;
+            } else {
+                append((byte) value, sink);
+            }
+        }
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        mEscaped = false;
+    }
+}
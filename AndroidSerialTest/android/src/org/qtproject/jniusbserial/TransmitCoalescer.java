@@ -0,0 +1,262 @@
+package org.qtproject.jniusbserial;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nagle-style merging of small synchronous writes of a port into fewer USB transfers.
+ *
+ * A write only appends to a buffer of {@code maxBytes}; the buffer goes out as one transfer when
+ * it is full, {@code windowMSec} after its first byte, or on {@link #flush()}. Writes larger than the
+ * buffer are sent right after what is buffered, so the byte order on the wire is kept. Transfers are
+ * made by the writing thread when the buffer fills up and by the coalescer's own flush thread when the
+ * window ends, so a slow port never delays another port's flushes. The buffer lock is only held while
+ * copying: a transfer swaps in the spare buffer first and sends outside of it.
+ *
+ * A buffered write has succeeded before its data is sent. A timed transfer that fails is reported to
+ * the listener right away and is thrown by the next {@link #write} or {@link #flush()} of the port.
+ */
+final class TransmitCoalescer implements Runnable {
+
+    private static final String TAG = TransmitCoalescer.class.getSimpleName();
+    private static final long CLOSE_TIMEOUT_MSEC = 1000;
+
+    private final PortState mPort;
+    private final SerialInputOutputManager.Listener mListener;
+    private final int mWindowMSec;
+    private final int mMaxBytes;
+    private final Object mSendLock = new Object(); // keeps transfers in order, never taken while holding 'this'
+    private byte[] mBuffer; // Synchronized by 'this', being filled
+    private byte[] mSpare; // Synchronized by mSendLock and 'this', being sent
+    private int mLength; // Synchronized by 'this'
+    private int mWrites; // Synchronized by 'this', writes in the buffer
+    private long mFirstNanos; // Synchronized by 'this', when the first buffered byte was written
+    private int mTimeoutMSec; // Synchronized by 'this', of the last write
+    private IOException mDeferredError; // Synchronized by 'this', failure of a timed transfer not thrown yet
+    private boolean mRunning; // Synchronized by 'this'
+    private Thread mThread; // Synchronized by 'this'
+
+    /**
+     * @param maxBytes  buffer size, usually the write endpoint's packet size
+     */
+    TransmitCoalescer(PortState port, SerialInputOutputManager.Listener listener, int windowMSec, int maxBytes) {
+        if (windowMSec <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("windowMSec and maxBytes must be positive");
+        mPort = port;
+        mListener = listener;
+        mWindowMSec = windowMSec;
+        mMaxBytes = maxBytes;
+        mBuffer = new byte[maxBytes];
+        mSpare = new byte[maxBytes];
+    }
+
+    int getWindowMSec() {
+        return mWindowMSec;
+    }
+
+    int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Start the flush thread.
+     */
+    synchronized void start() {
+        if (mThread != null)
+            throw new IllegalStateException("already started");
+        mRunning = true;
+        mThread = new Thread(this, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stop the flush thread and send what is still buffered.
+     *
+     * @throws IOException if sending failed or a timed transfer failed since the last write
+     */
+    void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+            notifyAll();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(CLOSE_TIMEOUT_MSEC);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Buffer {@code data}, transmitting if the buffer is full.
+     *
+     * @throws IOException if a transfer made right away failed, the data of it is dropped, or if a
+     *                     timed transfer failed since the last write
+     */
+    void write(byte[] data, int timeoutMSec) throws IOException {
+        throwDeferredError();
+        mPort.mStats.onCoalescedWrite();
+        if (data.length >= mMaxBytes) {
+            synchronized (mSendLock) {
+                transmit();
+                send(data, data.length, timeoutMSec);
+            }
+            return;
+        }
+        while (!append(data, null, 0, data.length, timeoutMSec)) {
+            transmit();
+        }
+        if (isFull())
+            transmit();
+    }
+
+    /**
+     * Buffer {@code length} bytes at {@code offset} of {@code data}, which must be less than
+     * {@link #getMaxBytes()}; the position and limit of {@code data} are cleared afterwards.
+     */
+    void write(ByteBuffer data, int offset, int length, int timeoutMSec) throws IOException {
+        if (length >= mMaxBytes)
+            throw new IllegalArgumentException("length " + length + " does not fit the buffer");
+        throwDeferredError();
+        mPort.mStats.onCoalescedWrite();
+        while (!append(null, data, offset, length, timeoutMSec)) {
+            transmit();
+        }
+        if (isFull())
+            transmit();
+    }
+
+    /**
+     * Copy {@code length} bytes from {@code array} or else {@code buffer} if they fit, starting the
+     * window if the buffer was empty.
+     *
+     * @return false if there is no room, the buffer needs to be transmitted first
+     */
+    private synchronized boolean append(byte[] array, ByteBuffer buffer, int offset, int length, int timeoutMSec) {
+        if (mLength + length > mBuffer.length)
+            return false;
+        if (array != null) {
+            System.arraycopy(array, offset, mBuffer, mLength, length);
+        } else {
+            buffer.limit(offset + length);
+            buffer.position(offset);
+            buffer.get(mBuffer, mLength, length);
+            buffer.clear();
+        }
+        if (mLength == 0) {
+            mFirstNanos = System.nanoTime();
+            notifyAll(); // the flush thread starts waiting for the window
+        }
+        mLength += length;
+        mWrites++;
+        mTimeoutMSec = timeoutMSec;
+        return true;
+    }
+
+    private synchronized boolean isFull() {
+        return mLength == mBuffer.length;
+    }
+
+    /**
+     * Transmit what is buffered now, for latency-critical commands.
+     *
+     * @throws IOException if sending failed or a timed transfer failed since the last write
+     */
+    void flush() throws IOException {
+        throwDeferredError();
+        transmit();
+    }
+
+    private synchronized void throwDeferredError() throws IOException {
+        IOException error = mDeferredError;
+        if (error == null)
+            return;
+        mDeferredError = null;
+        throw new IOException("Coalesced write failed: " + error.getMessage(), error);
+    }
+
+    @Override
+    public void run() {
+        while (awaitWindow()) {
+            try {
+                transmit();
+            } catch (IOException e) {
+                Log.w(TAG, "Coalesced write failed: " + e.getMessage());
+                synchronized (this) {
+                    if (mDeferredError == null)
+                        mDeferredError = e;
+                }
+                if (mListener != null)
+                    mListener.onRunError(e, mPort.mClassPoint);
+            }
+        }
+    }
+
+    /**
+     * @return true once the window of the buffered data ended, false when closed
+     */
+    private synchronized boolean awaitWindow() {
+        try {
+            while (mRunning) {
+                if (mLength == 0) {
+                    wait();
+                    continue;
+                }
+                long left = mFirstNanos + mWindowMSec * 1000000L - System.nanoTime();
+                if (left <= 0)
+                    return true;
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Flush thread interrupted");
+        }
+        return false;
+    }
+
+    private void transmit() throws IOException {
+        synchronized (mSendLock) {
+            byte[] data;
+            int length;
+            int writes;
+            int timeoutMSec;
+            synchronized (this) {
+                length = mLength;
+                if (length == 0)
+                    return;
+                data = mBuffer;
+                mBuffer = mSpare;
+                mSpare = data;
+                writes = mWrites;
+                timeoutMSec = mTimeoutMSec;
+                mLength = 0;
+                mWrites = 0;
+            }
+            send(data, length, timeoutMSec);
+            mPort.mStats.onTransfersSaved(writes - 1);
+        }
+    }
+
+    // holding mSendLock
+    private void send(byte[] data, int length, int timeoutMSec) throws IOException {
+        if (SerialTrace.isEnabled())
+            SerialTrace.record(SerialTrace.EVENT_WRITE, mPort.mClassPoint, length, data, 0);
+        try {
+            mPort.mSerialPort.write(data, length, timeoutMSec);
+        } catch (IOException e) {
+            mPort.mStats.onWriteFailure();
+            throw e;
+        }
+        mPort.mStats.onWrite(length);
+        SerialCapture capture = mPort.mCapture;
+        if (capture != null)
+            capture.record(true, data, 0, length);
+    }
+}
@@ -0,0 +1,93 @@
+package org.qtproject.jniusbserial;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer, single-consumer queue of pending write requests.
+ *
+ * Any thread may {@link #offer(Object)}; only the writer thread may {@link #poll()}.
+ * Each slot carries a sequence number telling producers and the consumer whose turn it is,
+ * so neither side ever takes a lock.
+ */
+class WriteQueue<E> {
+
+    private final int mMask;
+    private final AtomicReferenceArray<E> mSlots;
+    private final AtomicLongArray mSequence;
+    private final AtomicLong mTail = new AtomicLong(); // next position to fill, claimed by producers
+    private volatile long mHead; // next position to take, written by the consumer only
+
+    /**
+     * @param capacity  maximum number of queued elements, rounded up to a power of two
+     */
+    WriteQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        mMask = size - 1;
+        mSlots = new AtomicReferenceArray<E>(size);
+        mSequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequence.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    boolean offer(E element) {
+        long pos = mTail.get();
+        int index;
+        while (true) {
+            index = (int) pos & mMask;
+            long diff = mSequence.get(index) - pos;
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1))
+                    break;
+                pos = mTail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = mTail.get();
+            }
+        }
+        mSlots.set(index, element);
+        mSequence.set(index, pos + 1); // publish
+        return true;
+    }
+
+    /**
+     * @return the oldest element, or null if nothing is published yet. Consumer thread only.
+     */
+    E poll() {
+        long pos = mHead;
+        int index = (int) pos & mMask;
+        if (mSequence.get(index) != pos + 1)
+            return null;
+        E element = mSlots.get(index);
+        mSlots.set(index, null);
+        mSequence.set(index, pos + mMask + 1); // hand the slot back to producers
+        mHead = pos + 1;
+        return element;
+    }
+
+    /**
+     * approximate number of queued elements
+     */
+    int size() {
+        long size = mTail.get() - mHead;
+        return size < 0 ? 0 : (int) Math.min(size, capacity());
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,26 @@
+package org.qtproject.jniusbserial;
+
+/**
+ * One queued write: one or more buffers sent back to back, plus the sequence id reported to
+ * {@link SerialInputOutputManager.Listener#onWriteComplete} once the last byte is transferred.
+ */
+final class WriteRequest {
+
+    static final long NO_SEQUENCE = 0;
+
+    final long mSequence;
+    final byte[][] mBuffers;
+
+    WriteRequest(long sequence, byte[][] buffers) {
+        mSequence = sequence;
+        mBuffers = buffers;
+    }
+
+    int length() {
+        int length = 0;
+        for (byte[] buffer : mBuffers) {
+            length += buffer.length;
+        }
+        return length;
+    }
+}
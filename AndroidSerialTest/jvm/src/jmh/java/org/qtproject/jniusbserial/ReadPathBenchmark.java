@@ -0,0 +1,127 @@
+package org.qtproject.jniusbserial;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synchronous reads against {@code requestCount} queued bulk IN transfers, see
+ * {@link SerialInputOutputManager#setQueuedReads}, on a {@link FakeUsbDevice} port streaming at
+ * {@code baudRate} into a 128 byte FIFO. The listener busy-waits {@code stallMicros} on every 8th
+ * delivery, like a consumer that is descheduled now and then.
+ * {@code bytes} is the delivered and {@code lost} the dropped rate in bytes/s; their sum is the line rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    private static final int FIFO_SIZE = 128;
+    private static final int TRANSFER_SIZE = 4096;
+    private static final int STALL_EVERY = 8;
+
+    @Param({"0", "4"})
+    public int requestCount;
+
+    @Param({"921600", "3000000"})
+    public int baudRate;
+
+    @Param({"0", "2000"})
+    public int stallMicros;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Received {
+        public long bytes;
+        public long lost;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            lost = 0;
+        }
+    }
+
+    private FakeUsbDevice mDevice;
+    private SerialInputOutputManager mManager;
+    private Received mReceived;
+    private long mLostBefore;
+    private int mDeliveries;
+
+    private final SerialInputOutputManager.Listener mListener = new SerialInputOutputManager.Listener() {
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            delivered(data.length);
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+            delivered(length);
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    private void delivered(int length) {
+        mReceived.bytes += length;
+        if (stallMicros > 0 && ++mDeliveries % STALL_EVERY == 0) {
+            long until = System.nanoTime() + stallMicros * 1000L;
+            while (System.nanoTime() - until < 0) {
+                // a consumer busy with the data
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDevice = new FakeUsbDevice("/dev/bus/usb/001/002", 1, baudRate, FIFO_SIZE);
+        mDevice.getPort(0).open(mDevice.getConnection());
+        mManager = new SerialInputOutputManager(mDevice.getPort(0), mListener, 0);
+        mManager.setReadBufferSize(TRANSFER_SIZE);
+        mManager.setReuseBuffers(true);
+        if (requestCount > 0)
+            mManager.setQueuedReads(mDevice.getConnection(), requestCount, TRANSFER_SIZE);
+        if (!mManager.begin())
+            throw new IllegalStateException("begin failed");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mManager.stop();
+        mManager.stepOnce(0);
+        mDevice.getPort(0).close();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        mLostBefore = mDevice.getLostBytes(0);
+    }
+
+    @Benchmark
+    public boolean step(Received received) {
+        mReceived = received;
+        boolean running = mManager.stepOnce(0);
+        received.lost = mDevice.getLostBytes(0) - mLostBefore;
+        return running;
+    }
+}
@@ -0,0 +1,112 @@
+package org.qtproject.jniusbserial;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read loop throughput: one {@link SerialInputOutputManager#stepOnce(int)} per operation against an
+ * unpaced {@link SimulatedSerialPort} stream, so every step reads {@code chunkSize} bytes and delivers
+ * them to a listener spending {@code listenerTokens} of {@link Blackhole#consumeCPU(long)} per call.
+ * The {@code bytes} counter gives the delivered bytes/s, {@code -prof gc} the allocations per step with
+ * and without {@code reuseBuffers}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark {
+
+    @Param({"16", "64", "512", "4096"})
+    public int chunkSize;
+
+    @Param({"0", "200"})
+    public int listenerTokens;
+
+    @Param({"true", "false"})
+    public boolean reuseBuffers;
+
+    /**
+     * Reported per second next to the steps.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Delivered {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private SimulatedSerialPort mPort;
+    private SerialInputOutputManager mManager;
+    private Delivered mDelivered;
+
+    private final SerialInputOutputManager.Listener mListener = new SerialInputOutputManager.Listener() {
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            delivered(data.length);
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+            delivered(length);
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    private void delivered(int length) {
+        mDelivered.bytes += length;
+        if (listenerTokens > 0)
+            Blackhole.consumeCPU(listenerTokens);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // without a baud rate the stream is not paced
+        mPort = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "bench", true, 0);
+        mPort.open(null);
+        mManager = new SerialInputOutputManager(mPort, mListener, 0);
+        mManager.setReadBufferSize(chunkSize);
+        mManager.setReuseBuffers(reuseBuffers);
+        mManager.setStats(new PortStats());
+        if (!mManager.begin())
+            throw new IllegalStateException("begin failed");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mManager.stop();
+        mManager.stepOnce(0);
+        mPort.close();
+    }
+
+    @Benchmark
+    public boolean step(Delivered delivered) {
+        mDelivered = delivered;
+        return mManager.stepOnce(0);
+    }
+}
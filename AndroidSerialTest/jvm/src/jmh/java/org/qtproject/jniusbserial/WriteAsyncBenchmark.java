@@ -0,0 +1,81 @@
+package org.qtproject.jniusbserial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency from {@link JniUsbSerial#writeAsync(int, byte[])} until the writer thread handed the payload
+ * to the port, as reported by {@code onWriteComplete}, on an unpaced loopback {@link SimulatedSerialPort}
+ * whose I/O manager keeps reading the echo meanwhile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteAsyncBenchmark {
+
+    @Param({"1", "64", "1024"})
+    public int payloadSize;
+
+    private int mHandle;
+    private byte[] mPayload;
+    private volatile long mCompleted;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        JniUsbSerial.setListener(new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+            }
+
+            @Override
+            public void onNewData(byte[] data, int length, long classPoint) {
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+
+            @Override
+            public void onWriteComplete(long sequence, boolean success, long classPoint) {
+                mCompleted = sequence;
+            }
+        });
+        mHandle = JniUsbSerial.open(SimulatedSerialPort.SCHEME + "writeasync?baud=0", 1);
+        if (mHandle == 0)
+            throw new IllegalStateException("open failed");
+        mPayload = new byte[payloadSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        JniUsbSerial.close(mHandle);
+        JniUsbSerial.setListener(null);
+    }
+
+    @Benchmark
+    public long writeAsync() {
+        long sequence = JniUsbSerial.writeAsync(mHandle, mPayload);
+        if (sequence == 0)
+            throw new IllegalStateException("write queue full");
+        while (mCompleted < sequence) {
+            // spin, a parked thread would measure the wake-up instead
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,14 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+public class PendingIntent {
+
+    public static final int FLAG_UPDATE_CURRENT = 1 << 27;
+    public static final int FLAG_MUTABLE = 1 << 25;
+
+    public static PendingIntent getBroadcast(Context context, int requestCode, Intent intent, int flags) {
+        return new PendingIntent();
+    }
+}
@@ -0,0 +1,14 @@
+package android.content;
+
+public abstract class Context {
+
+    public static final String USB_SERVICE = "usb";
+
+    public abstract Object getSystemService(String name);
+
+    public abstract String getPackageName();
+
+    public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+
+    public abstract void unregisterReceiver(BroadcastReceiver receiver);
+}
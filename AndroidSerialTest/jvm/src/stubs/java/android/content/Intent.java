@@ -0,0 +1,43 @@
+package android.content;
+
+import android.os.Parcelable;
+
+import java.util.HashMap;
+
+public class Intent {
+
+    private final String mAction;
+    private final HashMap<String, Object> mExtras = new HashMap<String, Object>();
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent setPackage(String packageName) {
+        return this;
+    }
+
+    public Intent putExtra(String name, Parcelable value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public <T> T getParcelableExtra(String name, Class<T> clazz) {
+        Object value = mExtras.get(name);
+        return clazz.isInstance(value) ? clazz.cast(value) : null;
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Object value = mExtras.get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+}
@@ -0,0 +1,46 @@
+package android.hardware.usb;
+
+import android.os.Parcelable;
+
+public class UsbDevice implements Parcelable {
+
+    public String getDeviceName() {
+        return null;
+    }
+
+    public int getDeviceId() {
+        return 0;
+    }
+
+    public int getVendorId() {
+        return 0;
+    }
+
+    public int getProductId() {
+        return 0;
+    }
+
+    public int getDeviceClass() {
+        return 0;
+    }
+
+    public String getManufacturerName() {
+        return null;
+    }
+
+    public String getProductName() {
+        return null;
+    }
+
+    public String getSerialNumber() {
+        return null;
+    }
+
+    public int getInterfaceCount() {
+        return 0;
+    }
+
+    public UsbInterface getInterface(int index) {
+        return null;
+    }
+}
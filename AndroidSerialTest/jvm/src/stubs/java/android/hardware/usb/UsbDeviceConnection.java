@@ -0,0 +1,49 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Without a device every transfer fails; fakes override the transfers and the {@code onQueue},
+ * {@code onCancel} and {@code onClose} hooks, through which {@link UsbRequest}s reach their connection here.
+ */
+public class UsbDeviceConnection {
+
+    public void close() {
+    }
+
+    public String getSerial() {
+        return null;
+    }
+
+    public int controlTransfer(int requestType, int request, int value, int index, byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+        return bulkTransfer(endpoint, buffer, 0, length, timeout);
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        return -1;
+    }
+
+    public UsbRequest requestWait() {
+        return null;
+    }
+
+    public UsbRequest requestWait(long timeout) throws TimeoutException {
+        return null;
+    }
+
+    protected boolean onQueue(UsbRequest request, ByteBuffer buffer) {
+        return false;
+    }
+
+    protected boolean onCancel(UsbRequest request) {
+        return false;
+    }
+
+    protected void onClose(UsbRequest request) {
+    }
+}
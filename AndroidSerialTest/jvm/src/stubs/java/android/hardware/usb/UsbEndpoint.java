@@ -0,0 +1,24 @@
+package android.hardware.usb;
+
+public class UsbEndpoint {
+
+    private final int mAddress;
+    private final int mMaxPacketSize;
+
+    public UsbEndpoint(int address, int attributes, int maxPacketSize, int interval) {
+        mAddress = address;
+        mMaxPacketSize = maxPacketSize;
+    }
+
+    public int getAddress() {
+        return mAddress;
+    }
+
+    public int getDirection() {
+        return mAddress & 0x80;
+    }
+
+    public int getMaxPacketSize() {
+        return mMaxPacketSize;
+    }
+}
@@ -0,0 +1,12 @@
+package android.hardware.usb;
+
+public class UsbInterface {
+
+    public int getEndpointCount() {
+        return 0;
+    }
+
+    public UsbEndpoint getEndpoint(int index) {
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+public class UsbRequest {
+
+    private UsbDeviceConnection mConnection;
+    private UsbEndpoint mEndpoint;
+    private Object mClientData;
+
+    public boolean initialize(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+        mConnection = connection;
+        mEndpoint = endpoint;
+        return true;
+    }
+
+    public void close() {
+        UsbDeviceConnection connection = mConnection;
+        mConnection = null;
+        if (connection != null)
+            connection.onClose(this);
+    }
+
+    public UsbEndpoint getEndpoint() {
+        return mEndpoint;
+    }
+
+    public Object getClientData() {
+        return mClientData;
+    }
+
+    public void setClientData(Object data) {
+        mClientData = data;
+    }
+
+    public boolean queue(ByteBuffer buffer) {
+        UsbDeviceConnection connection = mConnection;
+        return connection != null && connection.onQueue(this, buffer);
+    }
+
+    public boolean queue(ByteBuffer buffer, int length) {
+        return queue(buffer);
+    }
+
+    public boolean cancel() {
+        UsbDeviceConnection connection = mConnection;
+        return connection != null && connection.onCancel(this);
+    }
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+public class Build {
+
+    public static class VERSION {
+        public static int SDK_INT = 34;
+    }
+
+    public static class VERSION_CODES {
+        public static final int O = 26;
+        public static final int S = 31;
+    }
+}
@@ -0,0 +1,163 @@
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+/**
+ * Base of the driver ports; has no device behind it on a plain JVM, so every transfer fails.
+ */
+public abstract class CommonUsbSerialPort implements UsbSerialPort {
+
+    protected UsbDeviceConnection mConnection;
+    protected UsbEndpoint mReadEndpoint;
+    protected UsbEndpoint mWriteEndpoint;
+
+    @Override
+    public UsbDevice getDevice() {
+        return null;
+    }
+
+    @Override
+    public int getPortNumber() {
+        return 0;
+    }
+
+    @Override
+    public UsbEndpoint getWriteEndpoint() {
+        return mWriteEndpoint;
+    }
+
+    @Override
+    public UsbEndpoint getReadEndpoint() {
+        return mReadEndpoint;
+    }
+
+    @Override
+    public String getSerial() {
+        return null;
+    }
+
+    @Override
+    public void open(UsbDeviceConnection connection) throws IOException {
+        throw new IOException("No USB device");
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public int read(byte[] dest, int timeout) throws IOException {
+        return read(dest, dest.length, timeout);
+    }
+
+    @Override
+    public int read(byte[] dest, int length, int timeout) throws IOException {
+        throw new IOException("Not open");
+    }
+
+    @Override
+    public void write(byte[] src, int timeout) throws IOException {
+        write(src, src.length, timeout);
+    }
+
+    @Override
+    public void write(byte[] src, int length, int timeout) throws IOException {
+        throw new IOException("Not open");
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        throw new IOException("Not open");
+    }
+
+    @Override
+    public boolean getCD() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getCTS() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getDSR() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getDTR() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setDTR(boolean value) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getRI() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getRTS() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setRTS(boolean value) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public EnumSet<ControlLine> getControlLines() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public EnumSet<ControlLine> getSupportedControlLines() throws IOException {
+        return EnumSet.noneOf(ControlLine.class);
+    }
+
+    @Override
+    public void setFlowControl(FlowControl flowControl) throws IOException {
+        if (flowControl != FlowControl.NONE)
+            throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FlowControl getFlowControl() {
+        return FlowControl.NONE;
+    }
+
+    @Override
+    public EnumSet<FlowControl> getSupportedFlowControl() {
+        return EnumSet.of(FlowControl.NONE);
+    }
+
+    @Override
+    public boolean getXON() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void purgeHwBuffers(boolean purgeWriteBuffers, boolean purgeReadBuffers) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBreak(boolean value) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mConnection != null;
+    }
+}
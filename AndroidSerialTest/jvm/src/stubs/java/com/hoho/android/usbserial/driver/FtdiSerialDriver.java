@@ -0,0 +1,44 @@
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+public class FtdiSerialDriver implements UsbSerialDriver {
+
+    private final UsbDevice mDevice;
+
+    public FtdiSerialDriver(UsbDevice device) {
+        mDevice = device;
+    }
+
+    @Override
+    public UsbDevice getDevice() {
+        return mDevice;
+    }
+
+    @Override
+    public List<UsbSerialPort> getPorts() {
+        return Collections.emptyList();
+    }
+
+    public class FtdiSerialPort extends CommonUsbSerialPort {
+
+        private int mLatencyTimer = 16;
+
+        @Override
+        public UsbSerialDriver getDriver() {
+            return FtdiSerialDriver.this;
+        }
+
+        public void setLatencyTimer(int latencyTime) throws IOException {
+            mLatencyTimer = latencyTime;
+        }
+
+        public int getLatencyTimer() throws IOException {
+            return mLatencyTimer;
+        }
+    }
+}
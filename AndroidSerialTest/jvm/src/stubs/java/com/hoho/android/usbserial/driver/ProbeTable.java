@@ -0,0 +1,19 @@
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+
+import java.util.HashMap;
+
+public class ProbeTable {
+
+    private final HashMap<Integer, Class<? extends UsbSerialDriver>> mProducts = new HashMap<Integer, Class<? extends UsbSerialDriver>>(); // Synchronized by 'this'
+
+    public synchronized ProbeTable addProduct(int vendorId, int productId, Class<? extends UsbSerialDriver> driverClass) {
+        mProducts.put(vendorId << 16 | productId, driverClass);
+        return this;
+    }
+
+    public synchronized Class<? extends UsbSerialDriver> findDriver(UsbDevice usbDevice) {
+        return mProducts.get(usbDevice.getVendorId() << 16 | usbDevice.getProductId());
+    }
+}
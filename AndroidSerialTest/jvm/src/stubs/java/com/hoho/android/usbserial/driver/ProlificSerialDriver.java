@@ -0,0 +1,25 @@
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+
+import java.util.Collections;
+import java.util.List;
+
+public class ProlificSerialDriver implements UsbSerialDriver {
+
+    private final UsbDevice mDevice;
+
+    public ProlificSerialDriver(UsbDevice device) {
+        mDevice = device;
+    }
+
+    @Override
+    public UsbDevice getDevice() {
+        return mDevice;
+    }
+
+    @Override
+    public List<UsbSerialPort> getPorts() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,98 @@
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.EnumSet;
+
+/**
+ * The usb-serial-for-android 3.9.0 port interface, as far as this project uses it.
+ */
+public interface UsbSerialPort extends Closeable {
+
+    int DATABITS_5 = 5;
+    int DATABITS_6 = 6;
+    int DATABITS_7 = 7;
+    int DATABITS_8 = 8;
+
+    int PARITY_NONE = 0;
+    int PARITY_ODD = 1;
+    int PARITY_EVEN = 2;
+    int PARITY_MARK = 3;
+    int PARITY_SPACE = 4;
+
+    int STOPBITS_1 = 1;
+    int STOPBITS_1_5 = 3;
+    int STOPBITS_2 = 2;
+
+    char CHAR_XON = 17;
+    char CHAR_XOFF = 19;
+
+    enum ControlLine { RTS, CTS, DTR, DSR, CD, RI }
+
+    enum FlowControl { NONE, RTS_CTS, DTR_DSR, XON_XOFF, XON_XOFF_INLINE }
+
+    UsbSerialDriver getDriver();
+
+    UsbDevice getDevice();
+
+    int getPortNumber();
+
+    UsbEndpoint getWriteEndpoint();
+
+    UsbEndpoint getReadEndpoint();
+
+    String getSerial();
+
+    void open(UsbDeviceConnection connection) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    int read(final byte[] dest, final int timeout) throws IOException;
+
+    int read(final byte[] dest, final int length, final int timeout) throws IOException;
+
+    void write(final byte[] src, final int timeout) throws IOException;
+
+    void write(final byte[] src, final int length, final int timeout) throws IOException;
+
+    void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException;
+
+    boolean getCD() throws IOException;
+
+    boolean getCTS() throws IOException;
+
+    boolean getDSR() throws IOException;
+
+    boolean getDTR() throws IOException;
+
+    void setDTR(boolean value) throws IOException;
+
+    boolean getRI() throws IOException;
+
+    boolean getRTS() throws IOException;
+
+    void setRTS(boolean value) throws IOException;
+
+    EnumSet<ControlLine> getControlLines() throws IOException;
+
+    EnumSet<ControlLine> getSupportedControlLines() throws IOException;
+
+    void setFlowControl(FlowControl flowControl) throws IOException;
+
+    FlowControl getFlowControl();
+
+    EnumSet<FlowControl> getSupportedFlowControl();
+
+    boolean getXON() throws IOException;
+
+    void purgeHwBuffers(boolean purgeWriteBuffers, boolean purgeReadBuffers) throws IOException;
+
+    void setBreak(boolean value) throws IOException;
+
+    boolean isOpen();
+}
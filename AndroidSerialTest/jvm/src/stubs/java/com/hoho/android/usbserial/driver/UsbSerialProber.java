@@ -0,0 +1,51 @@
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Knows none of the library's drivers; the default table is shared, so fakes add their driver to it
+ * and are probed like real adapters.
+ */
+public class UsbSerialProber {
+
+    private static final ProbeTable sDefaultProbeTable = new ProbeTable();
+
+    private final ProbeTable mProbeTable;
+
+    public UsbSerialProber(ProbeTable probeTable) {
+        mProbeTable = probeTable;
+    }
+
+    public static UsbSerialProber getDefaultProber() {
+        return new UsbSerialProber(sDefaultProbeTable);
+    }
+
+    public static ProbeTable getDefaultProbeTable() {
+        return sDefaultProbeTable;
+    }
+
+    public List<UsbSerialDriver> findAllDrivers(UsbManager usbManager) {
+        List<UsbSerialDriver> drivers = new ArrayList<UsbSerialDriver>();
+        for (UsbDevice device : usbManager.getDeviceList().values()) {
+            UsbSerialDriver driver = probeDevice(device);
+            if (driver != null)
+                drivers.add(driver);
+        }
+        return drivers;
+    }
+
+    public UsbSerialDriver probeDevice(UsbDevice usbDevice) {
+        Class<? extends UsbSerialDriver> driverClass = mProbeTable.findDriver(usbDevice);
+        if (driverClass == null)
+            return null;
+        try {
+            return driverClass.getConstructor(UsbDevice.class).newInstance(usbDevice);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
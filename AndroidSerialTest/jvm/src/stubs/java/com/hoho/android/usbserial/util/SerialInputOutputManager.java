@@ -0,0 +1,112 @@
+package com.hoho.android.usbserial.util;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Read loop with the usb-serial-for-android 3.9.0 API, enough to run the example classes against a
+ * simulated port: reads on its own thread and hands each read to the listener as a new array.
+ */
+public class SerialInputOutputManager implements Runnable {
+
+    public enum State {
+        STOPPED,
+        STARTING,
+        RUNNING,
+        STOPPING
+    }
+
+    public interface Listener {
+        void onNewData(byte[] data);
+
+        void onRunError(Exception e);
+    }
+
+    private final UsbSerialPort mSerialPort;
+    private Listener mListener; // Synchronized by 'this'
+    private State mState = State.STOPPED; // Synchronized by 'this'
+    private int mReadTimeout = 0;
+    private int mReadBufferSize = 4096;
+
+    public SerialInputOutputManager(UsbSerialPort serialPort) {
+        mSerialPort = serialPort;
+    }
+
+    public SerialInputOutputManager(UsbSerialPort serialPort, Listener listener) {
+        mSerialPort = serialPort;
+        mListener = listener;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized Listener getListener() {
+        return mListener;
+    }
+
+    public void setThreadPriority(int threadPriority) {
+    }
+
+    public void setReadTimeout(int timeout) {
+        mReadTimeout = timeout;
+    }
+
+    public int getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    public void setReadBufferSize(int bufferSize) {
+        mReadBufferSize = bufferSize;
+    }
+
+    public int getReadBufferSize() {
+        return mReadBufferSize;
+    }
+
+    public void start() {
+        synchronized (this) {
+            if (mState != State.STOPPED)
+                throw new IllegalStateException("already started");
+            mState = State.STARTING;
+        }
+        new Thread(this, getClass().getSimpleName()).start();
+    }
+
+    public synchronized void stop() {
+        if (mState == State.RUNNING || mState == State.STARTING)
+            mState = State.STOPPING;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (mState != State.STARTING)
+                return;
+            mState = State.RUNNING;
+        }
+        byte[] buffer = new byte[mReadBufferSize];
+        try {
+            while (getState() == State.RUNNING) {
+                int len = mSerialPort.read(buffer, mReadTimeout);
+                Listener listener = getListener();
+                if (len > 0 && listener != null)
+                    listener.onNewData(Arrays.copyOf(buffer, len));
+            }
+        } catch (IOException | RuntimeException e) {
+            Listener listener = getListener();
+            if (getState() == State.RUNNING && listener != null)
+                listener.onRunError(e);
+        } finally {
+            synchronized (this) {
+                mState = State.STOPPED;
+            }
+        }
+    }
+}
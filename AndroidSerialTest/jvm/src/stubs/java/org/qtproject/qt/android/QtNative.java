@@ -0,0 +1,4 @@
+package org.qtproject.qt.android;
+
+public class QtNative {
+}
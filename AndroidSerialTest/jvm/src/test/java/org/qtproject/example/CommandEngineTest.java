@@ -0,0 +1,87 @@
+package org.qtproject.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qtproject.jniusbserial.SimulatedSerialPort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class CommandEngineTest {
+
+    private static final byte[] TERMINATOR = { '\n' };
+
+    private final BlockingQueue<String> mEvents = new LinkedBlockingQueue<>();
+    private final CommandEngine.Callback mCallback = new CommandEngine.Callback() {
+        @Override
+        public void onResponse(long id, byte[] response) {
+            mEvents.add(id + ":" + new String(response));
+        }
+
+        @Override
+        public void onTimeout(long id) {
+            mEvents.add(id + ":timeout");
+        }
+
+        @Override
+        public void onError(Exception e) {
+            mEvents.add("error:" + e.getMessage());
+        }
+    };
+    private SimulatedSerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mPort = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "commands", false, 0);
+        mPort.open(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        PortReader.release(mPort);
+        mPort.close();
+    }
+
+    private String next() throws InterruptedException {
+        String event = mEvents.poll(5, TimeUnit.SECONDS);
+        assertTrue("no event", event != null);
+        return event;
+    }
+
+    @Test
+    public void pipelinedResponsesMatchTheirCommands() throws Exception {
+        CommandEngine engine = new CommandEngine(mPort, TERMINATOR, 4, 64, mCallback);
+        engine.start();
+        List<Long> ids = new ArrayList<>();
+        for (String command : new String[] {"a\n", "bb\n", "ccc\n"}) {
+            ids.add(engine.submit(command.getBytes(), 2000));
+        }
+        assertEquals(ids.get(0) + ":a\n", next());
+        assertEquals(ids.get(1) + ":bb\n", next());
+        assertEquals(ids.get(2) + ":ccc\n", next());
+        engine.stop();
+    }
+
+    @Test
+    public void unansweredCommandTimesOut() throws Exception {
+        mPort.setResponder(new SimulatedSerialPort.Responder() {
+            @Override
+            public byte[] respond(byte[] data, int length) {
+                return null;
+            }
+        });
+        CommandEngine engine = new CommandEngine(mPort, TERMINATOR, 4, 64, mCallback);
+        engine.start();
+        long id = engine.submit("ping\n".getBytes(), 50);
+        assertEquals(id + ":timeout", next());
+        engine.stop();
+    }
+}
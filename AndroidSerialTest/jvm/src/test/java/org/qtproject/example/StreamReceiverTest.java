@@ -0,0 +1,167 @@
+package org.qtproject.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qtproject.jniusbserial.SimulatedSerialPort;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamReceiverTest {
+
+    private static final int BATCH_BYTES = 256;
+
+    private final ByteArrayOutputStream mReceived = new ByteArrayOutputStream(); // Synchronized by itself
+    private volatile int mLargestBatch;
+    private volatile CountDownLatch mFirstBatch = new CountDownLatch(1);
+    private final StreamReceiver.Consumer mConsumer = new StreamReceiver.Consumer() {
+        @Override
+        public void onData(byte[] data) {
+            synchronized (mReceived) {
+                mReceived.write(data, 0, data.length);
+            }
+            mLargestBatch = Math.max(mLargestBatch, data.length);
+            mFirstBatch.countDown();
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+    };
+    private final AtomicInteger mCommandEvents = new AtomicInteger();
+    private final CommandEngine.Callback mCommandCallback = new CommandEngine.Callback() {
+        @Override
+        public void onResponse(long id, byte[] response) {
+            mCommandEvents.incrementAndGet();
+        }
+
+        @Override
+        public void onTimeout(long id) {
+            mCommandEvents.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            mCommandEvents.incrementAndGet();
+        }
+    };
+    private SimulatedSerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mPort = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "streaming", false, 0);
+        mPort.open(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        PortReader.release(mPort);
+        mPort.close();
+    }
+
+    @Test
+    public void deliversEverythingInOrderInBoundedBatches() throws IOException {
+        StreamReceiver receiver = new StreamReceiver(mPort, BATCH_BYTES, 20, 4 * BATCH_BYTES, mConsumer);
+        receiver.start();
+        byte[] chunk = new byte[100];
+        int sent = 0;
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < chunk.length; j++) {
+                chunk[j] = (byte) sent++;
+            }
+            mPort.write(chunk, 1000);
+        }
+        long deadline = System.nanoTime() + 5000000000L;
+        while (received().length < sent && System.nanoTime() - deadline < 0) {
+            Thread.yield();
+        }
+        receiver.stop();
+
+        byte[] received = received();
+        assertEquals(sent, received.length);
+        for (int i = 0; i < received.length; i++) {
+            assertEquals("byte " + i, (byte) i, received[i]);
+        }
+        assertTrue(mLargestBatch <= BATCH_BYTES);
+    }
+
+    @Test
+    public void partialBatchIsDeliveredAfterBatchTime() throws Exception {
+        StreamReceiver receiver = new StreamReceiver(mPort, BATCH_BYTES, 20, 4 * BATCH_BYTES, mConsumer);
+        receiver.start();
+        mPort.write(new byte[10], 1000);
+        assertTrue(mFirstBatch.await(2, TimeUnit.SECONDS));
+        assertEquals(10, received().length);
+        receiver.stop();
+    }
+
+    @Test
+    public void readerStartedAfterStopGetsAllData() throws Exception {
+        final BlockingQueue<byte[]> batches = new LinkedBlockingQueue<>();
+        StreamReceiver.Consumer consumer = new StreamReceiver.Consumer() {
+            @Override
+            public void onData(byte[] data) {
+                batches.add(data);
+            }
+
+            @Override
+            public void onError(Exception e) {
+            }
+        };
+        // switch to streaming like SerialHelper.setStreamingMode() does on an idle port
+        for (int round = 0; round < 5; round++) {
+            CommandEngine engine = new CommandEngine(mPort, new byte[] {'\n'}, 4, 64, mCommandCallback);
+            engine.start();
+            engine.stop();
+
+            StreamReceiver receiver = new StreamReceiver(mPort, 64, 1, 1024, consumer);
+            receiver.start();
+            byte[] sent = ("round " + round + "\n").getBytes();
+            mPort.write(sent, 1000);
+            byte[] received = batches.poll(2, TimeUnit.SECONDS);
+            receiver.stop();
+            assertArrayEquals(sent, received);
+        }
+        assertEquals(0, mCommandEvents.get());
+    }
+
+    @Test
+    public void dataSentBetweenModesGoesToTheNextReceiver() throws Exception {
+        CommandEngine engine = new CommandEngine(mPort, new byte[] {'\n'}, 4, 64, mCommandCallback);
+        engine.start();
+        engine.stop();
+        byte[] sent = new byte[3000];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) i;
+        }
+        mPort.write(sent, 1000);
+        // read and held by the port's reader while no receiver is attached
+        Thread.sleep(50);
+
+        StreamReceiver receiver = new StreamReceiver(mPort, BATCH_BYTES, 1, 4 * BATCH_BYTES, mConsumer);
+        receiver.start();
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (received().length < sent.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        receiver.stop();
+        assertArrayEquals(sent, received());
+        assertEquals(0, mCommandEvents.get());
+    }
+
+    private byte[] received() {
+        synchronized (mReceived) {
+            return mReceived.toByteArray();
+        }
+    }
+}
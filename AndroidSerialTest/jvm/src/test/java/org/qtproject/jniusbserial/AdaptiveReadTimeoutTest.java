@@ -0,0 +1,116 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * The adaptive read timeout of the low-latency profile only applies to queued reads, synchronous
+ * reads keep blocking without timeout.
+ */
+public class AdaptiveReadTimeoutTest {
+
+    private static final SerialInputOutputManager.Listener IGNORE = new SerialInputOutputManager.Listener() {
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+        }
+    };
+
+    /**
+     * Remembers the largest read timeout it was called with.
+     */
+    private static final class RecordingPort extends SimulatedSerialPort {
+        int mMaxTimeout;
+
+        RecordingPort() {
+            super(SCHEME + "recording", true, 0);
+        }
+
+        @Override
+        public int read(byte[] dest, int length, int timeout) throws IOException {
+            mMaxTimeout = Math.max(mMaxTimeout, timeout);
+            return super.read(dest, length, timeout);
+        }
+    }
+
+    private static long[] stats(PortStats stats) {
+        long[] out = new long[PortStats.STAT_COUNT];
+        stats.copyTo(out);
+        return out;
+    }
+
+    @Test
+    public void synchronousReadsIgnoreTheAdaptiveTimeout() throws IOException {
+        RecordingPort port = new RecordingPort();
+        port.open(null);
+        SerialInputOutputManager manager = new SerialInputOutputManager(port, IGNORE, 0);
+        manager.setAdaptiveReadTimeout(2, 200);
+        assertTrue(manager.begin());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(manager.stepOnce(0));
+        }
+        manager.stop();
+        manager.stepOnce(0);
+        port.close();
+        assertEquals(0, port.mMaxTimeout);
+    }
+
+    @Test
+    public void queuedReadsReturnWhileTheLineIsIdle() throws IOException {
+        // 300 baud, a byte every 33 ms
+        FakeUsbDevice device = new FakeUsbDevice("/dev/bus/usb/001/002", 1, 300, 128);
+        device.getPort(0).open(device.getConnection());
+        PortStats stats = new PortStats();
+        SerialInputOutputManager manager = new SerialInputOutputManager(device.getPort(0), IGNORE, 0);
+        manager.setStats(stats);
+        manager.setQueuedReads(device.getConnection(), 2, 256);
+        manager.setAdaptiveReadTimeout(2, 200);
+        assertTrue(manager.begin());
+        long end = System.nanoTime() + 300 * 1000000L;
+        while (System.nanoTime() - end < 0) {
+            assertTrue(manager.stepOnce(0));
+        }
+        manager.stop();
+        manager.stepOnce(0);
+        device.getPort(0).close();
+
+        long[] counters = stats(stats);
+        assertTrue(counters[PortStats.STAT_BYTES_IN] > 0);
+        assertTrue(counters[PortStats.STAT_EMPTY_READS] > 0);
+    }
+
+    @Test
+    public void roundTripIsMeasuredFromWriteToEcho() throws IOException {
+        SimulatedSerialPort port = SimulatedSerialPort.fromPortName(SimulatedSerialPort.SCHEME + "rtt?baud=115200");
+        port.open(null);
+        PortStats stats = new PortStats();
+        SerialInputOutputManager manager = new SerialInputOutputManager(port, IGNORE, 0);
+        manager.setStats(stats);
+        manager.setReadTimeout(5);
+        assertTrue(manager.begin());
+        assertTrue(manager.writeAsync(new byte[16]));
+        for (int i = 0; i < 20 && stats(stats)[PortStats.STAT_BYTES_IN] < 16; i++) {
+            assertTrue(manager.stepOnce(0));
+        }
+        manager.stop();
+        manager.stepOnce(0);
+        port.close();
+
+        long[] counters = stats(stats);
+        assertEquals(1, counters[PortStats.STAT_RTT_SAMPLES]);
+        // 16 bytes at 115200 baud take 1.4 ms on the line
+        assertTrue(counters[PortStats.STAT_RTT_MAX_NANOS] >= 1000000L);
+        assertEquals(counters[PortStats.STAT_RTT_MAX_NANOS], counters[PortStats.STAT_RTT_TOTAL_NANOS]);
+    }
+}
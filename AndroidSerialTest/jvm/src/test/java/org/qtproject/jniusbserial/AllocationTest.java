@@ -0,0 +1,143 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The reuse paths of the read loop allocate nothing per step once warmed up, counted with the JVM's
+ * per-thread allocation counter against an unpaced {@link SimulatedSerialPort} stream.
+ */
+public class AllocationTest {
+
+    private static final int WARMUP_STEPS = 20000;
+    private static final int MEASURED_STEPS = 10000;
+    private static final int ROUNDS = 5;
+
+    private final com.sun.management.ThreadMXBean mThreads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private SimulatedSerialPort mPort;
+    private volatile long mDelivered;
+
+    /**
+     * Overrides every delivery variant and keeps nothing.
+     */
+    private final SerialInputOutputManager.Listener mListener = new SerialInputOutputManager.Listener() {
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            mDelivered += data.length;
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+            mDelivered += length;
+        }
+
+        @Override
+        public void onNewData(ByteBuffer data, int length, long classPoint) {
+            mDelivered += length;
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        assertTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+        mPort = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "alloc", true, 0);
+        mPort.open(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mPort.close();
+    }
+
+    private SerialInputOutputManager manager(SerialInputOutputManager.Listener listener) {
+        SerialInputOutputManager manager = new SerialInputOutputManager(mPort, listener, 0);
+        manager.setReadBufferSize(256);
+        manager.setReuseBuffers(true);
+        manager.setStats(new PortStats());
+        return manager;
+    }
+
+    /**
+     * A deoptimization while the JIT settles can materialize an eliminated allocation once, so the
+     * fewest bytes of several rounds count; a per-step allocation shows up in every round.
+     *
+     * @return bytes allocated by this thread during the best round of measured steps
+     */
+    private long allocatedPerRun(SerialInputOutputManager manager) {
+        assertTrue(manager.begin());
+        for (int i = 0; i < WARMUP_STEPS; i++) {
+            manager.stepOnce(0);
+        }
+        long threadId = Thread.currentThread().getId();
+        long fewest = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = mThreads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_STEPS; i++) {
+                manager.stepOnce(0);
+            }
+            fewest = Math.min(fewest, mThreads.getThreadAllocatedBytes(threadId) - before);
+        }
+        manager.stop();
+        manager.stepOnce(0);
+        return fewest;
+    }
+
+    @Test
+    public void reusedReadBuffer() {
+        SerialInputOutputManager manager = manager(mListener);
+        assertEquals(0, allocatedPerRun(manager));
+        assertTrue(mDelivered > 0);
+    }
+
+    @Test
+    public void readCoalescing() {
+        SerialInputOutputManager manager = manager(mListener);
+        manager.setReadCoalescing(1024, 1);
+        assertEquals(0, allocatedPerRun(manager));
+    }
+
+    @Test
+    public void directDelivery() {
+        SerialInputOutputManager manager = manager(mListener);
+        manager.setDirectDelivery(true);
+        assertEquals(0, allocatedPerRun(manager));
+    }
+
+    @Test
+    public void receiveRing() {
+        final ReceiveRing ring = new ReceiveRing(mListener, ReceiveRing.Policy.BLOCK, 64 * 1024, 4096, null);
+        ring.start();
+        try {
+            assertEquals(0, allocatedPerRun(manager(ring)));
+        } finally {
+            ring.stop();
+        }
+    }
+
+    @Test
+    public void receiveRingFromDirectBuffer() {
+        final ReceiveRing ring = new ReceiveRing(mListener, ReceiveRing.Policy.BLOCK, 64 * 1024, 4096, null);
+        ring.start();
+        try {
+            SerialInputOutputManager manager = manager(ring);
+            manager.setDirectDelivery(true);
+            assertEquals(0, allocatedPerRun(manager));
+        } finally {
+            ring.stop();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbManager;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A port with auto-reconnect on a {@link FakeUsbDevice} that is unplugged and plugged in again, the
+ * attach and detach broadcasts delivered like Android does: the handle stays valid, writes in between
+ * fail without harm, and the port comes back with its settings and reports the downtime.
+ */
+public class AutoReconnectTest {
+
+    private static final String DEVICE_PATH = "/dev/bus/usb/004/001";
+    private static final int DEVICE_BAUD_RATE = 115200;
+    private static final int BAUD_RATE = 57600;
+    private static final long DOWNTIME_MSEC = 50;
+    private static final int TIMEOUT_MSEC = 5000;
+
+    private final FakeUsbDevice mDevice = new FakeUsbDevice(DEVICE_PATH, 1, DEVICE_BAUD_RATE, 4096);
+    private final LinkedBlockingQueue<Long> mReconnects = new LinkedBlockingQueue<>();
+    private volatile long mReceived;
+    private BroadcastReceiver mReceiver;
+    private int mHandle;
+
+    @Before
+    public void setUp() {
+        JniUsbSerial.setListener(new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+                mReceived += data.length;
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+                // the read in progress fails when the device is unplugged
+            }
+
+            @Override
+            public void onReconnected(long downtimeMSec, long classPoint) {
+                // -1 fails the test if the port's class point got lost
+                mReconnects.add(classPoint == 9 ? downtimeMSec : -1);
+            }
+        });
+        final UsbManager manager = mDevice.getManager();
+        assertTrue(JniUsbSerial.init(new Context() {
+            @Override
+            public Object getSystemService(String name) {
+                return manager;
+            }
+
+            @Override
+            public String getPackageName() {
+                return "org.qtproject.example";
+            }
+
+            @Override
+            public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+                mReceiver = receiver;
+                return null;
+            }
+
+            @Override
+            public void unregisterReceiver(BroadcastReceiver receiver) {
+            }
+        }));
+        JniUsbSerial.rescanDevices();
+        mHandle = JniUsbSerial.open(DEVICE_PATH, 9);
+        assertTrue(mHandle != 0);
+    }
+
+    @After
+    public void tearDown() {
+        JniUsbSerial.close(mHandle);
+        JniUsbSerial.setListener(null);
+    }
+
+    private void broadcast(String action) {
+        Intent intent = new Intent(action);
+        intent.putExtra(UsbManager.EXTRA_DEVICE, mDevice.getDevice());
+        mReceiver.onReceive(null, intent);
+    }
+
+    private void awaitReceived(long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+        while (mReceived < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("received " + mReceived + " of " + count + " bytes", mReceived >= count);
+    }
+
+    private long stat(int index) {
+        long[] stats = new long[PortStats.STAT_COUNT];
+        JniUsbSerial.getStats(mHandle, stats);
+        return stats[index];
+    }
+
+    @Test
+    public void portComesBackWithItsSettings() throws IOException, InterruptedException {
+        assertTrue(JniUsbSerial.setParameters(mHandle, BAUD_RATE, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE));
+        assertTrue(JniUsbSerial.setFlowControl(mHandle, UsbSerialPort.FlowControl.RTS_CTS.ordinal()));
+        assertTrue(JniUsbSerial.setDataTerminalReady(mHandle, true));
+        assertTrue(JniUsbSerial.setRequestToSend(mHandle, true));
+        assertTrue(JniUsbSerial.setAutoReconnect(mHandle, true));
+        awaitReceived(1);
+
+        mDevice.detach();
+        broadcast(UsbManager.ACTION_USB_DEVICE_DETACHED);
+        byte[] data = {1, 2, 3};
+        assertEquals(0, JniUsbSerial.write(mHandle, data, 100));
+        assertEquals(0, JniUsbSerial.writeAsync(mHandle, data));
+        assertEquals(1, stat(PortStats.STAT_WRITE_FAILURES));
+        Thread.sleep(DOWNTIME_MSEC);
+
+        mDevice.attach();
+        broadcast(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+        Long downtime = mReconnects.poll(TIMEOUT_MSEC, TimeUnit.MILLISECONDS);
+        assertNotNull("not reconnected", downtime);
+        assertTrue("downtime " + downtime + " ms", downtime >= DOWNTIME_MSEC);
+
+        // reopened with the same settings
+        UsbSerialPort port = mDevice.getPort(0);
+        assertEquals(BAUD_RATE, mDevice.getBaudRate(0));
+        assertEquals(UsbSerialPort.FlowControl.RTS_CTS, port.getFlowControl());
+        assertTrue(port.getDTR());
+        assertTrue(port.getRTS());
+
+        // the same handle reads and writes again
+        awaitReceived(mReceived + 100);
+        assertEquals(1, JniUsbSerial.write(mHandle, data, 100));
+        assertEquals(1, stat(PortStats.STAT_RECONNECTS));
+        assertTrue(stat(PortStats.STAT_DOWNTIME_NANOS) >= DOWNTIME_MSEC * 1000000L);
+        assertEquals(1, stat(PortStats.STAT_WRITE_FAILURES));
+    }
+
+    @Test
+    public void portWithoutAutoReconnectIsNotReopened() throws InterruptedException {
+        awaitReceived(1);
+        mDevice.detach();
+        broadcast(UsbManager.ACTION_USB_DEVICE_DETACHED);
+        mDevice.attach();
+        broadcast(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+
+        assertEquals(0, JniUsbSerial.write(mHandle, new byte[] {1}, 100));
+        assertEquals(0, stat(PortStats.STAT_RECONNECTS));
+        assertTrue(mReconnects.isEmpty());
+    }
+}
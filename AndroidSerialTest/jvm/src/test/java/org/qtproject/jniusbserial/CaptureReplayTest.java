@@ -0,0 +1,159 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Data recorded by {@link SerialCapture} comes back from {@link CaptureReplayPort} byte for byte and in
+ * order, across segment files, with the sent data left out.
+ */
+public class CaptureReplayTest {
+
+    private static final int SEGMENT_SIZE = SerialCapture.HEADER_SIZE + 64 * 1024;
+    private static final int RECORD_SIZE = 1000;
+    private static final int RECORD_COUNT = 200;
+    private static final int TIMEOUT_MSEC = 5000;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i * 7);
+        }
+        return data;
+    }
+
+    /**
+     * Read everything {@code port} replays until it is finished and drained.
+     */
+    private static byte[] replay(CaptureReplayPort port) throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        port.open(null);
+        try {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+            while (System.currentTimeMillis() < deadline) {
+                boolean finished = port.isFinished();
+                int len = port.read(buffer, 10);
+                if (len > 0)
+                    received.write(buffer, 0, len);
+                else if (finished)
+                    return received.toByteArray();
+            }
+        } finally {
+            port.close();
+        }
+        throw new AssertionError("replay did not finish, " + received.size() + " bytes received");
+    }
+
+    private static long captureDrops(PortStats stats) {
+        long[] out = new long[PortStats.STAT_COUNT];
+        stats.copyTo(out);
+        return out[PortStats.STAT_CAPTURE_DROPS];
+    }
+
+    @Test
+    public void recordedDataReplaysInOrder() throws IOException {
+        File base = new File(mFolder.getRoot(), "run");
+        PortStats stats = new PortStats();
+        SerialCapture capture = new SerialCapture(base, SEGMENT_SIZE, 0, stats);
+        capture.start();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            byte[] rx = pattern(RECORD_SIZE, i);
+            capture.record(false, rx, 0, rx.length);
+            expected.write(rx, 0, rx.length);
+            if (i % 10 == 0) {
+                byte[] tx = pattern(16, -i);
+                capture.record(true, tx, 0, tx.length);
+            }
+        }
+        capture.stop();
+        assertEquals(0, captureDrops(stats));
+        assertTrue(CaptureReplayPort.segments(base).size() > 1);
+
+        CaptureReplayPort port = new CaptureReplayPort(base, 0);
+        assertArrayEquals(expected.toByteArray(), replay(port));
+        assertEquals(RECORD_COUNT, port.getRecordsReplayed());
+    }
+
+    @Test
+    public void keptSegmentsReplayTheLatestData() throws IOException {
+        File base = new File(mFolder.getRoot(), "ring");
+        SerialCapture capture = new SerialCapture(base, SEGMENT_SIZE, 2, null);
+        capture.start();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            byte[] rx = pattern(RECORD_SIZE, i);
+            capture.record(false, rx, 0, rx.length);
+            expected.write(rx, 0, rx.length);
+        }
+        capture.stop();
+        assertEquals(2, CaptureReplayPort.segments(base).size());
+
+        byte[] all = expected.toByteArray();
+        byte[] replayed = replay(new CaptureReplayPort(base, 0));
+        assertTrue(replayed.length > 0 && replayed.length < all.length);
+        assertEquals(0, replayed.length % RECORD_SIZE);
+        byte[] tail = new byte[replayed.length];
+        System.arraycopy(all, all.length - tail.length, tail, 0, tail.length);
+        assertArrayEquals(tail, replayed);
+    }
+
+    /**
+     * A capture attached to the read loop replays what the listener got.
+     */
+    @Test
+    public void managerCaptureReplaysDeliveredData() throws IOException {
+        File base = new File(mFolder.getRoot(), "loop");
+        SimulatedSerialPort port = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "capture", false, 0);
+        port.open(null);
+        final ByteArrayOutputStream delivered = new ByteArrayOutputStream();
+        SerialInputOutputManager manager = new SerialInputOutputManager(port, new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+                delivered.write(data, 0, data.length);
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+        }, 0);
+        SerialCapture capture = new SerialCapture(base, SEGMENT_SIZE, 0, null);
+        capture.start();
+        manager.setCapture(capture);
+        byte[] sent = pattern(20000, 3);
+        try {
+            assertTrue(manager.begin());
+            for (int offset = 0; offset < sent.length; offset += 500) {
+                byte[] chunk = new byte[500];
+                System.arraycopy(sent, offset, chunk, 0, chunk.length);
+                manager.writeAsync(chunk);
+                manager.stepOnce(10);
+            }
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+            while (delivered.size() < sent.length && System.currentTimeMillis() < deadline) {
+                manager.stepOnce(10);
+            }
+            manager.stop();
+            manager.stepOnce(10);
+        } finally {
+            manager.setCapture(null);
+            capture.stop();
+            port.close();
+        }
+        assertArrayEquals(sent, delivered.toByteArray());
+        assertArrayEquals(sent, replay(new CaptureReplayPort(base, 0)));
+    }
+}
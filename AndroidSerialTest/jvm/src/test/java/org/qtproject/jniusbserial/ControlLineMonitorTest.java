@@ -0,0 +1,132 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link ControlLineMonitor} reports the first sample and every change of the control lines of a
+ * {@link SimulatedSerialPort}, whose RTS drives CTS and DTR drives DSR and CD like a loopback plug.
+ */
+public class ControlLineMonitorTest {
+
+    private static final int INTERVAL_MSEC = 2;
+    private static final int TIMEOUT_MSEC = 5000;
+
+    private static final int RTS = 1 << UsbSerialPort.ControlLine.RTS.ordinal();
+    private static final int CTS = 1 << UsbSerialPort.ControlLine.CTS.ordinal();
+    private static final int DTR = 1 << UsbSerialPort.ControlLine.DTR.ordinal();
+    private static final int DSR = 1 << UsbSerialPort.ControlLine.DSR.ordinal();
+    private static final int CD = 1 << UsbSerialPort.ControlLine.CD.ordinal();
+
+    /**
+     * Can fail reading the lines, like a detached device.
+     */
+    private static final class FlakyPort extends SimulatedSerialPort {
+        volatile boolean mFail;
+
+        FlakyPort() {
+            super(SimulatedSerialPort.SCHEME + "lines", false, 0);
+        }
+
+        @Override
+        public synchronized EnumSet<ControlLine> getControlLines() throws IOException {
+            if (mFail)
+                throw new IOException("Simulated control transfer failure");
+            return super.getControlLines();
+        }
+    }
+
+    private final LinkedBlockingQueue<Integer> mChanges = new LinkedBlockingQueue<>();
+    private final SerialInputOutputManager.Listener mListener = new SerialInputOutputManager.Listener() {
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+        }
+
+        @Override
+        public void onControlLinesChanged(int lines, long classPoint) {
+            // -1 fails the next expected change if the port's class point got lost
+            mChanges.add(classPoint == 7 ? lines : -1);
+        }
+    };
+    private FlakyPort mPort;
+    private ControlLineMonitor mMonitor;
+
+    @Before
+    public void setUp() throws IOException {
+        mPort = new FlakyPort();
+        mPort.open(null);
+        mMonitor = new ControlLineMonitor(new PortState(1, "lines", 0, null, mPort, null, 7), mListener, INTERVAL_MSEC);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mMonitor.stop();
+        mPort.close();
+    }
+
+    private int nextChange() throws InterruptedException {
+        Integer lines = mChanges.poll(TIMEOUT_MSEC, TimeUnit.MILLISECONDS);
+        assertNotNull("no change reported", lines);
+        return lines;
+    }
+
+    private void assertNoChange() throws InterruptedException {
+        assertNull(mChanges.poll(20 * INTERVAL_MSEC, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void firstSampleAndChangesAreReported() throws IOException, InterruptedException {
+        mMonitor.start();
+        assertEquals(0, nextChange());
+        assertNoChange();
+
+        mPort.setRTS(true);
+        assertEquals(RTS | CTS, nextChange());
+        mPort.setDTR(true);
+        assertEquals(RTS | CTS | DTR | DSR | CD, nextChange());
+        mPort.setRTS(false);
+        assertEquals(DTR | DSR | CD, nextChange());
+        assertNoChange();
+    }
+
+    @Test
+    public void failedSamplesAreSkipped() throws IOException, InterruptedException {
+        mMonitor.start();
+        assertEquals(0, nextChange());
+
+        mPort.mFail = true;
+        mPort.setDTR(true);
+        assertNoChange();
+        mPort.mFail = false;
+        assertEquals(DTR | DSR | CD, nextChange());
+    }
+
+    @Test
+    public void nothingIsReportedAfterStop() throws IOException, InterruptedException {
+        mMonitor.start();
+        assertEquals(0, nextChange());
+        mMonitor.stop();
+        // a sample already running may still report
+        Thread.sleep(10 * INTERVAL_MSEC);
+        mChanges.clear();
+
+        mPort.setRTS(true);
+        assertNoChange();
+    }
+}
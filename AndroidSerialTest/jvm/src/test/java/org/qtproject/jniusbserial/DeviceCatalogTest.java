@@ -0,0 +1,46 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.usb.UsbManager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+
+public class DeviceCatalogTest {
+
+    @Test
+    public void packedIsNullBeforeTheFirstScan() {
+        assertNull(new DeviceCatalog().packed());
+    }
+
+    @Test
+    public void packedViewsAreReadOnlyAndIndependent() {
+        DeviceCatalog catalog = new DeviceCatalog();
+        catalog.scan(new UsbManager());
+
+        ByteBuffer first = catalog.packed();
+        assertTrue(first.isDirect());
+        assertTrue(first.isReadOnly());
+        assertEquals(ByteOrder.nativeOrder(), first.order());
+        try {
+            first.putInt(0, 0);
+            throw new AssertionError("packed buffer is writable");
+        } catch (ReadOnlyBufferException expected) {
+        }
+
+        // reading one view leaves the position of the next caller's view alone
+        assertEquals(DeviceCatalog.PACKED_VERSION, first.getInt());
+        assertEquals(0, first.getInt());
+        ByteBuffer second = catalog.packed();
+        assertNotSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(DeviceCatalog.PACKED_VERSION, second.getInt());
+    }
+}
@@ -0,0 +1,119 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * A writer outpacing a 3 Mbaud loopback {@link SimulatedSerialPort} and a reader that stalls now and
+ * then: with flow control nothing is lost and the data arrives in order, without it the receive
+ * buffer overruns and the dropped bytes are counted.
+ */
+public class FlowControlTest {
+
+    private static final int TOTAL_BYTES = 256 * 1024;
+    private static final int CHUNK_SIZE = 4096;
+    private static final int STALL_EVERY = 16;
+    private static final int STALL_MSEC = 2;
+    private static final int TIMEOUT_MSEC = 10000;
+
+    /**
+     * Counts delivered bytes and checks they continue the counter pattern written.
+     */
+    private static final class Checker implements SerialInputOutputManager.Listener {
+        private long mDeliveries;
+        volatile long mReceived;
+        volatile long mOutOfOrder;
+
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            long received = mReceived;
+            for (byte b : data) {
+                if (b != (byte) received++)
+                    mOutOfOrder++;
+            }
+            mReceived = received;
+            if (++mDeliveries % STALL_EVERY == 0) {
+                try {
+                    Thread.sleep(STALL_MSEC);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+        }
+    }
+
+    private static final class Result {
+        long mReceived;
+        long mOutOfOrder;
+        long mOverruns;
+    }
+
+    private static Result run(UsbSerialPort.FlowControl flowControl) throws IOException, InterruptedException {
+        SimulatedSerialPort port = SimulatedSerialPort.fromPortName(SimulatedSerialPort.SCHEME + "flow?baud=3000000");
+        port.open(null);
+        port.setFlowControl(flowControl);
+        Checker checker = new Checker();
+        SerialInputOutputManager manager = new SerialInputOutputManager(port, checker, 0);
+        manager.setReadTimeout(100);
+        manager.start();
+        try {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            for (int sent = 0; sent < TOTAL_BYTES; sent += CHUNK_SIZE) {
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    chunk[i] = (byte) (sent + i);
+                }
+                port.write(chunk, 1000);
+            }
+            // wait until everything not dropped was delivered
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+            while (checker.mReceived + port.getOverrunCount() < TOTAL_BYTES && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        } finally {
+            manager.stop();
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+            while (manager.getState() != SerialInputOutputManager.State.STOPPED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            port.close();
+        }
+        Result result = new Result();
+        result.mReceived = checker.mReceived;
+        result.mOutOfOrder = checker.mOutOfOrder;
+        result.mOverruns = port.getOverrunCount();
+        return result;
+    }
+
+    @Test
+    public void rtsCtsIsLossFree() throws IOException, InterruptedException {
+        Result result = run(UsbSerialPort.FlowControl.RTS_CTS);
+        assertEquals(0, result.mOverruns);
+        assertEquals(TOTAL_BYTES, result.mReceived);
+        assertEquals(0, result.mOutOfOrder);
+    }
+
+    @Test
+    public void dtrDsrIsLossFree() throws IOException, InterruptedException {
+        Result result = run(UsbSerialPort.FlowControl.DTR_DSR);
+        assertEquals(0, result.mOverruns);
+        assertEquals(TOTAL_BYTES, result.mReceived);
+        assertEquals(0, result.mOutOfOrder);
+    }
+
+    @Test
+    public void withoutFlowControlOverrunsAreCounted() throws IOException, InterruptedException {
+        Result result = run(UsbSerialPort.FlowControl.NONE);
+        assertTrue(result.mOverruns > 0);
+        assertEquals(TOTAL_BYTES, result.mReceived + result.mOverruns);
+    }
+}
@@ -0,0 +1,377 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Decoding of every {@link Framer}: frames split across reads and several in one read, oversized and
+ * empty frames, malformed encodings and resynchronizing on the next frame, and framing on the I/O
+ * thread of a {@link SerialInputOutputManager} reading a {@link SimulatedSerialPort}.
+ */
+public class FramerTest {
+
+    private static final int TIMEOUT_MSEC = 5000;
+
+    /**
+     * Keeps a copy of every frame, as the framer reuses its buffer.
+     */
+    private static final class Collector implements Framer.Sink {
+        final List<byte[]> mFrames = new ArrayList<>();
+        int mErrors;
+
+        @Override
+        public void onFrame(byte[] frame, int length) {
+            mFrames.add(Arrays.copyOf(frame, length));
+        }
+
+        @Override
+        public void onFrameError() {
+            mErrors++;
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] data = new byte[text.length()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) text.charAt(i);
+        }
+        return data;
+    }
+
+    /**
+     * Feed {@code reads} one after the other, each from a buffer larger than the read.
+     */
+    private static Collector feed(Framer framer, byte[]... reads) {
+        Collector collector = new Collector();
+        for (byte[] read : reads) {
+            byte[] buffer = Arrays.copyOf(read, read.length + 16);
+            Arrays.fill(buffer, read.length, buffer.length, (byte) 0x55);
+            framer.feed(buffer, read.length, collector);
+        }
+        return collector;
+    }
+
+    private static void assertFrames(Collector collector, byte[]... frames) {
+        assertEquals(frames.length, collector.mFrames.size());
+        for (int i = 0; i < frames.length; i++) {
+            assertArrayEquals("frame " + i, frames[i], collector.mFrames.get(i));
+        }
+    }
+
+    @Test
+    public void createSelectsTheFramer() {
+        assertNull(Framer.create(Framer.TYPE_NONE, 0, 16));
+        assertTrue(Framer.create(Framer.TYPE_DELIMITER, '\n', 16) instanceof DelimiterFramer);
+        assertTrue(Framer.create(Framer.TYPE_FIXED_LENGTH, 4, 16) instanceof FixedLengthFramer);
+        assertTrue(Framer.create(Framer.TYPE_LENGTH_PREFIX, 2, 16) instanceof LengthPrefixFramer);
+        assertTrue(Framer.create(Framer.TYPE_COBS, 0, 16) instanceof CobsFramer);
+        assertTrue(Framer.create(Framer.TYPE_SLIP, 0, 16) instanceof SlipFramer);
+        assertEquals(4, Framer.create(Framer.TYPE_FIXED_LENGTH, 4, 16).getMaxFrameSize());
+        assertEquals(16, Framer.create(Framer.TYPE_SLIP, 0, 16).getMaxFrameSize());
+    }
+
+    @Test
+    public void invalidArgumentsAreRejected() {
+        int[][] invalid = {
+            {Framer.TYPE_DELIMITER, '\n', 0},
+            {Framer.TYPE_FIXED_LENGTH, 0, 16},
+            {Framer.TYPE_LENGTH_PREFIX, 3, 16},
+            {Framer.TYPE_COBS, 0, -1},
+            {99, 0, 16},
+        };
+        for (int[] args : invalid) {
+            try {
+                Framer.create(args[0], args[1], args[2]);
+                fail("accepted type " + args[0] + " argument " + args[1] + " size " + args[2]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void delimiterFramesSplitAcrossAndWithinReads() {
+        Collector collector = feed(new DelimiterFramer((byte) '\n', 8), ascii("ab\ncd"), ascii("e\nf\ng"), ascii("h\n"));
+        assertFrames(collector, ascii("ab"), ascii("cde"), ascii("f"), ascii("gh"));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void delimiterSkipsEmptyFrames() {
+        Collector collector = feed(new DelimiterFramer((byte) '\n', 8), ascii("\n\nab\n\n"), ascii("\n"));
+        assertFrames(collector, ascii("ab"));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void delimiterDropsOversizedFramesAndResyncs() {
+        // a full buffer is fine, one byte more is not, also when the excess arrives with a later read
+        Collector collector = feed(new DelimiterFramer((byte) '\n', 8), ascii("12345678\n1234"), ascii("56789"),
+                                   ascii("0\nok\n"), ascii("123456789\n"));
+        assertFrames(collector, ascii("12345678"), ascii("ok"));
+        assertEquals(2, collector.mErrors);
+    }
+
+    @Test
+    public void fixedLengthFramesSplitAcrossAndWithinReads() {
+        Collector collector = feed(new FixedLengthFramer(4), ascii("abcdefg"), ascii("h"), ascii("ij"), ascii("klmnop"));
+        assertFrames(collector, ascii("abcd"), ascii("efgh"), ascii("ijkl"), ascii("mnop"));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void lengthPrefixFramesSplitAcrossAndWithinReads() {
+        // the prefix itself is split too
+        Collector collector = feed(new LengthPrefixFramer(2, 8), bytes(0, 3, 'a', 'b', 'c', 0), bytes(2, 'x'),
+                                   bytes('y', 0, 1, 'z'));
+        assertFrames(collector, ascii("abc"), ascii("xy"), ascii("z"));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void lengthPrefixDeliversEmptyFrames() {
+        Collector collector = feed(new LengthPrefixFramer(1, 8), bytes(0, 0, 1, 'a', 0));
+        assertFrames(collector, new byte[0], new byte[0], ascii("a"), new byte[0]);
+    }
+
+    @Test
+    public void lengthPrefixSkipsOversizedPayloadsAndResyncs() {
+        byte[] oversized = new byte[2 + 300];
+        oversized[0] = 0x01;
+        oversized[1] = 0x2C; // 300
+        Arrays.fill(oversized, 2, oversized.length, (byte) 0x07);
+        Collector collector = feed(new LengthPrefixFramer(2, 8), Arrays.copyOfRange(oversized, 0, 100),
+                                   Arrays.copyOfRange(oversized, 100, oversized.length), bytes(0, 2, 'o', 'k'));
+        assertFrames(collector, ascii("ok"));
+        assertEquals(1, collector.mErrors);
+    }
+
+    @Test
+    public void lengthPrefixOfFourBytes() {
+        Collector collector = feed(new LengthPrefixFramer(4, 8), bytes(0, 0, 0), bytes(2, 'h', 'i', 0x7F, 0, 0, 0, 0));
+        assertFrames(collector, ascii("hi"));
+        assertEquals(1, collector.mErrors);
+    }
+
+    @Test
+    public void cobsFramesSplitAcrossAndWithinReads() {
+        // 11 22 00 33, then 44 00 00
+        Collector collector = feed(new CobsFramer(16), bytes(0x03, 0x11, 0x22), bytes(0x02, 0x33, 0x00, 0x02, 0x44),
+                                   bytes(0x01, 0x01, 0x00));
+        assertFrames(collector, bytes(0x11, 0x22, 0x00, 0x33), bytes(0x44, 0x00, 0x00));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void cobsDecodesFullBlocksWithoutZero() {
+        byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i % 255 + 1);
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        encoded.write(0xFF);
+        encoded.write(payload, 0, 254);
+        encoded.write(payload.length - 254 + 1);
+        encoded.write(payload, 254, payload.length - 254);
+        encoded.write(0);
+        Collector collector = feed(new CobsFramer(512), encoded.toByteArray());
+        assertFrames(collector, payload);
+    }
+
+    @Test
+    public void cobsEmptyFramesAndIdleZeros() {
+        // zeros between frames are no frames, a lone code byte encodes an empty one
+        Collector collector = feed(new CobsFramer(16), bytes(0x00, 0x00, 0x01, 0x00, 0x00, 0x02, 0x41, 0x00));
+        assertFrames(collector, new byte[0], ascii("A"));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void cobsDropsFramesEndingInsideABlockAndResyncs() {
+        // the code byte 0x05 announces four data bytes, the frame ends after two
+        Collector collector = feed(new CobsFramer(16), bytes(0x05, 0x11, 0x22, 0x00), bytes(0x02, 0x33, 0x00));
+        assertFrames(collector, bytes(0x33));
+        assertEquals(1, collector.mErrors);
+    }
+
+    @Test
+    public void cobsDropsOversizedFramesAndResyncs() {
+        Collector collector = feed(new CobsFramer(4), bytes(0x06, 1, 2), bytes(3, 4, 5, 0x00, 0x03, 6, 7, 0x00));
+        assertFrames(collector, bytes(6, 7));
+        assertEquals(1, collector.mErrors);
+    }
+
+    @Test
+    public void slipFramesSplitAcrossAndWithinReads() {
+        // escapes split from their second byte
+        Collector collector = feed(new SlipFramer(8), bytes('a', 0xDB), bytes(0xDC, 'b', 0xDB, 0xDD, 0xC0, 'c'),
+                                   bytes(0xC0, 'd', 0xC0));
+        assertFrames(collector, bytes('a', 0xC0, 'b', 0xDB), ascii("c"), ascii("d"));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void slipSkipsEmptyFrames() {
+        Collector collector = feed(new SlipFramer(8), bytes(0xC0, 0xC0, 'x', 0xC0, 0xC0));
+        assertFrames(collector, ascii("x"));
+        assertEquals(0, collector.mErrors);
+    }
+
+    @Test
+    public void slipDropsBadEscapesAndResyncs() {
+        // an unknown escaped byte, then an escape cut off by END
+        Collector collector = feed(new SlipFramer(8), bytes('a', 0xDB, 0x01, 'b', 0xC0, 'c', 0xC0, 'd', 0xDB),
+                                   bytes(0xC0, 'e', 0xC0));
+        assertFrames(collector, ascii("c"), ascii("e"));
+        assertEquals(2, collector.mErrors);
+    }
+
+    @Test
+    public void slipDropsOversizedFramesAndResyncs() {
+        Collector collector = feed(new SlipFramer(4), ascii("12345"), bytes(0xC0, 'o', 'k', 0xC0));
+        assertFrames(collector, ascii("ok"));
+        assertEquals(1, collector.mErrors);
+    }
+
+    @Test
+    public void resetDropsThePartialFrame() {
+        Framer[] framers = {new DelimiterFramer((byte) '\n', 8), new LengthPrefixFramer(1, 8), new CobsFramer(8), new SlipFramer(8)};
+        byte[][] partial = {ascii("ab"), bytes(5, 'a'), bytes(0x04, 'a'), bytes('a', 0xDB)};
+        byte[][] whole = {ascii("ok\n"), bytes(2, 'o', 'k'), bytes(0x03, 'o', 'k', 0x00), bytes('o', 'k', 0xC0)};
+        for (int i = 0; i < framers.length; i++) {
+            feed(framers[i], partial[i]);
+            framers[i].reset();
+            Collector collector = feed(framers[i], whole[i]);
+            assertFrames(collector, ascii("ok"));
+            assertEquals(0, collector.mErrors);
+        }
+    }
+
+    /**
+     * SLIP-encodes {@code frames}, splits the stream into reads of varying size through a loopback
+     * port and checks what the framing I/O manager delivers.
+     */
+    private static List<byte[]> frameThroughManager(byte[][] frames, boolean batching, PortStats stats)
+            throws IOException, InterruptedException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int frameBytes = 0;
+        for (byte[] frame : frames) {
+            for (byte b : frame) {
+                int value = b & 0xFF;
+                if (value == 0xC0) {
+                    stream.write(0xDB);
+                    stream.write(0xDC);
+                } else if (value == 0xDB) {
+                    stream.write(0xDB);
+                    stream.write(0xDD);
+                } else {
+                    stream.write(value);
+                }
+            }
+            stream.write(0xC0);
+            frameBytes += frame.length;
+        }
+        final List<byte[]> deliveries = new ArrayList<>();
+        SimulatedSerialPort port = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "framer", false, 0);
+        port.open(null);
+        SerialInputOutputManager manager = new SerialInputOutputManager(port, new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+                deliveries.add(data);
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+        }, 0);
+        manager.setReadBufferSize(64);
+        manager.setStats(stats);
+        manager.setFramer(new SlipFramer(256), batching);
+        assertTrue(manager.begin());
+        byte[] encoded = stream.toByteArray();
+        int[] sizes = {1, 7, 63, 64, 200, 3};
+        int offset = 0;
+        for (int i = 0; offset < encoded.length; i++) {
+            int count = Math.min(sizes[i % sizes.length], encoded.length - offset);
+            port.write(Arrays.copyOfRange(encoded, offset, offset + count), 0);
+            offset += count;
+            assertTrue(manager.stepOnce(10));
+        }
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+        while (port.getBytesRead() < encoded.length && System.currentTimeMillis() < deadline) {
+            assertTrue(manager.stepOnce(10));
+        }
+        manager.stop();
+        manager.stepOnce(0);
+        port.close();
+        assertTrue(frameBytes > 0);
+        return deliveries;
+    }
+
+    private static byte[][] testFrames() {
+        byte[][] frames = new byte[40][];
+        for (int f = 0; f < frames.length; f++) {
+            frames[f] = new byte[1 + f * 5];
+            for (int i = 0; i < frames[f].length; i++) {
+                // END and ESC show up in every other frame
+                frames[f][i] = (byte) (f % 2 == 0 && i % 9 == 0 ? (i % 2 == 0 ? 0xC0 : 0xDB) : f + i);
+            }
+        }
+        return frames;
+    }
+
+    @Test
+    public void managerDeliversOneFramePerCall() throws IOException, InterruptedException {
+        byte[][] frames = testFrames();
+        PortStats stats = new PortStats();
+        List<byte[]> deliveries = frameThroughManager(frames, false, stats);
+        assertEquals(frames.length, deliveries.size());
+        for (int i = 0; i < frames.length; i++) {
+            assertArrayEquals("frame " + i, frames[i], deliveries.get(i));
+        }
+        long[] out = new long[PortStats.STAT_COUNT];
+        stats.copyTo(out);
+        assertEquals(frames.length, out[PortStats.STAT_FRAMES]);
+        assertEquals(0, out[PortStats.STAT_FRAME_ERRORS]);
+    }
+
+    @Test
+    public void managerBatchesTheFramesOfARead() throws IOException, InterruptedException {
+        byte[][] frames = testFrames();
+        List<byte[]> deliveries = frameThroughManager(frames, true, new PortStats());
+        List<byte[]> unpacked = new ArrayList<>();
+        for (byte[] batch : deliveries) {
+            int pos = 0;
+            while (pos < batch.length) {
+                int length = ((batch[pos] & 0xFF) << 24) | ((batch[pos + 1] & 0xFF) << 16)
+                        | ((batch[pos + 2] & 0xFF) << 8) | (batch[pos + 3] & 0xFF);
+                unpacked.add(Arrays.copyOfRange(batch, pos + 4, pos + 4 + length));
+                pos += 4 + length;
+            }
+            assertEquals(batch.length, pos);
+        }
+        assertTrue(deliveries.size() < frames.length);
+        assertEquals(frames.length, unpacked.size());
+        for (int i = 0; i < frames.length; i++) {
+            assertArrayEquals("frame " + i, frames[i], unpacked.get(i));
+        }
+    }
+}
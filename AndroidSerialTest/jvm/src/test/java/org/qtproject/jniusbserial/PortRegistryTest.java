@@ -0,0 +1,74 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PortRegistryTest {
+
+    private final PortRegistry mRegistry = new PortRegistry();
+
+    private PortState register(final String portName) {
+        return mRegistry.register(portName, new PortRegistry.Factory() {
+            @Override
+            public PortState create(int handle) {
+                return new PortState(handle, portName, 0, null, new SimulatedSerialPort(portName, false, 0), null, 0);
+            }
+        });
+    }
+
+    @Test
+    public void registersEachNameOnce() {
+        PortState a = register("/dev/bus/usb/001/002");
+        assertNotNull(a);
+        assertNull(register("/dev/bus/usb/001/002"));
+        assertSame(a, mRegistry.get(a.mHandle));
+        assertSame(a, mRegistry.getByName("/dev/bus/usb/001/002"));
+    }
+
+    @Test
+    public void staleHandleDoesNotResolveToReusedSlot() {
+        PortState a = register("a");
+        assertSame(a, mRegistry.remove(a.mHandle));
+        PortState b = register("b");
+        assertNotEquals(a.mHandle, b.mHandle);
+        assertNull(mRegistry.get(a.mHandle));
+        assertNull(mRegistry.remove(a.mHandle));
+        assertSame(b, mRegistry.get(b.mHandle));
+    }
+
+    @Test
+    public void renameMovesTheName() {
+        PortState a = register("/dev/bus/usb/001/002");
+        assertTrue(mRegistry.rename(a, "/dev/bus/usb/001/005"));
+        assertEquals("/dev/bus/usb/001/005", a.mPortName);
+        assertNull(mRegistry.getByName("/dev/bus/usb/001/002"));
+        assertSame(a, mRegistry.getByName("/dev/bus/usb/001/005"));
+        assertTrue(mRegistry.rename(a, "/dev/bus/usb/001/005"));
+    }
+
+    @Test
+    public void renameRejectsANameInUse() {
+        PortState a = register("/dev/bus/usb/001/002");
+        PortState b = register("/dev/bus/usb/001/003");
+        assertFalse(mRegistry.rename(a, "/dev/bus/usb/001/003"));
+        assertEquals("/dev/bus/usb/001/002", a.mPortName);
+        assertSame(a, mRegistry.getByName("/dev/bus/usb/001/002"));
+        assertSame(b, mRegistry.getByName("/dev/bus/usb/001/003"));
+        assertEquals(2, mRegistry.ports().size());
+    }
+
+    @Test
+    public void renameRejectsAClosedPort() {
+        PortState a = register("a");
+        mRegistry.remove(a.mHandle);
+        assertFalse(mRegistry.rename(a, "b"));
+        assertNull(mRegistry.getByName("b"));
+    }
+}
@@ -0,0 +1,94 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * A consumer stalling longer than the adapter's FIFO lasts loses data with synchronous reads, while
+ * queued transfers keep taking the data meanwhile and the following reads catch up.
+ */
+public class ReadPathTest {
+
+    private static final int BAUD_RATE = 921600; // 92 bytes/ms
+    private static final int FIFO_SIZE = 128;
+    private static final int TRANSFER_SIZE = 4096;
+    private static final long STALL_MSEC = 2; // the FIFO lasts 1.4 ms
+    private static final int STALL_EVERY = 8; // deliveries
+    private static final long RUN_MSEC = 300;
+
+    private static final class Checker implements SerialInputOutputManager.Listener {
+        long mBytes;
+        long mErrors;
+        private int mDeliveries;
+        private byte mNext;
+
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            onNewData(data, data.length, classPoint);
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+            for (int i = 0; i < length; i++) {
+                if (data[i] != mNext && mBytes + i != FIFO_SIZE) // the FIFO overran before begin()
+                    mErrors++;
+                mNext = (byte) (data[i] + 1);
+            }
+            mBytes += length;
+            if (++mDeliveries % STALL_EVERY != 0)
+                return;
+            try {
+                Thread.sleep(STALL_MSEC);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+        }
+    }
+
+    /**
+     * @return bytes lost by the device
+     */
+    private long run(int requestCount, Checker checker) throws IOException {
+        FakeUsbDevice device = new FakeUsbDevice("/dev/bus/usb/001/002", 1, BAUD_RATE, FIFO_SIZE);
+        device.getPort(0).open(device.getConnection());
+        SerialInputOutputManager manager = new SerialInputOutputManager(device.getPort(0), checker, 0);
+        manager.setReadBufferSize(TRANSFER_SIZE);
+        if (requestCount > 0)
+            manager.setQueuedReads(device.getConnection(), requestCount, TRANSFER_SIZE);
+        assertTrue(manager.begin());
+        long lostBefore = device.getLostBytes(0);
+        long end = System.nanoTime() + RUN_MSEC * 1000000L;
+        while (System.nanoTime() - end < 0) {
+            assertTrue(manager.stepOnce(0));
+        }
+        long lost = device.getLostBytes(0) - lostBefore;
+        manager.stop();
+        manager.stepOnce(0);
+        device.getPort(0).close();
+        return lost;
+    }
+
+    @Test
+    public void synchronousReadsOverrunTheFifo() throws IOException {
+        Checker checker = new Checker();
+        long lost = run(0, checker);
+        assertTrue("lost " + lost, lost > 0);
+        assertTrue(checker.mErrors > 0);
+    }
+
+    @Test
+    public void queuedReadsLoseNothing() throws IOException {
+        Checker checker = new Checker();
+        assertEquals("lost", 0, run(4, checker));
+        assertEquals("errors", 0, checker.mErrors);
+        assertTrue(checker.mBytes > BAUD_RATE / 10 * RUN_MSEC / 1000 / 2);
+    }
+}
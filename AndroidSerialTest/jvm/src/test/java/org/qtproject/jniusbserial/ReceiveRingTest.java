@@ -0,0 +1,152 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ReceiveRingTest {
+
+    private static final int CHUNK = 100;
+
+    /**
+     * Checks a counter stream and that callbacks never overlap.
+     */
+    private static final class Consumer implements SerialInputOutputManager.Listener {
+        final AtomicBoolean mInCallback = new AtomicBoolean();
+        volatile boolean mOverlapped;
+        volatile long mErrors;
+        volatile long mBytes;
+        private byte mNext;
+
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            onNewData(data, data.length, classPoint);
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+            if (!mInCallback.compareAndSet(false, true))
+                mOverlapped = true;
+            for (int i = 0; i < length; i++) {
+                if (data[i] != mNext)
+                    mErrors++;
+                mNext = (byte) (data[i] + 1);
+            }
+            mBytes += length;
+            Thread.yield();
+            mInCallback.set(false);
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+        }
+    }
+
+    private static long put(SerialInputOutputManager.Listener ring, long next, int chunks) {
+        byte[] chunk = new byte[CHUNK];
+        for (int c = 0; c < chunks; c++) {
+            for (int i = 0; i < CHUNK; i++) {
+                chunk[i] = (byte) next++;
+            }
+            ring.onNewData(chunk, CHUNK, 0);
+        }
+        return next;
+    }
+
+    private static void awaitDelivered(Consumer consumer, long bytes) throws InterruptedException {
+        long deadline = System.nanoTime() + 5000000000L;
+        while (consumer.mBytes < bytes && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(bytes, consumer.mBytes);
+    }
+
+    @Test
+    public void replacementDeliversAfterTheBufferedBytes() throws InterruptedException {
+        Consumer consumer = new Consumer();
+        long next = 0;
+        ReceiveRing old = new ReceiveRing(consumer, ReceiveRing.Policy.BLOCK, 4096, 64, null);
+        old.start();
+        for (int round = 0; round < 20; round++) {
+            next = put(old, next, 50);
+            ReceiveRing replacement = new ReceiveRing(consumer, ReceiveRing.Policy.BLOCK, 4096, 64, null);
+            replacement.start();
+            old.handOver(replacement);
+            // an I/O thread that still holds the old ring forwards through it
+            next = put(old, next, 5);
+            old = replacement;
+        }
+        next = put(old, next, 50);
+        awaitDelivered(consumer, next);
+        old.stop();
+        assertEquals(0, consumer.mErrors);
+        assertFalse(consumer.mOverlapped);
+    }
+
+    @Test
+    public void handOverToDirectDelivery() throws InterruptedException {
+        Consumer consumer = new Consumer();
+        ReceiveRing ring = new ReceiveRing(consumer, ReceiveRing.Policy.BLOCK, 64 * 1024, 64, null);
+        ring.start();
+        long next = put(ring, 0, 200);
+        ring.handOver(consumer);
+        next = put(ring, next, 5);
+        next = put(consumer, next, 5);
+        awaitDelivered(consumer, next);
+        assertEquals(0, consumer.mErrors);
+        assertFalse(consumer.mOverlapped);
+    }
+
+    @Test
+    public void successorIsCalledOutsideTheLock() throws InterruptedException {
+        final Consumer consumer = new Consumer();
+        final AtomicBoolean locked = new AtomicBoolean();
+        final ReceiveRing ring = new ReceiveRing(consumer, ReceiveRing.Policy.BLOCK, 64 * 1024, 64, null);
+        SerialInputOutputManager.Listener successor = new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+                onNewData(data, data.length, classPoint);
+            }
+
+            @Override
+            public void onNewData(byte[] data, int length, long classPoint) {
+                if (Thread.holdsLock(ring))
+                    locked.set(true);
+                consumer.onNewData(data, length, classPoint);
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+        };
+        ring.start();
+        long next = put(ring, 0, 200);
+        ring.handOver(successor);
+        next = put(ring, next, 5);
+        awaitDelivered(consumer, next);
+        assertFalse(locked.get());
+        assertEquals(0, consumer.mErrors);
+    }
+
+    @Test
+    public void bytesPutAfterStopAreCountedAsDropped() throws InterruptedException {
+        Consumer consumer = new Consumer();
+        PortStats stats = new PortStats();
+        ReceiveRing ring = new ReceiveRing(consumer, ReceiveRing.Policy.BLOCK, 64 * 1024, 64, stats);
+        ring.start();
+        long next = put(ring, 0, 10);
+        awaitDelivered(consumer, next);
+        ring.stop();
+        put(ring, next, 3);
+        long[] out = new long[PortStats.STAT_COUNT];
+        stats.copyTo(out);
+        assertEquals(3 * CHUNK, out[PortStats.STAT_RX_DROPPED_BYTES]);
+        assertTrue(out[PortStats.STAT_RX_OVERRUNS] > 0);
+        assertEquals(0, ring.getBufferedCount());
+        assertEquals(next, consumer.mBytes);
+    }
+}
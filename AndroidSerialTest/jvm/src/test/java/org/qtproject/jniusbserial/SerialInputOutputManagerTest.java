@@ -0,0 +1,213 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SerialInputOutputManagerTest {
+
+    private SimulatedSerialPort mPort;
+    private int mNext;
+    private int mErrors;
+
+    private final SerialInputOutputManager.Listener mListener = new SerialInputOutputManager.Listener() {
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            onNewData(data, data.length, classPoint);
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+            for (int i = 0; i < length; i++) {
+                if (data[i] != (byte) mNext++)
+                    mErrors++;
+            }
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mPort = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "test", true, 0);
+        mPort.open(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mPort.isOpen())
+            mPort.close();
+    }
+
+    @Test
+    public void stepOnceDeliversTheStreamInOrder() {
+        for (boolean reuse : new boolean[] {false, true}) {
+            SerialInputOutputManager manager = new SerialInputOutputManager(mPort, mListener, 0);
+            manager.setReadBufferSize(100);
+            manager.setReuseBuffers(reuse);
+            assertTrue(manager.begin());
+            for (int i = 0; i < 50; i++) {
+                assertTrue(manager.stepOnce(0));
+            }
+            manager.stop();
+            assertFalse(manager.stepOnce(0));
+            assertEquals(SerialInputOutputManager.State.STOPPED, manager.getState());
+        }
+        assertEquals(2 * 50 * 100, mNext);
+        assertEquals(0, mErrors);
+    }
+
+    @Test
+    public void writeAsyncReportsCompletion() throws Exception {
+        final CountDownLatch done = new CountDownLatch(3);
+        SimulatedSerialPort port = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "loop", false, 0);
+        port.open(null);
+        SerialInputOutputManager manager = new SerialInputOutputManager(port, new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+
+            @Override
+            public void onWriteComplete(long sequence, boolean success, long classPoint) {
+                if (success && sequence == 4 - done.getCount())
+                    done.countDown();
+            }
+        }, 0);
+        manager.setWriteQueue(16, 0);
+        manager.start();
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            assertTrue(manager.writeAsync(new byte[][] {new byte[10], new byte[5]}, sequence));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        manager.stop();
+        port.close();
+    }
+
+    /**
+     * Remembers every read timeout it was asked for.
+     */
+    private static final class TimeoutPort extends SimulatedSerialPort {
+        volatile boolean mShortenedTimeout;
+
+        TimeoutPort() {
+            super(SimulatedSerialPort.SCHEME + "timeout", false, 0);
+        }
+
+        @Override
+        public int read(byte[] dest, int timeout) throws IOException {
+            if (timeout != 0)
+                mShortenedTimeout = true;
+            return super.read(dest, timeout);
+        }
+    }
+
+    @Test
+    public void heldDataIsFlushedWithoutShorteningASynchronousRead() throws Exception {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream(); // Synchronized by itself
+        final CountDownLatch delivered = new CountDownLatch(1);
+        TimeoutPort port = new TimeoutPort();
+        port.open(null);
+        SerialInputOutputManager manager = new SerialInputOutputManager(port, new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+                synchronized (received) {
+                    received.write(data, 0, data.length);
+                    if (received.size() == 6)
+                        delivered.countDown();
+                }
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+        }, 0);
+        manager.setReadTimeout(0);
+        manager.setReadCoalescing(1024, 20);
+        manager.start();
+        port.write(new byte[] {1, 2, 3}, 0);
+        port.write(new byte[] {4, 5, 6}, 0);
+        // no more data follows, the read stays blocked while the hold time ends
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        synchronized (received) {
+            assertEquals(6, received.size());
+        }
+        assertFalse(port.mShortenedTimeout);
+        manager.stop();
+        port.close();
+    }
+
+    @Test
+    public void everyAcceptedWriteIsCompletedAcrossSwapsAndStop() throws Exception {
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong accepted = new AtomicLong();
+        SimulatedSerialPort port = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "swap", false, 0);
+        port.open(null);
+        final SerialInputOutputManager manager = new SerialInputOutputManager(port, new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+
+            @Override
+            public void onWriteComplete(long sequence, boolean success, long classPoint) {
+                completed.incrementAndGet();
+            }
+        }, 0);
+        manager.setReadTimeout(10);
+        manager.setWriteQueue(16, 0);
+        manager.start();
+
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final long first = w * 1000000L + 1;
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[][] buffers = {new byte[8]};
+                    for (long sequence = first; sequence < first + 20000; sequence++) {
+                        if (manager.writeAsync(buffers, sequence))
+                            accepted.incrementAndGet();
+                    }
+                }
+            });
+            writers[w].start();
+        }
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(2);
+            manager.setWriteQueue(16, 0);
+        }
+        manager.stop();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        // nothing is accepted once stopped
+        assertFalse(manager.writeAsync(new byte[][] {new byte[1]}, 5));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (completed.get() < accepted.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(accepted.get() > 0);
+        assertEquals(accepted.get(), completed.get());
+        port.close();
+    }
+}
@@ -0,0 +1,226 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbManager;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SharedConnectionTest {
+
+    private static final int BAUD_RATE = 921600;
+    private static final int PORT_COUNT = 4;
+    private static final long BYTES_PER_PORT = 64 * 1024; // 0.7 s at the baud rate
+    // past the first transfers, which hold the gap of a FIFO that overflowed before they were queued
+    private static final long WARM_UP_BYTES = 2 * 16 * 1024;
+    private static final int TIMEOUT_MSEC = 10000;
+
+    /**
+     * Checks one port's counter stream.
+     */
+    private static final class Checker implements SerialInputOutputManager.Listener {
+        volatile long mBytes;
+        volatile long mErrors;
+        volatile Exception mError;
+        private boolean mStarted;
+        private byte mNext;
+
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+            onNewData(data, data.length, classPoint);
+        }
+
+        @Override
+        public void onNewData(byte[] data, int length, long classPoint) {
+            for (int i = 0; i < length; i++) {
+                if (mStarted && data[i] != mNext)
+                    mErrors++;
+                mNext = (byte) (data[i] + 1);
+                mStarted = true;
+            }
+            mBytes += length;
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+            mError = e;
+        }
+    }
+
+    @Test
+    public void openCountFollowsAcquireAndRelease() throws IOException {
+        FakeUsbDevice device = new FakeUsbDevice("/dev/bus/usb/002/001", 2, BAUD_RATE, 2048);
+        SharedConnection first = SharedConnection.acquire(device.getManager(), device.getDriver(), 0);
+        assertEquals(2, first.getPortCount());
+        assertEquals(1, first.getOpenCount());
+
+        SharedConnection second = SharedConnection.acquire(device.getManager(), device.getDriver(), 1);
+        assertSame(first, second);
+        assertEquals(2, first.getOpenCount());
+
+        first.release(0);
+        assertEquals(1, first.getOpenCount());
+        assertFalse(device.isClosed());
+        first.release(1);
+        assertEquals(0, first.getOpenCount());
+        assertTrue(device.isClosed());
+        assertNull(first.getPort(0));
+        assertNull(first.getPort(1));
+    }
+
+    /**
+     * Wait until every port received {@code count} more bytes than {@code from}.
+     */
+    private static void awaitReceived(Checker[] checkers, long[] from, long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+        for (int i = 0; i < checkers.length; i++) {
+            long target = (from != null ? from[i] : 0) + count;
+            while (checkers[i].mBytes < target && checkers[i].mError == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertNull(checkers[i].mError);
+            assertTrue("port " + i + " received " + checkers[i].mBytes + " of " + target + " bytes", checkers[i].mBytes >= target);
+        }
+    }
+
+    /**
+     * Every port at full baud at the same time, each keeping transfers queued on the connection's reaper.
+     */
+    @Test
+    public void portsOnOneConnectionLoseNothing() throws Exception {
+        FakeUsbDevice device = new FakeUsbDevice("/dev/bus/usb/002/002", PORT_COUNT, BAUD_RATE, 2048);
+        SharedConnection shared = null;
+        SerialInputOutputManager[] managers = new SerialInputOutputManager[PORT_COUNT];
+        Checker[] checkers = new Checker[PORT_COUNT];
+        for (int i = 0; i < PORT_COUNT; i++) {
+            shared = SharedConnection.acquire(device.getManager(), device.getDriver(), i);
+            checkers[i] = new Checker();
+            managers[i] = new SerialInputOutputManager(shared.getPort(i), checkers[i], i);
+            managers[i].setReadBufferSize(4096);
+            // as JniUsbSerial does for the ports of a multi-port adapter
+            managers[i].setQueuedReads(shared.getReaper(), 4, 16 * 1024);
+        }
+        assertEquals(PORT_COUNT, shared.getOpenCount());
+        for (SerialInputOutputManager manager : managers) {
+            manager.start();
+        }
+        awaitReceived(checkers, null, WARM_UP_BYTES);
+        long[] lostBefore = new long[PORT_COUNT];
+        long[] receivedBefore = new long[PORT_COUNT];
+        long[] errorsBefore = new long[PORT_COUNT];
+        for (int i = 0; i < PORT_COUNT; i++) {
+            lostBefore[i] = device.getLostBytes(i);
+            receivedBefore[i] = checkers[i].mBytes;
+            errorsBefore[i] = checkers[i].mErrors;
+        }
+
+        awaitReceived(checkers, receivedBefore, BYTES_PER_PORT);
+        for (int i = 0; i < PORT_COUNT; i++) {
+            assertEquals("lost on port " + i, 0, device.getLostBytes(i) - lostBefore[i]);
+        }
+        for (SerialInputOutputManager manager : managers) {
+            manager.stop();
+        }
+        for (SerialInputOutputManager manager : managers) {
+            while (manager.getState() != SerialInputOutputManager.State.STOPPED) {
+                Thread.sleep(1);
+            }
+        }
+        for (int i = 0; i < PORT_COUNT; i++) {
+            assertEquals("out of order on port " + i, 0, checkers[i].mErrors - errorsBefore[i]);
+            assertNull(checkers[i].mError);
+            shared.release(i);
+        }
+        assertTrue(device.isClosed());
+    }
+
+    /**
+     * The same through JniUsbSerial, which gives every port of the adapter queued reads on its own.
+     */
+    @Test
+    public void portsOpenedThroughJniUsbSerialLoseNothing() throws Exception {
+        final String devicePath = "/dev/bus/usb/002/003";
+        FakeUsbDevice device = new FakeUsbDevice(devicePath, PORT_COUNT, BAUD_RATE, 2048);
+        final UsbManager manager = device.getManager();
+        assertTrue(JniUsbSerial.init(new Context() {
+            @Override
+            public Object getSystemService(String name) {
+                return manager;
+            }
+
+            @Override
+            public String getPackageName() {
+                return "org.qtproject.example";
+            }
+
+            @Override
+            public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+                return null;
+            }
+
+            @Override
+            public void unregisterReceiver(BroadcastReceiver receiver) {
+            }
+        }));
+        JniUsbSerial.rescanDevices();
+        final Checker[] checkers = new Checker[PORT_COUNT];
+        for (int i = 0; i < PORT_COUNT; i++) {
+            checkers[i] = new Checker();
+        }
+        // routes each port's callbacks by its class point, the port index
+        JniUsbSerial.setListener(new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+                checkers[(int) classPoint].onNewData(data, classPoint);
+            }
+
+            @Override
+            public void onNewData(byte[] data, int length, long classPoint) {
+                checkers[(int) classPoint].onNewData(data, length, classPoint);
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+                checkers[(int) classPoint].onRunError(e, classPoint);
+            }
+        });
+        int[] handles = new int[PORT_COUNT];
+        try {
+            for (int i = 0; i < PORT_COUNT; i++) {
+                handles[i] = JniUsbSerial.open(SharedConnection.portName(devicePath, i), i);
+                assertTrue(handles[i] != 0);
+            }
+            awaitReceived(checkers, null, WARM_UP_BYTES);
+            long[] lostBefore = new long[PORT_COUNT];
+            long[] receivedBefore = new long[PORT_COUNT];
+            long[] errorsBefore = new long[PORT_COUNT];
+            for (int i = 0; i < PORT_COUNT; i++) {
+                lostBefore[i] = device.getLostBytes(i);
+                receivedBefore[i] = checkers[i].mBytes;
+                errorsBefore[i] = checkers[i].mErrors;
+            }
+
+            awaitReceived(checkers, receivedBefore, BYTES_PER_PORT);
+            for (int i = 0; i < PORT_COUNT; i++) {
+                assertEquals("lost on port " + i, 0, device.getLostBytes(i) - lostBefore[i]);
+                assertEquals("out of order on port " + i, 0, checkers[i].mErrors - errorsBefore[i]);
+            }
+        } finally {
+            for (int handle : handles) {
+                JniUsbSerial.close(handle);
+            }
+            JniUsbSerial.setListener(null);
+        }
+        assertTrue(device.isClosed());
+    }
+}
@@ -0,0 +1,129 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Test;
+
+/**
+ * Ports on a {@link SharedIoScheduler} send their write queue from the shared threads, without a
+ * {@link SerialWriter} thread per port.
+ */
+public class SharedIoSchedulerTest {
+
+    private static final int PORT_COUNT = 4;
+    private static final int WRITE_COUNT = 50;
+    private static final int TIMEOUT_MSEC = 5000;
+
+    private static int writerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(SerialWriter.class.getSimpleName()))
+                count++;
+        }
+        return count;
+    }
+
+    private static final class Recorder implements SerialInputOutputManager.Listener {
+        final ByteArrayOutputStream mReceived = new ByteArrayOutputStream(); // Synchronized by 'this'
+        final ConcurrentLinkedQueue<Long> mCompleted = new ConcurrentLinkedQueue<>();
+        volatile boolean mFailed;
+
+        @Override
+        public synchronized void onNewData(byte[] data, long classPoint) {
+            mReceived.write(data, 0, data.length);
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+            mFailed = true;
+        }
+
+        @Override
+        public void onWriteComplete(long sequence, boolean success, long classPoint) {
+            if (success)
+                mCompleted.add(sequence);
+            else
+                mFailed = true;
+        }
+
+        synchronized byte[] received() {
+            return mReceived.toByteArray();
+        }
+    }
+
+    @Test
+    public void sharedPortsWriteWithoutWriterThreads() throws IOException, InterruptedException {
+        SharedIoScheduler scheduler = new SharedIoScheduler(1, Process.THREAD_PRIORITY_DEFAULT, 5);
+        SimulatedSerialPort[] ports = new SimulatedSerialPort[PORT_COUNT];
+        SerialInputOutputManager[] managers = new SerialInputOutputManager[PORT_COUNT];
+        Recorder[] recorders = new Recorder[PORT_COUNT];
+        final int writersBefore = writerThreads();
+        for (int i = 0; i < PORT_COUNT; i++) {
+            ports[i] = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "shared" + i, false, 0);
+            ports[i].open(null);
+            recorders[i] = new Recorder();
+            managers[i] = new SerialInputOutputManager(ports[i], recorders[i], i);
+            managers[i].setWriteQueue(WRITE_COUNT, 0);
+            managers[i].setScheduler(scheduler);
+            managers[i].start();
+        }
+        try {
+            assertTrue(writerThreads() <= writersBefore);
+
+            ByteArrayOutputStream[] sent = new ByteArrayOutputStream[PORT_COUNT];
+            for (int i = 0; i < PORT_COUNT; i++) {
+                sent[i] = new ByteArrayOutputStream();
+                for (int n = 0; n < WRITE_COUNT; n++) {
+                    byte[] head = {(byte) i, (byte) n};
+                    byte[] body = new byte[100 + n];
+                    body[body.length - 1] = (byte) (n * 3);
+                    assertTrue(managers[i].writeAsync(new byte[][] {head, body}, n + 1));
+                    sent[i].write(head, 0, head.length);
+                    sent[i].write(body, 0, body.length);
+                }
+            }
+
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+            for (int i = 0; i < PORT_COUNT; i++) {
+                while (recorders[i].mCompleted.size() < WRITE_COUNT && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                while (recorders[i].received().length < sent[i].size() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+            for (int i = 0; i < PORT_COUNT; i++) {
+                assertEquals(WRITE_COUNT, recorders[i].mCompleted.size());
+                long expected = 1;
+                for (long sequence : recorders[i].mCompleted) {
+                    assertEquals(expected++, sequence);
+                }
+                assertArrayEquals(sent[i].toByteArray(), recorders[i].received());
+                assertFalse(recorders[i].mFailed);
+                assertEquals(0, managers[i].getWriteQueueDepth());
+            }
+            assertTrue(writerThreads() <= writersBefore);
+        } finally {
+            for (int i = 0; i < PORT_COUNT; i++) {
+                managers[i].stop();
+            }
+            for (int i = 0; i < PORT_COUNT; i++) {
+                final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+                while (managers[i].getState() != SerialInputOutputManager.State.STOPPED
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                ports[i].close();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SimulatedSerialPortTest {
+
+    private static void assertRejectsBaudRate(UsbSerialPort port, int baudRate) {
+        try {
+            port.setParameters(baudRate, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+            fail("accepted baud rate " + baudRate);
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void setParametersRejectsInvalidBaudRates() throws IOException {
+        SimulatedSerialPort port = new SimulatedSerialPort(SimulatedSerialPort.SCHEME + "params", false, 0);
+        assertRejectsBaudRate(port, 0);
+        assertRejectsBaudRate(port, -9600);
+        port.setParameters(115200, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+
+        CaptureReplayPort replay = new CaptureReplayPort(new File("missing"), 0);
+        assertRejectsBaudRate(replay, 0);
+        replay.setParameters(115200, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+    }
+
+    @Test
+    public void invalidBaudRateFailsJniSetParameters() {
+        JniUsbSerial.setListener(new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+        });
+        int handle = JniUsbSerial.open(SimulatedSerialPort.SCHEME + "jniparams", 1);
+        try {
+            assertTrue(handle != 0);
+            assertFalse(JniUsbSerial.setParameters(handle, 0, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE));
+            assertTrue(JniUsbSerial.setParameters(handle, 9600, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE));
+        } finally {
+            JniUsbSerial.close(handle);
+            JniUsbSerial.setListener(null);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Writes merged by a {@link TransmitCoalescer} keep their order, timed transfers of a blocked port
+ * hold up neither its writers nor other ports, and a failed timed transfer fails the next write.
+ */
+public class TransmitCoalescerTest {
+
+    private static final int WINDOW_MSEC = 20;
+    private static final int MAX_BYTES = 64;
+    private static final int TIMEOUT_MSEC = 5000;
+
+    private final List<TransmitCoalescer> mCoalescers = new ArrayList<>();
+
+    /**
+     * Records the transfers made, can hold them at a gate or fail them.
+     */
+    private static final class WirePort extends SimulatedSerialPort {
+        private final ByteArrayOutputStream mWire = new ByteArrayOutputStream(); // Synchronized by 'this'
+        private final List<Integer> mTransfers = new ArrayList<>(); // Synchronized by 'this'
+        volatile CountDownLatch mGate;
+        volatile CountDownLatch mEntered = new CountDownLatch(1);
+        volatile boolean mFail;
+
+        WirePort(String name) {
+            super(SimulatedSerialPort.SCHEME + name, false, 0);
+        }
+
+        @Override
+        public void write(byte[] src, int length, int timeout) throws IOException {
+            mEntered.countDown();
+            CountDownLatch gate = mGate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (mFail)
+                throw new IOException("Simulated write failure");
+            synchronized (this) {
+                mWire.write(src, 0, length);
+                mTransfers.add(length);
+            }
+        }
+
+        synchronized byte[] wire() {
+            return mWire.toByteArray();
+        }
+
+        synchronized List<Integer> transfers() {
+            return new ArrayList<>(mTransfers);
+        }
+    }
+
+    private static final class ErrorListener implements SerialInputOutputManager.Listener {
+        final CountDownLatch mErrors = new CountDownLatch(1);
+
+        @Override
+        public void onNewData(byte[] data, long classPoint) {
+        }
+
+        @Override
+        public void onRunError(Exception e, long classPoint) {
+            mErrors.countDown();
+        }
+    }
+
+    private TransmitCoalescer coalescer(PortState state, SerialInputOutputManager.Listener listener, int windowMSec) {
+        TransmitCoalescer coalescer = new TransmitCoalescer(state, listener, windowMSec, MAX_BYTES);
+        coalescer.start();
+        mCoalescers.add(coalescer);
+        return coalescer;
+    }
+
+    private TransmitCoalescer coalescer(WirePort port, SerialInputOutputManager.Listener listener) {
+        return coalescer(new PortState(1, "wire", 0, null, port, null, 0), listener, WINDOW_MSEC);
+    }
+
+    @After
+    public void tearDown() {
+        for (TransmitCoalescer coalescer : mCoalescers) {
+            try {
+                coalescer.close();
+            } catch (IOException e) {
+                // failures are what some tests provoke
+            }
+        }
+    }
+
+    private static long stat(PortState state, int index) {
+        long[] out = new long[PortStats.STAT_COUNT];
+        state.mStats.copyTo(out);
+        return out[index];
+    }
+
+    private static void awaitWire(WirePort port, int length) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+        while (port.wire().length < length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void writesWithinTheWindowGoOutAsOneTransfer() throws IOException, InterruptedException {
+        WirePort port = new WirePort("merge");
+        // long enough that a scheduling hiccup does not split the writes
+        TransmitCoalescer coalescer = coalescer(new PortState(1, "wire", 0, null, port, null, 0), null, 200);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            byte[] data = {(byte) i, (byte) (i + 1), (byte) (i + 2), (byte) (i + 3)};
+            coalescer.write(data, 0);
+            sent.write(data, 0, data.length);
+        }
+        awaitWire(port, sent.size());
+        assertArrayEquals(sent.toByteArray(), port.wire());
+        assertEquals(1, port.transfers().size());
+    }
+
+    @Test
+    public void fullBuffersAndLargeWritesKeepTheOrder() throws IOException, InterruptedException {
+        WirePort port = new WirePort("order");
+        TransmitCoalescer coalescer = coalescer(port, null);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = new byte[i % 7 == 0 ? MAX_BYTES * 2 : 10];
+            for (int n = 0; n < data.length; n++) {
+                data[n] = (byte) (i + n);
+            }
+            coalescer.write(data, 0);
+            sent.write(data, 0, data.length);
+        }
+        coalescer.flush();
+        assertArrayEquals(sent.toByteArray(), port.wire());
+        for (int length : port.transfers()) {
+            assertTrue(length <= MAX_BYTES || length == MAX_BYTES * 2);
+        }
+    }
+
+    @Test
+    public void blockedTimedTransferHoldsUpNoWriter() throws IOException, InterruptedException {
+        WirePort blocked = new WirePort("blocked");
+        CountDownLatch gate = new CountDownLatch(1);
+        blocked.mGate = gate;
+        TransmitCoalescer blockedCoalescer = coalescer(blocked, null);
+        WirePort other = new WirePort("other");
+        TransmitCoalescer otherCoalescer = coalescer(other, null);
+
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        byte[] first = {1, 2, 3};
+        blockedCoalescer.write(first, 0);
+        sent.write(first, 0, first.length);
+        // the timed transfer is now stuck in the port
+        assertTrue(blocked.mEntered.await(TIMEOUT_MSEC, TimeUnit.MILLISECONDS));
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            byte[] data = {(byte) (10 + i)};
+            blockedCoalescer.write(data, 0);
+            sent.write(data, 0, data.length);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MSEC / 5));
+
+        byte[] elsewhere = {42};
+        otherCoalescer.write(elsewhere, 0);
+        awaitWire(other, 1);
+        assertArrayEquals(elsewhere, other.wire());
+
+        gate.countDown();
+        awaitWire(blocked, sent.size());
+        assertArrayEquals(sent.toByteArray(), blocked.wire());
+    }
+
+    @Test
+    public void failedTimedTransferFailsTheNextWrite() throws IOException, InterruptedException {
+        WirePort port = new WirePort("fail");
+        port.mFail = true;
+        ErrorListener listener = new ErrorListener();
+        TransmitCoalescer coalescer = coalescer(port, listener);
+
+        coalescer.write(new byte[] {1, 2, 3}, 0);
+        assertTrue(listener.mErrors.await(TIMEOUT_MSEC, TimeUnit.MILLISECONDS));
+        port.mFail = false;
+        try {
+            coalescer.write(new byte[] {4}, 0);
+            fail("failed transfer not reported");
+        } catch (IOException expected) {
+        }
+        // reported once, the port works again
+        coalescer.write(new byte[] {5}, 0);
+        coalescer.flush();
+        assertArrayEquals(new byte[] {5}, port.wire());
+    }
+
+    @Test
+    public void savedTransfersAreCounted() throws IOException {
+        WirePort port = new WirePort("stats");
+        PortState state = new PortState(1, "wire", 0, null, port, null, 0);
+        TransmitCoalescer coalescer = coalescer(state, null, TIMEOUT_MSEC);
+        for (int i = 0; i < 8; i++) {
+            coalescer.write(new byte[] {(byte) i}, 0);
+        }
+        coalescer.flush();
+        assertEquals(8, stat(state, PortStats.STAT_TX_COALESCED_WRITES));
+        assertEquals(7, stat(state, PortStats.STAT_TX_TRANSFERS_SAVED));
+        assertEquals(1, port.transfers().size());
+    }
+}
@@ -0,0 +1,165 @@
+package org.qtproject.jniusbserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link JniUsbSerial#writeDirect} on an unpaced loopback {@link SimulatedSerialPort}: data larger
+ * than one transfer arrives whole and in order, invalid ranges are rejected, small payloads go
+ * through the transmit coalescer in order with write() data, and a call allocates nothing.
+ */
+public class WriteDirectTest {
+
+    private static final int TIMEOUT_MSEC = 5000;
+
+    private final ByteArrayOutputStream mReceived = new ByteArrayOutputStream(); // Synchronized by itself
+    private int mHandle;
+
+    @Before
+    public void setUp() {
+        JniUsbSerial.setListener(new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data, long classPoint) {
+                synchronized (mReceived) {
+                    mReceived.write(data, 0, data.length);
+                }
+            }
+
+            @Override
+            public void onRunError(Exception e, long classPoint) {
+            }
+        });
+        mHandle = JniUsbSerial.open(SimulatedSerialPort.SCHEME + "direct?baud=0", 1);
+        assertTrue(mHandle != 0);
+    }
+
+    @After
+    public void tearDown() {
+        JniUsbSerial.close(mHandle);
+        JniUsbSerial.setListener(null);
+    }
+
+    private byte[] awaitReceived(int length) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MSEC;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (mReceived) {
+                if (mReceived.size() >= length)
+                    return mReceived.toByteArray();
+            }
+            Thread.sleep(1);
+        }
+        synchronized (mReceived) {
+            return mReceived.toByteArray();
+        }
+    }
+
+    private long stat(int index) {
+        long[] stats = new long[PortStats.STAT_COUNT];
+        JniUsbSerial.getStats(mHandle, stats);
+        return stats[index];
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i * 13);
+        }
+        return data;
+    }
+
+    @Test
+    public void payloadLargerThanATransferArrivesInOrder() throws InterruptedException {
+        ByteBuffer buffer = JniUsbSerial.getWriteBuffer(mHandle, 0);
+        assertNotNull(buffer);
+        assertTrue(buffer.isDirect());
+        byte[] data = pattern(40000, 5);
+        buffer.position(100);
+        buffer.put(data);
+
+        assertEquals(1, JniUsbSerial.writeDirect(mHandle, buffer, 100, data.length, 1000));
+        assertEquals(0, buffer.position());
+        assertEquals(buffer.capacity(), buffer.limit());
+        assertArrayEquals(data, awaitReceived(data.length));
+        assertEquals(data.length, stat(PortStats.STAT_BYTES_OUT));
+    }
+
+    @Test
+    public void invalidArgumentsAreRejected() {
+        ByteBuffer buffer = JniUsbSerial.getWriteBuffer(mHandle, 0);
+        assertEquals(0, JniUsbSerial.writeDirect(mHandle, ByteBuffer.allocate(16), 0, 16, 1000));
+        assertEquals(0, JniUsbSerial.writeDirect(mHandle, null, 0, 16, 1000));
+        assertEquals(0, JniUsbSerial.writeDirect(mHandle, buffer, -1, 16, 1000));
+        assertEquals(0, JniUsbSerial.writeDirect(mHandle, buffer, 0, -1, 1000));
+        assertEquals(0, JniUsbSerial.writeDirect(mHandle, buffer, buffer.capacity() - 8, 16, 1000));
+        assertEquals(0, JniUsbSerial.writeDirect(0, buffer, 0, 16, 1000));
+        assertEquals(0, stat(PortStats.STAT_BYTES_OUT));
+    }
+
+    @Test
+    public void largerCapacityReplacesTheBuffer() {
+        ByteBuffer buffer = JniUsbSerial.getWriteBuffer(mHandle, 0);
+        assertTrue(buffer == JniUsbSerial.getWriteBuffer(mHandle, buffer.capacity()));
+        ByteBuffer larger = JniUsbSerial.getWriteBuffer(mHandle, buffer.capacity() + 1);
+        assertTrue(larger != buffer && larger.capacity() > buffer.capacity());
+    }
+
+    @Test
+    public void coalescedDirectWritesKeepTheOrder() throws InterruptedException {
+        // a window no test run reaches, so only flush() and full buffers send
+        assertTrue(JniUsbSerial.setTransmitCoalescing(mHandle, TIMEOUT_MSEC, 0));
+        ByteBuffer buffer = JniUsbSerial.getWriteBuffer(mHandle, 0);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        for (int i = 0; i < 8; i++) {
+            byte[] data = pattern(4, i);
+            buffer.put(data);
+            assertEquals(1, JniUsbSerial.writeDirect(mHandle, buffer, 0, data.length, 1000));
+            sent.write(data, 0, data.length);
+        }
+        byte[] viaWrite = pattern(3, 100);
+        assertEquals(1, JniUsbSerial.write(mHandle, viaWrite, 1000));
+        sent.write(viaWrite, 0, viaWrite.length);
+        assertEquals(9, stat(PortStats.STAT_TX_COALESCED_WRITES));
+        assertEquals(0, stat(PortStats.STAT_BYTES_OUT));
+
+        // a payload beyond the coalescer's buffer sends what it holds first
+        byte[] large = pattern(1000, 7);
+        buffer.put(large);
+        assertEquals(1, JniUsbSerial.writeDirect(mHandle, buffer, 0, large.length, 1000));
+        sent.write(large, 0, large.length);
+
+        assertArrayEquals(sent.toByteArray(), awaitReceived(sent.size()));
+        assertEquals(8, stat(PortStats.STAT_TX_TRANSFERS_SAVED));
+    }
+
+    @Test
+    public void writeDirectAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        ByteBuffer buffer = JniUsbSerial.getWriteBuffer(mHandle, 0);
+        buffer.put(pattern(256, 1));
+        for (int i = 0; i < 20000; i++) {
+            JniUsbSerial.writeDirect(mHandle, buffer, 0, 256, 1000);
+        }
+        long threadId = Thread.currentThread().getId();
+        long fewest = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 10000; i++) {
+                JniUsbSerial.writeDirect(mHandle, buffer, 0, 256, 1000);
+            }
+            fewest = Math.min(fewest, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+        assertEquals(0, fewest);
+    }
+}
@@ -0,0 +1,585 @@
+package org.qtproject.jniusbserial;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbManager;
+import android.hardware.usb.UsbRequest;
+
+import com.hoho.android.usbserial.driver.CommonUsbSerialPort;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Multi-port USB serial adapter behind a single {@link UsbDeviceConnection}, for running the read
+ * paths on a plain JVM.
+ *
+ * Every port receives an endless 0x00..0xFF counter pattern at its baud rate into a FIFO of
+ * {@code fifoSize} bytes. The FIFO drains into bulk IN transfers that are pending at the time, either a
+ * {@code bulkTransfer} in progress or queued {@link UsbRequest}s; bytes arriving at a full FIFO are
+ * lost and counted, like on a real adapter whose host does not keep a transfer pending. A queued
+ * request completes when it is full or, at most once per 125 us microframe, with a short packet when
+ * the FIFO ran empty. Written data is discarded.
+ *
+ * The ports read like the library's: with a timeout through {@code bulkTransfer}, without one through
+ * a {@link UsbRequest} and {@link UsbDeviceConnection#requestWait()}, which returns any request
+ * completed on the connection. They keep the baud rate, flow control and DTR/RTS set since they were
+ * opened.
+ *
+ * {@link #detach()} unplugs the device: transfers fail and the connection is dead until
+ * {@link #attach()} plugs it in again, after which {@link UsbManager#openDevice(UsbDevice)} opens it
+ * anew. The default {@link UsbSerialProber} finds the device by its vendor and product id.
+ */
+public final class FakeUsbDevice {
+
+    public static final int PACKET_SIZE = 64;
+    public static final int VENDOR_ID = 0x1209; // no driver of the library claims these
+    public static final int PRODUCT_ID = 0x5e41;
+    private static final long MICROFRAME_NANOS = 125000L;
+
+    static {
+        UsbSerialProber.getDefaultProbeTable().addProduct(VENDOR_ID, PRODUCT_ID, Driver.class);
+    }
+
+    private final String mName;
+    private final Channel[] mChannels;
+    private final Connection mConnection = new Connection();
+    private final UsbDevice mDevice;
+    private final UsbSerialDriver mDriver;
+    private final List<UsbSerialPort> mPorts = new ArrayList<UsbSerialPort>();
+    private final ArrayDeque<UsbRequest> mCompleted = new ArrayDeque<UsbRequest>(); // Synchronized by mConnection
+    private boolean mClosed; // Synchronized by mConnection
+    private boolean mDetached; // Synchronized by mConnection
+
+    public FakeUsbDevice(String name, int portCount, int baudRate, int fifoSize) {
+        if (portCount <= 0 || baudRate <= 0 || fifoSize <= 0)
+            throw new IllegalArgumentException("portCount, baudRate and fifoSize must be positive");
+        mName = name;
+        mChannels = new Channel[portCount];
+        long now = System.nanoTime();
+        for (int i = 0; i < portCount; i++) {
+            mChannels[i] = new Channel(i, baudRate, fifoSize, now);
+        }
+        mDevice = new Device();
+        mDriver = new Driver(mDevice);
+        for (int i = 0; i < portCount; i++) {
+            mPorts.add(new Port(mChannels[i]));
+        }
+    }
+
+    public UsbDevice getDevice() {
+        return mDevice;
+    }
+
+    public UsbSerialDriver getDriver() {
+        return mDriver;
+    }
+
+    /**
+     * @return a manager listing this device while it is attached and opening its connection
+     */
+    public UsbManager getManager() {
+        return new UsbManager() {
+            @Override
+            public HashMap<String, UsbDevice> getDeviceList() {
+                HashMap<String, UsbDevice> devices = new HashMap<String, UsbDevice>();
+                synchronized (mConnection) {
+                    if (!mDetached)
+                        devices.put(mName, mDevice);
+                }
+                return devices;
+            }
+
+            @Override
+            public UsbDeviceConnection openDevice(UsbDevice device) {
+                if (device != mDevice)
+                    return null;
+                synchronized (mConnection) {
+                    if (mDetached)
+                        return null;
+                    mClosed = false;
+                    return mConnection;
+                }
+            }
+
+            @Override
+            public boolean hasPermission(UsbDevice device) {
+                return true;
+            }
+        };
+    }
+
+    public UsbDeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    public UsbSerialPort getPort(int index) {
+        return mPorts.get(index);
+    }
+
+    /**
+     * @return bytes of port {@code index} dropped at the full FIFO so far
+     */
+    public long getLostBytes(int index) {
+        synchronized (mConnection) {
+            mChannels[index].advance(System.nanoTime());
+            return mChannels[index].mLost;
+        }
+    }
+
+    public boolean isClosed() {
+        synchronized (mConnection) {
+            return mClosed;
+        }
+    }
+
+    /**
+     * Unplug the device: its connection dies, transfers in progress and later ones fail.
+     */
+    public void detach() {
+        synchronized (mConnection) {
+            mDetached = true;
+            mClosed = true;
+            mConnection.notifyAll();
+        }
+    }
+
+    /**
+     * Plug the device in again; its connection has to be opened again.
+     */
+    public void attach() {
+        synchronized (mConnection) {
+            mDetached = false;
+        }
+    }
+
+    /**
+     * @return the baud rate port {@code index} was set to since it was opened, 0 if none
+     */
+    public int getBaudRate(int index) {
+        return ((Port) mPorts.get(index)).mBaudRate;
+    }
+
+    private Channel channel(UsbEndpoint endpoint) {
+        for (Channel channel : mChannels) {
+            if (channel.mIn == endpoint || channel.mOut == endpoint)
+                return channel;
+        }
+        throw new IllegalArgumentException("unknown endpoint");
+    }
+
+    /**
+     * Wait a byte time of the fastest port, at least 50 us. Caller holds the connection's lock.
+     */
+    private void pause(long deadline) throws InterruptedException {
+        long nanos = Math.max(50000L, mChannels[0].mNanosPerByte);
+        if (deadline != 0)
+            nanos = Math.min(nanos, deadline - System.nanoTime());
+        if (nanos > 0)
+            mConnection.wait(nanos / 1000000L, (int) (nanos % 1000000L));
+    }
+
+    private final class Device extends UsbDevice {
+
+        FakeUsbDevice owner() {
+            return FakeUsbDevice.this;
+        }
+
+        @Override
+        public String getDeviceName() {
+            return mName;
+        }
+
+        @Override
+        public int getVendorId() {
+            return VENDOR_ID;
+        }
+
+        @Override
+        public int getProductId() {
+            return PRODUCT_ID;
+        }
+
+        @Override
+        public String getSerialNumber() {
+            return mName;
+        }
+    }
+
+    /**
+     * Probed for {@link #VENDOR_ID} and {@link #PRODUCT_ID}; every probe of a device sees the same ports.
+     */
+    public static final class Driver implements UsbSerialDriver {
+
+        private final Device mDevice;
+
+        public Driver(UsbDevice device) {
+            mDevice = (Device) device;
+        }
+
+        @Override
+        public UsbDevice getDevice() {
+            return mDevice;
+        }
+
+        @Override
+        public List<UsbSerialPort> getPorts() {
+            return Collections.unmodifiableList(mDevice.owner().mPorts);
+        }
+    }
+
+    private final class Channel {
+
+        final UsbEndpoint mIn;
+        final UsbEndpoint mOut;
+        final long mNanosPerByte;
+        final byte[] mFifo;
+        final ArrayDeque<Pending> mPending = new ArrayDeque<Pending>();
+        // all fields below are synchronized by mConnection
+        long mProduced; // bytes generated since the start
+        long mStartNanos;
+        int mFifoHead;
+        int mFifoCount;
+        long mLost;
+        long mShortPacketNanos; // when a short packet last ended a transfer
+
+        Channel(int index, int baudRate, int fifoSize, long now) {
+            mIn = new UsbEndpoint(0x81 + index, 2, PACKET_SIZE, 0);
+            mOut = new UsbEndpoint(0x01 + index, 2, PACKET_SIZE, 0);
+            // start, 8 data and 1 stop bit per byte
+            mNanosPerByte = 10L * 1000000000L / baudRate;
+            mFifo = new byte[fifoSize];
+            mStartNanos = now;
+            mShortPacketNanos = now - MICROFRAME_NANOS;
+        }
+
+        /**
+         * Generate the bytes that arrived until {@code now} and hand them to the pending transfers.
+         */
+        void advance(long now) {
+            long target = (now - mStartNanos) / mNanosPerByte;
+            for (; mProduced < target; mProduced++) {
+                byte value = (byte) mProduced;
+                Pending head = mFifoCount == 0 ? mPending.peek() : null;
+                if (head != null) {
+                    head.mBuffer.put(value);
+                    if (!head.mBuffer.hasRemaining())
+                        complete(mPending.poll());
+                } else if (mFifoCount < mFifo.length) {
+                    mFifo[(mFifoHead + mFifoCount) % mFifo.length] = value;
+                    mFifoCount++;
+                } else {
+                    mLost++;
+                }
+            }
+            while (mFifoCount > 0 && !mPending.isEmpty()) {
+                Pending head = mPending.peek();
+                head.mBuffer.put(takeFifo());
+                if (!head.mBuffer.hasRemaining())
+                    complete(mPending.poll());
+            }
+            // a short packet ends the transfer in progress at the next poll of the endpoint
+            Pending head = mPending.peek();
+            if (head != null && head.mBuffer.position() > 0 && mFifoCount == 0
+                    && now - mShortPacketNanos >= MICROFRAME_NANOS) {
+                mShortPacketNanos = now;
+                complete(mPending.poll());
+            }
+        }
+
+        byte takeFifo() {
+            byte value = mFifo[mFifoHead];
+            mFifoHead = (mFifoHead + 1) % mFifo.length;
+            mFifoCount--;
+            return value;
+        }
+
+        void complete(Pending pending) {
+            mCompleted.add(pending.mRequest);
+            mConnection.notifyAll();
+        }
+    }
+
+    private static final class Pending {
+        final UsbRequest mRequest;
+        final ByteBuffer mBuffer;
+
+        Pending(UsbRequest request, ByteBuffer buffer) {
+            mRequest = request;
+            mBuffer = buffer;
+        }
+    }
+
+    private final class Connection extends UsbDeviceConnection {
+
+        @Override
+        public synchronized void close() {
+            mClosed = true;
+            notifyAll();
+        }
+
+        @Override
+        public String getSerial() {
+            return mName;
+        }
+
+        @Override
+        public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+            Channel channel = channel(endpoint);
+            if (endpoint == channel.mOut)
+                return isClosed() ? -1 : length;
+
+            long deadline = timeout > 0 ? System.nanoTime() + timeout * 1000000L : 0;
+            synchronized (this) {
+                while (true) {
+                    if (mClosed)
+                        return -1;
+                    channel.advance(System.nanoTime());
+                    if (channel.mFifoCount > 0) {
+                        int count = Math.min(length, channel.mFifoCount);
+                        for (int i = 0; i < count; i++) {
+                            buffer[offset + i] = channel.takeFifo();
+                        }
+                        return count;
+                    }
+                    if (deadline != 0 && System.nanoTime() - deadline >= 0)
+                        return -1;
+                    try {
+                        pause(deadline);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public UsbRequest requestWait() {
+            try {
+                return requestWait(0);
+            } catch (TimeoutException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public synchronized UsbRequest requestWait(long timeout) throws TimeoutException {
+            long deadline = timeout > 0 ? System.nanoTime() + timeout * 1000000L : 0;
+            while (true) {
+                if (mClosed)
+                    return null;
+                long now = System.nanoTime();
+                for (Channel channel : mChannels) {
+                    channel.advance(now);
+                }
+                UsbRequest request = mCompleted.poll();
+                if (request != null)
+                    return request;
+                if (deadline != 0 && now - deadline >= 0)
+                    throw new TimeoutException();
+                try {
+                    pause(deadline);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        @Override
+        protected synchronized boolean onQueue(UsbRequest request, ByteBuffer buffer) {
+            if (mClosed)
+                return false;
+            Channel channel = channel(request.getEndpoint());
+            channel.advance(System.nanoTime());
+            channel.mPending.add(new Pending(request, buffer));
+            return true;
+        }
+
+        @Override
+        protected synchronized boolean onCancel(UsbRequest request) {
+            if (remove(request)) {
+                mCompleted.add(request);
+                notifyAll();
+            }
+            return true;
+        }
+
+        @Override
+        protected synchronized void onClose(UsbRequest request) {
+            remove(request);
+            mCompleted.remove(request);
+        }
+
+        private boolean remove(UsbRequest request) {
+            for (Channel channel : mChannels) {
+                for (Iterator<Pending> it = channel.mPending.iterator(); it.hasNext(); ) {
+                    if (it.next().mRequest == request) {
+                        it.remove();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads and writes like the library's ports; closing one closes the shared connection.
+     */
+    private final class Port extends CommonUsbSerialPort {
+
+        private final Channel mChannel;
+        volatile int mBaudRate;
+        private volatile FlowControl mFlowControl = FlowControl.NONE;
+        private volatile boolean mDtr;
+        private volatile boolean mRts;
+
+        Port(Channel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public UsbSerialDriver getDriver() {
+            return mDriver;
+        }
+
+        @Override
+        public UsbDevice getDevice() {
+            return mDevice;
+        }
+
+        @Override
+        public int getPortNumber() {
+            return mPorts.indexOf(this);
+        }
+
+        @Override
+        public String getSerial() {
+            return mName;
+        }
+
+        @Override
+        public void open(UsbDeviceConnection connection) throws IOException {
+            if (mConnection != null)
+                throw new IOException("Already open");
+            if (connection == null)
+                throw new IllegalArgumentException("Connection is null");
+            mConnection = connection;
+            mReadEndpoint = mChannel.mIn;
+            mWriteEndpoint = mChannel.mOut;
+            // a port comes up with the adapter's defaults
+            mBaudRate = 0;
+            mFlowControl = FlowControl.NONE;
+            mDtr = false;
+            mRts = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            UsbDeviceConnection connection = mConnection;
+            if (connection == null)
+                throw new IOException("Already closed");
+            mConnection = null;
+            connection.close();
+        }
+
+        @Override
+        public int read(byte[] dest, int length, int timeout) throws IOException {
+            UsbDeviceConnection connection = mConnection;
+            if (connection == null)
+                throw new IOException("Connection closed");
+            length = Math.min(length, dest.length);
+            if (timeout != 0) {
+                int count = connection.bulkTransfer(mReadEndpoint, dest, length, timeout);
+                if (count < 0 && isClosed())
+                    throw new IOException("Connection lost");
+                return Math.max(count, 0);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(dest, 0, length);
+            UsbRequest request = new UsbRequest();
+            try {
+                request.initialize(connection, mReadEndpoint);
+                if (!request.queue(buffer, length))
+                    throw new IOException("Queueing USB request failed");
+                if (connection.requestWait() == null)
+                    throw new IOException("Waiting for USB request failed");
+                return buffer.position();
+            } finally {
+                request.close();
+            }
+        }
+
+        @Override
+        public void write(byte[] src, int length, int timeout) throws IOException {
+            UsbDeviceConnection connection = mConnection;
+            if (connection == null || connection.bulkTransfer(mWriteEndpoint, src, length, timeout) < 0)
+                throw new IOException("Connection closed");
+        }
+
+        @Override
+        public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+            checkOpen();
+            mBaudRate = baudRate;
+        }
+
+        @Override
+        public EnumSet<FlowControl> getSupportedFlowControl() {
+            return EnumSet.of(FlowControl.NONE, FlowControl.RTS_CTS, FlowControl.DTR_DSR);
+        }
+
+        @Override
+        public void setFlowControl(FlowControl flowControl) throws IOException {
+            if (!getSupportedFlowControl().contains(flowControl))
+                throw new UnsupportedOperationException();
+            checkOpen();
+            mFlowControl = flowControl;
+        }
+
+        @Override
+        public FlowControl getFlowControl() {
+            return mFlowControl;
+        }
+
+        @Override
+        public void setDTR(boolean value) throws IOException {
+            checkOpen();
+            mDtr = value;
+        }
+
+        @Override
+        public boolean getDTR() throws IOException {
+            return mDtr;
+        }
+
+        @Override
+        public void setRTS(boolean value) throws IOException {
+            checkOpen();
+            mRts = value;
+        }
+
+        @Override
+        public boolean getRTS() throws IOException {
+            return mRts;
+        }
+
+        private void checkOpen() throws IOException {
+            UsbDeviceConnection connection = mConnection;
+            if (connection == null || isClosed())
+                throw new IOException("Connection closed");
+        }
+    }
+}
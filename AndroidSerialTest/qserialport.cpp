@@ -2,6 +2,7 @@
 #include <QDebug>
 
 static char UsbSerial_jniClassName[] {"org/qtproject/jniusbserial/JniUsbSerial"};
+static const qint64 UsbSerial_writeBufferSize = 64 * 1024; // JniUsbSerial.DIRECT_WRITE_BUFFER_SIZE
 
 static void jniDeviceNewData(JNIEnv *envA, jobject thizA, jlong classPoint, jbyteArray dataA)
 {
@@ -16,6 +17,60 @@ static void jniDeviceNewData(JNIEnv *envA, jobject thizA, jlong classPoint, jbyt
     }
 }
 
+static void jniDeviceNewDataLength(JNIEnv *envA, jobject thizA, jlong classPoint, jbyteArray dataA, jint lengthA)
+{
+    Q_UNUSED(thizA);
+
+    if (classPoint != 0)
+    {
+        // reused per I/O thread, so steady-state delivery does not allocate on either side
+        thread_local QByteArray bytesL;
+        if (bytesL.size() < lengthA)
+            bytesL.resize(lengthA);
+        envA->GetByteArrayRegion(dataA, 0, lengthA, reinterpret_cast<jbyte *>(bytesL.data()));
+        static_cast<QSerialPort *>(reinterpret_cast<void *>(classPoint))->newDataArrived(bytesL.data(), lengthA);
+    }
+}
+
+static void jniDeviceNewDirectData(JNIEnv *envA, jobject thizA, jlong classPoint, jobject dataA, jint lengthA)
+{
+    Q_UNUSED(thizA);
+
+    if (classPoint != 0)
+    {
+        char *bytesL = static_cast<char *>(envA->GetDirectBufferAddress(dataA));
+        if (bytesL != nullptr)
+            static_cast<QSerialPort *>(reinterpret_cast<void *>(classPoint))->newDataArrived(bytesL, lengthA);
+    }
+}
+
+static void jniDeviceWriteComplete(JNIEnv *envA, jobject thizA, jlong classPoint, jlong sequenceA, jboolean successA)
+{
+    Q_UNUSED(envA);
+    Q_UNUSED(thizA);
+
+    if (classPoint != 0)
+        static_cast<QSerialPort *>(reinterpret_cast<void *>(classPoint))->writeCompleteArrived(sequenceA, successA);
+}
+
+static void jniDeviceReconnected(JNIEnv *envA, jobject thizA, jlong classPoint, jlong downtimeMSecA)
+{
+    Q_UNUSED(envA);
+    Q_UNUSED(thizA);
+
+    if (classPoint != 0)
+        static_cast<QSerialPort *>(reinterpret_cast<void *>(classPoint))->reconnectArrived(downtimeMSecA);
+}
+
+static void jniDeviceControlLinesChanged(JNIEnv *envA, jobject thizA, jlong classPoint, jint linesA)
+{
+    Q_UNUSED(envA);
+    Q_UNUSED(thizA);
+
+    if (classPoint != 0)
+        static_cast<QSerialPort *>(reinterpret_cast<void *>(classPoint))->controlLinesArrived(linesA);
+}
+
 static void jniDeviceException(JNIEnv *envA, jobject thizA, jlong classPoint, jstring messageA)
 {
     Q_UNUSED(thizA);
@@ -37,13 +92,26 @@ QSerialPort::QSerialPort()
     readBufferMaxSize = 16384;
 
     isConnected = false;
+    m_handle = 0;
+    m_statsArray = nullptr;
+    m_writeBuffer = nullptr;
+    m_writeBufferAddress = nullptr;
+    m_writeBufferCapacity = 0;
+    m_frameType = NoFraming;
+    m_frameBatching = false;
     m_portName = "";
     m_baudRate = Baud115200;
     m_dataBits = Data8;
     m_parity = NoParity;
     m_stopBits = OneStop;
+    m_flowControl = NoFlowControl;
 
     JNINativeMethod methodsL[] {{"nativeDeviceNewData", "(J[B)V", reinterpret_cast<void *>(jniDeviceNewData)},
+                                        {"nativeDeviceNewData", "(J[BI)V", reinterpret_cast<void *>(jniDeviceNewDataLength)},
+                                        {"nativeDeviceNewDirectData", "(JLjava/nio/ByteBuffer;I)V", reinterpret_cast<void *>(jniDeviceNewDirectData)},
+                                        {"nativeDeviceWriteComplete", "(JJZ)V", reinterpret_cast<void *>(jniDeviceWriteComplete)},
+                                        {"nativeDeviceReconnected", "(JJ)V", reinterpret_cast<void *>(jniDeviceReconnected)},
+                                        {"nativeDeviceControlLinesChanged", "(JI)V", reinterpret_cast<void *>(jniDeviceControlLinesChanged)},
                                         {"nativeDeviceException", "(JLjava/lang/String;)V", reinterpret_cast<void *>(jniDeviceException)}};
 
     QJniEnvironment envL;
@@ -61,6 +129,16 @@ QSerialPort::QSerialPort()
     Q_UNUSED(valL);
 }
 
+QSerialPort::~QSerialPort()
+{
+    if (m_statsArray)
+    {
+        QJniEnvironment envL;
+        envL->DeleteGlobalRef(m_statsArray);
+    }
+    releaseWriteBuffer();
+}
+
 bool QSerialPort::setBaudRate(qint32 baudRate)
 {
     m_baudRate = baudRate;
@@ -70,16 +148,13 @@ bool QSerialPort::setBaudRate(qint32 baudRate)
 
 void QSerialPort::newDataArrived(char *bytesA, int lengthA)
 {
-    qDebug() << "QSerialPort::newDataArrived - Received data of length:" << lengthA;
-    
-    // Debug: Print the first few bytes as hex
-    QString hexData;
-    int bytesToShow = qMin(lengthA, 20); // Show up to 20 bytes
-    for (int i = 0; i < bytesToShow; i++) {
-        hexData += QString("%1 ").arg((unsigned char)bytesA[i], 2, 16, QChar('0'));
+    if (m_frameType != NoFraming)
+    {
+        framesArrived(bytesA, lengthA);
+        return;
     }
-    qDebug() << "QSerialPort::newDataArrived - Data (hex):" << hexData;
-    
+
+    // called for every read, so nothing is logged or formatted here; see setTraceLevel()
     int bytesToReadL = lengthA;
 
     if (readBufferMaxSize && (bytesToReadL > (readBufferMaxSize - readBuffer.size()))) {
@@ -94,14 +169,55 @@ void QSerialPort::newDataArrived(char *bytesA, int lengthA)
 
     readBuffer.open(QIODevice::ReadWrite);
     readBuffer.seek(readBuffer.size());
-    qint64 bytesWritten = readBuffer.write(bytesA, bytesToReadL);
+    readBuffer.write(bytesA, bytesToReadL);
     readBuffer.close();
-    
-    qDebug() << "QSerialPort::newDataArrived - Wrote" << bytesWritten << "bytes to buffer, emitting readyRead()";
-    
+
     emit readyRead();
 }
 
+void QSerialPort::framesArrived(const char *bytesA, int lengthA)
+{
+    if (!m_frameBatching)
+    {
+        emit frameReceived(QByteArray(bytesA, lengthA));
+        return;
+    }
+
+    // batch: every frame is preceded by its length as a 4 byte big-endian int
+    int offsetL = 0;
+    while (lengthA - offsetL >= 4)
+    {
+        const uchar *prefixL = reinterpret_cast<const uchar *>(bytesA + offsetL);
+        const int frameLengthL = int(quint32(prefixL[0]) << 24 | quint32(prefixL[1]) << 16
+                                     | quint32(prefixL[2]) << 8 | quint32(prefixL[3]));
+        offsetL += 4;
+        if (frameLengthL < 0 || frameLengthL > lengthA - offsetL)
+        {
+            qWarning() << "QSerialPort::framesArrived - malformed frame batch";
+            return;
+        }
+        emit frameReceived(QByteArray(bytesA + offsetL, frameLengthL));
+        offsetL += frameLengthL;
+    }
+}
+
+void QSerialPort::writeCompleteArrived(qint64 sequence, bool success)
+{
+    emit writeCompleted(sequence, success);
+    if (!success)
+        emit errorOccurred(WriteError);
+}
+
+void QSerialPort::reconnectArrived(qint64 downtimeMSec)
+{
+    emit reconnected(downtimeMSec);
+}
+
+void QSerialPort::controlLinesArrived(int lines)
+{
+    emit controlLinesChanged(lines);
+}
+
 void QSerialPort::exceptionArrived(QString strA)
 {
     Q_UNUSED(strA);
@@ -110,23 +226,271 @@ void QSerialPort::exceptionArrived(QString strA)
 
 void QSerialPort::stopReadThread()
 {
-    QJniObject java_portName = QJniObject::fromString(m_portName);
     QJniObject::callStaticMethod<void>(UsbSerial_jniClassName,
                                               "stopIoManager",
-                                              "(Ljava/lang/String;)V",
-                                              java_portName.object<jstring>());
+                                              "(I)V",
+                                              m_handle);
 }
 
 void QSerialPort::startReadThread()
 {
-    QJniObject java_portName = QJniObject::fromString(m_portName);
     QJniObject::callStaticMethod<void>(UsbSerial_jniClassName,
                                               "startIoManager",
-                                              "(Ljava/lang/String;J)V",
-                                              java_portName.object<jstring>(),
+                                              "(IJ)V",
+                                              m_handle,
                                        reinterpret_cast<jlong>(this));
 }
 
+bool QSerialPort::setDirectDelivery(bool enabled)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setDirectDelivery",
+                                                              "(IZ)Z",
+                                                              m_handle,
+                                                              static_cast<jboolean>(enabled));
+
+    return resultL;
+}
+
+bool QSerialPort::setReuseBuffers(bool enabled)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setReuseBuffers",
+                                                              "(IZ)Z",
+                                                              m_handle,
+                                                              static_cast<jboolean>(enabled));
+
+    return resultL;
+}
+
+bool QSerialPort::setLowLatency(bool enabled)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setLowLatency",
+                                                              "(IZ)Z",
+                                                              m_handle,
+                                                              static_cast<jboolean>(enabled));
+
+    return resultL;
+}
+
+bool QSerialPort::setAutoReconnect(bool enabled)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setAutoReconnect",
+                                                              "(IZ)Z",
+                                                              m_handle,
+                                                              static_cast<jboolean>(enabled));
+
+    return resultL;
+}
+
+bool QSerialPort::setIoScheduling(bool shared, int threadPriority)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setIoScheduling",
+                                                              "(IZI)Z",
+                                                              m_handle,
+                                                              static_cast<jboolean>(shared),
+                                                              threadPriority);
+
+    return resultL;
+}
+
+bool QSerialPort::startCapture(const QString &path, int segmentSize, int maxSegments)
+{
+    QJniObject java_path = QJniObject::fromString(path);
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "startCapture",
+                                                              "(ILjava/lang/String;II)Z",
+                                                              m_handle,
+                                                              java_path.object<jstring>(),
+                                                              segmentSize,
+                                                              maxSegments);
+
+    return resultL;
+}
+
+bool QSerialPort::stopCapture()
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "stopCapture",
+                                                              "(I)Z",
+                                                              m_handle);
+
+    return resultL;
+}
+
+void QSerialPort::setTraceLevel(int level)
+{
+    QJniObject::callStaticMethod<void>(UsbSerial_jniClassName,
+                                       "setTraceLevel",
+                                       "(I)V",
+                                       level);
+}
+
+QString QSerialPort::dumpTrace()
+{
+    QJniObject traceL = QJniObject::callStaticObjectMethod(UsbSerial_jniClassName,
+                                                           "dumpTrace",
+                                                           "()Ljava/lang/String;");
+
+    return traceL.toString();
+}
+
+QList<QSerialPort::DeviceDescriptor> QSerialPort::availableDevices()
+{
+    // layout documented in DeviceCatalog.java
+    enum { PackedVersion = 1, HeaderInts = 4, RecordInts = 12 };
+
+    QList<DeviceDescriptor> devicesL;
+    QJniEnvironment envL;
+    QJniObject packedL = QJniObject::callStaticObjectMethod(UsbSerial_jniClassName,
+                                                            "availableDevicesPacked",
+                                                            "()Ljava/nio/ByteBuffer;");
+    if (!packedL.isValid())
+        return devicesL;
+
+    const char *dataL = static_cast<const char *>(envL->GetDirectBufferAddress(packedL.object()));
+    const jlong sizeL = envL->GetDirectBufferCapacity(packedL.object());
+    if (dataL == nullptr || sizeL < jlong(HeaderInts * sizeof(qint32)))
+        return devicesL;
+
+    const qint32 *headerL = reinterpret_cast<const qint32 *>(dataL);
+    const qint32 countL = headerL[1];
+    const qint32 recordSizeL = headerL[2];
+    if (headerL[0] != PackedVersion || recordSizeL < qint32(RecordInts * sizeof(qint32))
+        || HeaderInts * sizeof(qint32) + qint64(countL) * recordSizeL > quint64(sizeL))
+    {
+        qWarning() << "QSerialPort::availableDevices - unexpected packed device layout";
+        return devicesL;
+    }
+
+    auto stringL = [dataL, sizeL](qint32 offset, qint32 length) {
+        if (length < 0 || offset < 0 || qint64(offset) + length > sizeL)
+            return QString();
+        return QString::fromUtf8(dataL + offset, length);
+    };
+
+    devicesL.reserve(countL);
+    for (qint32 i = 0; i < countL; i++)
+    {
+        const qint32 *recordL = reinterpret_cast<const qint32 *>(dataL + HeaderInts * sizeof(qint32) + qint64(i) * recordSizeL);
+        DeviceDescriptor deviceL;
+        deviceL.vendorId = quint16(recordL[0]);
+        deviceL.productId = quint16(recordL[1]);
+        deviceL.driverKind = DriverKind(recordL[2]);
+        deviceL.portCount = recordL[3];
+        deviceL.interfaceCount = recordL[4];
+        deviceL.hasPermission = (recordL[5] & 1) != 0;
+        deviceL.deviceName = stringL(recordL[6], recordL[7]);
+        deviceL.manufacturer = stringL(recordL[8], recordL[9]);
+        deviceL.productName = stringL(recordL[10], recordL[11]);
+        devicesL.append(deviceL);
+    }
+
+    return devicesL;
+}
+
+bool QSerialPort::readStats(qint64 *values)
+{
+    QJniEnvironment envL;
+    if (!m_statsArray)
+    {
+        jlongArray localL = envL->NewLongArray(StatCount);
+        if (!localL)
+            return false;
+        m_statsArray = static_cast<jlongArray>(envL->NewGlobalRef(localL));
+        envL->DeleteLocalRef(localL);
+    }
+
+    jint countL = QJniObject::callStaticMethod<jint>(UsbSerial_jniClassName,
+                                                    "getStats",
+                                                    "(I[J)I",
+                                                    m_handle,
+                                                    m_statsArray);
+    if (countL < StatCount)
+        return false;
+
+    static_assert(sizeof(jlong) == sizeof(qint64), "jlong and qint64 differ");
+    envL->GetLongArrayRegion(m_statsArray, 0, StatCount, reinterpret_cast<jlong *>(values));
+    return true;
+}
+
+bool QSerialPort::setReceiveBuffer(int capacity, ReceiveOverflowPolicy policy)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setReceiveBuffer",
+                                                              "(III)Z",
+                                                              m_handle,
+                                                              capacity,
+                                                              static_cast<jint>(policy));
+
+    return resultL;
+}
+
+bool QSerialPort::setFramer(FrameType type, int argument, int maxFrameSize, bool batching)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setFramer",
+                                                              "(IIIIZ)Z",
+                                                              m_handle,
+                                                              static_cast<jint>(type),
+                                                              argument,
+                                                              maxFrameSize,
+                                                              static_cast<jboolean>(batching));
+
+    if (resultL)
+    {
+        m_frameType = type;
+        m_frameBatching = batching;
+    }
+    return resultL;
+}
+
+bool QSerialPort::resetStats()
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "resetStats",
+                                                              "(I)Z",
+                                                              m_handle);
+
+    return resultL;
+}
+
+bool QSerialPort::setReadCoalescing(int maxBytes, int maxHoldMSec)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setReadCoalescing",
+                                                              "(III)Z",
+                                                              m_handle,
+                                                              maxBytes,
+                                                              maxHoldMSec);
+
+    return resultL;
+}
+
+bool QSerialPort::readCoalescingStats(qint64 *deliveries, qint64 *mergedReads)
+{
+    QJniEnvironment envL;
+    QJniObject statsL = QJniObject::callStaticObjectMethod(UsbSerial_jniClassName,
+                                                           "getReadCoalescingStats",
+                                                           "(I)[J",
+                                                           m_handle);
+
+    if (!statsL.isValid())
+        return false;
+
+    jlong valuesL[2];
+    envL->GetLongArrayRegion(statsL.object<jlongArray>(), 0, 2, valuesL);
+    if (deliveries)
+        *deliveries = valuesL[0];
+    if (mergedReads)
+        *mergedReads = valuesL[1];
+
+    return true;
+}
+
 qint64 QSerialPort::bytesAvailable()
 {
     return readBuffer.size();
@@ -175,17 +539,20 @@ bool QSerialPort::isOpen()
 
 void QSerialPort::close()
 {
-    if (m_portName == "")
+    if (m_handle == 0)
     {
         isConnected = false;
         return;
     }
 
-    QJniObject java_portName = QJniObject::fromString(m_portName);
     jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
                                                                          "close",
-                                                                         "(Ljava/lang/String;)Z",
-                                                                         java_portName.object<jstring>());
+                                                                         "(I)Z",
+                                                                         m_handle);
+    // the handle is released even if closing the device failed
+    m_handle = 0;
+    // the write buffer belongs to the closed port
+    releaseWriteBuffer();
 
     if (resultL)
     {
@@ -204,15 +571,15 @@ bool QSerialPort::open(QIODeviceBase::OpenMode mode)
 
     qDebug() << "QSerialPort::open - Attempting to open port:" << m_portName;
     QJniObject java_portName = QJniObject::fromString(m_portName);
-    jint resultL = QJniObject::callStaticMethod<jint>(UsbSerial_jniClassName,
+    m_handle = QJniObject::callStaticMethod<jint>(UsbSerial_jniClassName,
                                                                           "open",
                                                                           "(Ljava/lang/String;J)I",
                                                                           java_portName.object<jstring>(),
                                                                reinterpret_cast<jlong>(this));
 
-    qDebug() << "QSerialPort::open - JNI open result:" << resultL;
+    qDebug() << "QSerialPort::open - JNI open handle:" << m_handle;
     
-    if (resultL == 0)
+    if (m_handle == 0)
     {
         qDebug() << "QSerialPort::open - Failed to open port";
         return false;
@@ -224,6 +591,7 @@ bool QSerialPort::open(QIODeviceBase::OpenMode mode)
         if (!setParameters())
         {
             qDebug() << "QSerialPort::open - Failed to set parameters";
+            close();
             isConnected = false;
             return false;
         }
@@ -246,34 +614,170 @@ qint64 QSerialPort::write(const char *data, qint64 maxSize)
         return 0;
     }
 
+    // copied straight into the port's direct buffer, Java sends it from there in USB-sized transfers
     QJniEnvironment envL;
-    QJniObject java_portName = QJniObject::fromString(m_portName);
-    jbyteArray jarrayL = envL->NewByteArray(maxSize);
-    envL->SetByteArrayRegion(jarrayL, 0, maxSize, (jbyte *)data);
-    int resultL = QJniObject::callStaticMethod<jint>(UsbSerial_jniClassName,
-                                                            "write",
-                                                            "(Ljava/lang/String;[BI)I",
-                                                            java_portName.object<jstring>(),
-                                                            jarrayL,
-                                                            2000);
+    if (!ensureWriteBuffer(envL, qMin(maxSize, UsbSerial_writeBufferSize)))
+    {
+        emit errorOccurred(QSerialPort::ResourceError);
+        return 0;
+    }
+
+    for (qint64 writtenL = 0; writtenL < maxSize; )
+    {
+        const qint64 chunkL = qMin(maxSize - writtenL, m_writeBufferCapacity);
+        memcpy(m_writeBufferAddress, data + writtenL, chunkL);
+        int resultL = QJniObject::callStaticMethod<jint>(UsbSerial_jniClassName,
+                                                         "writeDirect",
+                                                         "(ILjava/nio/ByteBuffer;III)I",
+                                                         m_handle,
+                                                         m_writeBuffer,
+                                                         0,
+                                                         static_cast<jint>(chunkL),
+                                                         2000);
+
+        if (envL->ExceptionCheck())
+        {
+            envL->ExceptionClear();
+            emit errorOccurred(QSerialPort::UnknownError);
+            return 0;
+        }
+
+        if (resultL == 0)
+        {
+            emit errorOccurred(QSerialPort::WriteError);
+            return 0;
+        }
+        writtenL += chunkL;
+    }
+
+    return maxSize;
+}
+
+bool QSerialPort::ensureWriteBuffer(QJniEnvironment &envA, qint64 capacityA)
+{
+    if (m_writeBuffer && m_writeBufferCapacity >= capacityA)
+        return true;
+
+    QJniObject bufferL = QJniObject::callStaticObjectMethod(UsbSerial_jniClassName,
+                                                            "getWriteBuffer",
+                                                            "(II)Ljava/nio/ByteBuffer;",
+                                                            m_handle,
+                                                            static_cast<jint>(capacityA));
+    if (!bufferL.isValid())
+        return false;
+
+    releaseWriteBuffer();
+    m_writeBuffer = envA->NewGlobalRef(bufferL.object());
+    m_writeBufferAddress = static_cast<char *>(envA->GetDirectBufferAddress(m_writeBuffer));
+    m_writeBufferCapacity = envA->GetDirectBufferCapacity(m_writeBuffer);
+    return m_writeBufferAddress != nullptr && m_writeBufferCapacity > 0;
+}
+
+void QSerialPort::releaseWriteBuffer()
+{
+    if (!m_writeBuffer)
+        return;
+
+    QJniEnvironment envL;
+    envL->DeleteGlobalRef(m_writeBuffer);
+    m_writeBuffer = nullptr;
+    m_writeBufferAddress = nullptr;
+    m_writeBufferCapacity = 0;
+}
+
+bool QSerialPort::setWriteQueue(int queueCapacity, int offerTimeoutMSec)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setWriteQueue",
+                                                              "(III)Z",
+                                                              m_handle,
+                                                              queueCapacity,
+                                                              offerTimeoutMSec);
+
+    return resultL;
+}
+
+bool QSerialPort::setTransmitCoalescing(int windowMSec, int maxBytes)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setTransmitCoalescing",
+                                                              "(III)Z",
+                                                              m_handle,
+                                                              windowMSec,
+                                                              maxBytes);
+
+    return resultL;
+}
+
+bool QSerialPort::flush()
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "flush",
+                                                              "(I)Z",
+                                                              m_handle);
+
+    return resultL;
+}
+
+bool QSerialPort::setQueuedReads(int requestCount, int transferSize)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setQueuedReads",
+                                                              "(III)Z",
+                                                              m_handle,
+                                                              requestCount,
+                                                              transferSize);
+
+    return resultL;
+}
+
+qint64 QSerialPort::writeAsync(const char *data, qint64 maxSize)
+{
+    return writeAsync(QList<QByteArray>() << QByteArray::fromRawData(data, maxSize));
+}
+
+qint64 QSerialPort::writeAsync(const QList<QByteArray> &buffers)
+{
+    if (m_portName == "" || !isConnected)
+    {
+        emit errorOccurred(QSerialPort::NotOpenError);
+        return 0;
+    }
+
+    QJniEnvironment envL;
+    jclass byteArrayClassL = envL->FindClass("[B");
+    jobjectArray jbuffersL = envL->NewObjectArray(buffers.size(), byteArrayClassL, nullptr);
+    envL->DeleteLocalRef(byteArrayClassL);
+    for (int i = 0; i < buffers.size(); i++)
+    {
+        jbyteArray jarrayL = envL->NewByteArray(buffers[i].size());
+        envL->SetByteArrayRegion(jarrayL, 0, buffers[i].size(), reinterpret_cast<const jbyte *>(buffers[i].constData()));
+        envL->SetObjectArrayElement(jbuffersL, i, jarrayL);
+        envL->DeleteLocalRef(jarrayL);
+    }
+
+    jlong sequenceL = QJniObject::callStaticMethod<jlong>(UsbSerial_jniClassName,
+                                                          "writeAsync",
+                                                          "(I[[B)J",
+                                                          m_handle,
+                                                          jbuffersL);
+
+    envL->DeleteLocalRef(jbuffersL);
 
     if (envL->ExceptionCheck())
     {
         envL->ExceptionClear();
         emit errorOccurred(QSerialPort::UnknownError);
-        envL->DeleteLocalRef(jarrayL);
         return 0;
     }
 
-    envL->DeleteLocalRef(jarrayL);
-
-    if (resultL == 0)
+    if (sequenceL == 0)
     {
         emit errorOccurred(QSerialPort::WriteError);
         return 0;
     }
 
-    return maxSize;
+    return sequenceL;
 }
 
 void QSerialPort::setPortName(const QString &name)
@@ -290,21 +794,84 @@ bool QSerialPort::setParameters()
 {
     if (isConnected == true)
     {
-        QJniObject java_portName = QJniObject::fromString(m_portName);
-
+    
         jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
                                            "setParameters",
-                                           "(Ljava/lang/String;IIII)Z",
-                                            java_portName.object<jstring>(),
+                                           "(IIIII)Z",
+                                            m_handle,
                                                m_baudRate,
                                                m_dataBits,
                                                m_stopBits,
                                                m_parity);
 
+        if (resultL && m_flowControl != NoFlowControl)
+            resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                             "setFlowControl",
+                                                             "(II)Z",
+                                                             m_handle,
+                                                             static_cast<jint>(m_flowControl));
+
         return resultL;
     }
 
     return true;
 }
 
+bool QSerialPort::setFlowControl(FlowControl flowControl)
+{
+    m_flowControl = flowControl;
+
+    if (!isConnected)
+        return true;
+
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setFlowControl",
+                                                              "(II)Z",
+                                                              m_handle,
+                                                              static_cast<jint>(flowControl));
+
+    return resultL;
+}
+
+int QSerialPort::supportedFlowControls()
+{
+    return QJniObject::callStaticMethod<jint>(UsbSerial_jniClassName,
+                                              "getSupportedFlowControl",
+                                              "(I)I",
+                                              m_handle);
+}
+
+bool QSerialPort::setDataTerminalReady(bool set)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setDataTerminalReady",
+                                                              "(IZ)Z",
+                                                              m_handle,
+                                                              static_cast<jboolean>(set));
+
+    return resultL;
+}
+
+bool QSerialPort::setRequestToSend(bool set)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setRequestToSend",
+                                                              "(IZ)Z",
+                                                              m_handle,
+                                                              static_cast<jboolean>(set));
+
+    return resultL;
+}
+
+bool QSerialPort::setControlLineMonitor(int intervalMSec)
+{
+    jboolean resultL = QJniObject::callStaticMethod<jboolean>(UsbSerial_jniClassName,
+                                                              "setControlLineMonitor",
+                                                              "(II)Z",
+                                                              m_handle,
+                                                              intervalMSec);
+
+    return resultL;
+}
+
 
@@ -48,6 +48,25 @@ public:
         UnknownStopBits = -1
     };
 
+    // Values match UsbSerialPort.FlowControl on the Java side
+    enum FlowControl {
+        NoFlowControl = 0,
+        HardwareControl = 1, // RTS/CTS
+        DtrDsrControl = 2,
+        SoftwareControl = 3, // XON/XOFF handled by the adapter
+        SoftwareInlineControl = 4 // XON/XOFF handled by the Java driver
+    };
+
+    // Bits of controlLinesChanged(), UsbSerialPort.ControlLine on the Java side
+    enum ControlLine {
+        RtsLine = 0x01,
+        CtsLine = 0x02,
+        DtrLine = 0x04,
+        DsrLine = 0x08,
+        CdLine = 0x10,
+        RiLine = 0x20
+    };
+
     enum SerialPortError {
         NoError,
         DeviceNotFoundError,
@@ -61,15 +80,143 @@ public:
         TimeoutError,
         NotOpenError
     };
+
+    // Values of the driver kind field in JniUsbSerial.availableDevicesPacked()
+    enum DriverKind {
+        UnknownDriver = 0,
+        CdcAcmDriver = 1,
+        Ch34xDriver = 2,
+        Cp21xxDriver = 3,
+        FtdiDriver = 4,
+        ProlificDriver = 5
+    };
+
+    struct DeviceDescriptor {
+        QString deviceName;
+        QString manufacturer; // empty if the device reports none
+        QString productName;
+        quint16 vendorId;
+        quint16 productId;
+        DriverKind driverKind;
+        int portCount;
+        int interfaceCount;
+        bool hasPermission;
+    };
+
+    // Attached USB devices, read from the packed records kept by the Java device catalog
+    static QList<DeviceDescriptor> availableDevices();
+
+    // Indices into readStats(), mirroring PortStats.STAT_* on the Java side
+    enum Stat {
+        StatBytesIn = 0,
+        StatBytesOut = 1,
+        StatReadCalls = 2,
+        StatEmptyReads = 3,
+        StatCallbacks = 4,
+        StatWriteQueuePeak = 5,
+        StatWriteFailures = 6,
+        StatRunErrors = 7,
+        StatCallbackHistogram = 8, // 32 buckets, bucket i counts callbacks of 2^i..2^(i+1) ns
+        StatRxOverruns = StatCallbackHistogram + 32,
+        StatRxDroppedBytes,
+        StatRxBufferPeak,
+        StatFrames,
+        StatFrameErrors,
+        StatRttSamples, // round trip: write() or writeAsync() to the first data read after it
+        StatRttTotalNanos,
+        StatRttMaxNanos,
+        StatReconnects,
+        StatDowntimeNanos, // total time detached before the reconnects
+        StatCaptureDrops, // records not captured because the capture writer fell behind
+        StatTxCoalescedWrites, // write() calls that went through setTransmitCoalescing()
+        StatTxTransfersSaved, // of those, writes sent in the transfer of another one
+        StatCount
+    };
+
+    // Framing applied on the Java I/O thread, see setFramer()
+    enum FrameType {
+        NoFraming = 0,
+        DelimiterFraming = 1, // argument: delimiter byte, not part of the frame
+        FixedLengthFraming = 2, // argument: frame length
+        LengthPrefixFraming = 3, // argument: size of the big-endian length prefix, 1, 2 or 4
+        CobsFraming = 4,
+        SlipFraming = 5
+    };
+
+    // What the Java receive ring does when it is full, see setReceiveBuffer()
+    enum ReceiveOverflowPolicy {
+        DropOldest = 0,
+        DropNewest = 1,
+        BlockReader = 2
+    };
+
     QSerialPort();
+    ~QSerialPort();
     bool setBaudRate(qint32 baudRate);
+    // Kept and applied again on open() and reconnects; false if the adapter's driver lacks the mode
+    bool setFlowControl(FlowControl flowControl);
+    // Bit (1 << FlowControl) set for each mode the open port's driver supports
+    int supportedFlowControls();
+    // Raise or lower the DTR/RTS output lines of the open port, applied again on reconnects
+    bool setDataTerminalReady(bool set);
+    bool setRequestToSend(bool set);
+    // Sample the modem control lines every intervalMSec and emit controlLinesChanged() when they
+    // change, starting with the current state (0 stops)
+    bool setControlLineMonitor(int intervalMSec);
 
     void newDataArrived(char *bytesA, int lengthA);
     void exceptionArrived(QString strA);
+    void writeCompleteArrived(qint64 sequence, bool success);
+    void reconnectArrived(qint64 downtimeMSec);
+    void controlLinesArrived(int lines);
 
     void stopReadThread();
     void startReadThread();
 
+    // Deliver received data through one reused direct buffer instead of a new jbyteArray per read
+    bool setDirectDelivery(bool enabled);
+
+    // Run the Java read/write loop without per-read allocations
+    bool setReuseBuffers(bool enabled);
+
+    // Tune for request/response: FTDI latency timer 1 ms instead of 16 ms and, with queued reads, a
+    // read timeout adapted to the traffic; compare StatRtt* before and after
+    bool setLowLatency(bool enabled);
+
+    // Keep the port across unplugging: the same adapter is reopened with the same settings when it
+    // returns and reconnected() reports how long it was gone
+    bool setAutoReconnect(bool enabled);
+
+    // Service the port from a small pool of I/O threads shared with other ports instead of a thread of
+    // its own, for many slow ports; threadPriority is an android.os.Process priority (-19 = urgent audio)
+    // and applies to the own or the shared threads. Takes effect with the next startReadThread()
+    bool setIoScheduling(bool shared, int threadPriority = -19);
+
+    // Record all received and sent data into memory-mapped files "path-NNNNN.cap" of segmentSize bytes,
+    // keeping the newest maxSegments (0 = all); open "replay://path" to play a capture back
+    bool startCapture(const QString &path, int segmentSize = 16 * 1024 * 1024, int maxSegments = 8);
+    bool stopCapture();
+
+    // Binary hot-path trace kept on the Java side (0 = off, 1 = events)
+    static void setTraceLevel(int level);
+    static QString dumpTrace();
+
+    // Merge consecutive reads into one callback, bounded by size and hold time (maxBytes 0 disables)
+    bool setReadCoalescing(int maxBytes, int maxHoldMSec);
+    bool readCoalescingStats(qint64 *deliveries, qint64 *mergedReads);
+
+    // Bound the data buffered on the Java side to capacity bytes and deliver it from a separate
+    // thread; overflows follow policy and are counted in StatRxOverruns/StatRxDroppedBytes (0 = unbuffered)
+    bool setReceiveBuffer(int capacity, ReceiveOverflowPolicy policy);
+
+    // Split received data into frames before it crosses JNI; complete frames are emitted through
+    // frameReceived() instead of being appended to the read buffer (NoFraming restores byte streaming)
+    bool setFramer(FrameType type, int argument = 0, int maxFrameSize = 4096, bool batching = false);
+
+    // Copy the port's performance counters into values[StatCount]; cheap enough to poll periodically
+    bool readStats(qint64 *values);
+    bool resetStats();
+
     qint64 bytesAvailable();
     QByteArray read(qint64 maxlen);
     QByteArray readAll();
@@ -79,27 +226,59 @@ public:
     void close();
     bool open(QIODevice::OpenMode mode);
     qint64 write(const char *data, qint64 maxSize);
+    // Queue data for the Java writer thread and return its sequence id (0 on failure) without
+    // waiting for the USB transfer; writeCompleted() reports the outcome
+    qint64 writeAsync(const char *data, qint64 maxSize);
+    qint64 writeAsync(const QList<QByteArray> &buffers);
+    // Size the Java writer thread's queue (0 disables writeAsync), the writer starts with the first writeAsync
+    bool setWriteQueue(int queueCapacity, int offerTimeoutMSec);
+    // Merge write() calls within windowMSec into one USB transfer of up to maxBytes (0 = one packet);
+    // windowMSec 0 sends every write on its own. flush() sends what is merged so far right away.
+    // write() then succeeds once the data is merged; a failed later transfer raises a device error
+    // and fails the next write() or flush()
+    bool setTransmitCoalescing(int windowMSec, int maxBytes = 0);
+    bool flush();
+    // Keep requestCount USB read transfers queued instead of one synchronous read (0 = synchronous);
+    // takes effect on the next startReadThread()
+    bool setQueuedReads(int requestCount, int transferSize = 16384);
 
+    // Device path from availableDevices(); "devicePath#index" selects a further port of a multi-port
+    // adapter (DeviceDescriptor::portCount), all ports of a device share one USB connection
     void setPortName(const QString &name);
     QString portName() const;
 
 private:
     bool isConnected;
+    jint m_handle; // JniUsbSerial port handle, 0 while closed
+    jlongArray m_statsArray; // global ref reused by readStats()
+    jobject m_writeBuffer; // global ref to the port's direct ByteBuffer filled by write()
+    char *m_writeBufferAddress;
+    qint64 m_writeBufferCapacity;
+    FrameType m_frameType;
+    bool m_frameBatching;
     QString m_portName;
     qint32 m_baudRate;
     DataBits m_dataBits;
     Parity m_parity;
     StopBits m_stopBits;
+    FlowControl m_flowControl;
 
     qint64 readBufferMaxSize;
     QBuffer readBuffer;
     QBuffer writeBuffer;
 
     bool setParameters();
+    bool ensureWriteBuffer(QJniEnvironment &envA, qint64 capacityA);
+    void releaseWriteBuffer();
+    void framesArrived(const char *bytesA, int lengthA);
 
 signals:
     void readyRead();
     void errorOccurred(QSerialPort::SerialPortError error);
+    void writeCompleted(qint64 sequence, bool success);
+    void reconnected(qint64 downtimeMSec);
+    void controlLinesChanged(int lines); // ControlLine bits that are on
+    void frameReceived(const QByteArray &frame);
 };
 
 #endif // QSERIALPORT_H
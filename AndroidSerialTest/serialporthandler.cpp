@@ -150,60 +150,31 @@ void SerialPortHandler::refreshDeviceList()
     
     qDebug() << "[" << QDateTime::currentDateTime().toString("yyyy-MM-dd hh:mm:ss.zzz") << "] Refreshing device list";
     
-    // Get available devices using JniUsbSerial
-    QJniObject devicesArray = QJniObject::callStaticObjectMethod(
-        "org/qtproject/jniusbserial/JniUsbSerial",
-        "availableDevicesInfo",
-        "()[Ljava/lang/String;"
-    );
-    
-    if (devicesArray.isValid()) {
-        QJniEnvironment env;
-        jobjectArray array = devicesArray.object<jobjectArray>();
-        if (array) {
-            jsize size = env->GetArrayLength(array);
-            qDebug() << "Found" << size << "USB devices";
-            
-            for (jsize i = 0; i < size; i++) {
-                QJniObject deviceInfo = env->GetObjectArrayElement(array, i);
-                if (deviceInfo.isValid()) {
-                    QString deviceInfoStr = deviceInfo.toString();
-                    QStringList parts = deviceInfoStr.split(":");
-                    
-                    // Format: devicePath:driverType:manufacturer:productId:vendorId:deviceNodePath:hasPermission
-                    if (parts.size() >= 7) {
-                        QString devicePath = parts[0];
-                        QString deviceType = parts[1];
-                        QString manufacturer = parts[2];
-                        QString productId = parts[3];
-                        QString vendorId = parts[4];
-                        QString deviceNodePath = parts[5];
-                        bool hasPermission = (parts[6] == "true");
-                        
-                        // Create a user-friendly display name with device node path
-                        QString displayName;
-                        if (manufacturer != "Unknown" && !manufacturer.isEmpty()) {
-                            displayName = manufacturer + " (" + deviceType + ", " + deviceNodePath + ")";
-                        } else {
-                            displayName = deviceType + " " + vendorId + ":" + productId + " (" + deviceNodePath + ")";
-                        }
-                        
-                        qDebug() << "Device:" << displayName << "Path:" << devicePath << "Has Permission:" << hasPermission;
-                        
-                        m_availableDevices.append(displayName);
-                        m_deviceMap[displayName] = devicePath;
-                        m_deviceNodePaths[displayName] = deviceNodePath;
-                        m_devicePermissions[displayName] = hasPermission;
-                    } else {
-                        qWarning() << "Invalid device info format:" << deviceInfoStr;
-                    }
-                }
-            }
+    // Get available devices as packed records from JniUsbSerial, no string splitting needed
+    static const char *const driverNames[] = {"Unknown", "Cdc Acm", "Ch34x", "Cp21xx", "Ftdi", "Prolific"};
+    const QList<QSerialPort::DeviceDescriptor> devices = QSerialPort::availableDevices();
+    qDebug() << "Found" << devices.size() << "USB devices";
+
+    for (const QSerialPort::DeviceDescriptor &device : devices) {
+        QString deviceType = (device.driverKind >= 0 && device.driverKind < int(sizeof(driverNames) / sizeof(driverNames[0])))
+                ? QString(driverNames[device.driverKind]) : QString("Unknown");
+        QString vendorId = "0x" + QString::number(device.vendorId, 16).rightJustified(4, '0').toUpper();
+        QString productId = "0x" + QString::number(device.productId, 16).rightJustified(4, '0').toUpper();
+
+        // Create a user-friendly display name with device node path
+        QString displayName;
+        if (!device.manufacturer.isEmpty()) {
+            displayName = device.manufacturer + " (" + deviceType + ", " + device.deviceName + ")";
         } else {
-            qWarning() << "Failed to get device array object";
+            displayName = deviceType + " " + vendorId + ":" + productId + " (" + device.deviceName + ")";
         }
-    } else {
-        qWarning() << "Failed to get devices array from JniUsbSerial";
+
+        qDebug() << "Device:" << displayName << "Path:" << device.deviceName << "Has Permission:" << device.hasPermission;
+
+        m_availableDevices.append(displayName);
+        m_deviceMap[displayName] = device.deviceName;
+        m_deviceNodePaths[displayName] = device.deviceName;
+        m_devicePermissions[displayName] = device.hasPermission;
     }
     
     emit availableDevicesChanged();